@@ -0,0 +1,75 @@
+package controlecolaborativo.benchmarks;
+
+import controlecolaborativo.comum.Documento;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escrita e leitura do checkpoint no mesmo formato do coordenador (o {@link Documento}
+ * serializado com {@link ObjectOutputStream} num ficheiro). Não inclui o fsync, cujo
+ * custo depende do disco e não do código.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BenchmarkCheckpoint {
+
+    @Param({"1000", "100000", "1000000"})
+    public int linhas;
+
+    private Documento documento;
+    private File ficheiro;
+
+    @Setup
+    public void preparar() throws IOException {
+        documento = BenchmarkDocumento.criar(linhas);
+        ficheiro = File.createTempFile("checkpoint-bench", ".dat");
+        escrever();
+    }
+
+    @TearDown
+    public void limpar() {
+        ficheiro.delete();
+    }
+
+    @Benchmark
+    public long escrever() throws IOException {
+        Documento snapshot = documento.clonar();
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(ficheiro)))) {
+            oos.writeObject(snapshot);
+        }
+        return ficheiro.length();
+    }
+
+    @Benchmark
+    public Documento ler() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(ficheiro)))) {
+            return (Documento) ois.readObject();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package controlecolaborativo.benchmarks;
+
+import controlecolaborativo.comum.CodecBinario;
+import controlecolaborativo.comum.CodecMensagem;
+import controlecolaborativo.comum.CodecSerializacaoJava;
+import controlecolaborativo.comum.DeltaDocumento;
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.OperacaoEdicao;
+import controlecolaborativo.comum.PedidoAcesso;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codificação e decodificação de {@link Mensagem} nos dois codecs suportados, para as
+ * mensagens mais frequentes do protocolo: pedido de acesso, permissão e delta de edição.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchmarkCodec {
+
+    @Param({"binario", "java"})
+    public String codec;
+
+    @Param({"REQUISICAO_SC", "PERMISSAO_SC", "ATUALIZACAO_DELTA"})
+    public String tipo;
+
+    private CodecMensagem codecMensagem;
+    private Mensagem mensagem;
+    private byte[] codificada;
+
+    @Setup
+    public void preparar() throws IOException {
+        codecMensagem = "java".equals(codec) ? CodecSerializacaoJava.INSTANCIA : CodecBinario.INSTANCIA;
+        mensagem = criarMensagem(Mensagem.Tipo.valueOf(tipo));
+        codificada = codecMensagem.codificar(mensagem);
+    }
+
+    @Benchmark
+    public byte[] codificar() throws IOException {
+        return codecMensagem.codificar(mensagem);
+    }
+
+    @Benchmark
+    public Mensagem decodificar() throws IOException {
+        return codecMensagem.decodificar(codificada, 0, codificada.length);
+    }
+
+    private static Mensagem criarMensagem(Mensagem.Tipo tipo) {
+        switch (tipo) {
+            case REQUISICAO_SC:
+                return new Mensagem(tipo, 3, 42, IntervaloLinhas.ateOFim(10));
+            case PERMISSAO_SC:
+                return new Mensagem(tipo, 0, 43, new PedidoAcesso(3, 42, IntervaloLinhas.ateOFim(10)));
+            case ATUALIZACAO_DELTA:
+                DeltaDocumento delta = new DeltaDocumento(100, 101, Arrays.asList(
+                        OperacaoEdicao.adicionar("[P3] Nova linha adicionada ao documento compartilhado."),
+                        OperacaoEdicao.substituir(10, "[P3] Linha 10 reescrita durante a seção crítica."),
+                        OperacaoEdicao.remover(11)));
+                return new Mensagem(tipo, 0, 44, delta);
+            default:
+                throw new IllegalArgumentException("Tipo sem mensagem de exemplo: " + tipo);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package controlecolaborativo.benchmarks;
+
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.PedidoAcesso;
+import controlecolaborativo.coordenador.GerenciadorTravas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancelamento dos pedidos de nós desconectados com uma fila de espera longa: uma vaga de
+ * desconexões tratada num só lote (como faz a partição do coordenador) ou nó a nó, e um
+ * pedido repetido, que é descartado sem entrar na fila.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchmarkDesconexoes {
+
+    /** Pedidos em espera quando os nós se desconectam. */
+    @Param({"10000", "100000"})
+    public int emEspera;
+
+    /** Nós que se desconectam de uma vez. */
+    @Param({"1", "1000"})
+    public int desconectados;
+
+    private static final IntervaloLinhas DISPUTADA = IntervaloLinhas.linha(0);
+
+    private GerenciadorTravas travas;
+    private int proximo;
+    private int relogio;
+
+    @Setup(Level.Iteration)
+    public void preparar() {
+        travas = new GerenciadorTravas();
+        // O nó 0 detém a linha 0 durante toda a medição e os restantes aguardam pela mesma linha.
+        travas.solicitar(new PedidoAcesso(0, 0, DISPUTADA));
+        for (int i = 1; i <= emEspera; i++) {
+            travas.solicitar(new PedidoAcesso(i, i, DISPUTADA));
+        }
+        proximo = 1;
+        relogio = emEspera + 1;
+    }
+
+    /**
+     * Os nós seguintes da fila desconectam-se e são cancelados num só lote; reconectam-se
+     * logo a seguir e voltam a pedir no fim da fila, mantendo o tamanho constante.
+     */
+    @Benchmark
+    public void cancelarEmLote(Blackhole bh) {
+        List<Integer> nos = proximosNos();
+        bh.consume(travas.cancelar(nos));
+        voltarAPedir(nos);
+    }
+
+    /**
+     * A mesma vaga de desconexões, cancelada nó a nó: cada cancelamento volta a procurar
+     * pedidos que se tornaram compatíveis.
+     */
+    @Benchmark
+    public void cancelarUmAUm(Blackhole bh) {
+        List<Integer> nos = proximosNos();
+        for (int idNo : nos) {
+            bh.consume(travas.cancelar(idNo));
+        }
+        voltarAPedir(nos);
+    }
+
+    /**
+     * Um nó repete um pedido que já está na fila (ex.: reenviado depois de uma reconexão).
+     */
+    @Benchmark
+    public boolean pedidoRepetido() {
+        int idNo = proximo;
+        proximo = proximo % emEspera + 1;
+        return travas.solicitar(travas.getPedidosEmEspera(idNo).get(0));
+    }
+
+    private List<Integer> proximosNos() {
+        List<Integer> nos = new ArrayList<>(desconectados);
+        for (int i = 0; i < desconectados; i++) {
+            nos.add(proximo);
+            proximo = proximo % emEspera + 1;
+        }
+        return nos;
+    }
+
+    private void voltarAPedir(List<Integer> nos) {
+        for (int idNo : nos) {
+            travas.solicitar(new PedidoAcesso(idNo, relogio++, DISPUTADA));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package controlecolaborativo.benchmarks;
+
+import controlecolaborativo.comum.Documento;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Custo das operações do {@link Documento} que o coordenador executa ao tirar snapshots
+ * (clonar) e ao enviar ou mostrar o documento completo (obterConteudo), em função do tamanho.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BenchmarkDocumento {
+
+    @Param({"1000", "100000", "1000000"})
+    public int linhas;
+
+    private Documento documento;
+    private int proxima;
+
+    @Setup
+    public void preparar() {
+        documento = criar(linhas);
+    }
+
+    @Benchmark
+    public Documento clonar() {
+        return documento.clonar();
+    }
+
+    @Benchmark
+    public String obterConteudo() {
+        return documento.obterConteudo();
+    }
+
+    /**
+     * Snapshot seguido de uma edição no original, como acontece quando o coordenador
+     * continua a aplicar edições enquanto um checkpoint está em curso.
+     */
+    @Benchmark
+    public Documento clonarEEditar() {
+        Documento snapshot = documento.clonar();
+        documento.substituirLinha(proxima, "Linha editada " + proxima);
+        proxima = (proxima + 7919) % linhas;
+        return snapshot;
+    }
+
+    static Documento criar(int linhas) {
+        List<String> conteudo = new ArrayList<>(linhas);
+        for (int i = 0; i < linhas; i++) {
+            conteudo.add("[P" + (i % 5) + "] Linha de exemplo número " + i + " do documento compartilhado.");
+        }
+        return Documento.deLinhas(conteudo, linhas);
+    }
+}
@@ -0,0 +1,83 @@
+package controlecolaborativo.benchmarks;
+
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.PedidoAcesso;
+import controlecolaborativo.coordenador.GerenciadorTravas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operações da fila de pedidos de acesso, como executadas pelo coordenador dentro da
+ * sua seção crítica: pedido concedido de imediato, pedido enfileirado atrás de outros
+ * em espera, e liberação que concede o próximo da fila.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchmarkGerenciadorTravas {
+
+    /** Pedidos já em espera quando a operação medida acontece. */
+    @Param({"0", "100", "10000"})
+    public int emEspera;
+
+    private static final IntervaloLinhas DISPUTADA = IntervaloLinhas.linha(0);
+    private static final IntervaloLinhas LIVRE = IntervaloLinhas.linha(7);
+
+    private GerenciadorTravas travas;
+    private int detentor;
+    private int relogio;
+
+    @Setup(Level.Iteration)
+    public void preparar() {
+        travas = new GerenciadorTravas();
+        // O nó 0 detém a linha 0 e os restantes aguardam pela mesma linha, cada um com o seu pedido.
+        travas.solicitar(new PedidoAcesso(0, 0, DISPUTADA));
+        for (int i = 1; i <= emEspera; i++) {
+            travas.solicitar(new PedidoAcesso(i, i, DISPUTADA));
+        }
+        detentor = 0;
+        relogio = emEspera + 1;
+    }
+
+    /**
+     * Pedido de uma linha que ninguém disputa: é concedido de imediato, depois de verificar
+     * que não ultrapassa nenhum pedido anterior em espera, e a sua liberação só reavalia os
+     * pedidos que sobrepõem essa linha (nenhum).
+     */
+    @Benchmark
+    public void solicitarELiberarSemConflito(Blackhole bh) {
+        bh.consume(travas.solicitar(new PedidoAcesso(-1, relogio++, LIVRE)));
+        bh.consume(travas.liberar(-1));
+    }
+
+    /**
+     * Passagem da trava disputada: o detentor liberta, o primeiro da fila é concedido e o
+     * antigo detentor volta a pedir no fim da fila, mantendo o tamanho da fila constante.
+     */
+    @Benchmark
+    public void passarTrava(Blackhole bh) {
+        int anterior = detentor;
+        List<PedidoAcesso> concedidos = travas.liberar(anterior);
+        if (!concedidos.isEmpty()) {
+            detentor = concedidos.get(0).getIdNo();
+        }
+        bh.consume(travas.solicitar(new PedidoAcesso(anterior, relogio++, DISPUTADA)));
+    }
+}
@@ -0,0 +1,38 @@
+package controlecolaborativo.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Ponto de entrada do benchmarks.jar.
+ *
+ * Aceita os mesmos argumentos do JMH (regex dos benchmarks, -f, -wi, -i, -p ...), mas
+ * ativa sempre o profiler de GC (taxa de alocação por operação) e grava os resultados
+ * em JSON, por omissão em {@code jmh-resultados.json}, para comparação entre execuções.
+ */
+public class ExecutarBenchmarks {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions linhaComando = new CommandLineOptions(args);
+        OptionsBuilder opcoes = new OptionsBuilder();
+        opcoes.parent(linhaComando);
+        if (linhaComando.getIncludes().isEmpty()) {
+            opcoes.include("controlecolaborativo\\.benchmarks\\..*");
+        }
+        opcoes.addProfiler(GCProfiler.class);
+        if (!linhaComando.getResultFormat().hasValue()) {
+            opcoes.resultFormat(ResultFormatType.JSON);
+        }
+        if (!linhaComando.getResult().hasValue()) {
+            opcoes.result("jmh-resultados.json");
+        }
+        Options finais = opcoes.build();
+        new Runner(finais).run();
+    }
+}
@@ -0,0 +1,179 @@
+package controlecolaborativo;
+
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Execucao;
+import controlecolaborativo.comum.Logger;
+import controlecolaborativo.metricas.Histograma;
+import controlecolaborativo.no.No;
+import controlecolaborativo.rede.Transporte;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Mede o tempo até à eleição de um novo líder em função do número de nós: para cada tamanho,
+ * cria o cluster na mesma JVM, espera que todos os nós se conectem ao coordenador inicial,
+ * derruba-o e cronometra até todos os nós restantes seguirem o mesmo novo coordenador.
+ * Também conta as mensagens trocadas entre pares e os termos gastos pela eleição.
+ *
+ * Ativado com {@code -Dcc.modo=eleicao} no {@link Simulador}; as opções têm o prefixo
+ * {@code cc.eleicao.} e estão descritas no README.
+ */
+public class BenchmarkEleicao {
+
+    private final String tamanhos = Configuracao.texto("eleicao.tamanhos", "5,25,50,100");
+    private final int repeticoes = Math.max(1, Configuracao.inteiro("eleicao.repeticoes", 3));
+    private final long limiteMs = Configuracao.inteiro("eleicao.limite.ms", 30000); // Desiste de uma medição após este tempo.
+    private final String diretorio = Configuracao.texto("eleicao.diretorio", "eleicao");
+
+    // Cada cluster usa portas novas, para não colidir com conexões do anterior ainda a fechar.
+    private int proximaPorta = Configuracao.portaBasePares();
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        new BenchmarkEleicao().executar();
+        System.exit(0); // Encerra a JVM e todos os nós.
+    }
+
+    public void executar() throws InterruptedException, IOException {
+        prepararDiretorio();
+        Logger.definirSilencioso(!Configuracao.booleano("eleicao.log", false));
+        Logger.logSimulador(String.format("Benchmark de eleição: tamanhos [%s], %d repetições, tempo base %d ms.",
+                tamanhos, repeticoes, Configuracao.timeoutEleicaoMs()));
+
+        List<String> resultados = new ArrayList<>();
+        for (String texto : tamanhos.split(",")) {
+            int numeroNos = Math.max(3, Integer.parseInt(texto.trim()));
+            Histograma tempos = new Histograma();
+            long mensagens = 0;
+            long termos = 0;
+            int concluidas = 0;
+            for (int r = 0; r < repeticoes; r++) {
+                long[] medicao = medir(numeroNos);
+                if (medicao == null) continue;
+                tempos.registrar(medicao[0]);
+                mensagens += medicao[1];
+                termos += medicao[2];
+                concluidas++;
+            }
+            resultados.add(concluidas == 0
+                    ? String.format("%4d nós: sem novo líder em %d ms.", numeroNos, limiteMs)
+                    : String.format("%4d nós: novo líder em %s; %.0f mensagens entre pares e %.1f termos por eleição (%d/%d medições).",
+                            numeroNos, tempos.resumo(1000, "ms"), (double) mensagens / concluidas, (double) termos / concluidas, concluidas, repeticoes));
+        }
+
+        Logger.logSimulador("--- RESULTADO DO BENCHMARK DE ELEIÇÃO ---");
+        for (String resultado : resultados) {
+            Logger.logSimulador(resultado);
+        }
+    }
+
+    /**
+     * Uma medição: cria o cluster, derruba o coordenador inicial e espera pelo consenso.
+     * @return O tempo até ao novo líder (µs), as mensagens entre pares e os termos gastos,
+     *         ou {@code null} se não houve consenso dentro do limite.
+     */
+    private long[] medir(int numeroNos) throws InterruptedException {
+        Map<Integer, Integer> peers = new HashMap<>();
+        for (int i = 1; i <= numeroNos; i++) {
+            peers.put(i, proximaPorta + i);
+        }
+        proximaPorta += numeroNos;
+        // Na rede em memória ou simulada, cada cluster tem a sua própria rede.
+        Transporte transporte = Transporte.configurado();
+        Map<Integer, No> nos = new LinkedHashMap<>();
+        for (int i = 1; i <= numeroNos; i++) {
+            No no = new No(i, peers, transporte);
+            nos.put(i, no);
+            Execucao.iniciar("no-P" + i, () -> no.iniciar(false));
+        }
+        try {
+            if (!aguardar(() -> todosConectados(nos, numeroNos))) {
+                Logger.logSimulador(String.format("%d nós: o cluster não se conectou ao coordenador inicial.", numeroNos));
+                return null;
+            }
+            // Dá tempo ao coordenador para escolher e sincronizar as reservas.
+            Thread.sleep(500);
+            long mensagensAntes = mensagensPares(nos);
+            long inicio = System.nanoTime();
+            nos.get(numeroNos).falhar();
+            if (!aguardar(() -> consenso(nos) != -1)) {
+                return null;
+            }
+            long duracaoUs = (System.nanoTime() - inicio) / 1000;
+            int lider = consenso(nos);
+            return new long[]{duracaoUs, mensagensPares(nos) - mensagensAntes, nos.get(lider).getTermo() - 1};
+        } finally {
+            for (No no : nos.values()) {
+                no.falhar();
+            }
+            Thread.sleep(300); // Libera a porta do coordenador para o cluster seguinte.
+        }
+    }
+
+    private boolean aguardar(BooleanSupplier condicao) throws InterruptedException {
+        long fim = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limiteMs);
+        while (!condicao.getAsBoolean()) {
+            if (System.nanoTime() > fim) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private static boolean todosConectados(Map<Integer, No> nos, int coordenador) {
+        for (No no : nos.values()) {
+            if (no.getId() != coordenador && !no.isConectado()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return O líder seguido por todos os nós ativos, desde que ele se considere o coordenador;
+     *         -1 enquanto não houver consenso.
+     */
+    private static int consenso(Map<Integer, No> nos) {
+        int lider = -1;
+        for (No no : nos.values()) {
+            if (!no.isAtivo()) continue;
+            int conhecido = no.getCoordenadorConhecido();
+            if (lider == -1) {
+                lider = conhecido;
+            } else if (conhecido != lider) {
+                return -1;
+            }
+        }
+        No escolhido = nos.get(lider);
+        return escolhido != null && escolhido.isCoordenador() ? lider : -1;
+    }
+
+    private static long mensagensPares(Map<Integer, No> nos) {
+        long total = 0;
+        for (No no : nos.values()) {
+            total += no.getTrafegoPares().getQuadrosEnviados();
+        }
+        return total;
+    }
+
+    /**
+     * Os coordenadores eleitos gravam checkpoints e WAL num diretório próprio.
+     */
+    private void prepararDiretorio() throws IOException {
+        File dir = new File(diretorio);
+        File wal = new File(dir, "wal");
+        File checkpoints = new File(dir, "checkpoints");
+        for (File subdiretorio : new File[]{wal, checkpoints}) {
+            if (!subdiretorio.isDirectory() && !subdiretorio.mkdirs()) {
+                throw new IOException("Não foi possível criar o diretório " + subdiretorio);
+            }
+        }
+        System.setProperty("cc.checkpoint.arquivo", new File(dir, "checkpoint.dat").getPath());
+        System.setProperty("cc.checkpoint.diretorio", checkpoints.getPath());
+        System.setProperty("cc.wal.diretorio", wal.getPath());
+    }
+}
@@ -0,0 +1,465 @@
+package controlecolaborativo;
+
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.Execucao;
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.Logger;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.OperacaoEdicao;
+import controlecolaborativo.metricas.Histograma;
+import controlecolaborativo.metricas.RegistroMetricas;
+import controlecolaborativo.no.Concessao;
+import controlecolaborativo.no.No;
+import controlecolaborativo.rede.RedeSimulada;
+import controlecolaborativo.rede.Transporte;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gerador de carga em malha fechada: cria N nós na mesma JVM e faz cada um deles repetir
+ * o ciclo "pensar → pedir a trava → editar → liberar" através da API do {@link No}, para
+ * reproduzir em laboratório a disputa observada com muitos utilizadores.
+ *
+ * Opcionalmente limita a taxa global de pedidos, e derruba o coordenador em instantes
+ * agendados (ou, na rede simulada, isola-o numa partição). No fim, apresenta o histograma da latência de concessão, a vazão de edições,
+ * os bytes trocados e o tempo de indisponibilidade de cada troca de coordenador.
+ *
+ * Ativado com {@code -Dcc.modo=carga} no {@link Simulador}; as opções têm o prefixo
+ * {@code cc.carga.} e estão descritas no README.
+ */
+public class GeradorCarga {
+
+    private final int numeroNos = Configuracao.inteiro("carga.nos", 50);
+    private final double taxaAlvo = Configuracao.decimal("carga.taxa", 0);      // Edições/s no total; 0 = sem limite.
+    private final long pensarMs = Configuracao.inteiro("carga.pensar.ms", 1000); // Média do tempo entre edições de uma sessão.
+    private final String distribuicaoPensar = Configuracao.texto("carga.pensar.distribuicao", "exponencial");
+    private final long secaoMs = Configuracao.inteiro("carga.secao.ms", 0);      // Tempo com a trava detida.
+    private final int bytesEdicao = Math.max(8, Configuracao.inteiro("carga.edicao.bytes", 64));
+    private final int linhasDocumento = Math.max(1, Configuracao.inteiro("carga.documento.linhas", 1000));
+    private final int linhasAlvo = Math.max(1, Math.min(linhasDocumento, Configuracao.inteiro("carga.linhas.alvo", linhasDocumento)));
+    private final double fracaoAcrescimos = Configuracao.decimal("carga.acrescimos", 0.2);
+    private final double fracaoLeituras = Configuracao.decimal("carga.leituras", 0);            // Ciclos que só leem.
+    private final long atrasoLeituras = Configuracao.inteiro("carga.leituras.atraso", 0);      // Versões; < 0 = sempre pelo coordenador.
+    private final int numeroDocumentos = Math.max(1, Configuracao.inteiro("carga.documentos", 1));
+    private final int documentosPorNo = Math.max(1, Math.min(numeroDocumentos, Configuracao.inteiro("carga.documentos.por.no", 1)));
+    private final int aquecimentoSegundos = Configuracao.inteiro("carga.aquecimento", 5);
+    private final int duracaoSegundos = Math.max(1, Configuracao.inteiro("carga.duracao", 60));
+    private final String falhas = Configuracao.texto("carga.falhas", "");
+    private final String particoes = Configuracao.texto("carga.particoes", "");          // Só na rede simulada.
+    private final int duracaoParticao = Math.max(1, Configuracao.inteiro("carga.particao.duracao", 5));
+    private final String diretorio = Configuracao.texto("carga.diretorio", "carga");
+    private final boolean edicaoOtimista = Configuracao.edicaoOtimista();
+
+    private final Map<Integer, No> nos = new LinkedHashMap<>();
+    private final Transporte transporte = Transporte.configurado();
+    private final ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor();
+
+    // Métricas da execução (latências em microssegundos).
+    private final Histograma latenciaConcessao = new Histograma();
+    private final Histograma duracaoCiclo = new Histograma();
+    private final Histograma latenciaLeitura = new Histograma();
+    private final LongAdder leiturasConcluidas = new LongAdder();
+    private final LongAdder edicoesConfirmadas = new LongAdder();
+    private final LongAdder pedidosFalhados = new LongAdder();
+    private final LongAdder edicoesPerdidas = new LongAdder();
+    private final List<String> trocasCoordenador = Collections.synchronizedList(new ArrayList<String>());
+
+    // Limitador de taxa partilhado: instante (nanoTime) a partir do qual sai o próximo pedido.
+    private final long intervaloPedidosNs = taxaAlvo > 0 ? (long) (1e9 / taxaAlvo) : 0;
+    private final AtomicLong proximoPedidoNs = new AtomicLong();
+
+    // Falha do coordenador cuja recuperação ainda não foi observada (nula se nenhuma).
+    private final AtomicReference<FalhaEmCurso> falhaEmCurso = new AtomicReference<>();
+
+    private volatile boolean medindo = false;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        RegistroMetricas.iniciarExportadores();
+        new GeradorCarga().executar();
+        System.exit(0); // Encerra a JVM e todos os nós.
+    }
+
+    public void executar() throws InterruptedException, IOException {
+        prepararDiretorio();
+        Logger.definirSilencioso(!Configuracao.booleano("carga.log", false));
+
+        Map<Integer, Integer> peers = new HashMap<>();
+        for (int i = 1; i <= numeroNos; i++) {
+            peers.put(i, Configuracao.portaBasePares() + i);
+        }
+        for (int i = 1; i <= numeroNos; i++) {
+            No no = new No(i, peers, transporte);
+            nos.put(i, no);
+            Execucao.iniciar("no-P" + i, () -> no.iniciar(false));
+        }
+        Logger.logSimulador(String.format("Gerador de carga: %d nós (rede %s), taxa alvo %s, pensar %d ms (%s), seção %d ms, edições%s de %d bytes, "
+                        + "%d documento(s) de %d linhas (%d por nó, %d disputadas, %.0f%% acréscimos, %.0f%% leituras), duração %d s, falhas em [%s], partições em [%s].",
+                numeroNos, Configuracao.rede(), taxaAlvo > 0 ? taxaAlvo + " edições/s" : "ilimitada", pensarMs, distribuicaoPensar, secaoMs,
+                edicaoOtimista ? " otimistas" : "", bytesEdicao, numeroDocumentos, linhasDocumento, documentosPorNo, linhasAlvo, fracaoAcrescimos * 100, fracaoLeituras * 100, duracaoSegundos, falhas, particoes));
+        Logger.logSimulador("Aguardando " + aquecimentoSegundos + " s para as conexões se estabelecerem...");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(aquecimentoSegundos));
+
+        long[] trafegoInicial = trafegoTotal();
+        long inicio = System.nanoTime();
+        medindo = true;
+        for (No no : nos.values()) {
+            long semente = no.getId();
+            Execucao.iniciar("carga-P" + no.getId(), () -> executarSessao(no, new Random(semente)));
+        }
+        agendarFalhas();
+        agendador.scheduleAtFixedRate(() -> Logger.logSimulador(String.format("... %d edições confirmadas, %d pedidos falhados.",
+                edicoesConfirmadas.sum(), pedidosFalhados.sum())), 10, 10, TimeUnit.SECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duracaoSegundos));
+        medindo = false;
+        agendador.shutdownNow();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        long[] trafegoFinal = trafegoTotal();
+        relatar(segundos, trafegoFinal[0] - trafegoInicial[0], trafegoFinal[1] - trafegoInicial[1]);
+    }
+
+    /**
+     * O gerador usa checkpoints e WAL próprios, para não misturar os seus documentos sintéticos
+     * com os da simulação, e começa sempre de documentos com o tamanho configurado.
+     */
+    private void prepararDiretorio() throws IOException {
+        File dir = new File(diretorio);
+        File wal = new File(dir, "wal");
+        File checkpoints = new File(dir, "checkpoints");
+        File checkpoint = new File(dir, "checkpoint.dat");
+        for (File subdiretorio : new File[]{wal, checkpoints}) {
+            if (!subdiretorio.isDirectory() && !subdiretorio.mkdirs()) {
+                throw new IOException("Não foi possível criar o diretório " + subdiretorio);
+            }
+        }
+        apagar(wal, ".wal");
+        apagar(checkpoints, ".dat");
+        System.setProperty("cc.checkpoint.arquivo", checkpoint.getPath());
+        System.setProperty("cc.checkpoint.diretorio", checkpoints.getPath());
+        System.setProperty("cc.wal.diretorio", wal.getPath());
+
+        List<String> linhas = new ArrayList<>(linhasDocumento);
+        for (int i = 0; i < linhasDocumento; i++) {
+            linhas.add(texto("inicial#" + i));
+        }
+        Documento inicial = Documento.deLinhas(linhas, 1);
+        for (int i = 0; i < numeroDocumentos; i++) {
+            String documento = documento(i);
+            File arquivo = Mensagem.DOCUMENTO_PADRAO.equals(documento) ? checkpoint : new File(checkpoints, documento + ".dat");
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(arquivo))) {
+                oos.writeObject(inicial);
+            }
+        }
+    }
+
+    private static void apagar(File dir, String sufixo) {
+        File[] arquivos = dir.listFiles((d, nome) -> nome.endsWith(sufixo));
+        if (arquivos != null) {
+            for (File arquivo : arquivos) {
+                arquivo.delete();
+            }
+        }
+    }
+
+    /**
+     * Com um único documento, a carga usa o documento padrão; com vários, "doc-0", "doc-1", ...
+     */
+    private String documento(int indice) {
+        return numeroDocumentos == 1 ? Mensagem.DOCUMENTO_PADRAO : "doc-" + indice;
+    }
+
+    /**
+     * Sessão de um utilizador simulado, presa a um nó e aos seus documentos abertos
+     * ({@code cc.carga.documentos.por.no} consecutivos, a partir de um que depende do nó).
+     * O nó que for coordenador não edita; a sua sessão continua à espera, caso ele deixe de o ser.
+     */
+    private void executarSessao(No no, Random random) {
+        String[] abertos = new String[documentosPorNo];
+        for (int j = 0; j < abertos.length; j++) {
+            abertos[j] = documento((no.getId() * documentosPorNo + j) % numeroDocumentos);
+            no.abrirDocumento(abertos[j]);
+        }
+        long sequencia = 0;
+        try {
+            while (medindo && no.isAtivo()) {
+                Thread.sleep(tempoPensar(random));
+                if (no.isCoordenador()) continue;
+                aguardarVez();
+                String documento = abertos[random.nextInt(abertos.length)];
+                if (random.nextDouble() < fracaoLeituras) {
+                    ler(no, documento);
+                    continue;
+                }
+
+                IntervaloLinhas intervalo = random.nextDouble() < fracaoAcrescimos
+                        ? IntervaloLinhas.FIM_DOCUMENTO : IntervaloLinhas.linha(random.nextInt(linhasAlvo));
+                String linha = texto("P" + no.getId() + "#" + (sequencia++));
+                OperacaoEdicao operacao = intervalo == IntervaloLinhas.FIM_DOCUMENTO
+                        ? OperacaoEdicao.adicionar(linha)
+                        : OperacaoEdicao.substituir(intervalo.getInicio(), linha);
+                if (edicaoOtimista) {
+                    editarOtimista(no, documento, intervalo, operacao);
+                    continue;
+                }
+                long inicio = System.nanoTime();
+                Concessao concessao;
+                try {
+                    concessao = no.adquirir(documento, intervalo).get();
+                } catch (ExecutionException e) {
+                    pedidosFalhados.increment();
+                    continue;
+                }
+                long concedido = System.nanoTime();
+                latenciaConcessao.registrar((concedido - inicio) / 1000);
+                registrarRecuperacao(inicio, concedido);
+
+                concessao.aplicar(operacao);
+                if (secaoMs > 0) Thread.sleep(secaoMs);
+                try {
+                    no.liberar(concessao);
+                    edicoesConfirmadas.increment();
+                    duracaoCiclo.registrar((System.nanoTime() - inicio) / 1000);
+                } catch (IOException e) {
+                    edicoesPerdidas.increment();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ciclo de escrita no modo otimista ({@code cc.edicao.otimista=true}): uma única submissão,
+     * sem trava e sem seção crítica. Só o ciclo completo é medido.
+     */
+    private void editarOtimista(No no, String documento, IntervaloLinhas intervalo, OperacaoEdicao operacao) throws InterruptedException {
+        long inicio = System.nanoTime();
+        try {
+            no.editar(documento, intervalo, base -> Collections.singletonList(operacao)).get();
+        } catch (ExecutionException e) {
+            pedidosFalhados.increment();
+            return;
+        }
+        long confirmado = System.nanoTime();
+        registrarRecuperacao(inicio, confirmado);
+        edicoesConfirmadas.increment();
+        duracaoCiclo.registrar((confirmado - inicio) / 1000);
+    }
+
+    /**
+     * Ciclo só de leitura: servido pela réplica local se ela estiver no máximo
+     * {@code cc.carga.leituras.atraso} versões atrás, ou por uma trava de leitura no coordenador.
+     */
+    private void ler(No no, String documento) throws InterruptedException {
+        long inicio = System.nanoTime();
+        try {
+            no.ler(documento, atrasoLeituras).get();
+        } catch (ExecutionException e) {
+            pedidosFalhados.increment();
+            return;
+        }
+        latenciaLeitura.registrar((System.nanoTime() - inicio) / 1000);
+        leiturasConcluidas.increment();
+    }
+
+    private long tempoPensar(Random random) {
+        switch (distribuicaoPensar) {
+            case "fixa":
+                return pensarMs;
+            case "uniforme":
+                return (long) (random.nextDouble() * 2 * pensarMs);
+            default: // exponencial: chegadas de Poisson por sessão.
+                return (long) (-pensarMs * Math.log(1 - random.nextDouble()));
+        }
+    }
+
+    /**
+     * Limita a taxa global: cada pedido reserva o próximo intervalo livre e espera por ele.
+     * Uma sessão atrasada não acumula crédito, para não gerar rajadas depois de uma falha.
+     */
+    private void aguardarVez() throws InterruptedException {
+        if (intervaloPedidosNs == 0) return;
+        long agora = System.nanoTime();
+        long vez = Math.max(agora, proximoPedidoNs.getAndUpdate(p -> Math.max(p, agora) + intervaloPedidosNs));
+        if (vez > agora) {
+            TimeUnit.NANOSECONDS.sleep(vez - agora);
+        }
+    }
+
+    private String texto(String prefixo) {
+        StringBuilder sb = new StringBuilder(bytesEdicao).append(prefixo).append(' ');
+        while (sb.length() < bytesEdicao) {
+            sb.append('x');
+        }
+        sb.setLength(bytesEdicao);
+        return sb.toString();
+    }
+
+    private static final class FalhaEmCurso {
+        final int idCoordenador;
+        final long inicioNs; // Instante em que o coordenador foi derrubado.
+        final long fimNs;    // A partir daqui, nenhum pedido pode ser atendido pelo coordenador antigo.
+
+        FalhaEmCurso(int idCoordenador, long inicioNs, long fimNs) {
+            this.idCoordenador = idCoordenador;
+            this.inicioNs = inicioNs;
+            this.fimNs = fimNs;
+        }
+    }
+
+    private void agendarFalhas() {
+        agendar(falhas, "cc.carga.falhas", this::derrubarCoordenador);
+        if (particoes.trim().isEmpty()) return;
+        if (transporte instanceof RedeSimulada) {
+            agendar(particoes, "cc.carga.particoes", this::isolarCoordenador);
+        } else {
+            Logger.logSimulador(Logger.Nivel.AVISO, "AVISO: cc.carga.particoes exige cc.rede=simulada; partições ignoradas.");
+        }
+    }
+
+    private void agendar(String instantes, String opcao, Runnable acao) {
+        for (String instante : instantes.split(",")) {
+            if (instante.trim().isEmpty()) continue;
+            try {
+                long segundos = Long.parseLong(instante.trim());
+                agendador.schedule(acao, segundos, TimeUnit.SECONDS);
+            } catch (NumberFormatException e) {
+                Logger.logSimulador(Logger.Nivel.AVISO, "AVISO: instante de falha inválido em " + opcao + ": '" + instante + "'.");
+            }
+        }
+    }
+
+    private No coordenadorAtual() {
+        No coordenador = null;
+        for (No no : nos.values()) {
+            if (no.isCoordenador()) coordenador = no;
+        }
+        if (coordenador == null) {
+            Logger.logSimulador(Logger.Nivel.AVISO, "AVISO: nenhum coordenador ativo no momento da falha agendada; falha ignorada.");
+        }
+        return coordenador;
+    }
+
+    private void derrubarCoordenador() {
+        No coordenador = coordenadorAtual();
+        if (coordenador == null) return;
+        Logger.logSimulador(">>> DERRUBANDO O COORDENADOR P" + coordenador.getId() + " <<<");
+        long inicio = System.nanoTime();
+        coordenador.falhar();
+        registrarFalha(coordenador.getId(), inicio);
+    }
+
+    /**
+     * Isola o coordenador do resto da rede simulada durante {@code cc.carga.particao.duracao}
+     * segundos: ele continua a executar, mas os outros nós só o notam pelo silêncio e elegem outro.
+     */
+    private void isolarCoordenador() {
+        No coordenador = coordenadorAtual();
+        if (coordenador == null) return;
+        RedeSimulada rede = (RedeSimulada) transporte;
+        long inicio = System.nanoTime();
+        rede.isolar(Collections.singleton(coordenador.getId()));
+        registrarFalha(coordenador.getId(), inicio);
+        agendador.schedule(rede::reunir, duracaoParticao, TimeUnit.SECONDS);
+    }
+
+    private void registrarFalha(int idCoordenador, long inicio) {
+        FalhaEmCurso anterior = falhaEmCurso.getAndSet(new FalhaEmCurso(idCoordenador, inicio, System.nanoTime()));
+        if (anterior != null) {
+            trocasCoordenador.add("P" + anterior.idCoordenador + ": sem recuperação antes da falha seguinte");
+        }
+    }
+
+    /**
+     * A primeira concessão de um pedido feito depois de uma falha marca o fim da indisponibilidade.
+     */
+    private void registrarRecuperacao(long inicioPedido, long concedido) {
+        FalhaEmCurso falha = falhaEmCurso.get();
+        if (falha != null && inicioPedido >= falha.fimNs && falhaEmCurso.compareAndSet(falha, null)) {
+            long indisponivelMs = (concedido - falha.inicioNs) / 1_000_000;
+            trocasCoordenador.add(String.format("P%d: %d ms até à primeira concessão do novo coordenador", falha.idCoordenador, indisponivelMs));
+            Logger.logSimulador("Serviço restabelecido " + indisponivelMs + " ms após a falha de P" + falha.idCoordenador + ".");
+        }
+    }
+
+    /**
+     * @return Bytes trocados entre os nós e o coordenador (nos dois sentidos) e entre pares.
+     *         As conexões entre pares são contadas pelos envios, para não contar cada byte duas vezes.
+     */
+    private long[] trafegoTotal() {
+        long coordenador = 0;
+        long pares = 0;
+        for (No no : nos.values()) {
+            coordenador += no.getTrafegoCoordenador().getBytesEnviados() + no.getTrafegoCoordenador().getBytesRecebidos();
+            pares += no.getTrafegoPares().getBytesEnviados();
+        }
+        return new long[]{coordenador, pares};
+    }
+
+    private void relatar(double segundos, long bytesCoordenador, long bytesPares) {
+        long edicoes = edicoesConfirmadas.sum();
+        Logger.logSimulador("--- RESULTADO DO GERADOR DE CARGA ---");
+        Logger.logSimulador(String.format("Duração medida: %.1f s. Edições confirmadas: %d (%.1f edições/s).", segundos, edicoes, edicoes / segundos));
+        Logger.logSimulador(String.format("Pedidos falhados: %d. Edições perdidas (coordenador em falha ou concessão expirada): %d.", pedidosFalhados.sum(), edicoesPerdidas.sum()));
+        Logger.logSimulador("Latência de concessão: " + latenciaConcessao.resumo(1000, "ms"));
+        Logger.logSimulador("Ciclo pedido→liberação: " + duracaoCiclo.resumo(1000, "ms"));
+        // Vistos pelo coordenador (incluem o aquecimento); o resto está no RegistroMetricas.
+        RegistroMetricas metricas = RegistroMetricas.global();
+        if (edicaoOtimista) {
+            Logger.logSimulador(String.format("Edições otimistas: %d aceites, %d rejeições, %d refeitas com trava.",
+                    metricas.contador("coordenador.submissoes_aceites").sum(), metricas.contador("no.edicoes_otimistas_rejeitadas").sum(),
+                    metricas.contador("no.edicoes_otimistas_com_trava").sum()));
+            Logger.logSimulador("Edições otimistas por versão: " + metricas.histograma("coordenador.lote_edicoes").resumo(1, ""));
+        }
+        if (fracaoLeituras > 0) {
+            Logger.logSimulador(String.format("Leituras: %d (%.1f leituras/s; %d da réplica local, %d pelo coordenador).",
+                    leiturasConcluidas.sum(), leiturasConcluidas.sum() / segundos,
+                    metricas.contador("no.leituras_locais").sum(), metricas.contador("no.leituras_coordenador").sum()));
+            Logger.logSimulador("Latência de leitura: " + latenciaLeitura.resumo(1000, "ms"));
+        }
+        Logger.logSimulador("Espera na fila do coordenador: " + metricas.histograma("coordenador.espera_trava_us").resumo(1000, "ms"));
+        Logger.logSimulador("Difusão de deltas: " + metricas.histograma("coordenador.difusao_us").resumo(1000, "ms"));
+        Logger.logSimulador(String.format("Bytes na rede: %d com o coordenador, %d entre pares (%.1f KB/s, %.0f bytes por edição).",
+                bytesCoordenador, bytesPares, (bytesCoordenador + bytesPares) / 1024.0 / segundos,
+                edicoes == 0 ? 0.0 : (double) (bytesCoordenador + bytesPares) / edicoes));
+
+        FalhaEmCurso pendente = falhaEmCurso.get();
+        if (pendente != null) {
+            trocasCoordenador.add("P" + pendente.idCoordenador + ": sem recuperação até ao fim da execução");
+        }
+        for (String troca : trocasCoordenador) {
+            Logger.logSimulador("Troca de coordenador após falha de " + troca + ".");
+        }
+        long retomados = metricas.contador("no.pedidos_retomados").sum();
+        if (!trocasCoordenador.isEmpty()) {
+            Logger.logSimulador(String.format("Travas e pedidos mantidos nas trocas a quente: %d.", retomados));
+        }
+        long deteccaoMax = -1;
+        long novoLiderMax = -1;
+        for (No no : nos.values()) {
+            deteccaoMax = Math.max(deteccaoMax, no.getTempoDeteccaoMs());
+            novoLiderMax = Math.max(novoLiderMax, no.getTempoNovoLiderMs());
+        }
+        if (deteccaoMax >= 0) {
+            Logger.logSimulador(String.format("Última falha: deteção em até %d ms; novo líder conhecido em até %d ms após a deteção.", deteccaoMax, novoLiderMax));
+        }
+    }
+}
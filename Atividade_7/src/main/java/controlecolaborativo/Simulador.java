@@ -1,8 +1,12 @@
 package controlecolaborativo;
 
+import controlecolaborativo.comum.Configuracao;
 import controlecolaborativo.comum.Logger;
+import controlecolaborativo.metricas.RegistroMetricas;
 import controlecolaborativo.no.No;
+import controlecolaborativo.rede.Transporte;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -10,23 +14,35 @@ import java.util.Map;
 
 public class Simulador {
 
-    private static final int NUMERO_DE_NOS = 4;
-    private static final int PORTA_BASE_ELEICAO = 6000;
+    public static void main(String[] args) throws InterruptedException, IOException {
+        // Com -Dcc.modo=carga, executa o gerador de carga em vez da demonstração;
+        // com -Dcc.modo=eleicao, mede o tempo de eleição para vários tamanhos de cluster.
+        String modo = Configuracao.texto("modo", "demonstracao");
+        if ("carga".equalsIgnoreCase(modo)) {
+            GeradorCarga.main(args);
+            return;
+        }
+        if ("eleicao".equalsIgnoreCase(modo)) {
+            BenchmarkEleicao.main(args);
+            return;
+        }
+        RegistroMetricas.iniciarExportadores();
+
+        int numeroDeNos = Configuracao.numeroNos();
 
-    public static void main(String[] args) throws InterruptedException {
         // 1. Mapear os IDs e portas de eleição para todos os nós
         Map<Integer, Integer> peers = new HashMap<>();
-        for (int i = 1; i <= NUMERO_DE_NOS; i++) {
-            peers.put(i, PORTA_BASE_ELEICAO + i);
+        for (int i = 1; i <= numeroDeNos; i++) {
+            peers.put(i, Configuracao.portaBasePares() + i);
         }
 
-        // 2. Criar e iniciar todos os nós
-        List<Thread> nodeThreads = new ArrayList<>();
-        for (int i = 1; i <= NUMERO_DE_NOS; i++) {
-            No no = new No(i, peers);
-            Thread thread = new Thread(no::iniciar);
-            nodeThreads.add(thread);
-            thread.start();
+        // 2. Criar e iniciar todos os nós, ligados pela rede configurada (TCP, memória ou simulada)
+        Transporte transporte = Transporte.configurado();
+        List<No> nos = new ArrayList<>();
+        for (int i = 1; i <= numeroDeNos; i++) {
+            No no = new No(i, peers, transporte);
+            nos.add(no);
+            new Thread(no::iniciar).start();
         }
 
         Logger.logSimulador("Todos os nós foram iniciados.");
@@ -34,15 +50,14 @@ public class Simulador {
         Thread.sleep(45000); // Tempo para observar a operação normal
 
         // 3. Simular a falha do coordenador atual (o de maior ID)
-        int initialCoordinatorId = NUMERO_DE_NOS;
+        int initialCoordinatorId = numeroDeNos;
         Logger.logSimulador(String.format(">>> SIMULANDO A FALHA DO COORDENADOR P%d <<<", initialCoordinatorId));
 
-        // Encontra a thread do coordenador e a interrompe
-        Thread coordinatorThread = nodeThreads.get(initialCoordinatorId - 1);
-        coordinatorThread.interrupt(); // Interromper a thread simula a falha
+        // Derruba o nó coordenador: o serviço e todas as suas conexões são encerrados.
+        nos.get(initialCoordinatorId - 1).falhar();
 
         Logger.logSimulador("A eleição deve começar em breve...");
-        Logger.logSimulador("O novo coordenador será o nó com o maior ID restante (P3).");
+        Logger.logSimulador(String.format("O novo coordenador tende a ser a reserva sincronizada (P%d), que herda as travas.", numeroDeNos - 1));
 
         // --- SEÇÃO DE ENCERRAMENTO ---
         Logger.logSimulador("O sistema continuará operando sob a nova liderança por mais 60 segundos antes de encerrar.");
@@ -51,4 +66,4 @@ public class Simulador {
         Logger.logSimulador("--- SIMULAÇÃO FINALIZADA ---");
         System.exit(0); // Encerra a JVM e todos os processos (nós)
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package controlecolaborativo.comum;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executa tarefas com atraso ou periódicas no tempo de um {@link Relogio}.
+ */
+public interface Agendador {
+
+    /**
+     * Executa a tarefa uma vez, depois do atraso indicado.
+     * @throws RejectedExecutionException se o agendador já foi parado.
+     */
+    Tarefa agendar(Runnable tarefa, long atrasoMs);
+
+    /**
+     * Executa a tarefa a cada período, a primeira vez um período depois de agora. Uma execução
+     * que lança uma exceção cancela as seguintes.
+     * @throws RejectedExecutionException se o agendador já foi parado.
+     */
+    Tarefa agendarPeriodica(Runnable tarefa, long periodoMs);
+
+    /**
+     * Cancela as tarefas por executar e recusa as novas.
+     */
+    void parar();
+
+    /**
+     * Uma tarefa agendada.
+     */
+    interface Tarefa {
+
+        /**
+         * Impede as execuções seguintes; uma que já está a correr não é interrompida.
+         */
+        void cancelar();
+
+        /**
+         * @return {@code true} enquanto a tarefa ainda pode executar (não foi cancelada nem,
+         *         sendo de uma só execução, já executou).
+         */
+        boolean isPendente();
+    }
+}
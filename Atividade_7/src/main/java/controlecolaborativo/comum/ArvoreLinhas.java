@@ -0,0 +1,221 @@
+package controlecolaborativo.comum;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Sequência persistente (imutável) de linhas, usada como motor do {@link Documento}.
+ *
+ * É uma árvore AVL indexada por posição: cada nó guarda o tamanho da sua subárvore, o
+ * que permite ler, inserir, substituir e remover a linha {@code i} em O(log n). Cada
+ * modificação devolve uma nova árvore que partilha com a anterior todos os nós fora do
+ * caminho alterado, por isso guardar uma versão antiga (um snapshot) custa O(1).
+ */
+final class ArvoreLinhas implements Iterable<String> {
+
+    static final ArvoreLinhas VAZIA = new ArvoreLinhas(null);
+
+    private final No raiz;
+
+    private static final class No {
+        final No esq;
+        final String valor;
+        final No dir;
+        final int tamanho;
+        final int altura;
+
+        No(No esq, String valor, No dir) {
+            this.esq = esq;
+            this.valor = valor;
+            this.dir = dir;
+            this.tamanho = tamanho(esq) + 1 + tamanho(dir);
+            this.altura = Math.max(altura(esq), altura(dir)) + 1;
+        }
+    }
+
+    private ArvoreLinhas(No raiz) {
+        this.raiz = raiz;
+    }
+
+    /**
+     * Constrói uma árvore perfeitamente balanceada a partir de uma lista, em O(n).
+     */
+    static ArvoreLinhas de(List<String> linhas) {
+        return linhas.isEmpty() ? VAZIA : new ArvoreLinhas(construir(linhas, 0, linhas.size()));
+    }
+
+    int tamanho() {
+        return tamanho(raiz);
+    }
+
+    /**
+     * @return A altura da árvore (0 se vazia); no máximo cerca de 1,44·log2(n + 2) numa AVL.
+     */
+    int altura() {
+        return altura(raiz);
+    }
+
+    String obter(int indice) {
+        verificarIndice(indice, tamanho());
+        No no = raiz;
+        while (true) {
+            int tamanhoEsq = tamanho(no.esq);
+            if (indice < tamanhoEsq) {
+                no = no.esq;
+            } else if (indice > tamanhoEsq) {
+                indice -= tamanhoEsq + 1;
+                no = no.dir;
+            } else {
+                return no.valor;
+            }
+        }
+    }
+
+    ArvoreLinhas acrescentar(String linha) {
+        return inserir(tamanho(), linha);
+    }
+
+    ArvoreLinhas inserir(int indice, String linha) {
+        verificarIndice(indice, tamanho() + 1);
+        return new ArvoreLinhas(inserir(raiz, indice, linha));
+    }
+
+    ArvoreLinhas substituir(int indice, String linha) {
+        verificarIndice(indice, tamanho());
+        return new ArvoreLinhas(substituir(raiz, indice, linha));
+    }
+
+    ArvoreLinhas remover(int indice) {
+        verificarIndice(indice, tamanho());
+        return new ArvoreLinhas(remover(raiz, indice));
+    }
+
+    /**
+     * @return Uma visão {@link List} imutável desta versão da árvore, sem cópia.
+     */
+    List<String> comoLista() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int indice) {
+                return obter(indice);
+            }
+
+            @Override
+            public int size() {
+                return tamanho();
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return ArvoreLinhas.this.iterator();
+            }
+        };
+    }
+
+    /**
+     * Percorre as linhas em ordem, em O(n) no total e com memória O(log n).
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private final Deque<No> pilha = new ArrayDeque<>();
+
+            {
+                descer(raiz);
+            }
+
+            private void descer(No no) {
+                for (; no != null; no = no.esq) pilha.push(no);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !pilha.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (pilha.isEmpty()) throw new NoSuchElementException();
+                No no = pilha.pop();
+                descer(no.dir);
+                return no.valor;
+            }
+        };
+    }
+
+    // --- Operações sobre os nós ---
+
+    private static No construir(List<String> linhas, int inicio, int fim) {
+        if (inicio >= fim) return null;
+        int meio = (inicio + fim) >>> 1;
+        return new No(construir(linhas, inicio, meio), linhas.get(meio), construir(linhas, meio + 1, fim));
+    }
+
+    private static No inserir(No no, int indice, String linha) {
+        if (no == null) return new No(null, linha, null);
+        int tamanhoEsq = tamanho(no.esq);
+        if (indice <= tamanhoEsq) {
+            return balancear(inserir(no.esq, indice, linha), no.valor, no.dir);
+        }
+        return balancear(no.esq, no.valor, inserir(no.dir, indice - tamanhoEsq - 1, linha));
+    }
+
+    private static No substituir(No no, int indice, String linha) {
+        int tamanhoEsq = tamanho(no.esq);
+        if (indice < tamanhoEsq) return new No(substituir(no.esq, indice, linha), no.valor, no.dir);
+        if (indice > tamanhoEsq) return new No(no.esq, no.valor, substituir(no.dir, indice - tamanhoEsq - 1, linha));
+        return new No(no.esq, linha, no.dir);
+    }
+
+    private static No remover(No no, int indice) {
+        int tamanhoEsq = tamanho(no.esq);
+        if (indice < tamanhoEsq) return balancear(remover(no.esq, indice), no.valor, no.dir);
+        if (indice > tamanhoEsq) return balancear(no.esq, no.valor, remover(no.dir, indice - tamanhoEsq - 1));
+        if (no.esq == null) return no.dir;
+        if (no.dir == null) return no.esq;
+        // Dois filhos: o sucessor (primeira linha da subárvore direita) ocupa o lugar removido.
+        No sucessor = no.dir;
+        while (sucessor.esq != null) sucessor = sucessor.esq;
+        return balancear(no.esq, sucessor.valor, remover(no.dir, 0));
+    }
+
+    /**
+     * Cria um nó a partir de duas subárvores AVL cujas alturas diferem no máximo em 2,
+     * aplicando a rotação simples ou dupla necessária.
+     */
+    private static No balancear(No esq, String valor, No dir) {
+        int alturaEsq = altura(esq);
+        int alturaDir = altura(dir);
+        if (alturaEsq > alturaDir + 1) {
+            if (altura(esq.esq) >= altura(esq.dir)) {
+                return new No(esq.esq, esq.valor, new No(esq.dir, valor, dir));
+            }
+            return new No(new No(esq.esq, esq.valor, esq.dir.esq), esq.dir.valor, new No(esq.dir.dir, valor, dir));
+        }
+        if (alturaDir > alturaEsq + 1) {
+            if (altura(dir.dir) >= altura(dir.esq)) {
+                return new No(new No(esq, valor, dir.esq), dir.valor, dir.dir);
+            }
+            return new No(new No(esq, valor, dir.esq.esq), dir.esq.valor, new No(dir.esq.dir, dir.valor, dir.dir));
+        }
+        return new No(esq, valor, dir);
+    }
+
+    private static int tamanho(No no) {
+        return no == null ? 0 : no.tamanho;
+    }
+
+    private static int altura(No no) {
+        return no == null ? 0 : no.altura;
+    }
+
+    private static void verificarIndice(int indice, int limite) {
+        if (indice < 0 || indice >= limite) {
+            throw new IndexOutOfBoundsException("Índice fora dos limites: " + indice);
+        }
+    }
+}
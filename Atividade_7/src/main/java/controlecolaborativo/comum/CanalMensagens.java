@@ -0,0 +1,190 @@
+package controlecolaborativo.comum;
+
+import controlecolaborativo.metricas.ContadorTrafego;
+import controlecolaborativo.rede.Canal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conexão TCP que troca objetos {@link Mensagem} em quadros com prefixo de comprimento: o
+ * {@link Canal} do {@link controlecolaborativo.rede.TransporteTcp}.
+ *
+ * Ao abrir a conexão, os dois lados realizam um handshake para acordar o codec:
+ * <pre>
+ *   cliente  -> servidor: [MAGIA: int][VERSAO_PROTOCOLO: byte][codec preferido: byte]
+ *   servidor -> cliente : [MAGIA: int][codec escolhido: byte]
+ * </pre>
+ * O servidor aceita o codec preferido pelo cliente se o conhecer; caso contrário,
+ * recorre à serialização Java. Depois do handshake, cada mensagem é enviada como
+ * {@code [comprimento: int][corpo codificado]}.
+ */
+public class CanalMensagens implements Canal {
+
+    public static final int MAGIA = 0x43434137; // "CCA7"
+    public static final byte VERSAO_PROTOCOLO = 9; // Histórico das versões no README.
+    // Limite de segurança para não alocar buffers absurdos a partir de um quadro corrompido.
+    public static final int TAMANHO_MAXIMO_QUADRO = 64 * 1024 * 1024;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final CodecMensagem codec;
+    // Trava de escrita; ReentrantLock não prende a thread portadora quando usada por threads virtuais.
+    private final ReentrantLock travaEscrita = new ReentrantLock();
+    private final ContadorTrafego trafego; // Opcional: nulo quando o tráfego não é contabilizado.
+
+    private CanalMensagens(Socket socket, DataInputStream in, DataOutputStream out, CodecMensagem codec, ContadorTrafego trafego) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.codec = codec;
+        this.trafego = trafego;
+    }
+
+    /**
+     * Abre uma conexão com um servidor e negocia o codec configurado em {@link Configuracao#codec()}.
+     */
+    public static CanalMensagens conectar(String host, int porta) throws IOException {
+        return conectar(host, porta, null);
+    }
+
+    /**
+     * Como {@link #conectar(String, int)}, contabilizando os quadros trocados no contador informado.
+     */
+    public static CanalMensagens conectar(String host, int porta, ContadorTrafego trafego) throws IOException {
+        Socket socket = new Socket(host, porta);
+        try {
+            return handshakeCliente(socket, CodecMensagem.porNome(Configuracao.codec()), trafego);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Conclui o handshake do lado servidor para um socket recém-aceito.
+     */
+    public static CanalMensagens aceitar(Socket socket) throws IOException {
+        return aceitar(socket, null);
+    }
+
+    /**
+     * Como {@link #aceitar(Socket)}, contabilizando os quadros trocados no contador informado.
+     */
+    public static CanalMensagens aceitar(Socket socket, ContadorTrafego trafego) throws IOException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != MAGIA) {
+            throw new IOException("Handshake inválido: cliente não fala o protocolo esperado.");
+        }
+        byte versao = in.readByte();
+        if (versao != VERSAO_PROTOCOLO) {
+            throw new IOException("Versão de protocolo incompatível: " + versao);
+        }
+        CodecMensagem codec = CodecMensagem.porId(in.readByte());
+        if (codec == null) {
+            codec = CodecSerializacaoJava.INSTANCIA; // Codec desconhecido: recorre ao fallback.
+        }
+        out.writeInt(MAGIA);
+        out.writeByte(codec.getId());
+        out.flush();
+        return new CanalMensagens(socket, in, out, codec, trafego);
+    }
+
+    private static CanalMensagens handshakeCliente(Socket socket, CodecMensagem preferido, ContadorTrafego trafego) throws IOException {
+        // Quadros pequenos enviados em sequência (ex.: um delta e a resposta a uma edição) não
+        // esperam pelo ACK do anterior, como fariam com o algoritmo de Nagle.
+        socket.setTcpNoDelay(true);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(MAGIA);
+        out.writeByte(VERSAO_PROTOCOLO);
+        out.writeByte(preferido.getId());
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        if (in.readInt() != MAGIA) {
+            throw new IOException("Handshake inválido: resposta inesperada do servidor.");
+        }
+        CodecMensagem codec = CodecMensagem.porId(in.readByte());
+        if (codec == null) {
+            throw new IOException("Servidor escolheu um codec desconhecido.");
+        }
+        return new CanalMensagens(socket, in, out, codec, trafego);
+    }
+
+    /**
+     * Envia uma mensagem. Seguro para uso concorrente por várias threads.
+     */
+    @Override
+    public void enviar(Mensagem msg) throws IOException {
+        byte[] corpo = codec.codificar(msg);
+        travaEscrita.lock();
+        try {
+            out.writeInt(corpo.length);
+            out.write(corpo);
+            out.flush();
+        } finally {
+            travaEscrita.unlock();
+        }
+        if (trafego != null) trafego.registrarEnvio(msg.getTipo(), 4 + corpo.length);
+    }
+
+    /**
+     * Escreve uma mensagem difundida, reaproveitando o quadro já codificado por
+     * {@link MensagemCodificada} para o codec deste canal.
+     * @param descarregar Se {@code false}, o quadro pode ficar no buffer até à próxima escrita
+     *                    com descarga, o que permite enviar uma rajada de quadros com um único flush.
+     */
+    @Override
+    public void enviar(MensagemCodificada msg, boolean descarregar) throws IOException {
+        byte[] quadro = msg.quadro(codec);
+        travaEscrita.lock();
+        try {
+            out.write(quadro);
+            if (descarregar) {
+                out.flush();
+            }
+        } finally {
+            travaEscrita.unlock();
+        }
+        if (trafego != null) trafego.registrarEnvio(msg.getMensagem().getTipo(), quadro.length);
+    }
+
+    /**
+     * Bloqueia até que a próxima mensagem seja recebida.
+     */
+    @Override
+    public Mensagem receber() throws IOException {
+        int comprimento = in.readInt();
+        if (comprimento < 0 || comprimento > TAMANHO_MAXIMO_QUADRO) {
+            throw new IOException("Comprimento de quadro inválido: " + comprimento);
+        }
+        byte[] corpo = new byte[comprimento];
+        in.readFully(corpo);
+        Mensagem msg = codec.decodificar(corpo, 0, comprimento);
+        if (trafego != null) trafego.registrarRecepcao(msg.getTipo(), 4 + comprimento);
+        return msg;
+    }
+
+    @Override
+    public CodecMensagem getCodec() {
+        return codec;
+    }
+
+    @Override
+    public String getEnderecoRemoto() {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
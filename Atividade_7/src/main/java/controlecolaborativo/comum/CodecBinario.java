@@ -0,0 +1,475 @@
+package controlecolaborativo.comum;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Codec binário compacto para {@link Mensagem}.
+ *
+ * Formato do corpo de cada quadro:
+ * <pre>
+ *   [tipo: 1 byte][idRemetente: varint][relogio: varint][documento: texto][tag do conteúdo: 1 byte][conteúdo]
+ * </pre>
+ * O documento padrão é codificado como texto nulo (um único byte zero).
+ * Os conteúdos conhecidos (documento, operações de edição, deltas, intervalos, pedidos, submissões, liberações, eventos de travas, mandatos, números) têm
+ * codificação própria, sem descritores de classe nem reflexão. Qualquer outro
+ * conteúdo {@link Serializable} é embutido com a serialização Java, de modo que
+ * o codec continua aceitando todas as mensagens.
+ *
+ * O tipo é codificado pelo ordinal de {@link Mensagem.Tipo}; ambos os lados da
+ * conexão precisam usar a mesma versão do protocolo, o que é verificado no handshake.
+ */
+public class CodecBinario implements CodecMensagem {
+
+    public static final CodecBinario INSTANCIA = new CodecBinario();
+
+    // Tags que identificam o tipo do conteúdo da mensagem.
+    private static final byte CONTEUDO_NULO = 0;
+    private static final byte CONTEUDO_DOCUMENTO = 1;
+    private static final byte CONTEUDO_OPERACOES = 2;
+    private static final byte CONTEUDO_DELTA = 3;
+    private static final byte CONTEUDO_LONGO = 4;
+    private static final byte CONTEUDO_INTERVALO = 5;
+    private static final byte CONTEUDO_PEDIDO = 6;
+    private static final byte CONTEUDO_SUBMISSAO = 7;
+    private static final byte CONTEUDO_EVENTO_TRAVAS = 8;
+    private static final byte CONTEUDO_MANDATO = 9;
+    private static final byte CONTEUDO_LIBERACAO = 10;
+    private static final byte CONTEUDO_INTEIRO = 11;
+    private static final byte CONTEUDO_OBJETO_JAVA = 127;
+
+    private static final Mensagem.Tipo[] TIPOS = Mensagem.Tipo.values();
+    private static final OperacaoEdicao.Tipo[] TIPOS_OPERACAO = OperacaoEdicao.Tipo.values();
+    private static final EventoTravas.Tipo[] TIPOS_EVENTO = EventoTravas.Tipo.values();
+
+    private CodecBinario() {
+    }
+
+    @Override
+    public byte getId() {
+        return ID_BINARIO;
+    }
+
+    @Override
+    public String getNome() {
+        return "binario";
+    }
+
+    @Override
+    public byte[] codificar(Mensagem msg) throws IOException {
+        Escritor out = new Escritor(32);
+        out.escreverByte(msg.getTipo().ordinal());
+        out.escreverVarint(msg.getIdRemetente());
+        out.escreverVarint(msg.getRelogioLamport());
+        String documento = msg.getDocumento();
+        out.escreverTexto(Mensagem.DOCUMENTO_PADRAO.equals(documento) ? null : documento);
+        escreverConteudo(out, msg.getConteudo());
+        return out.paraBytes();
+    }
+
+    @Override
+    public Mensagem decodificar(byte[] dados, int inicio, int comprimento) throws IOException {
+        Leitor in = new Leitor(dados, inicio, comprimento);
+        int ordinal = in.lerByte();
+        if (ordinal < 0 || ordinal >= TIPOS.length) {
+            throw new IOException("Tipo de mensagem desconhecido: " + ordinal);
+        }
+        int idRemetente = in.lerVarint();
+        int relogio = in.lerVarint();
+        String documento = in.lerTexto();
+        Object conteudo = lerConteudo(in);
+        return new Mensagem(TIPOS[ordinal], idRemetente, relogio, conteudo, documento);
+    }
+
+    // --- Conteúdos tipados ---
+
+    private void escreverConteudo(Escritor out, Object conteudo) throws IOException {
+        if (conteudo == null) {
+            out.escreverByte(CONTEUDO_NULO);
+        } else if (conteudo instanceof Documento) {
+            out.escreverByte(CONTEUDO_DOCUMENTO);
+            Documento doc = (Documento) conteudo;
+            out.escreverVarlong(doc.getVersao());
+            List<String> linhas = doc.obterLinhas();
+            out.escreverVarint(linhas.size());
+            for (String linha : linhas) {
+                out.escreverTexto(linha);
+            }
+        } else if (conteudo instanceof DeltaDocumento) {
+            out.escreverByte(CONTEUDO_DELTA);
+            DeltaDocumento delta = (DeltaDocumento) conteudo;
+            out.escreverVarlong(delta.getVersaoBase());
+            out.escreverVarlong(delta.getVersaoNova());
+            escreverOperacoes(out, delta.getOperacoes());
+        } else if (conteudo instanceof List && listaDeOperacoes((List<?>) conteudo)) {
+            out.escreverByte(CONTEUDO_OPERACOES);
+            @SuppressWarnings("unchecked")
+            List<OperacaoEdicao> operacoes = (List<OperacaoEdicao>) conteudo;
+            escreverOperacoes(out, operacoes);
+        } else if (conteudo instanceof IntervaloLinhas) {
+            out.escreverByte(CONTEUDO_INTERVALO);
+            escreverIntervalo(out, (IntervaloLinhas) conteudo);
+        } else if (conteudo instanceof PedidoAcesso) {
+            out.escreverByte(CONTEUDO_PEDIDO);
+            escreverPedido(out, (PedidoAcesso) conteudo);
+        } else if (conteudo instanceof SubmissaoEdicao) {
+            out.escreverByte(CONTEUDO_SUBMISSAO);
+            SubmissaoEdicao submissao = (SubmissaoEdicao) conteudo;
+            out.escreverVarint(submissao.getIdPedido());
+            out.escreverVarlong(submissao.getVersao());
+            escreverIntervalo(out, submissao.getIntervalo());
+            escreverOperacoes(out, submissao.getOperacoes());
+        } else if (conteudo instanceof Liberacao) {
+            out.escreverByte(CONTEUDO_LIBERACAO);
+            Liberacao liberacao = (Liberacao) conteudo;
+            out.escreverVarlong(liberacao.getFicha());
+            escreverOperacoes(out, liberacao.getOperacoes());
+        } else if (conteudo instanceof EventoTravas) {
+            out.escreverByte(CONTEUDO_EVENTO_TRAVAS);
+            EventoTravas evento = (EventoTravas) conteudo;
+            out.escreverByte(evento.getTipo().ordinal());
+            out.escreverVarint(evento.getIdNo());
+            out.escreverVarlong(evento.getVersao());
+            out.escreverByte(evento.getPedido() != null ? 1 : 0);
+            if (evento.getPedido() != null) {
+                escreverPedido(out, evento.getPedido());
+            }
+            escreverPedidos(out, evento.getDetentores());
+            escreverPedidos(out, evento.getFila());
+        } else if (conteudo instanceof Mandato) {
+            out.escreverByte(CONTEUDO_MANDATO);
+            Mandato mandato = (Mandato) conteudo;
+            out.escreverVarlong(mandato.getTermo());
+            out.escreverVarint(mandato.getOrigemEstado());
+        } else if (conteudo instanceof Long) {
+            out.escreverByte(CONTEUDO_LONGO);
+            out.escreverVarlong((Long) conteudo);
+        } else if (conteudo instanceof Integer) {
+            // Com tag própria, para chegar como Integer, tal como na serialização Java.
+            out.escreverByte(CONTEUDO_INTEIRO);
+            out.escreverVarint(zigzag((Integer) conteudo));
+        } else if (conteudo instanceof Serializable) {
+            out.escreverByte(CONTEUDO_OBJETO_JAVA);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(conteudo);
+            }
+            out.escreverBytes(bytes.toByteArray());
+        } else {
+            throw new IOException("Conteúdo não serializável: " + conteudo.getClass().getName());
+        }
+    }
+
+    private Object lerConteudo(Leitor in) throws IOException {
+        byte tag = (byte) in.lerByte();
+        switch (tag) {
+            case CONTEUDO_NULO:
+                return null;
+            case CONTEUDO_DOCUMENTO: {
+                long versao = in.lerVarlong();
+                int n = in.lerContagem();
+                List<String> linhas = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    linhas.add(in.lerTexto());
+                }
+                return Documento.deLinhas(linhas, versao);
+            }
+            case CONTEUDO_DELTA: {
+                long versaoBase = in.lerVarlong();
+                long versaoNova = in.lerVarlong();
+                return new DeltaDocumento(versaoBase, versaoNova, lerOperacoes(in));
+            }
+            case CONTEUDO_OPERACOES:
+                return lerOperacoes(in);
+            case CONTEUDO_LONGO:
+                return in.lerVarlong();
+            case CONTEUDO_INTEIRO:
+                return deszigzag(in.lerVarint());
+            case CONTEUDO_INTERVALO:
+                return lerIntervalo(in);
+            case CONTEUDO_PEDIDO:
+                return lerPedido(in);
+            case CONTEUDO_SUBMISSAO: {
+                int idPedido = in.lerVarint();
+                long versao = in.lerVarlong();
+                IntervaloLinhas intervalo = lerIntervalo(in);
+                return new SubmissaoEdicao(idPedido, versao, intervalo, lerOperacoes(in));
+            }
+            case CONTEUDO_LIBERACAO: {
+                long ficha = in.lerVarlong();
+                return new Liberacao(ficha, lerOperacoes(in));
+            }
+            case CONTEUDO_EVENTO_TRAVAS: {
+                int ordinal = in.lerByte();
+                if (ordinal < 0 || ordinal >= TIPOS_EVENTO.length) {
+                    throw new IOException("Tipo de evento de travas desconhecido: " + ordinal);
+                }
+                int idNo = in.lerVarint();
+                long versao = in.lerVarlong();
+                PedidoAcesso pedido = in.lerByte() != 0 ? lerPedido(in) : null;
+                List<PedidoAcesso> detentores = lerPedidos(in);
+                return new EventoTravas(TIPOS_EVENTO[ordinal], idNo, versao, pedido, detentores, lerPedidos(in));
+            }
+            case CONTEUDO_MANDATO: {
+                long termo = in.lerVarlong();
+                return new Mandato(termo, in.lerVarint());
+            }
+            case CONTEUDO_OBJETO_JAVA: {
+                byte[] bytes = in.lerBytes();
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Classe do conteúdo desconhecida: " + e.getMessage(), e);
+                }
+            }
+            default:
+                throw new IOException("Tag de conteúdo desconhecida: " + tag);
+        }
+    }
+
+    private static void escreverPedido(Escritor out, PedidoAcesso pedido) {
+        out.escreverVarint(pedido.getIdNo());
+        out.escreverVarint(pedido.getRelogioLamport());
+        escreverIntervalo(out, pedido.getIntervalo());
+        out.escreverByte(pedido.isCompartilhado() ? 1 : 0);
+        out.escreverVarlong(pedido.getFicha());
+    }
+
+    private static PedidoAcesso lerPedido(Leitor in) throws IOException {
+        int idNo = in.lerVarint();
+        int relogio = in.lerVarint();
+        IntervaloLinhas intervalo = lerIntervalo(in);
+        boolean compartilhado = in.lerByte() != 0;
+        return new PedidoAcesso(idNo, relogio, intervalo, compartilhado, in.lerVarlong());
+    }
+
+    private static void escreverPedidos(Escritor out, List<PedidoAcesso> pedidos) {
+        out.escreverVarint(pedidos.size());
+        for (PedidoAcesso pedido : pedidos) {
+            escreverPedido(out, pedido);
+        }
+    }
+
+    private static List<PedidoAcesso> lerPedidos(Leitor in) throws IOException {
+        int n = in.lerContagem();
+        List<PedidoAcesso> pedidos = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            pedidos.add(lerPedido(in));
+        }
+        return pedidos;
+    }
+
+    private static void escreverIntervalo(Escritor out, IntervaloLinhas intervalo) {
+        out.escreverVarint(intervalo.getInicio());
+        out.escreverVarint(intervalo.getFim());
+    }
+
+    private static IntervaloLinhas lerIntervalo(Leitor in) throws IOException {
+        int inicio = in.lerVarint();
+        int fim = in.lerVarint();
+        try {
+            return new IntervaloLinhas(inicio, fim);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static boolean listaDeOperacoes(List<?> lista) {
+        for (Object item : lista) {
+            if (!(item instanceof OperacaoEdicao)) return false;
+        }
+        return true;
+    }
+
+    private void escreverOperacoes(Escritor out, List<OperacaoEdicao> operacoes) {
+        out.escreverVarint(operacoes.size());
+        for (OperacaoEdicao op : operacoes) {
+            out.escreverByte(op.getTipo().ordinal());
+            out.escreverVarint(zigzag(op.getIndice()));
+            out.escreverTexto(op.getLinha());
+        }
+    }
+
+    private List<OperacaoEdicao> lerOperacoes(Leitor in) throws IOException {
+        int n = in.lerContagem();
+        List<OperacaoEdicao> operacoes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int ordinal = in.lerByte();
+            if (ordinal < 0 || ordinal >= TIPOS_OPERACAO.length) {
+                throw new IOException("Tipo de operação desconhecido: " + ordinal);
+            }
+            int indice = deszigzag(in.lerVarint());
+            String linha = in.lerTexto();
+            switch (TIPOS_OPERACAO[ordinal]) {
+                case ADICIONAR:
+                    operacoes.add(OperacaoEdicao.adicionar(linha));
+                    break;
+                case REMOVER:
+                    operacoes.add(OperacaoEdicao.remover(indice));
+                    break;
+                case SUBSTITUIR:
+                    operacoes.add(OperacaoEdicao.substituir(indice, linha));
+                    break;
+            }
+        }
+        return operacoes;
+    }
+
+    private static int zigzag(int valor) {
+        return (valor << 1) ^ (valor >> 31);
+    }
+
+    private static int deszigzag(int valor) {
+        return (valor >>> 1) ^ -(valor & 1);
+    }
+
+    /**
+     * Buffer de escrita que cresce sob demanda, com suporte a varints.
+     */
+    static final class Escritor {
+        private byte[] buffer;
+        private int posicao;
+
+        Escritor(int capacidadeInicial) {
+            this.buffer = new byte[capacidadeInicial];
+        }
+
+        private void garantir(int extra) {
+            if (posicao + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, posicao + extra));
+            }
+        }
+
+        void escreverByte(int valor) {
+            garantir(1);
+            buffer[posicao++] = (byte) valor;
+        }
+
+        void escreverVarint(int valor) {
+            garantir(5);
+            while ((valor & ~0x7F) != 0) {
+                buffer[posicao++] = (byte) ((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            buffer[posicao++] = (byte) valor;
+        }
+
+        void escreverVarlong(long valor) {
+            garantir(10);
+            while ((valor & ~0x7FL) != 0) {
+                buffer[posicao++] = (byte) ((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            buffer[posicao++] = (byte) valor;
+        }
+
+        void escreverBytes(byte[] bytes) {
+            escreverVarint(bytes.length);
+            garantir(bytes.length);
+            System.arraycopy(bytes, 0, buffer, posicao, bytes.length);
+            posicao += bytes.length;
+        }
+
+        /**
+         * Escreve um texto em UTF-8 precedido de (comprimento + 1); zero representa {@code null}.
+         */
+        void escreverTexto(String texto) {
+            if (texto == null) {
+                escreverVarint(0);
+                return;
+            }
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            escreverVarint(bytes.length + 1);
+            garantir(bytes.length);
+            System.arraycopy(bytes, 0, buffer, posicao, bytes.length);
+            posicao += bytes.length;
+        }
+
+        byte[] paraBytes() {
+            return Arrays.copyOf(buffer, posicao);
+        }
+    }
+
+    /**
+     * Leitor sequencial sobre um trecho de um array de bytes.
+     */
+    static final class Leitor {
+        private final byte[] dados;
+        private int posicao;
+        private final int fim;
+
+        Leitor(byte[] dados, int inicio, int comprimento) {
+            this.dados = dados;
+            this.posicao = inicio;
+            this.fim = inicio + comprimento;
+        }
+
+        private void exigir(int n) throws IOException {
+            if (n < 0 || posicao + n > fim) {
+                throw new IOException("Quadro truncado.");
+            }
+        }
+
+        int lerByte() throws IOException {
+            exigir(1);
+            return dados[posicao++];
+        }
+
+        int lerVarint() throws IOException {
+            int resultado = 0;
+            for (int deslocamento = 0; deslocamento < 32; deslocamento += 7) {
+                int b = lerByte();
+                resultado |= (b & 0x7F) << deslocamento;
+                if ((b & 0x80) == 0) return resultado;
+            }
+            throw new IOException("Varint malformado.");
+        }
+
+        long lerVarlong() throws IOException {
+            long resultado = 0;
+            for (int deslocamento = 0; deslocamento < 64; deslocamento += 7) {
+                int b = lerByte();
+                resultado |= (long) (b & 0x7F) << deslocamento;
+                if ((b & 0x80) == 0) return resultado;
+            }
+            throw new IOException("Varlong malformado.");
+        }
+
+        /**
+         * Lê o número de elementos de uma lista. Cada elemento ocupa pelo menos um byte, por isso
+         * um quadro corrompido não consegue pedir uma lista maior do que o que resta dele.
+         */
+        int lerContagem() throws IOException {
+            int n = lerVarint();
+            if (n < 0 || n > fim - posicao) {
+                throw new IOException("Número de elementos inválido: " + n + ".");
+            }
+            return n;
+        }
+
+        byte[] lerBytes() throws IOException {
+            int n = lerVarint();
+            exigir(n);
+            byte[] bytes = Arrays.copyOfRange(dados, posicao, posicao + n);
+            posicao += n;
+            return bytes;
+        }
+
+        String lerTexto() throws IOException {
+            int n = lerVarint() - 1;
+            if (n < 0) return null;
+            exigir(n);
+            String texto = new String(dados, posicao, n, StandardCharsets.UTF_8);
+            posicao += n;
+            return texto;
+        }
+    }
+}
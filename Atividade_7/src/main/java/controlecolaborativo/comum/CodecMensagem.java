@@ -0,0 +1,49 @@
+package controlecolaborativo.comum;
+
+import java.io.IOException;
+
+/**
+ * Define como uma {@link Mensagem} é convertida em bytes para trafegar pela rede.
+ *
+ * O enquadramento (prefixo de comprimento) é responsabilidade do {@link CanalMensagens};
+ * o codec apenas codifica e decodifica o corpo de cada quadro. Os dois lados de uma
+ * conexão escolhem o codec durante o handshake inicial.
+ */
+public interface CodecMensagem {
+
+    byte ID_JAVA = 0;
+    byte ID_BINARIO = 1;
+
+    /**
+     * @return O identificador do codec enviado no handshake.
+     */
+    byte getId();
+
+    String getNome();
+
+    byte[] codificar(Mensagem msg) throws IOException;
+
+    Mensagem decodificar(byte[] dados, int inicio, int comprimento) throws IOException;
+
+    /**
+     * Obtém o codec correspondente a um identificador de handshake.
+     * @return O codec, ou {@code null} se o identificador for desconhecido.
+     */
+    static CodecMensagem porId(byte id) {
+        switch (id) {
+            case ID_BINARIO:
+                return CodecBinario.INSTANCIA;
+            case ID_JAVA:
+                return CodecSerializacaoJava.INSTANCIA;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Obtém o codec pelo nome usado na configuração ("binario" ou "java").
+     */
+    static CodecMensagem porNome(String nome) {
+        return "java".equalsIgnoreCase(nome) ? CodecSerializacaoJava.INSTANCIA : CodecBinario.INSTANCIA;
+    }
+}
@@ -0,0 +1,48 @@
+package controlecolaborativo.comum;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Codec de compatibilidade baseado na serialização padrão do Java.
+ * Mantido como alternativa ao {@link CodecBinario} para conteúdos arbitrários
+ * e para depuração.
+ */
+public class CodecSerializacaoJava implements CodecMensagem {
+
+    public static final CodecSerializacaoJava INSTANCIA = new CodecSerializacaoJava();
+
+    private CodecSerializacaoJava() {
+    }
+
+    @Override
+    public byte getId() {
+        return ID_JAVA;
+    }
+
+    @Override
+    public String getNome() {
+        return "java";
+    }
+
+    @Override
+    public byte[] codificar(Mensagem msg) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(msg);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Mensagem decodificar(byte[] dados, int inicio, int comprimento) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(dados, inicio, comprimento))) {
+            return (Mensagem) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Quadro com conteúdo inválido: " + e.getMessage(), e);
+        }
+    }
+}
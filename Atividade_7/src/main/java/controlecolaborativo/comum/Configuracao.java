@@ -0,0 +1,356 @@
+package controlecolaborativo.comum;
+
+/**
+ * Ponto central de leitura das opções de execução do sistema.
+ *
+ * Todas as opções são lidas de propriedades de sistema com o prefixo "cc."
+ * (ex.: {@code java -Dcc.codec=java -jar ...}), mantendo valores padrão que
+ * reproduzem o comportamento original da simulação quando nada é informado.
+ */
+public final class Configuracao {
+
+    private static final String PREFIXO = "cc.";
+
+    private Configuracao() {
+    }
+
+    /**
+     * Codec preferido para as mensagens trocadas pela rede: "binario" (padrão) ou "java".
+     */
+    public static String codec() {
+        return texto("codec", "binario");
+    }
+
+    /**
+     * Transporte usado pelo coordenador: "threads" (uma thread por conexão, padrão)
+     * ou "nio" (laços de eventos com {@link java.nio.channels.Selector}).
+     */
+    public static String transporteCoordenador() {
+        return texto("transporte", "threads");
+    }
+
+    /**
+     * Número de laços de eventos (threads) do transporte NIO.
+     */
+    public static int lacosEventosNio() {
+        return inteiro("nio.lacos", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Executa os laços bloqueantes em threads virtuais (requer Java 21+).
+     */
+    public static boolean threadsVirtuais() {
+        return booleano("threads.virtuais", false);
+    }
+
+    /**
+     * Capacidade da fila de saída de cada nó no coordenador. Um nó cuja fila transborda
+     * é considerado lento e desconectado.
+     */
+    public static int capacidadeFilaSaida() {
+        return Math.max(1, inteiro("saida.fila", 1024));
+    }
+
+    /**
+     * Número de nós criados pelo simulador.
+     */
+    public static int numeroNos() {
+        return Math.max(2, inteiro("nos", 4));
+    }
+
+    /**
+     * Porta base das conexões entre nós: o nó {@code i} escuta em {@code base + i}.
+     */
+    public static int portaBasePares() {
+        return inteiro("porta.base", 6000);
+    }
+
+    /**
+     * Porta em que o coordenador aceita as conexões dos nós.
+     */
+    public static int portaCoordenador() {
+        return inteiro("coordenador.porta", 12345);
+    }
+
+    /**
+     * Rede usada entre os nós e o coordenador: "tcp" (sockets em localhost, padrão), "memoria"
+     * (filas na memória da JVM, sem sockets) ou "simulada" (memória com latência, perdas e
+     * partições determinísticas; ver {@link controlecolaborativo.rede.RedeSimulada}).
+     */
+    public static String rede() {
+        return texto("rede", "tcp");
+    }
+
+    /**
+     * Semente da rede simulada: a mesma semente repete as mesmas latências e perdas.
+     */
+    public static int sementeRede() {
+        return inteiro("rede.semente", 1);
+    }
+
+    /**
+     * Latência (ms) de cada quadro na rede simulada.
+     */
+    public static int latenciaRedeMs() {
+        return Math.max(0, inteiro("rede.latencia.ms", 1));
+    }
+
+    /**
+     * Atraso adicional máximo (ms) de cada quadro na rede simulada, sorteado uniformemente.
+     */
+    public static int variacaoLatenciaRedeMs() {
+        return Math.max(0, inteiro("rede.variacao.ms", 0));
+    }
+
+    /**
+     * Probabilidade de um quadro se perder na rede simulada e ser retransmitido.
+     */
+    public static double perdaRede() {
+        return Math.max(0, Math.min(1, decimal("rede.perda", 0)));
+    }
+
+    /**
+     * Atraso (ms) de um quadro perdido na rede simulada até à sua retransmissão.
+     */
+    public static int retransmissaoRedeMs() {
+        return Math.max(0, inteiro("rede.retransmissao.ms", 200));
+    }
+
+    /**
+     * Arquivo do checkpoint do documento mestre.
+     */
+    public static String arquivoCheckpoint() {
+        return texto("checkpoint.arquivo", "checkpoint.dat");
+    }
+
+    /**
+     * Diretório dos checkpoints dos documentos que não o padrão (um arquivo por documento).
+     * O documento padrão continua em {@link #arquivoCheckpoint()}.
+     */
+    public static String diretorioCheckpoints() {
+        return texto("checkpoint.diretorio", "checkpoints");
+    }
+
+    /**
+     * Número de partições do coordenador: cada uma tem uma única thread, que é dona do
+     * estado de todos os documentos cujo ID calha na partição.
+     */
+    public static int numeroParticoes() {
+        return Math.max(1, inteiro("coordenador.particoes", 4));
+    }
+
+    /**
+     * Com {@code true}, um pedido de escrita em espera passa à frente dos pedidos de leitura
+     * sobre as mesmas linhas, mesmo que estes tenham um relógio de Lamport menor; com
+     * {@code false}, todos os pedidos que disputam linhas são atendidos pela ordem de Lamport.
+     */
+    public static boolean preferenciaEscritores() {
+        return booleano("travas.preferencia.escritores", false);
+    }
+
+    /**
+     * Com {@code true}, {@link controlecolaborativo.no.No#editar} envia as edições com a versão
+     * em que foram calculadas, sem pedir trava; com {@code false}, obtém e libera uma trava.
+     */
+    public static boolean edicaoOtimista() {
+        return booleano("edicao.otimista", false);
+    }
+
+    /**
+     * Número de rejeições de uma edição otimista após o qual ela é refeita com uma trava.
+     */
+    public static int tentativasOtimistas() {
+        return Math.max(1, inteiro("edicao.otimista.tentativas", 3));
+    }
+
+    /**
+     * Número de versões recentes de cada documento cujas linhas alteradas o coordenador
+     * recorda para validar edições otimistas; uma versão base mais antiga é sempre rejeitada.
+     */
+    public static int historicoOtimista() {
+        return Math.max(1, inteiro("edicao.otimista.historico", 128));
+    }
+
+    /**
+     * Número máximo de acréscimos otimistas que o coordenador combina numa única versão (um
+     * registro no WAL e um delta difundido); 1 aplica cada um na sua própria versão.
+     */
+    public static int loteMaximoEdicoes() {
+        return Math.max(1, inteiro("edicao.lote.max", 64));
+    }
+
+    /**
+     * Intervalo, em segundos, entre snapshots do documento mestre (que também compactam o log).
+     */
+    public static int intervaloCheckpointSegundos() {
+        return Math.max(1, inteiro("checkpoint.intervalo", 30));
+    }
+
+    /**
+     * Ativa o log de escrita antecipada (WAL) das edições no coordenador.
+     */
+    public static boolean walAtivo() {
+        return booleano("wal.ativo", true);
+    }
+
+    /**
+     * Diretório dos segmentos do WAL.
+     */
+    public static String diretorioWal() {
+        return texto("wal.diretorio", "wal");
+    }
+
+    /**
+     * Executa fsync a cada lote gravado no WAL. Desativar troca durabilidade por latência.
+     */
+    public static boolean walSincronizar() {
+        return booleano("wal.fsync", true);
+    }
+
+    /**
+     * Número máximo de registros agrupados num único fsync (group commit).
+     */
+    public static int walLoteMaximo() {
+        return inteiro("wal.lote.max", 64);
+    }
+
+    /**
+     * Tempo máximo, em milissegundos, que a escrita espera por mais registros antes do fsync.
+     */
+    public static int walEsperaLoteMs() {
+        return inteiro("wal.lote.espera", 2);
+    }
+
+    /**
+     * Intervalo, em milissegundos, entre heartbeats enviados pelo coordenador aos nós.
+     */
+    public static int intervaloHeartbeatMs() {
+        return Math.max(10, inteiro("heartbeat.intervalo", 500));
+    }
+
+    /**
+     * Limiar de suspeita do detector phi-accrual: com phi = 8, a probabilidade de o
+     * coordenador estar vivo quando é declarado suspeito é de cerca de 10^-8.
+     */
+    public static double limiarPhi() {
+        return decimal("heartbeat.phi", 8.0);
+    }
+
+    /**
+     * Desvio padrão mínimo (ms) assumido para os intervalos entre heartbeats, para que uma
+     * rede muito regular não torne o detector sensível a qualquer atraso.
+     */
+    public static int desvioMinimoHeartbeatMs() {
+        return inteiro("heartbeat.desvio.minimo", 100);
+    }
+
+    /**
+     * Pausa adicional (ms) tolerada antes de o detector começar a suspeitar (ex.: pausas de GC).
+     */
+    public static int pausaAceitavelHeartbeatMs() {
+        return inteiro("heartbeat.pausa.aceitavel", 500);
+    }
+
+    /**
+     * Tempo base (ms) da eleição: um nó que suspeita do coordenador candidata-se após um tempo
+     * aleatório entre metade e o total deste valor (uma reserva sincronizada, antes de um quarto),
+     * e um candidato sem maioria tenta de novo após uma a duas vezes este valor.
+     */
+    public static int timeoutEleicaoMs() {
+        return inteiro("eleicao.timeout", 300);
+    }
+
+    /**
+     * Janela (ms) de contacto do líder: renuncia se, durante esta janela, menos de uma maioria
+     * dos nós respondeu aos seus heartbeats. Por omissão, dois heartbeats mais a pausa aceitável.
+     */
+    public static int janelaContatoLiderMs() {
+        return inteiro("eleicao.contato", 2 * intervaloHeartbeatMs() + pausaAceitavelHeartbeatMs());
+    }
+
+    /**
+     * Número de tentativas de conexão ao coordenador antes de iniciar uma nova eleição.
+     */
+    public static int tentativasConexao() {
+        return Math.max(1, inteiro("conexao.tentativas", 3));
+    }
+
+    /**
+     * Espera (ms) entre tentativas de conexão ao coordenador.
+     */
+    public static int esperaConexaoMs() {
+        return inteiro("conexao.espera", 2000);
+    }
+
+    /**
+     * Número de nós de reserva (os de maior ID ligados ao coordenador) que recebem uma cópia
+     * das travas e assumem com a fila intacta se vencerem a eleição; 0 desativa a replicação.
+     */
+    public static int numeroReservas() {
+        return Math.max(0, inteiro("reserva.quantidade", 1));
+    }
+
+    /**
+     * Tempo, em milissegundos, que um coordenador que assumiu a quente espera pela reconexão
+     * dos nós herdados antes de descartar as suas travas e pedidos.
+     */
+    public static int esperaRetomadaMs() {
+        return inteiro("reserva.espera.ms", 10000);
+    }
+
+    /**
+     * Prazo, em milissegundos, de cada concessão de trava: uma trava não liberada nem renovada
+     * ({@link controlecolaborativo.no.No#renovar}) dentro deste tempo é retirada ao nó e as suas edições descartadas.
+     * 0 desativa a expiração.
+     */
+    public static int duracaoConcessaoMs() {
+        return inteiro("trava.concessao.ms", 30000);
+    }
+
+    /**
+     * Regista as métricas como MBean JMX (controlecolaborativo:type=Metricas).
+     */
+    public static boolean metricasJmx() {
+        return booleano("metricas.jmx", true);
+    }
+
+    /**
+     * Porta local do servidor HTTP de métricas (GET /metricas); 0 desativa o servidor.
+     */
+    public static int portaMetricas() {
+        return inteiro("metricas.porta", 0);
+    }
+
+    // --- Leitura genérica das propriedades ---
+
+    public static String texto(String chave, String padrao) {
+        return System.getProperty(PREFIXO + chave, padrao);
+    }
+
+    public static int inteiro(String chave, int padrao) {
+        String valor = System.getProperty(PREFIXO + chave);
+        if (valor == null) return padrao;
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            Logger.logSimulador(Logger.Nivel.AVISO, "AVISO: valor inválido para " + PREFIXO + chave + ": '" + valor + "'. Usando " + padrao + ".");
+            return padrao;
+        }
+    }
+
+    public static double decimal(String chave, double padrao) {
+        String valor = System.getProperty(PREFIXO + chave);
+        if (valor == null) return padrao;
+        try {
+            return Double.parseDouble(valor.trim());
+        } catch (NumberFormatException e) {
+            Logger.logSimulador(Logger.Nivel.AVISO, "AVISO: valor inválido para " + PREFIXO + chave + ": '" + valor + "'. Usando " + padrao + ".");
+            return padrao;
+        }
+    }
+
+    public static boolean booleano(String chave, boolean padrao) {
+        String valor = System.getProperty(PREFIXO + chave);
+        return valor == null ? padrao : Boolean.parseBoolean(valor.trim());
+    }
+}
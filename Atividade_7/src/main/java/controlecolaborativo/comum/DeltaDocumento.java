@@ -0,0 +1,37 @@
+package controlecolaborativo.comum;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Conjunto de operações que leva o documento mestre de uma versão à seguinte.
+ *
+ * O coordenador propaga deltas em vez de cópias completas do documento. Uma réplica
+ * só pode aplicar o delta se estiver exatamente na versão base; caso contrário ela
+ * detectou uma lacuna e precisa solicitar um snapshot completo (PEDIDO_SNAPSHOT).
+ */
+public class DeltaDocumento implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long versaoBase;
+    private final long versaoNova;
+    private final List<OperacaoEdicao> operacoes;
+
+    public DeltaDocumento(long versaoBase, long versaoNova, List<OperacaoEdicao> operacoes) {
+        this.versaoBase = versaoBase;
+        this.versaoNova = versaoNova;
+        this.operacoes = Collections.unmodifiableList(new ArrayList<>(operacoes));
+    }
+
+    // Getters
+    public long getVersaoBase() { return versaoBase; }
+    public long getVersaoNova() { return versaoNova; }
+    public List<OperacaoEdicao> getOperacoes() { return operacoes; }
+
+    @Override
+    public String toString() {
+        return String.format("Delta(v%d -> v%d, %d operações)", versaoBase, versaoNova, operacoes.size());
+    }
+}
@@ -1,22 +1,50 @@
 package controlecolaborativo.comum;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Representa o recurso crítico compartilhado (o documento de texto).
  * Implementa Serializable para ser enviado pela rede e salvo em checkpoints.
+ *
+ * As linhas são guardadas numa {@link ArvoreLinhas} persistente: inserir, remover ou
+ * substituir uma linha em qualquer posição custa O(log n), e {@link #clonar()} custa O(1),
+ * pois o clone partilha a estrutura imutável da versão atual. Isso permite ao coordenador
+ * capturar snapshots baratos sem copiar o documento sob a sua trava.
  */
 public class Documento implements Serializable {
     // Identificador para garantir a compatibilidade durante a serialização.
     private static final long serialVersionUID = 1L;
-    private final List<String> linhas;
+    // Forma serializada mantida igual à original (lista de linhas + versão), para ler checkpoints antigos.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("linhas", List.class),
+            new ObjectStreamField("versao", long.class)
+    };
+
+    private transient ArvoreLinhas linhas;
+    // Versão do documento, incrementada pelo coordenador a cada conjunto de edições confirmado.
+    private long versao;
 
     public Documento() {
-        this.linhas = new ArrayList<>();
-        this.linhas.add("Linha inicial do documento.");
+        this.linhas = ArvoreLinhas.VAZIA.acrescentar("Linha inicial do documento.");
+    }
+
+    private Documento(ArvoreLinhas linhas, long versao) {
+        this.linhas = linhas;
+        this.versao = versao;
+    }
+
+    /**
+     * Reconstrói um documento a partir das suas linhas e versão (ex.: ao decodificar da rede).
+     */
+    public static Documento deLinhas(List<String> linhas, long versao) {
+        return new Documento(ArvoreLinhas.de(linhas), versao);
     }
 
     /**
@@ -25,7 +53,18 @@ public class Documento implements Serializable {
      * @param linha A linha de texto a ser adicionada.
      */
     public synchronized void adicionarLinha(String linha) {
-        this.linhas.add(linha);
+        this.linhas = this.linhas.acrescentar(linha);
+    }
+
+    /**
+     * Insere uma linha na posição indicada, deslocando as seguintes.
+     * @param indice A posição da nova linha (entre 0 e o tamanho do documento).
+     * @param linha  A linha de texto a ser inserida.
+     */
+    public synchronized void inserirLinha(int indice, String linha) {
+        if (indice >= 0 && indice <= this.linhas.tamanho()) {
+            this.linhas = this.linhas.inserir(indice, linha);
+        }
     }
 
     /**
@@ -33,8 +72,74 @@ public class Documento implements Serializable {
      * @param indice A posição da linha a ser removida.
      */
     public synchronized void removerLinha(int indice) {
-        if (indice >= 0 && indice < this.linhas.size()) {
-            this.linhas.remove(indice);
+        if (indice >= 0 && indice < this.linhas.tamanho()) {
+            this.linhas = this.linhas.remover(indice);
+        }
+    }
+
+    /**
+     * Substitui o conteúdo de uma linha existente.
+     * @param indice A posição da linha a ser substituída.
+     * @param linha  O novo conteúdo da linha.
+     */
+    public synchronized void substituirLinha(int indice, String linha) {
+        if (indice >= 0 && indice < this.linhas.tamanho()) {
+            this.linhas = this.linhas.substituir(indice, linha);
+        }
+    }
+
+    /**
+     * Aplica uma sequência de operações de edição e avança o documento para a nova versão.
+     * @param operacoes  As operações, na ordem em que foram realizadas.
+     * @param novaVersao A versão resultante após a aplicação.
+     */
+    public synchronized void aplicar(List<OperacaoEdicao> operacoes, long novaVersao) {
+        for (OperacaoEdicao op : operacoes) {
+            op.aplicar(this);
+        }
+        this.versao = novaVersao;
+    }
+
+    /**
+     * @return O número de linhas do documento.
+     */
+    public synchronized int tamanho() {
+        return this.linhas.tamanho();
+    }
+
+    public synchronized long getVersao() {
+        return versao;
+    }
+
+    /**
+     * @return A linha na posição indicada.
+     */
+    public synchronized String obterLinha(int indice) {
+        return this.linhas.obter(indice);
+    }
+
+    /**
+     * @return Uma visão imutável das linhas atuais do documento (O(1), sem cópia).
+     */
+    public synchronized List<String> obterLinhas() {
+        return this.linhas.comoLista();
+    }
+
+    /**
+     * Escreve o conteúdo do documento, linha a linha, no destino informado, sem montar
+     * uma String com o documento inteiro. A leitura usa a versão atual no momento da chamada.
+     * @param destino Onde escrever (ex.: um {@link StringBuilder} ou um {@link java.io.Writer}).
+     */
+    public void escreverConteudo(Appendable destino) throws IOException {
+        ArvoreLinhas atual;
+        synchronized (this) {
+            atual = this.linhas;
+        }
+        boolean primeira = true;
+        for (String linha : atual) {
+            if (!primeira) destino.append('\n');
+            destino.append(linha);
+            primeira = false;
         }
     }
 
@@ -42,20 +147,39 @@ public class Documento implements Serializable {
      * Retorna o conteúdo completo do documento como uma única String.
      * @return O conteúdo do documento.
      */
-    public synchronized String obterConteudo() {
-        return this.linhas.stream().collect(Collectors.joining("\n"));
+    public String obterConteudo() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            escreverConteudo(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilder não lança IOException.
+        }
+        return sb.toString();
     }
 
     /**
-     * Cria uma cópia profunda (clone) do objeto Documento.
+     * Cria uma cópia (clone) independente do objeto Documento.
      * Essencial para evitar que o estado seja modificado acidentalmente
      * ao passar o documento entre diferentes partes do sistema.
+     * A cópia é feita em O(1): as duas versões partilham a árvore imutável de linhas.
      * @return Um novo objeto Documento com o mesmo conteúdo.
      */
     public synchronized Documento clonar() {
-        Documento novoDoc = new Documento();
-        novoDoc.linhas.clear(); // Limpa a linha inicial padrão
-        novoDoc.linhas.addAll(this.linhas);
-        return novoDoc;
+        return new Documento(this.linhas, this.versao);
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField campos = out.putFields();
+        campos.put("linhas", new ArrayList<>(this.linhas.comoLista()));
+        campos.put("versao", this.versao);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField campos = in.readFields();
+        @SuppressWarnings("unchecked")
+        List<String> lidas = (List<String>) campos.get("linhas", null);
+        this.linhas = ArvoreLinhas.de(lidas == null ? Collections.<String>emptyList() : lidas);
+        this.versao = campos.get("versao", 0L); // Checkpoints anteriores ao versionamento não têm o campo.
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package controlecolaborativo.comum;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uma alteração nas travas de um documento, difundida pelo coordenador aos nós de reserva
+ * (REPLICACAO_TRAVAS). Aplicando os eventos pela ordem em que chegam, cada reserva mantém
+ * uma cópia exata da fila e dos detentores, pronta a ser assumida se ganhar a eleição.
+ *
+ * O estado completo ({@link Tipo#ESTADO}) substitui o de um documento: é enviado a uma reserva
+ * recém-escolhida e, com a mesma forma, pelo nó ao novo coordenador (RETOMAR_TRAVAS), com as
+ * travas que detém e os pedidos que ainda aguardam.
+ */
+public class EventoTravas implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Tipo {
+        PEDIDO,        // Novo pedido, concedido ou posto na fila
+        LIBERACAO,     // O nó devolveu a trava que detinha
+        CANCELAMENTO,  // Um pedido (ou, sem pedido, todos os vestígios do nó) foi descartado
+        ESTADO,        // Detentores e fila completos do documento
+        LIMPAR,        // Início de uma sincronização: a reserva descarta todo o estado anterior
+        SINCRONIZADO   // Fim da sincronização: a reserva tem o estado de todos os documentos
+    }
+
+    private final Tipo tipo;
+    private final int idNo;
+    private final long versao; // Versão do documento mestre quando o evento ocorreu.
+    private final PedidoAcesso pedido;
+    private final List<PedidoAcesso> detentores;
+    private final List<PedidoAcesso> fila;
+
+    public EventoTravas(Tipo tipo, int idNo, long versao, PedidoAcesso pedido, List<PedidoAcesso> detentores, List<PedidoAcesso> fila) {
+        this.tipo = tipo;
+        this.idNo = idNo;
+        this.versao = versao;
+        this.pedido = pedido;
+        this.detentores = detentores.isEmpty() ? Collections.<PedidoAcesso>emptyList() : Collections.unmodifiableList(new ArrayList<>(detentores));
+        this.fila = fila.isEmpty() ? Collections.<PedidoAcesso>emptyList() : Collections.unmodifiableList(new ArrayList<>(fila));
+    }
+
+    public static EventoTravas pedido(PedidoAcesso pedido, long versao) {
+        return new EventoTravas(Tipo.PEDIDO, pedido.getIdNo(), versao, pedido, Collections.<PedidoAcesso>emptyList(), Collections.<PedidoAcesso>emptyList());
+    }
+
+    public static EventoTravas liberacao(int idNo, long versao) {
+        return new EventoTravas(Tipo.LIBERACAO, idNo, versao, null, Collections.<PedidoAcesso>emptyList(), Collections.<PedidoAcesso>emptyList());
+    }
+
+    /**
+     * @param pedido O pedido descartado, ou {@code null} para todos os pedidos e a trava do nó.
+     */
+    public static EventoTravas cancelamento(int idNo, PedidoAcesso pedido, long versao) {
+        return new EventoTravas(Tipo.CANCELAMENTO, idNo, versao, pedido, Collections.<PedidoAcesso>emptyList(), Collections.<PedidoAcesso>emptyList());
+    }
+
+    public static EventoTravas estado(List<PedidoAcesso> detentores, List<PedidoAcesso> fila, long versao) {
+        return new EventoTravas(Tipo.ESTADO, 0, versao, null, detentores, fila);
+    }
+
+    public static EventoTravas marcador(Tipo tipo) {
+        return new EventoTravas(tipo, 0, 0, null, Collections.<PedidoAcesso>emptyList(), Collections.<PedidoAcesso>emptyList());
+    }
+
+    // Getters
+    public Tipo getTipo() { return tipo; }
+    public int getIdNo() { return idNo; }
+    public long getVersao() { return versao; }
+    public PedidoAcesso getPedido() { return pedido; }
+    public List<PedidoAcesso> getDetentores() { return detentores; }
+    public List<PedidoAcesso> getFila() { return fila; }
+
+    @Override
+    public String toString() {
+        switch (tipo) {
+            case PEDIDO:
+                return "Evento(PEDIDO " + pedido + ", v" + versao + ")";
+            case ESTADO:
+                return "Evento(ESTADO " + detentores.size() + " detentores, " + fila.size() + " em espera, v" + versao + ")";
+            default:
+                return "Evento(" + tipo + " P" + idNo + (pedido != null ? " " + pedido : "") + ", v" + versao + ")";
+        }
+    }
+}
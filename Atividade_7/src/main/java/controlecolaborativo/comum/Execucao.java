@@ -0,0 +1,55 @@
+package controlecolaborativo.comum;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Ponto único de criação das threads dos laços bloqueantes do sistema
+ * (tratadores de conexão, ouvintes, eleição e simulação de atividade).
+ *
+ * No modo padrão cada laço ganha a sua própria thread de plataforma, como antes.
+ * Com {@code -Dcc.threads.virtuais=true} e uma JVM 21+, os laços passam a ser
+ * executados em threads virtuais a partir de um executor "uma thread por tarefa",
+ * o que permite manter o código no estilo bloqueante com dezenas de milhares de
+ * sessões por JVM. O executor é obtido por reflexão para que o código continue
+ * compilando com o alvo Java 8 padrão do projeto.
+ */
+public final class Execucao {
+
+    private static final Executor EXECUTOR_VIRTUAL = criarExecutorVirtual();
+
+    private Execucao() {
+    }
+
+    private static Executor criarExecutorVirtual() {
+        if (!Configuracao.threadsVirtuais()) {
+            return null;
+        }
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Logger.logSimulador(Logger.Nivel.AVISO, "AVISO: threads virtuais exigem Java 21+. Usando threads de plataforma.");
+            return null;
+        }
+    }
+
+    /**
+     * Inicia uma tarefa de longa duração numa nova thread (virtual ou de plataforma).
+     * @param nome   Nome da thread, usado apenas no modo de plataforma.
+     * @param tarefa O laço a ser executado.
+     */
+    public static void iniciar(String nome, Runnable tarefa) {
+        if (EXECUTOR_VIRTUAL != null) {
+            EXECUTOR_VIRTUAL.execute(tarefa);
+        } else {
+            new Thread(tarefa, nome).start();
+        }
+    }
+
+    /**
+     * @return {@code true} se os laços estão sendo executados em threads virtuais.
+     */
+    public static boolean usandoThreadsVirtuais() {
+        return EXECUTOR_VIRTUAL != null;
+    }
+}
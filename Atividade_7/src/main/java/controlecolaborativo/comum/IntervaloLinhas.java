@@ -0,0 +1,83 @@
+package controlecolaborativo.comum;
+
+import java.io.Serializable;
+
+/**
+ * Intervalo fechado de linhas [inicio, fim] de um {@link Documento}, usado como
+ * unidade de travamento pelo coordenador.
+ *
+ * Como inserções e remoções deslocam os índices das linhas seguintes, uma operação
+ * estrutural precisa travar tudo até ao fim do documento: remover a linha {@code i}
+ * exige o intervalo {@code [i, ∞)}. Acrescentar linhas ao final usa o intervalo
+ * especial {@link #FIM_DOCUMENTO}, que só conflita com outros acréscimos e com
+ * intervalos abertos até ao fim.
+ */
+public class IntervaloLinhas implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int INFINITO = Integer.MAX_VALUE;
+
+    public static final IntervaloLinhas DOCUMENTO_INTEIRO = new IntervaloLinhas(0, INFINITO);
+    public static final IntervaloLinhas FIM_DOCUMENTO = new IntervaloLinhas(INFINITO, INFINITO);
+
+    private final int inicio;
+    private final int fim;
+
+    public IntervaloLinhas(int inicio, int fim) {
+        if (inicio < 0 || fim < inicio) {
+            throw new IllegalArgumentException("Intervalo inválido: [" + inicio + ", " + fim + "]");
+        }
+        this.inicio = inicio;
+        this.fim = fim;
+    }
+
+    public static IntervaloLinhas linha(int indice) {
+        return new IntervaloLinhas(indice, indice);
+    }
+
+    /**
+     * Intervalo aberto [inicio, ∞), necessário para operações que deslocam linhas.
+     */
+    public static IntervaloLinhas ateOFim(int inicio) {
+        return new IntervaloLinhas(inicio, INFINITO);
+    }
+
+    public boolean sobrepoe(IntervaloLinhas outro) {
+        return this.inicio <= outro.fim && outro.inicio <= this.fim;
+    }
+
+    public boolean contem(IntervaloLinhas outro) {
+        return this.inicio <= outro.inicio && outro.fim <= this.fim;
+    }
+
+    public boolean isFimDocumento() {
+        return inicio == INFINITO;
+    }
+
+    public boolean isLinhaUnica() {
+        return inicio == fim && inicio != INFINITO;
+    }
+
+    // Getters
+    public int getInicio() { return inicio; }
+    public int getFim() { return fim; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IntervaloLinhas)) return false;
+        IntervaloLinhas outro = (IntervaloLinhas) o;
+        return inicio == outro.inicio && fim == outro.fim;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * inicio + fim;
+    }
+
+    @Override
+    public String toString() {
+        if (isFimDocumento()) return "[fim]";
+        return "[" + inicio + ", " + (fim == INFINITO ? "∞" : String.valueOf(fim)) + "]";
+    }
+}
@@ -0,0 +1,35 @@
+package controlecolaborativo.comum;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Liberação de uma trava (LIBERACAO_SC): a ficha da concessão e as operações feitas na
+ * seção crítica.
+ *
+ * O coordenador só aplica as operações se a ficha for a da trava que o nó detém; uma
+ * liberação com uma ficha antiga (de uma concessão que expirou entretanto) ou com a ficha 0
+ * é descartada.
+ */
+public class Liberacao implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long ficha;
+    private final List<OperacaoEdicao> operacoes;
+
+    public Liberacao(long ficha, List<OperacaoEdicao> operacoes) {
+        this.ficha = ficha;
+        this.operacoes = Collections.unmodifiableList(new ArrayList<>(operacoes));
+    }
+
+    // Getters
+    public long getFicha() { return ficha; }
+    public List<OperacaoEdicao> getOperacoes() { return operacoes; }
+
+    @Override
+    public String toString() {
+        return String.format("Liberacao(ficha %d, %d operações)", ficha, operacoes.size());
+    }
+}
@@ -1,12 +1,34 @@
 package controlecolaborativo.comum;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Classe utilitária para centralizar e formatar a saída de logs do sistema.
  * Ela adiciona timestamps, formatação colorida e prefixos padronizados para
  * facilitar a depuração e a visualização da simulação em tempo real.
+ *
+ * Os eventos são escritos de forma assíncrona: quem regista apenas reserva uma posição
+ * num anel pré-alocado (uma operação atómica) e preenche-a; uma única thread de escrita
+ * formata e imprime os eventos em lotes. Assim, um log emitido dentro da seção crítica do
+ * coordenador nunca espera pelo console. Com o anel cheio, o evento é descartado e contado
+ * em {@link #getDescartados()}, em vez de bloquear quem o emitiu.
+ *
+ * Opções (propriedades de sistema, lidas aqui diretamente porque a {@link Configuracao}
+ * também regista avisos neste logger):
+ * <ul>
+ *   <li>{@code cc.log.nivel}: DEBUG, INFO (padrão), AVISO ou ERRO;</li>
+ *   <li>{@code cc.log.formato}: ansi (padrão), texto ou json;</li>
+ *   <li>{@code cc.log.amostragem.<categoria>}: regista 1 em cada N eventos DEBUG/INFO da
+ *       categoria (no, coordenador, eleicao ou simulador);</li>
+ *   <li>{@code cc.log.assincrono}: {@code false} escreve na thread chamadora;</li>
+ *   <li>{@code cc.log.buffer}: capacidade do anel (arredondada para uma potência de 2).</li>
+ * </ul>
  */
 public class Logger {
     // Constantes com códigos de escape ANSI para formatação de texto no console.
@@ -20,12 +42,99 @@ public class Logger {
     public static final String ANSI_WHITE = "\u001B[37m"; // Branco para o simulador
     public static final String ANSI_BOLD = "\u001B[1m";   // Negrito
 
-    // Formato padrão para o timestamp, incluindo milissegundos para maior precisão.
-    private static final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
+    public enum Nivel { DEBUG, INFO, AVISO, ERRO }
+
+    public enum Categoria { NO, COORDENADOR, ELEICAO, SIMULADOR }
+
+    private enum Formato { ANSI, TEXTO, JSON }
 
     // Array de cores para diferenciar a saída de cada nó.
     private static final String[] CORES_NOS = {ANSI_CYAN, ANSI_GREEN, ANSI_YELLOW, ANSI_PURPLE};
 
+    private static final Nivel NIVEL_MINIMO = lerEnum(Nivel.class, "log.nivel", Nivel.INFO);
+    private static final Formato FORMATO = lerEnum(Formato.class, "log.formato", Formato.ANSI);
+    private static final boolean ASSINCRONO = Boolean.parseBoolean(System.getProperty("cc.log.assincrono", "true"));
+    private static final long[] AMOSTRAGEM = lerAmostragem();
+    private static final AtomicLongArray EVENTOS_POR_CATEGORIA = new AtomicLongArray(Categoria.values().length);
+
+    // Quando ativo, só as mensagens do simulador são impressas (usado com centenas de nós).
+    private static volatile boolean silencioso = false;
+
+    // --- Anel de eventos (vários produtores, um consumidor) ---
+
+    private static final class Evento {
+        // Sequência publicada nesta posição; a escrita volátil publica os campos abaixo.
+        volatile long sequencia = -1;
+        Categoria categoria;
+        Nivel nivel;
+        int id;
+        long instanteMs;
+        String mensagem;
+    }
+
+    private static final int CAPACIDADE = capacidadeAnel();
+    private static final int MASCARA = CAPACIDADE - 1;
+    private static final Evento[] ANEL = new Evento[CAPACIDADE];
+    private static final AtomicLong proximaSequencia = new AtomicLong(); // Próxima posição a reservar.
+    private static volatile long consumidos = 0;  // Eventos já lidos pela thread de escrita.
+    private static volatile long impressos = 0;   // Eventos lidos e já enviados ao console.
+    private static volatile boolean escritorDormindo = false;
+    private static final LongAdder descartados = new LongAdder();
+    private static final Thread escritor;
+
+    private static final PrintStream SAIDA = System.out;
+
+    static {
+        for (int i = 0; i < CAPACIDADE; i++) {
+            ANEL[i] = new Evento();
+        }
+        if (ASSINCRONO) {
+            escritor = new Thread(Logger::escreverEventos, "logger");
+            escritor.setDaemon(true);
+            escritor.start();
+            // O System.exit do simulador não deve perder as últimas linhas.
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> descarregar(2000), "logger-descarga"));
+        } else {
+            escritor = null;
+        }
+    }
+
+    /**
+     * Suprime (ou volta a mostrar) os logs dos nós, do coordenador e das eleições.
+     */
+    public static void definirSilencioso(boolean valor) {
+        silencioso = valor;
+    }
+
+    /**
+     * @return {@code true} se um evento com esta categoria e nível seria registado. Permite
+     *         evitar a montagem de mensagens caras que seriam descartadas.
+     */
+    public static boolean ativo(Categoria categoria, Nivel nivel) {
+        return nivel.compareTo(NIVEL_MINIMO) >= 0 && !(silencioso && categoria != Categoria.SIMULADOR);
+    }
+
+    /**
+     * @return Eventos descartados por o anel estar cheio.
+     */
+    public static long getDescartados() {
+        return descartados.sum();
+    }
+
+    /**
+     * Espera até que todos os eventos já registados estejam impressos.
+     * @param limiteMs Tempo máximo de espera.
+     */
+    public static void descarregar(long limiteMs) {
+        if (escritor == null) return;
+        long alvo = proximaSequencia.get();
+        long prazo = System.nanoTime() + limiteMs * 1_000_000;
+        while (impressos < alvo && System.nanoTime() < prazo) {
+            LockSupport.unpark(escritor);
+            LockSupport.parkNanos(1_000_000);
+        }
+    }
+
     /**
      * Seleciona uma cor para um nó com base em seu ID.
      * O operador de módulo (%) garante que, mesmo que haja mais nós que cores,
@@ -35,7 +144,7 @@ public class Logger {
      * @return O código de cor ANSI correspondente.
      */
     private static String getCorNo(int id) {
-        return CORES_NOS[(id - 1) % CORES_NOS.length];
+        return CORES_NOS[Math.floorMod(id - 1, CORES_NOS.length)];
     }
 
     /**
@@ -45,9 +154,11 @@ public class Logger {
      * @param message A mensagem a ser impressa.
      */
     public static void logNo(int id, String message) {
-        String timestamp = sdf.format(new Date());
-        System.out.printf("%s%s[NÓ P%d %s] %s%s%n",
-                getCorNo(id), ANSI_BOLD, id, timestamp, message, ANSI_RESET);
+        registrar(Categoria.NO, Nivel.INFO, id, message);
+    }
+
+    public static void logNo(int id, Nivel nivel, String message) {
+        registrar(Categoria.NO, nivel, id, message);
     }
 
     /**
@@ -57,9 +168,11 @@ public class Logger {
      * @param message A mensagem a ser impressa.
      */
     public static void logCoordenador(int id, String message) {
-        String timestamp = sdf.format(new Date());
-        System.out.printf("%s%s[COORDENADOR P%d %s] %s%s%n",
-                ANSI_BLUE, ANSI_BOLD, id, timestamp, message, ANSI_RESET);
+        registrar(Categoria.COORDENADOR, Nivel.INFO, id, message);
+    }
+
+    public static void logCoordenador(int id, Nivel nivel, String message) {
+        registrar(Categoria.COORDENADOR, nivel, id, message);
     }
 
     /**
@@ -69,9 +182,11 @@ public class Logger {
      * @param message A mensagem a ser impressa.
      */
     public static void logEleicao(int id, String message) {
-        String timestamp = sdf.format(new Date());
-        System.out.printf("%s%s[ELEIÇÃO P%d %s] %s%s%n",
-                ANSI_RED, ANSI_BOLD, id, timestamp, message, ANSI_RESET);
+        registrar(Categoria.ELEICAO, Nivel.INFO, id, message);
+    }
+
+    public static void logEleicao(int id, Nivel nivel, String message) {
+        registrar(Categoria.ELEICAO, nivel, id, message);
     }
 
     /**
@@ -80,8 +195,213 @@ public class Logger {
      * @param message A mensagem a ser impressa.
      */
     public static void logSimulador(String message) {
-        String timestamp = sdf.format(new Date());
-        System.out.printf("%s%s[SIMULADOR %s] %s%s%n",
-                ANSI_WHITE, ANSI_BOLD, timestamp, message, ANSI_RESET);
+        registrar(Categoria.SIMULADOR, Nivel.INFO, 0, message);
+    }
+
+    public static void logSimulador(Nivel nivel, String message) {
+        registrar(Categoria.SIMULADOR, nivel, 0, message);
+    }
+
+    private static void registrar(Categoria categoria, Nivel nivel, int id, String mensagem) {
+        if (!ativo(categoria, nivel) || !amostrar(categoria, nivel)) return;
+        long instante = System.currentTimeMillis();
+        if (escritor == null) {
+            StringBuilder sb = new StringBuilder(mensagem.length() + 64);
+            formatar(sb, categoria, nivel, id, instante, mensagem);
+            synchronized (Logger.class) {
+                SAIDA.print(sb);
+                SAIDA.flush();
+            }
+            return;
+        }
+        long sequencia;
+        do {
+            sequencia = proximaSequencia.get();
+            if (sequencia - consumidos >= CAPACIDADE) {
+                descartados.increment(); // Anel cheio: a escrita não acompanha o ritmo dos eventos.
+                return;
+            }
+        } while (!proximaSequencia.compareAndSet(sequencia, sequencia + 1));
+        Evento evento = ANEL[(int) sequencia & MASCARA];
+        evento.categoria = categoria;
+        evento.nivel = nivel;
+        evento.id = id;
+        evento.instanteMs = instante;
+        evento.mensagem = mensagem;
+        evento.sequencia = sequencia;
+        if (escritorDormindo) {
+            LockSupport.unpark(escritor);
+        }
+    }
+
+    /**
+     * Avisos e erros nunca são amostrados; os restantes eventos de uma categoria com
+     * amostragem N são registados um em cada N.
+     */
+    private static boolean amostrar(Categoria categoria, Nivel nivel) {
+        long n = AMOSTRAGEM[categoria.ordinal()];
+        if (n <= 1 || nivel.compareTo(Nivel.AVISO) >= 0) return true;
+        return EVENTOS_POR_CATEGORIA.getAndIncrement(categoria.ordinal()) % n == 0;
+    }
+
+    /**
+     * Laço da thread de escrita: formata os eventos pela ordem das sequências e imprime-os
+     * em lotes, com um único flush sempre que o anel fica vazio.
+     */
+    private static void escreverEventos() {
+        StringBuilder lote = new StringBuilder(64 * 1024);
+        while (true) {
+            long sequencia = consumidos;
+            Evento evento = ANEL[(int) sequencia & MASCARA];
+            if (evento.sequencia != sequencia) {
+                // Nada publicado nesta posição (ou ainda a ser preenchida): imprime o lote e espera.
+                if (lote.length() > 0) {
+                    imprimir(lote, sequencia);
+                    continue;
+                }
+                escritorDormindo = true;
+                if (evento.sequencia != sequencia) {
+                    LockSupport.parkNanos(50_000_000);
+                }
+                escritorDormindo = false;
+                continue;
+            }
+            formatar(lote, evento.categoria, evento.nivel, evento.id, evento.instanteMs, evento.mensagem);
+            evento.mensagem = null;
+            consumidos = sequencia + 1; // Liberta a posição para os produtores.
+            if (lote.length() >= 32 * 1024) {
+                imprimir(lote, sequencia + 1);
+            }
+        }
+    }
+
+    private static void imprimir(StringBuilder lote, long ate) {
+        SAIDA.print(lote);
+        SAIDA.flush();
+        lote.setLength(0);
+        impressos = ate;
+    }
+
+    // --- Formatação (thread de escrita, ou a chamadora no modo síncrono) ---
+
+    private static void formatar(StringBuilder sb, Categoria categoria, Nivel nivel, int id, long instanteMs, String mensagem) {
+        if (FORMATO == Formato.JSON) {
+            sb.append("{\"instante\":").append(instanteMs).append(",\"hora\":\"");
+            acrescentarHora(sb, instanteMs);
+            sb.append("\",\"nivel\":\"").append(nivel).append("\",\"categoria\":\"").append(categoria).append('"');
+            if (categoria != Categoria.SIMULADOR) {
+                sb.append(",\"id\":").append(id);
+            }
+            sb.append(",\"mensagem\":\"");
+            acrescentarJson(sb, mensagem);
+            sb.append("\"}\n");
+            return;
+        }
+        boolean cores = FORMATO == Formato.ANSI;
+        if (cores) {
+            sb.append(cor(categoria, id)).append(ANSI_BOLD);
+        }
+        sb.append('[');
+        switch (categoria) {
+            case NO: sb.append("NÓ P").append(id).append(' '); break;
+            case COORDENADOR: sb.append("COORDENADOR P").append(id).append(' '); break;
+            case ELEICAO: sb.append("ELEIÇÃO P").append(id).append(' '); break;
+            default: sb.append("SIMULADOR ");
+        }
+        acrescentarHora(sb, instanteMs);
+        sb.append("] ").append(mensagem);
+        if (cores) {
+            sb.append(ANSI_RESET);
+        }
+        sb.append(System.lineSeparator());
+    }
+
+    private static String cor(Categoria categoria, int id) {
+        switch (categoria) {
+            case NO: return getCorNo(id);
+            case COORDENADOR: return ANSI_BLUE;
+            case ELEICAO: return ANSI_RED;
+            default: return ANSI_WHITE;
+        }
+    }
+
+    /**
+     * Acrescenta a hora local no formato HH:mm:ss.SSS, sem objetos intermediários
+     * (substitui o SimpleDateFormat partilhado, que não é thread-safe).
+     */
+    private static void acrescentarHora(StringBuilder sb, long instanteMs) {
+        long local = instanteMs + TimeZone.getDefault().getOffset(instanteMs);
+        int msDoDia = (int) Math.floorMod(local, 86_400_000L);
+        doisDigitos(sb, msDoDia / 3_600_000);
+        sb.append(':');
+        doisDigitos(sb, msDoDia / 60_000 % 60);
+        sb.append(':');
+        doisDigitos(sb, msDoDia / 1000 % 60);
+        sb.append('.');
+        int ms = msDoDia % 1000;
+        if (ms < 100) sb.append('0');
+        if (ms < 10) sb.append('0');
+        sb.append(ms);
+    }
+
+    private static void doisDigitos(StringBuilder sb, int valor) {
+        if (valor < 10) sb.append('0');
+        sb.append(valor);
+    }
+
+    private static void acrescentarJson(StringBuilder sb, String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+    }
+
+    // --- Leitura das opções ---
+
+    private static <E extends Enum<E>> E lerEnum(Class<E> tipo, String chave, E padrao) {
+        String valor = System.getProperty("cc." + chave);
+        if (valor == null) return padrao;
+        try {
+            return Enum.valueOf(tipo, valor.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("AVISO: valor inválido para cc." + chave + ": '" + valor + "'. Usando " + padrao + ".");
+            return padrao;
+        }
+    }
+
+    private static long[] lerAmostragem() {
+        long[] amostragem = new long[Categoria.values().length];
+        for (Categoria categoria : Categoria.values()) {
+            String valor = System.getProperty("cc.log.amostragem." + categoria.name().toLowerCase(Locale.ROOT));
+            try {
+                amostragem[categoria.ordinal()] = valor == null ? 1 : Math.max(1, Long.parseLong(valor.trim()));
+            } catch (NumberFormatException e) {
+                amostragem[categoria.ordinal()] = 1;
+            }
+        }
+        return amostragem;
+    }
+
+    private static int capacidadeAnel() {
+        int pedida;
+        try {
+            pedida = Integer.parseInt(System.getProperty("cc.log.buffer", "8192").trim());
+        } catch (NumberFormatException e) {
+            pedida = 8192;
+        }
+        pedida = Math.max(16, Math.min(1 << 24, pedida));
+        return Integer.highestOneBit(pedida - 1) << 1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,36 @@
+package controlecolaborativo.comum;
+
+import java.io.Serializable;
+
+/**
+ * O mandato anunciado por um líder eleito (VICTORY): o termo em que venceu e o coordenador
+ * cujas travas herdou (0 se nenhum).
+ *
+ * Cada eleição abre um termo maior do que todos os anteriores e cada nó vota no máximo uma
+ * vez por termo, por isso há no máximo um vencedor por termo. Um nó segue sempre o anúncio
+ * de termo mais alto que conhece e descarta os de termos anteriores.
+ */
+public class Mandato implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long termo;
+    private final int origemEstado;
+
+    public Mandato(long termo, int origemEstado) {
+        this.termo = termo;
+        this.origemEstado = origemEstado;
+    }
+
+    public long getTermo() {
+        return termo;
+    }
+
+    public int getOrigemEstado() {
+        return origemEstado;
+    }
+
+    @Override
+    public String toString() {
+        return "Mandato(termo " + termo + (origemEstado != 0 ? ", travas de P" + origemEstado : "") + ")";
+    }
+}
@@ -7,28 +7,58 @@ import java.io.Serializable;
 public class Mensagem implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    // Documento das mensagens que não indicam nenhum (formato antigo e mensagens de controle).
+    public static final String DOCUMENTO_PADRAO = "principal";
+
     public enum Tipo {
         REQUISICAO_SC,
+        REQUISICAO_LEITURA,    // Pedido de trava partilhada: várias leituras das mesmas linhas em paralelo
         PERMISSAO_SC,
         LIBERACAO_SC,
-        ATUALIZACAO_DOCUMENTO,
+        SUBMISSAO_EDICAO,      // Edição otimista: operações e versão base, sem trava (ver SubmissaoEdicao)
+        EDICAO_ACEITE,         // A submissão foi aplicada ao documento mestre
+        EDICAO_REJEITADA,      // As linhas mudaram ou estão travadas: tentar de novo a partir de uma versão mais recente
+        ATUALIZACAO_DOCUMENTO, // Snapshot completo do documento mestre
+        ATUALIZACAO_DELTA,     // Apenas as operações da última versão confirmada
+        PEDIDO_SNAPSHOT,       // Uma réplica detectou lacuna de versão e pede o documento completo
+        ABRIR_DOCUMENTO,       // O nó passa a receber as atualizações do documento (responde-se com um snapshot)
+        FECHAR_DOCUMENTO,      // O nó deixa de receber as atualizações do documento
+        REPLICACAO_TRAVAS,     // Alteração nas travas de um documento, enviada aos nós de reserva (ver EventoTravas)
+        RETOMAR_TRAVAS,        // Após uma troca a quente, o nó reapresenta as travas que detém e os pedidos em espera
+        RENOVAR_TRAVA,         // O nó prolonga a concessão da trava que detém (o conteúdo é a ficha da concessão)
+        TRAVA_EXPIRADA,        // A concessão expirou sem ser liberada nem renovada: a trava foi retirada ao nó
+
+        // Mensagens da eleição de líder por termos (ver EleicaoLider)
+        PEDIDO_PRE_VOTO,    // Antes de abrir um termo, o candidato pergunta se os pares votariam nele
+        PRE_VOTO_CONCEDIDO, // O par também já não confia no líder e votaria no candidato
+        PEDIDO_VOTO,    // Um candidato abre um termo e pede o voto dos pares
+        VOTO_CONCEDIDO, // O par vota no candidato nesse termo
+        VOTO_RECUSADO,  // O par já votou nesse termo, conhece um termo maior ou ainda confia no líder
+        VICTORY,        // O vencedor se anuncia como o novo coordenador (ver Mandato)
 
-        // Mensagens para o Algoritmo de Eleição (Bully)
-        ELECTION, // Um nó inicia uma eleição
-        OK,       // Uma resposta para uma mensagem de eleição
-        VICTORY   // O vencedor se anuncia como o novo coordenador
+        HEARTBEAT // Sinal periódico de vida do coordenador, usado pelo detector de falhas; os nós respondem-lhe
     }
 
     private final Tipo tipo;
     private final int idRemetente;
     private final int relogioLamport;
     private final Object conteudo;
+    private final String documento; // Nulo para o documento padrão.
 
     public Mensagem(Tipo tipo, int idRemetente, int relogioLamport, Object conteudo) {
+        this(tipo, idRemetente, relogioLamport, conteudo, null);
+    }
+
+    /**
+     * @param documento O documento a que a mensagem se refere; {@code null} ou
+     *                  {@link #DOCUMENTO_PADRAO} para o documento padrão.
+     */
+    public Mensagem(Tipo tipo, int idRemetente, int relogioLamport, Object conteudo, String documento) {
         this.tipo = tipo;
         this.idRemetente = idRemetente;
         this.relogioLamport = relogioLamport;
         this.conteudo = conteudo;
+        this.documento = DOCUMENTO_PADRAO.equals(documento) ? null : documento;
     }
 
     // Getters
@@ -36,6 +66,7 @@ public class Mensagem implements Serializable {
     public int getIdRemetente() { return idRemetente; }
     public int getRelogioLamport() { return relogioLamport; }
     public Object getConteudo() { return conteudo; }
+    public String getDocumento() { return documento == null ? DOCUMENTO_PADRAO : documento; }
 
     @Override
     public String toString() {
@@ -0,0 +1,54 @@
+package controlecolaborativo.comum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Uma {@link Mensagem} destinada a vários nós, codificada no máximo uma vez por codec.
+ *
+ * O quadro ({@code [comprimento: int][corpo codificado]}) é produzido na primeira vez que
+ * um destinatário o pede e reaproveitado por todos os outros que usam o mesmo codec. Como
+ * a codificação acontece nas threads de escrita, e não em quem difunde a mensagem, o
+ * coordenador nunca codifica nem escreve em sockets dentro da sua seção crítica.
+ *
+ * Os arrays devolvidos são partilhados entre conexões e nunca devem ser modificados.
+ */
+public final class MensagemCodificada {
+
+    private final Mensagem mensagem;
+    // Quadros já codificados, indexados pelo ID do codec.
+    private final byte[][] quadros = new byte[2][];
+
+    public MensagemCodificada(Mensagem mensagem) {
+        this.mensagem = mensagem;
+    }
+
+    public Mensagem getMensagem() {
+        return mensagem;
+    }
+
+    /**
+     * @return O quadro completo (com prefixo de comprimento) desta mensagem no codec informado.
+     */
+    public byte[] quadro(CodecMensagem codec) throws IOException {
+        int id = codec.getId();
+        if (id < 0 || id >= quadros.length) {
+            return enquadrar(codec.codificar(mensagem));
+        }
+        synchronized (this) {
+            if (quadros[id] == null) {
+                quadros[id] = enquadrar(codec.codificar(mensagem));
+            }
+            return quadros[id];
+        }
+    }
+
+    private static byte[] enquadrar(byte[] corpo) {
+        return ByteBuffer.allocate(4 + corpo.length).putInt(corpo.length).put(corpo).array();
+    }
+
+    @Override
+    public String toString() {
+        return mensagem.getTipo().toString();
+    }
+}
@@ -0,0 +1,87 @@
+package controlecolaborativo.comum;
+
+import java.io.Serializable;
+
+/**
+ * Representa uma única operação de edição sobre as linhas de um {@link Documento}.
+ *
+ * Em vez de enviar o documento inteiro a cada liberação da seção crítica, o nó
+ * envia a sequência de operações que realizou e o coordenador as reaplica sobre
+ * a versão mestre. Assim, o custo da replicação passa a ser proporcional ao
+ * tamanho da edição, e não ao tamanho do documento.
+ */
+public class OperacaoEdicao implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Tipo {
+        ADICIONAR,  // Acrescenta uma linha ao final do documento.
+        REMOVER,    // Remove a linha na posição indicada.
+        SUBSTITUIR  // Troca o conteúdo da linha na posição indicada.
+    }
+
+    private final Tipo tipo;
+    private final int indice;
+    private final String linha;
+
+    private OperacaoEdicao(Tipo tipo, int indice, String linha) {
+        this.tipo = tipo;
+        this.indice = indice;
+        this.linha = linha;
+    }
+
+    public static OperacaoEdicao adicionar(String linha) {
+        return new OperacaoEdicao(Tipo.ADICIONAR, -1, linha);
+    }
+
+    public static OperacaoEdicao remover(int indice) {
+        return new OperacaoEdicao(Tipo.REMOVER, indice, null);
+    }
+
+    public static OperacaoEdicao substituir(int indice, String linha) {
+        return new OperacaoEdicao(Tipo.SUBSTITUIR, indice, linha);
+    }
+
+    /**
+     * Aplica esta operação sobre o documento informado.
+     * @param documento O documento a ser modificado.
+     */
+    public void aplicar(Documento documento) {
+        switch (tipo) {
+            case ADICIONAR:
+                documento.adicionarLinha(linha);
+                break;
+            case REMOVER:
+                documento.removerLinha(indice);
+                break;
+            case SUBSTITUIR:
+                documento.substituirLinha(indice, linha);
+                break;
+        }
+    }
+
+    /**
+     * Retorna o intervalo de linhas que esta operação modifica ou desloca.
+     * Um nó só pode aplicar a operação se detiver uma trava que contenha este intervalo.
+     */
+    public IntervaloLinhas intervaloAfetado() {
+        // Índices negativos não alteram o documento; são tratados como a linha 0 por segurança.
+        switch (tipo) {
+            case SUBSTITUIR:
+                return IntervaloLinhas.linha(Math.max(0, indice));
+            case REMOVER:
+                return IntervaloLinhas.ateOFim(Math.max(0, indice));
+            default:
+                return IntervaloLinhas.FIM_DOCUMENTO;
+        }
+    }
+
+    // Getters
+    public Tipo getTipo() { return tipo; }
+    public int getIndice() { return indice; }
+    public String getLinha() { return linha; }
+
+    @Override
+    public String toString() {
+        return tipo == Tipo.ADICIONAR ? "ADICIONAR" : String.format("%s[%d]", tipo, indice);
+    }
+}
@@ -1,5 +1,7 @@
 package controlecolaborativo.comum;
 
+import java.io.Serializable;
+
 /**
  * Representa um pedido de acesso à seção crítica, encapsulando o ID do nó
  * e o seu timestamp de Lamport no momento da requisição.
@@ -7,21 +9,81 @@ package controlecolaborativo.comum;
  * A classe implementa {@link Comparable} para permitir que os objetos
  * sejam ordenados automaticamente em uma {@link java.util.PriorityQueue},
  * garantindo a justiça e a ordem causal no atendimento das solicitações.
+ *
+ * O pedido concedido é devolvido ao nó na mensagem PERMISSAO_SC: como o relógio de
+ * Lamport do pedido é único para cada nó, ele identifica qual dos pedidos foi atendido.
+ *
+ * Um pedido compartilhado (de leitura) só conflita com pedidos de escrita: vários nós
+ * podem ler as mesmas linhas ao mesmo tempo.
+ *
+ * Na permissão, o pedido leva também a ficha da concessão (fencing token): um número que
+ * cresce a cada concessão, também entre coordenadores sucessivos. O nó devolve-a na liberação
+ * e nas renovações, e o coordenador ignora as que não trazem a ficha da trava atual (por
+ * exemplo, a liberação tardia de uma concessão que já expirou).
  */
-public class PedidoAcesso implements Comparable<PedidoAcesso> {
+public class PedidoAcesso implements Comparable<PedidoAcesso>, Serializable {
+    private static final long serialVersionUID = 1L;
 
     private final int idNo;
     private final int relogioLamport;
+    private final IntervaloLinhas intervalo; // Linhas que o nó pretende editar (ou ler).
+    private final boolean compartilhado;     // Trava de leitura.
+    private final long ficha;                // Ficha da concessão (0 = pedido ainda não concedido).
 
     public PedidoAcesso(int idNo, int relogioLamport) {
+        this(idNo, relogioLamport, IntervaloLinhas.DOCUMENTO_INTEIRO);
+    }
+
+    public PedidoAcesso(int idNo, int relogioLamport, IntervaloLinhas intervalo) {
+        this(idNo, relogioLamport, intervalo, false);
+    }
+
+    public PedidoAcesso(int idNo, int relogioLamport, IntervaloLinhas intervalo, boolean compartilhado) {
+        this(idNo, relogioLamport, intervalo, compartilhado, 0);
+    }
+
+    public PedidoAcesso(int idNo, int relogioLamport, IntervaloLinhas intervalo, boolean compartilhado, long ficha) {
         this.idNo = idNo;
         this.relogioLamport = relogioLamport;
+        this.intervalo = intervalo;
+        this.compartilhado = compartilhado;
+        this.ficha = ficha;
+    }
+
+    /**
+     * @return O mesmo pedido, concedido com a ficha indicada.
+     */
+    public PedidoAcesso comFicha(long ficha) {
+        return new PedidoAcesso(idNo, relogioLamport, intervalo, compartilhado, ficha);
     }
 
     public int getIdNo() {
         return idNo;
     }
 
+    public int getRelogioLamport() {
+        return relogioLamport;
+    }
+
+    public IntervaloLinhas getIntervalo() {
+        return intervalo;
+    }
+
+    public boolean isCompartilhado() {
+        return compartilhado;
+    }
+
+    public long getFicha() {
+        return ficha;
+    }
+
+    /**
+     * Dois pedidos conflitam se disputam alguma linha e pelo menos um deles é de escrita.
+     */
+    public boolean conflitaCom(PedidoAcesso outro) {
+        return !(compartilhado && outro.compartilhado) && intervalo.sobrepoe(outro.intervalo);
+    }
+
     /**
      * Define a lógica de ordenação para os pedidos na fila de prioridade.
      * A ordenação é a chave para o funcionamento correto do controle de concorrência.
@@ -43,10 +105,11 @@ public class PedidoAcesso implements Comparable<PedidoAcesso> {
 
     /**
      * Retorna uma representação em string do objeto, útil para logging.
-     * @return Uma string formatada, ex: "P1 (Relógio: 5)".
+     * @return Uma string formatada, ex: "P1 (Relógio: 5) [0, ∞]" ou "P1 (Relógio: 5) [0, ∞] leitura".
      */
     @Override
     public String toString() {
-        return String.format("P%d (Relógio: %d)", idNo, relogioLamport);
+        return String.format("P%d (Relógio: %d) %s%s%s", idNo, relogioLamport, intervalo, compartilhado ? " leitura" : "",
+                ficha != 0 ? " ficha " + ficha : "");
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package controlecolaborativo.comum;
+
+/**
+ * A fonte de tempo e de temporizadores da lógica do protocolo: os prazos das concessões, o
+ * detector de falhas, os heartbeats e os tempos da eleição.
+ *
+ * O padrão é o relógio do sistema ({@link #SISTEMA}), com uma thread por {@link Agendador}. Um
+ * relógio virtual (ver {@code controlecolaborativo.rede.RelogioVirtual}) executa as tarefas
+ * de todos os agendadores na thread que o avança, pela ordem dos seus instantes, o que torna
+ * reprodutível uma simulação que só dependa dele. As métricas de latência continuam a medir
+ * o tempo real com {@link System#nanoTime()}.
+ */
+public interface Relogio {
+
+    Relogio SISTEMA = new RelogioSistema();
+
+    /**
+     * @return O instante atual, em nanossegundos, com origem arbitrária (como {@link System#nanoTime()}).
+     */
+    long agoraNs();
+
+    /**
+     * @return O instante atual, em milissegundos, com a mesma origem de {@link #agoraNs()}.
+     */
+    default long agoraMs() {
+        return agoraNs() / 1_000_000;
+    }
+
+    /**
+     * Cria um agendador de tarefas neste relógio. As tarefas de um mesmo agendador nunca correm
+     * em simultâneo.
+     * @param nome Nome da thread das tarefas, no relógio do sistema.
+     */
+    Agendador agendador(String nome);
+}
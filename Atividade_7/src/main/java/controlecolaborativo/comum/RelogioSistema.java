@@ -0,0 +1,68 @@
+package controlecolaborativo.comum;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * O relógio do sistema: {@link System#nanoTime()} e, para cada agendador, um
+ * {@link ScheduledExecutorService} com uma thread daemon.
+ */
+final class RelogioSistema implements Relogio {
+
+    @Override
+    public long agoraNs() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public Agendador agendador(String nome) {
+        return new AgendadorSistema(nome);
+    }
+
+    private static final class AgendadorSistema implements Agendador {
+        private final ScheduledExecutorService executor;
+
+        AgendadorSistema(String nome) {
+            this.executor = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+                Thread thread = new Thread(tarefa, nome);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public Tarefa agendar(Runnable tarefa, long atrasoMs) {
+            return new TarefaSistema(executor.schedule(tarefa, atrasoMs, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public Tarefa agendarPeriodica(Runnable tarefa, long periodoMs) {
+            return new TarefaSistema(executor.scheduleAtFixedRate(tarefa, periodoMs, periodoMs, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public void parar() {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class TarefaSistema implements Agendador.Tarefa {
+        private final ScheduledFuture<?> futuro;
+
+        TarefaSistema(ScheduledFuture<?> futuro) {
+            this.futuro = futuro;
+        }
+
+        @Override
+        public void cancelar() {
+            futuro.cancel(false);
+        }
+
+        @Override
+        public boolean isPendente() {
+            return !futuro.isDone();
+        }
+    }
+}
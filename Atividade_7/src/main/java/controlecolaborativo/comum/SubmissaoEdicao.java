@@ -0,0 +1,49 @@
+package controlecolaborativo.comum;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Edição otimista: operações sobre um intervalo de linhas, calculadas a partir de uma versão
+ * do documento, enviadas ao coordenador sem nenhuma trava (SUBMISSAO_EDICAO).
+ *
+ * O coordenador aplica-as de uma só vez se nenhuma edição posterior à versão base tocou o
+ * intervalo e nenhuma trava atual o cobre. A resposta (EDICAO_ACEITE ou EDICAO_REJEITADA)
+ * repete o identificador do pedido e traz, na versão, a versão criada pela edição ou,
+ * numa rejeição, a versão atual do documento, que a réplica deve alcançar antes de tentar de novo.
+ */
+public class SubmissaoEdicao implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int idPedido;
+    private final long versao;
+    private final IntervaloLinhas intervalo;
+    private final List<OperacaoEdicao> operacoes;
+
+    public SubmissaoEdicao(int idPedido, long versao, IntervaloLinhas intervalo, List<OperacaoEdicao> operacoes) {
+        this.idPedido = idPedido;
+        this.versao = versao;
+        this.intervalo = intervalo;
+        this.operacoes = Collections.unmodifiableList(new ArrayList<>(operacoes));
+    }
+
+    /**
+     * Resposta do coordenador a uma submissão (sem operações).
+     */
+    public static SubmissaoEdicao resposta(SubmissaoEdicao pedido, long versao) {
+        return new SubmissaoEdicao(pedido.idPedido, versao, pedido.intervalo, Collections.<OperacaoEdicao>emptyList());
+    }
+
+    // Getters
+    public int getIdPedido() { return idPedido; }
+    public long getVersao() { return versao; }
+    public IntervaloLinhas getIntervalo() { return intervalo; }
+    public List<OperacaoEdicao> getOperacoes() { return operacoes; }
+
+    @Override
+    public String toString() {
+        return String.format("Submissao#%d(v%d, %s, %d operações)", idPedido, versao, intervalo, operacoes.size());
+    }
+}
@@ -0,0 +1,24 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.MensagemCodificada;
+
+/**
+ * Abstrai a conexão do coordenador com um nó, independentemente do transporte usado
+ * (uma thread bloqueante por conexão em {@link TratadorNo} ou o laço de eventos NIO
+ * em {@link TransporteNio}).
+ */
+public interface ConexaoNo {
+
+    /**
+     * Coloca uma mensagem na fila de saída do nó. Nunca bloqueia: a codificação e a
+     * escrita no socket acontecem fora da thread chamadora.
+     * @return {@code false} se a conexão já estiver encerrada ou se a fila de saída estiver
+     *         cheia (nó lento); nesse caso a mensagem é descartada.
+     */
+    boolean enviar(MensagemCodificada msg);
+
+    /**
+     * Encerra a conexão, liberando os recursos associados.
+     */
+    void fechar();
+}
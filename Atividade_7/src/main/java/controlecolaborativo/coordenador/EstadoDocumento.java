@@ -0,0 +1,75 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.PedidoAcesso;
+
+import controlecolaborativo.comum.SubmissaoEdicao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estado de um documento hospedado pelo coordenador: a versão mestre, as travas com a sua
+ * fila de pedidos, as linhas alteradas pelas versões recentes e os nós que o têm aberto.
+ *
+ * Cada documento pertence a uma única {@link ParticaoDocumentos} e só é acedido pela thread
+ * dela, por isso nada aqui é sincronizado.
+ */
+final class EstadoDocumento {
+
+    final String id;
+    Documento documentoMestre;
+    // Cópia (O(1)) da última versão gravada no WAL. O mestre já contém as edições que aguardam
+    // o WAL; os snapshots enviados aos nós e os checkpoints partem sempre desta cópia.
+    Documento documentoDuravel;
+    // Substituído apenas ao herdar as travas de um coordenador anterior (ver ReplicaTravas).
+    GerenciadorTravas travas = new GerenciadorTravas(Configuracao.preferenciaEscritores());
+    // Travas concedidas sem que a permissão chegasse ao nó (herdadas ou concedidas com ele
+    // desconectado), indexadas pelo detentor: reenviadas quando ele retoma os seus pedidos.
+    final Map<Integer, PedidoAcesso> permissoesPorEntregar = new HashMap<>();
+    // Ficha (fencing token) e fim do prazo (ns) da concessão de cada detentor. Um detentor
+    // herdado não tem ficha até retomar as suas travas; sem prazo, a concessão não expira.
+    final Map<Integer, Long> fichas = new HashMap<>();
+    final Map<Integer, Long> prazos = new HashMap<>();
+    // Travas liberadas cujas edições aguardam o WAL, indexadas pelo detentor. Só a confirmação
+    // da gravação as devolve: nem a desconexão do nó nem uma retomada as retiram antes disso.
+    final Map<Integer, PedidoAcesso> liberacoesPendentes = new HashMap<>();
+    // Linhas alteradas pelas últimas versões, para validar as edições otimistas.
+    final HistoricoEdicoes historico = new HistoricoEdicoes(Configuracao.historicoOtimista());
+    // Nós que abriram o documento e recebem as suas atualizações.
+    final Set<Integer> assinantes = new LinkedHashSet<>();
+    // Acréscimos otimistas aceites e ainda não aplicados: entram juntos numa única versão.
+    final List<EdicaoEmLote> lote = new ArrayList<>();
+    boolean loteEmCurso; // Um lote aplicado aguarda o WAL: o seguinte acumula até ele ser confirmado.
+
+    // Métricas (ver RegistroMetricas).
+    final Map<PedidoAcesso, Long> chegadaPedidos = new HashMap<>();  // Pedido -> chegada (ns).
+    final Map<Integer, Long> inicioPosse = new HashMap<>();          // Nó detentor -> concessão (ns).
+    // Últimos valores somados aos medidores da partição.
+    int filaMedida;
+    int detentoresMedidos;
+
+    EstadoDocumento(String id, Documento documentoMestre) {
+        this.id = id;
+        this.documentoMestre = documentoMestre;
+        this.documentoDuravel = documentoMestre.clonar();
+    }
+
+    /**
+     * Uma edição otimista à espera do fecho do lote, com o nó que a submeteu.
+     */
+    static final class EdicaoEmLote {
+        final int idNo;
+        final SubmissaoEdicao submissao;
+
+        EdicaoEmLote(int idNo, SubmissaoEdicao submissao) {
+            this.idNo = idNo;
+            this.submissao = submissao;
+        }
+    }
+}
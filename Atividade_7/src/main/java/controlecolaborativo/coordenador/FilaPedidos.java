@@ -0,0 +1,319 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.PedidoAcesso;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Fila de espera dos pedidos de um documento, pela ordem de Lamport, indexada pelo nó e pelas linhas.
+ *
+ * Cada pedido é ordenado por uma chave {@code long} que junta o relógio de Lamport (nos 32 bits
+ * altos) e o ID do nó (nos baixos), com a mesma ordem de {@link PedidoAcesso#compareTo}: cada
+ * comparação é uma só comparação de inteiros, sem desreferenciar os pedidos. Dois pedidos com a
+ * mesma chave são o mesmo pedido, e o repetido é descartado.
+ *
+ * A fila é uma treap: uma árvore de procura pela chave, guardada como {@code long} em cada
+ * entrada, e um heap por uma prioridade tirada de um hash da chave, que a mantém equilibrada em
+ * média sem depender da ordem de chegada dos pedidos. Cada entrada resume as linhas da sua
+ * subárvore (a menor linha inicial e a maior final, de todos os pedidos e só das escritas), o que
+ * permite a {@link #proximo} encontrar o primeiro pedido que sobrepõe um intervalo saltando as
+ * subárvores cujo resumo não o sobrepõe.
+ *
+ * O índice por nó torna o cancelamento de todos os pedidos de um nó O(k log n), para k pedidos
+ * dele, em vez de percorrer a fila inteira a cada desconexão.
+ *
+ * Não é thread-safe, como o {@link GerenciadorTravas} que a usa.
+ */
+final class FilaPedidos implements Iterable<PedidoAcesso> {
+
+    private Entrada raiz;
+    private int tamanho;
+    // Pedidos em espera de cada nó, pela ordem de prioridade (quase sempre um ou dois).
+    private final Map<Integer, List<PedidoAcesso>> porNo = new HashMap<>();
+
+    private static final class Entrada {
+        final long chave;
+        final int prioridade;
+        final PedidoAcesso pedido;
+        Entrada esquerda;
+        Entrada direita;
+        // Resumo das linhas da subárvore; sem escritas, o intervalo vazio [MAX_VALUE, -1].
+        int inicioMin;
+        int fimMax;
+        int inicioMinEscritas;
+        int fimMaxEscritas;
+
+        Entrada(long chave, PedidoAcesso pedido) {
+            this.chave = chave;
+            this.prioridade = misturar(chave);
+            this.pedido = pedido;
+            atualizar(this);
+        }
+    }
+
+    /**
+     * @return A chave de ordenação do pedido: o relógio com sinal nos 32 bits altos e o ID do nó,
+     *         deslocado para a ordem sem sinal, nos baixos.
+     */
+    static long chave(PedidoAcesso pedido) {
+        return ((long) pedido.getRelogioLamport() << 32) | ((pedido.getIdNo() ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return {@code false} se o pedido (mesmo nó e relógio) já estava na fila.
+     */
+    boolean adicionar(PedidoAcesso pedido) {
+        long chave = chave(pedido);
+        if (procurar(chave) != null) return false;
+        raiz = inserir(raiz, new Entrada(chave, pedido));
+        tamanho++;
+        List<PedidoAcesso> doNo = porNo.get(pedido.getIdNo());
+        if (doNo == null) {
+            doNo = new ArrayList<>(2);
+            porNo.put(pedido.getIdNo(), doNo);
+        }
+        int i = doNo.size();
+        while (i > 0 && chave(doNo.get(i - 1)) > chave) i--;
+        doNo.add(i, pedido);
+        return true;
+    }
+
+    /**
+     * @return {@code true} se o pedido estava na fila.
+     */
+    boolean remover(PedidoAcesso pedido) {
+        long chave = chave(pedido);
+        Entrada entrada = procurar(chave);
+        if (entrada == null) return false;
+        raiz = remover(raiz, chave);
+        tamanho--;
+        desindexar(entrada.pedido);
+        return true;
+    }
+
+    /**
+     * Remove todos os pedidos do nó.
+     * @return Os pedidos removidos (possivelmente nenhum).
+     */
+    List<PedidoAcesso> removerNo(int idNo) {
+        List<PedidoAcesso> doNo = porNo.remove(idNo);
+        if (doNo == null) return Collections.emptyList();
+        for (PedidoAcesso pedido : doNo) {
+            raiz = remover(raiz, chave(pedido));
+            tamanho--;
+        }
+        return doNo;
+    }
+
+    boolean contem(PedidoAcesso pedido) {
+        return procurar(chave(pedido)) != null;
+    }
+
+    /**
+     * @return Os pedidos do nó, pela ordem de prioridade.
+     */
+    List<PedidoAcesso> doNo(int idNo) {
+        List<PedidoAcesso> doNo = porNo.get(idNo);
+        return doNo == null ? Collections.<PedidoAcesso>emptyList() : new ArrayList<>(doNo);
+    }
+
+    /**
+     * Procura, pela ordem de Lamport, o primeiro pedido depois da chave indicada cujo intervalo
+     * sobrepõe o dado. O custo é O(log n) quando os pedidos de cada subárvore ocupam linhas
+     * próximas; pedidos espalhados pelo documento numa mesma subárvore obrigam a descer a
+     * mais ramos.
+     *
+     * @param compartilhados Só leituras ({@code true}), só escritas ({@code false}) ou todos ({@code null}).
+     * @param depoisDe       Só conta os pedidos com chave maior ({@link Long#MIN_VALUE} para todos).
+     * @return O pedido encontrado, ou {@code null} se não há nenhum.
+     */
+    PedidoAcesso proximo(IntervaloLinhas intervalo, Boolean compartilhados, long depoisDe) {
+        return proximo(raiz, intervalo.getInicio(), intervalo.getFim(), compartilhados, depoisDe);
+    }
+
+    /**
+     * @return O pedido de maior prioridade, ou {@code null} se a fila está vazia.
+     */
+    PedidoAcesso primeiro() {
+        Entrada entrada = raiz;
+        if (entrada == null) return null;
+        while (entrada.esquerda != null) entrada = entrada.esquerda;
+        return entrada.pedido;
+    }
+
+    int tamanho() {
+        return tamanho;
+    }
+
+    void limpar() {
+        raiz = null;
+        tamanho = 0;
+        porNo.clear();
+    }
+
+    /**
+     * Percorre a fila pela ordem de Lamport.
+     */
+    @Override
+    public Iterator<PedidoAcesso> iterator() {
+        final Deque<Entrada> caminho = new ArrayDeque<>();
+        for (Entrada entrada = raiz; entrada != null; entrada = entrada.esquerda) caminho.push(entrada);
+        return new Iterator<PedidoAcesso>() {
+            @Override
+            public boolean hasNext() {
+                return !caminho.isEmpty();
+            }
+
+            @Override
+            public PedidoAcesso next() {
+                if (caminho.isEmpty()) throw new NoSuchElementException();
+                Entrada atual = caminho.pop();
+                for (Entrada entrada = atual.direita; entrada != null; entrada = entrada.esquerda) caminho.push(entrada);
+                return atual.pedido;
+            }
+        };
+    }
+
+    private Entrada procurar(long chave) {
+        Entrada entrada = raiz;
+        while (entrada != null && entrada.chave != chave) {
+            entrada = chave < entrada.chave ? entrada.esquerda : entrada.direita;
+        }
+        return entrada;
+    }
+
+    private static Entrada inserir(Entrada raiz, Entrada nova) {
+        if (raiz == null) return nova;
+        if (nova.chave < raiz.chave) {
+            raiz.esquerda = inserir(raiz.esquerda, nova);
+            if (raiz.esquerda.prioridade > raiz.prioridade) return rodarDireita(raiz);
+        } else {
+            raiz.direita = inserir(raiz.direita, nova);
+            if (raiz.direita.prioridade > raiz.prioridade) return rodarEsquerda(raiz);
+        }
+        atualizar(raiz);
+        return raiz;
+    }
+
+    private static Entrada remover(Entrada raiz, long chave) {
+        if (raiz == null) return null;
+        if (chave < raiz.chave) {
+            raiz.esquerda = remover(raiz.esquerda, chave);
+        } else if (chave > raiz.chave) {
+            raiz.direita = remover(raiz.direita, chave);
+        } else {
+            return juntar(raiz.esquerda, raiz.direita);
+        }
+        atualizar(raiz);
+        return raiz;
+    }
+
+    /**
+     * Junta duas subárvores em que todas as chaves de {@code a} são menores que as de {@code b}.
+     */
+    private static Entrada juntar(Entrada a, Entrada b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.prioridade > b.prioridade) {
+            a.direita = juntar(a.direita, b);
+            atualizar(a);
+            return a;
+        }
+        b.esquerda = juntar(a, b.esquerda);
+        atualizar(b);
+        return b;
+    }
+
+    private static Entrada rodarDireita(Entrada raiz) {
+        Entrada nova = raiz.esquerda;
+        raiz.esquerda = nova.direita;
+        atualizar(raiz);
+        nova.direita = raiz;
+        atualizar(nova);
+        return nova;
+    }
+
+    private static Entrada rodarEsquerda(Entrada raiz) {
+        Entrada nova = raiz.direita;
+        raiz.direita = nova.esquerda;
+        atualizar(raiz);
+        nova.esquerda = raiz;
+        atualizar(nova);
+        return nova;
+    }
+
+    /**
+     * Recalcula o resumo das linhas da entrada a partir do seu pedido e dos filhos.
+     */
+    private static void atualizar(Entrada entrada) {
+        IntervaloLinhas intervalo = entrada.pedido.getIntervalo();
+        entrada.inicioMin = intervalo.getInicio();
+        entrada.fimMax = intervalo.getFim();
+        boolean escrita = !entrada.pedido.isCompartilhado();
+        entrada.inicioMinEscritas = escrita ? intervalo.getInicio() : Integer.MAX_VALUE;
+        entrada.fimMaxEscritas = escrita ? intervalo.getFim() : -1;
+        acrescentarResumo(entrada, entrada.esquerda);
+        acrescentarResumo(entrada, entrada.direita);
+    }
+
+    private static void acrescentarResumo(Entrada entrada, Entrada filho) {
+        if (filho == null) return;
+        entrada.inicioMin = Math.min(entrada.inicioMin, filho.inicioMin);
+        entrada.fimMax = Math.max(entrada.fimMax, filho.fimMax);
+        entrada.inicioMinEscritas = Math.min(entrada.inicioMinEscritas, filho.inicioMinEscritas);
+        entrada.fimMaxEscritas = Math.max(entrada.fimMaxEscritas, filho.fimMaxEscritas);
+    }
+
+    private static PedidoAcesso proximo(Entrada entrada, int inicio, int fim, Boolean compartilhados, long depoisDe) {
+        if (entrada == null) return null;
+        boolean soEscritas = Boolean.FALSE.equals(compartilhados);
+        int inicioMin = soEscritas ? entrada.inicioMinEscritas : entrada.inicioMin;
+        int fimMax = soEscritas ? entrada.fimMaxEscritas : entrada.fimMax;
+        if (inicioMin > fim || inicio > fimMax) return null;
+        if (entrada.chave > depoisDe) {
+            PedidoAcesso encontrado = proximo(entrada.esquerda, inicio, fim, compartilhados, depoisDe);
+            if (encontrado != null) return encontrado;
+            IntervaloLinhas intervalo = entrada.pedido.getIntervalo();
+            if (intervalo.getInicio() <= fim && inicio <= intervalo.getFim()
+                    && (compartilhados == null || entrada.pedido.isCompartilhado() == compartilhados)) {
+                return entrada.pedido;
+            }
+        }
+        return proximo(entrada.direita, inicio, fim, compartilhados, depoisDe);
+    }
+
+    /**
+     * Prioridade de heap da entrada: um hash da chave (o finalizador do MurmurHash3), que dá a
+     * chaves consecutivas prioridades sem relação entre si.
+     */
+    private static int misturar(long chave) {
+        chave ^= chave >>> 33;
+        chave *= 0xff51afd7ed558ccdL;
+        chave ^= chave >>> 33;
+        chave *= 0xc4ceb9fe1a85ec53L;
+        chave ^= chave >>> 33;
+        return (int) chave;
+    }
+
+    private void desindexar(PedidoAcesso pedido) {
+        List<PedidoAcesso> doNo = porNo.get(pedido.getIdNo());
+        if (doNo == null) return;
+        long chave = chave(pedido);
+        for (int i = 0; i < doNo.size(); i++) {
+            if (chave(doNo.get(i)) == chave) {
+                doNo.remove(i);
+                break;
+            }
+        }
+        if (doNo.isEmpty()) porNo.remove(pedido.getIdNo());
+    }
+}
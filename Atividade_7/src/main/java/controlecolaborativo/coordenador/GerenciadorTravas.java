@@ -0,0 +1,332 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.PedidoAcesso;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gerencia travas de escrita (exclusivas) e de leitura (partilhadas) sobre intervalos de
+ * linhas do documento.
+ *
+ * Pedidos que não conflitam (intervalos disjuntos, ou duas leituras) são concedidos em
+ * paralelo. Cada pedido em espera só é ultrapassado por pedidos que não conflitam com ele:
+ * um pedido nunca é concedido enquanto houver, à sua frente na ordem de Lamport, outro
+ * pedido em espera que conflite com ele. Na prática, cada região do documento tem a sua
+ * própria fila ordenada por Lamport, mantida numa única estrutura ordenada ({@link FilaPedidos}).
+ *
+ * Uma liberação ou um cancelamento só reavalia os pedidos em espera que sobrepõem as linhas
+ * libertadas (e, numa liberação, os outros pedidos do mesmo nó), pela ordem de prioridade: os
+ * restantes continuam bloqueados pelo mesmo conflito. Uma escrita reavaliada, concedida ou ainda
+ * à espera, bloqueia os pedidos seguintes nas suas linhas, que deixam de ser procuradas; a
+ * reavaliação pára quando já não sobra nenhuma linha libertada por cobrir.
+ *
+ * Com preferência de escritores, os pedidos de escrita em espera ficam à frente de todos os
+ * pedidos de leitura com que conflitam, independentemente do relógio: um fluxo contínuo de
+ * leituras nunca atrasa uma escrita mais do que as leituras já concedidas.
+ *
+ * Não é thread-safe: cada documento tem o seu, acedido apenas pela thread da sua
+ * {@link ParticaoDocumentos partição}.
+ */
+public class GerenciadorTravas {
+
+    // Pedidos em espera, ordenados pelo relógio de Lamport (e ID do nó como desempate).
+    private final FilaPedidos filaRequisicoes = new FilaPedidos();
+    // Travas concedidas, indexadas pelo ID do nó detentor.
+    private final Map<Integer, PedidoAcesso> detentores = new LinkedHashMap<>();
+    private final boolean preferenciaEscritores;
+
+    public GerenciadorTravas() {
+        this(false);
+    }
+
+    /**
+     * @param preferenciaEscritores Se os pedidos de escrita em espera passam à frente dos de leitura.
+     */
+    public GerenciadorTravas(boolean preferenciaEscritores) {
+        this.preferenciaEscritores = preferenciaEscritores;
+    }
+
+    /**
+     * Registra um pedido de trava. Um pedido repetido (ver {@link #contem}) é ignorado.
+     * @return {@code true} se a trava foi concedida imediatamente; {@code false} se o pedido ficou
+     *         na fila ou era repetido.
+     */
+    public boolean solicitar(PedidoAcesso pedido) {
+        if (contem(pedido)) return false;
+        if (podeConceder(pedido) && !bloqueadoPorPedidoAnterior(pedido)) {
+            detentores.put(pedido.getIdNo(), pedido);
+            return true;
+        }
+        filaRequisicoes.adicionar(pedido);
+        return false;
+    }
+
+    /**
+     * Libera a trava detida por um nó e concede todos os pedidos que se tornaram compatíveis.
+     * @return Os pedidos concedidos em consequência da liberação (possivelmente vazio).
+     */
+    public List<PedidoAcesso> liberar(int idNo) {
+        PedidoAcesso detida = detentores.remove(idNo);
+        if (detida == null) {
+            return Collections.emptyList();
+        }
+        List<IntervaloLinhas> liberadas = new ArrayList<>();
+        liberadas.add(detida.getIntervalo());
+        // Os outros pedidos do nó esperavam pela sua trava, quaisquer que sejam as linhas.
+        for (PedidoAcesso pedido : filaRequisicoes.doNo(idNo)) {
+            liberadas.add(pedido.getIntervalo());
+        }
+        return concederCompativeis(liberadas);
+    }
+
+    /**
+     * Remove todos os vestígios de um nó (pedidos em espera e trava detida), como no rollback
+     * após uma desconexão.
+     * @return Os pedidos concedidos em consequência da remoção (possivelmente vazio).
+     */
+    public List<PedidoAcesso> cancelar(int idNo) {
+        return cancelar(Collections.singleton(idNo));
+    }
+
+    /**
+     * Remove os vestígios de vários nós de uma só vez (ex.: uma desconexão em massa): os pedidos
+     * afetados são reavaliados uma única vez, e não uma vez por nó.
+     * @return Os pedidos concedidos em consequência da remoção (possivelmente vazio).
+     */
+    public List<PedidoAcesso> cancelar(Collection<Integer> nos) {
+        List<IntervaloLinhas> liberadas = new ArrayList<>();
+        for (int idNo : nos) {
+            // Um pedido removido da fila pode ter deixado de bloquear pedidos posteriores.
+            for (PedidoAcesso pedido : filaRequisicoes.removerNo(idNo)) {
+                liberadas.add(pedido.getIntervalo());
+            }
+            PedidoAcesso detida = detentores.remove(idNo);
+            if (detida != null) liberadas.add(detida.getIntervalo());
+        }
+        return concederCompativeis(liberadas);
+    }
+
+    /**
+     * Descarta um único pedido em espera (ex.: um pedido que o nó já não aguarda).
+     * @return Os pedidos concedidos em consequência da remoção (possivelmente vazio).
+     */
+    public List<PedidoAcesso> cancelarPedido(PedidoAcesso pedido) {
+        return filaRequisicoes.remover(pedido)
+                ? concederCompativeis(Collections.singletonList(pedido.getIntervalo())) : Collections.<PedidoAcesso>emptyList();
+    }
+
+    /**
+     * Substitui todo o estado pelos detentores e pela fila indicados, sem conceder nada: usado
+     * por um nó de reserva para reproduzir exatamente o estado do coordenador.
+     */
+    public void restaurar(List<PedidoAcesso> detentores, List<PedidoAcesso> fila) {
+        this.detentores.clear();
+        this.filaRequisicoes.limpar();
+        for (PedidoAcesso pedido : detentores) {
+            this.detentores.put(pedido.getIdNo(), pedido);
+        }
+        for (PedidoAcesso pedido : fila) {
+            this.filaRequisicoes.adicionar(pedido);
+        }
+    }
+
+    /**
+     * @return {@code true} se o pedido (mesmo nó e relógio) está na fila de espera.
+     */
+    public boolean estaNaFila(PedidoAcesso pedido) {
+        return filaRequisicoes.contem(pedido);
+    }
+
+    /**
+     * @return {@code true} se o pedido (mesmo nó e relógio) já está na fila ou já foi concedido:
+     *         um pedido reenviado ou reapresentado, que não deve entrar de novo.
+     */
+    public boolean contem(PedidoAcesso pedido) {
+        PedidoAcesso detido = detentores.get(pedido.getIdNo());
+        return (detido != null && detido.compareTo(pedido) == 0) || filaRequisicoes.contem(pedido);
+    }
+
+    /**
+     * @return Os pedidos do nó que estão na fila de espera, pela ordem de prioridade.
+     */
+    public List<PedidoAcesso> getPedidosEmEspera(int idNo) {
+        return filaRequisicoes.doNo(idNo);
+    }
+
+    /**
+     * @return Uma cópia das travas concedidas, pela ordem de concessão.
+     */
+    public List<PedidoAcesso> getDetentores() {
+        return new ArrayList<>(detentores.values());
+    }
+
+    /**
+     * @return Uma cópia da fila de espera, pela ordem de Lamport.
+     */
+    public List<PedidoAcesso> getFila() {
+        List<PedidoAcesso> fila = new ArrayList<>(filaRequisicoes.tamanho());
+        for (PedidoAcesso pedido : filaRequisicoes) {
+            fila.add(pedido);
+        }
+        return fila;
+    }
+
+    /**
+     * @return {@code true} se alguma trava concedida (de escrita ou de leitura) conflita com o
+     *         pedido. Os pedidos em espera não contam: usado para validar edições otimistas,
+     *         que nunca ficam na fila.
+     */
+    public boolean conflitaComTravas(PedidoAcesso pedido) {
+        return conflitaComAlgum(detentores.values(), pedido);
+    }
+
+    /**
+     * @return O pedido concedido ao nó, ou {@code null} se ele não detém nenhuma trava.
+     */
+    public PedidoAcesso getTrava(int idNo) {
+        return detentores.get(idNo);
+    }
+
+    public int getTamanhoFila() {
+        return filaRequisicoes.tamanho();
+    }
+
+    public int getNumeroDetentores() {
+        return detentores.size();
+    }
+
+    /**
+     * Percorre, pela ordem de prioridade, os pedidos em espera que sobrepõem as linhas
+     * libertadas, concedendo cada um que não conflita com as travas atuais nem com pedidos
+     * prioritários que continuam à espera. Com preferência de escritores, as escritas são
+     * percorridas antes das leituras.
+     */
+    private List<PedidoAcesso> concederCompativeis(List<IntervaloLinhas> liberadas) {
+        List<PedidoAcesso> concedidos = new ArrayList<>();
+        if (filaRequisicoes.tamanho() == 0 || liberadas.isEmpty()) {
+            return concedidos;
+        }
+        List<IntervaloLinhas> abertas = unir(liberadas);
+        if (preferenciaEscritores) {
+            abertas = concederCompativeis(false, abertas, concedidos);
+            concederCompativeis(true, abertas, concedidos);
+        } else {
+            concederCompativeis(null, abertas, concedidos);
+        }
+        return concedidos;
+    }
+
+    /**
+     * @param compartilhados Percorre só as leituras ({@code true}), só as escritas ({@code false}) ou todos ({@code null}).
+     * @param abertas        Linhas libertadas ainda não cobertas por uma escrita reavaliada, disjuntas.
+     * @return As linhas que continuam por cobrir.
+     */
+    private List<IntervaloLinhas> concederCompativeis(Boolean compartilhados, List<IntervaloLinhas> abertas, List<PedidoAcesso> concedidos) {
+        long depoisDe = Long.MIN_VALUE;
+        while (!abertas.isEmpty()) {
+            PedidoAcesso pedido = null;
+            for (IntervaloLinhas aberta : abertas) {
+                PedidoAcesso candidato = filaRequisicoes.proximo(aberta, compartilhados, depoisDe);
+                if (candidato != null && (pedido == null || FilaPedidos.chave(candidato) < FilaPedidos.chave(pedido))) {
+                    pedido = candidato;
+                }
+            }
+            if (pedido == null) break;
+            depoisDe = FilaPedidos.chave(pedido);
+            if (podeConceder(pedido) && !bloqueadoPorPedidoAnterior(pedido)) {
+                filaRequisicoes.remover(pedido);
+                detentores.put(pedido.getIdNo(), pedido);
+                concedidos.add(pedido);
+            }
+            // Concedida ou à espera, uma escrita bloqueia os pedidos seguintes nas suas linhas.
+            if (!pedido.isCompartilhado()) {
+                abertas = subtrair(abertas, pedido.getIntervalo());
+            }
+        }
+        return abertas;
+    }
+
+    /**
+     * @return Os intervalos indicados, ordenados e com os que se sobrepõem ou tocam unidos.
+     */
+    private static List<IntervaloLinhas> unir(List<IntervaloLinhas> intervalos) {
+        List<IntervaloLinhas> ordenados = new ArrayList<>(intervalos);
+        ordenados.sort((a, b) -> Integer.compare(a.getInicio(), b.getInicio()));
+        List<IntervaloLinhas> unidos = new ArrayList<>();
+        IntervaloLinhas atual = ordenados.get(0);
+        for (int i = 1; i < ordenados.size(); i++) {
+            IntervaloLinhas seguinte = ordenados.get(i);
+            if (seguinte.getInicio() <= (long) atual.getFim() + 1) {
+                if (seguinte.getFim() > atual.getFim()) atual = new IntervaloLinhas(atual.getInicio(), seguinte.getFim());
+            } else {
+                unidos.add(atual);
+                atual = seguinte;
+            }
+        }
+        unidos.add(atual);
+        return unidos;
+    }
+
+    /**
+     * @return Os intervalos indicados sem as linhas de {@code removido}.
+     */
+    private static List<IntervaloLinhas> subtrair(List<IntervaloLinhas> intervalos, IntervaloLinhas removido) {
+        List<IntervaloLinhas> restantes = new ArrayList<>(intervalos.size() + 1);
+        for (IntervaloLinhas intervalo : intervalos) {
+            if (!intervalo.sobrepoe(removido)) {
+                restantes.add(intervalo);
+                continue;
+            }
+            if (intervalo.getInicio() < removido.getInicio()) {
+                restantes.add(new IntervaloLinhas(intervalo.getInicio(), removido.getInicio() - 1));
+            }
+            if (intervalo.getFim() > removido.getFim()) {
+                restantes.add(new IntervaloLinhas(removido.getFim() + 1, intervalo.getFim()));
+            }
+        }
+        return restantes;
+    }
+
+    /**
+     * Um nó detém no máximo uma trava por vez; um novo pedido seu aguarda a liberação da atual.
+     */
+    private boolean podeConceder(PedidoAcesso pedido) {
+        return !detentores.containsKey(pedido.getIdNo()) && !conflitaComAlgum(detentores.values(), pedido);
+    }
+
+    /**
+     * Um novo pedido espera por qualquer pedido em espera que tenha prioridade sobre ele e
+     * com o qual conflite: os anteriores na ordem de Lamport e, com preferência de escritores,
+     * todas as escritas em espera (se ele for uma leitura), mas nenhuma leitura (se for uma escrita).
+     */
+    private boolean bloqueadoPorPedidoAnterior(PedidoAcesso pedido) {
+        // Uma leitura só conflita com escritas; uma escrita, com preferência, também só espera por escritas.
+        Boolean conflitantes = pedido.isCompartilhado() || preferenciaEscritores ? Boolean.FALSE : null;
+        PedidoAcesso primeiro = filaRequisicoes.proximo(pedido.getIntervalo(), conflitantes, Long.MIN_VALUE);
+        if (primeiro == null) return false;
+        if (preferenciaEscritores && pedido.isCompartilhado()) return true;
+        return FilaPedidos.chave(primeiro) < FilaPedidos.chave(pedido);
+    }
+
+    private static boolean conflitaComAlgum(Iterable<PedidoAcesso> pedidos, PedidoAcesso pedido) {
+        for (PedidoAcesso outro : pedidos) {
+            if (outro.conflitaCom(pedido)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resume a fila pelo tamanho e pelo primeiro pedido: listá-la inteira custaria O(n).
+     */
+    @Override
+    public String toString() {
+        return "Detentores: " + detentores.values() + ", Fila: " + filaRequisicoes.tamanho() + " pedido(s)"
+                + (filaRequisicoes.tamanho() > 0 ? ", o primeiro " + filaRequisicoes.primeiro() : "");
+    }
+}
@@ -0,0 +1,50 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.IntervaloLinhas;
+
+/**
+ * Intervalos de linhas alterados pelas últimas versões de um documento, num buffer circular
+ * indexado pela versão. Permite validar uma edição otimista sem guardar os deltas: ela só é
+ * aceite se nenhuma versão posterior à sua versão base alterou linhas do seu intervalo.
+ *
+ * Como as operações que deslocam linhas travam o documento até ao fim, um intervalo que não
+ * sobrepõe nenhuma edição posterior tem os mesmos índices na versão base e na atual.
+ *
+ * Não é thread-safe: pertence a um {@link EstadoDocumento}.
+ */
+final class HistoricoEdicoes {
+
+    private final IntervaloLinhas[] intervalos;
+    private long versaoFinal; // Versão da edição mais recente registada.
+    private int tamanho;      // Versões consecutivas registadas, terminando em versaoFinal.
+
+    HistoricoEdicoes(int capacidade) {
+        this.intervalos = new IntervaloLinhas[capacidade];
+    }
+
+    /**
+     * Regista o intervalo alterado pela edição que criou a versão indicada.
+     */
+    void registrar(long versao, IntervaloLinhas intervalo) {
+        if (tamanho > 0 && versao != versaoFinal + 1) {
+            tamanho = 0; // Versões não consecutivas: o histórico anterior deixa de servir.
+        }
+        intervalos[(int) (versao % intervalos.length)] = intervalo;
+        versaoFinal = versao;
+        tamanho = Math.min(tamanho + 1, intervalos.length);
+    }
+
+    /**
+     * @return {@code true} se nenhuma versão entre {@code versaoBase} (exclusive) e
+     *         {@code versaoAtual} alterou linhas do intervalo. Uma versão base que o histórico
+     *         já não cobre (ou posterior à atual) é tratada como conflito.
+     */
+    boolean inalteradoDesde(long versaoBase, long versaoAtual, IntervaloLinhas intervalo) {
+        if (versaoBase == versaoAtual) return true;
+        if (versaoBase > versaoAtual || versaoAtual != versaoFinal || versaoAtual - versaoBase > tamanho) return false;
+        for (long versao = versaoBase + 1; versao <= versaoAtual; versao++) {
+            if (intervalos[(int) (versao % intervalos.length)].sobrepoe(intervalo)) return false;
+        }
+        return true;
+    }
+}
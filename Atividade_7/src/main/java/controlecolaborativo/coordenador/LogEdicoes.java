@@ -0,0 +1,374 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.CodecBinario;
+import controlecolaborativo.comum.DeltaDocumento;
+import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.Logger;
+import controlecolaborativo.comum.Mensagem;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Log de escrita antecipada (WAL) das edições confirmadas por uma partição do coordenador.
+ *
+ * Cada delta aplicado a um documento mestre é acrescentado a um segmento de log antes de
+ * ser propagado às réplicas. Os registros têm o formato
+ * {@code [comprimento: int][crc32: int][delta codificado, com o ID do documento]}, e uma
+ * única thread de escrita agrupa os registros pendentes (group commit) para pagar um único
+ * fsync por lote. Os documentos de uma partição partilham o log, para que milhares de
+ * documentos não precisem de milhares de arquivos abertos.
+ *
+ * Os segmentos de cada partição são numerados por ordem de criação. Num checkpoint,
+ * {@link #iniciarCompactacao()} pede um novo segmento e devolve os atuais; depois de os
+ * snapshots de todos os documentos alterados estarem gravados, esses segmentos são apagados
+ * com {@link #concluirCompactacao(List)}. Na recuperação, o novo líder carrega os snapshots
+ * e reaplica a cauda do log com {@link #recuperar(Function)}. Se a recuperação de algum documento
+ * ficou incompleta, os segmentos lidos nunca são compactados: os registros posteriores à lacuna
+ * continuam disponíveis para uma recuperação manual.
+ */
+public class LogEdicoes {
+
+    private static final String PREFIXO_SEGMENTO = "edicoes-";
+    private static final int LARGURA_NUMERO = 20;
+    private static final String SUFIXO_SEGMENTO = ".wal";
+
+    private final Path diretorio;
+    private final String prefixo; // PREFIXO_SEGMENTO + nome da partição + "-".
+    private final boolean ativo;
+    private final boolean sincronizar;
+    private final int loteMaximo;
+    private final long esperaLoteMs;
+    private final int idCoordenador;
+
+    private final BlockingQueue<Registro> pendentes = new LinkedBlockingQueue<>();
+    private volatile boolean rodando = true;
+    private volatile boolean rotacaoSolicitada = false;
+    private Thread escritor;
+    // Segmentos com registros que a recuperação não conseguiu aplicar: nunca são apagados.
+    private final Set<Path> preservados = new HashSet<>();
+
+    // Estado da thread de escrita.
+    private FileChannel segmentoAtual;
+    private long proximoSegmento;
+
+    /**
+     * Um delta aguardando gravação e a promessa completada quando ele se torna durável.
+     */
+    private static final class Registro {
+        final String documento;
+        final DeltaDocumento delta;
+        final CompletableFuture<Void> duravel = new CompletableFuture<>();
+
+        Registro(String documento, DeltaDocumento delta) {
+            this.documento = documento;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * O resultado de {@link #recuperar(Function)}.
+     */
+    public static final class Recuperacao {
+        private final int reaplicados;
+        private final Set<String> incompletos;
+        private final boolean completa;
+
+        Recuperacao(int reaplicados, Set<String> incompletos, boolean completa) {
+            this.reaplicados = reaplicados;
+            this.incompletos = incompletos;
+            this.completa = completa;
+        }
+
+        /** @return O número de deltas reaplicados. */
+        public int getReaplicados() { return reaplicados; }
+
+        /** @return Os documentos cuja recuperação parou numa lacuna de versão. */
+        public Set<String> getIncompletos() { return incompletos; }
+
+        /** @return {@code false} se algum segmento não pôde ser lido: nenhum documento é seguro. */
+        public boolean isCompleta() { return completa; }
+    }
+
+    /**
+     * @param particao Nome da partição dona do log; distingue os seus segmentos no diretório.
+     */
+    public LogEdicoes(int idCoordenador, String diretorio, String particao, boolean ativo, boolean sincronizar, int loteMaximo, long esperaLoteMs) {
+        this.idCoordenador = idCoordenador;
+        this.diretorio = Paths.get(diretorio);
+        this.prefixo = PREFIXO_SEGMENTO + particao + "-";
+        this.ativo = ativo;
+        this.sincronizar = sincronizar;
+        this.loteMaximo = Math.max(1, loteMaximo);
+        this.esperaLoteMs = Math.max(0, esperaLoteMs);
+    }
+
+    /**
+     * Abre o log para novas gravações. Se falhar, o log fica encerrado e cada
+     * {@link #registrar} falha de imediato, em vez de aguardar por uma gravação que nunca acontece.
+     */
+    public void iniciar() throws IOException {
+        if (!ativo) return;
+        List<Path> existentes;
+        try {
+            Files.createDirectories(diretorio);
+            existentes = listarSegmentos();
+        } catch (IOException e) {
+            rodando = false;
+            throw e;
+        }
+        // Os novos segmentos continuam a numeração dos anteriores (de outros líderes).
+        proximoSegmento = existentes.isEmpty() ? 0 : numeroSegmento(existentes.get(existentes.size() - 1)) + 1;
+        escritor = new Thread(this::executarEscritor, "wal-P" + idCoordenador + "-" + prefixo.substring(PREFIXO_SEGMENTO.length(), prefixo.length() - 1));
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    public void parar() {
+        rodando = false;
+        if (escritor != null) {
+            escritor.interrupt();
+        }
+    }
+
+    /**
+     * Enfileira um delta para gravação. Nunca bloqueia o chamador.
+     * @return Uma promessa completada, na ordem de registro, quando o delta estiver durável.
+     */
+    public CompletableFuture<Void> registrar(String documento, DeltaDocumento delta) {
+        if (!ativo) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Registro registro = new Registro(documento, delta);
+        if (!rodando) {
+            registro.duravel.completeExceptionally(new IOException("Log de edições encerrado."));
+            return registro.duravel;
+        }
+        pendentes.add(registro);
+        return registro.duravel;
+    }
+
+    /**
+     * Primeira fase de um checkpoint, chamada depois de capturados os snapshots: os registros
+     * feitos a partir daqui vão para um novo segmento.
+     * @return Os segmentos atuais, que contêm apenas edições anteriores aos snapshots.
+     */
+    public List<Path> iniciarCompactacao() {
+        if (!ativo) return Collections.emptyList();
+        try {
+            // Lista antes de pedir a rotação: um segmento aberto depois do pedido nunca é apagado.
+            List<Path> cobertos = listarSegmentos();
+            cobertos.removeAll(preservados);
+            rotacaoSolicitada = true;
+            return cobertos;
+        } catch (IOException e) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: falha ao listar o log de edições: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Segunda fase: os snapshots foram gravados, e os segmentos que eles cobrem podem ser apagados.
+     */
+    public void concluirCompactacao(List<Path> cobertos) {
+        try {
+            for (Path segmento : cobertos) {
+                Files.deleteIfExists(segmento);
+            }
+        } catch (IOException e) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: falha ao compactar o log de edições: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reaplica sobre cada documento (carregado do seu snapshot) os deltas posteriores à sua versão.
+     * A leitura para no primeiro registro truncado ou com CRC inválido de cada segmento; uma
+     * lacuna de versão interrompe apenas a recuperação do documento afetado, e os segmentos
+     * lidos passam a ser preservados.
+     * @param documentos Devolve o documento mestre com o ID informado, carregando-o se preciso.
+     */
+    public Recuperacao recuperar(Function<String, Documento> documentos) {
+        Set<String> interrompidos = new HashSet<>();
+        if (!ativo || !Files.isDirectory(diretorio)) return new Recuperacao(0, interrompidos, true);
+        int reaplicados = 0;
+        List<Path> segmentos = Collections.emptyList();
+        try {
+            segmentos = listarSegmentos();
+            for (Path segmento : segmentos) {
+                for (Mensagem registro : lerSegmento(segmento)) {
+                    String id = registro.getDocumento();
+                    if (interrompidos.contains(id)) continue;
+                    DeltaDocumento delta = (DeltaDocumento) registro.getConteudo();
+                    Documento documento = documentos.apply(id);
+                    long versao = documento.getVersao();
+                    if (delta.getVersaoNova() <= versao) {
+                        continue; // Já incluído no snapshot.
+                    }
+                    if (delta.getVersaoBase() != versao) {
+                        Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: lacuna no log de edições (documento " + id + " v" + versao + ", " + delta + "). Recuperação do documento interrompida.");
+                        interrompidos.add(id);
+                        continue;
+                    }
+                    documento.aplicar(delta.getOperacoes(), delta.getVersaoNova());
+                    reaplicados++;
+                }
+            }
+        } catch (IOException e) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: falha ao ler o log de edições: " + e.getMessage());
+            preservados.addAll(segmentos);
+            return new Recuperacao(reaplicados, interrompidos, false);
+        }
+        if (!interrompidos.isEmpty()) {
+            preservados.addAll(segmentos);
+        }
+        return new Recuperacao(reaplicados, interrompidos, true);
+    }
+
+    // --- Thread de escrita (group commit) ---
+
+    private void executarEscritor() {
+        List<Registro> lote = new ArrayList<>(loteMaximo);
+        try {
+            while (rodando) {
+                Registro primeiro = pendentes.take();
+                lote.add(primeiro);
+                // Janela de agrupamento: espera brevemente por mais registros para dividir o fsync.
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaLoteMs);
+                while (lote.size() < loteMaximo) {
+                    long restante = limite - System.nanoTime();
+                    Registro proximo = restante > 0 ? pendentes.poll(restante, TimeUnit.NANOSECONDS) : pendentes.poll();
+                    if (proximo == null) break;
+                    lote.add(proximo);
+                }
+                gravarLote(lote);
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            IOException encerrado = new IOException("Log de edições encerrado.");
+            for (Registro registro : lote) registro.duravel.completeExceptionally(encerrado);
+            Registro restante;
+            while ((restante = pendentes.poll()) != null) restante.duravel.completeExceptionally(encerrado);
+            fecharSegmento();
+        }
+    }
+
+    private void gravarLote(List<Registro> lote) {
+        try {
+            if (segmentoAtual == null || rotacaoSolicitada) {
+                abrirNovoSegmento();
+            }
+            List<ByteBuffer> buffers = new ArrayList<>(lote.size());
+            for (Registro registro : lote) {
+                buffers.add(codificarRegistro(registro.documento, registro.delta));
+            }
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) segmentoAtual.write(buffer);
+            }
+            if (sincronizar) {
+                segmentoAtual.force(false);
+            }
+            for (Registro registro : lote) registro.duravel.complete(null);
+        } catch (IOException e) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.ERRO, "ERRO: falha ao gravar o log de edições: " + e.getMessage());
+            for (Registro registro : lote) registro.duravel.completeExceptionally(e);
+            fecharSegmento(); // Força a abertura de um novo segmento na próxima gravação.
+        }
+    }
+
+    private void abrirNovoSegmento() throws IOException {
+        fecharSegmento();
+        rotacaoSolicitada = false;
+        String nome = String.format("%s%0" + LARGURA_NUMERO + "d-%020d%s", prefixo, proximoSegmento++, System.currentTimeMillis(), SUFIXO_SEGMENTO);
+        segmentoAtual = FileChannel.open(diretorio.resolve(nome),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void fecharSegmento() {
+        if (segmentoAtual != null) {
+            try {
+                segmentoAtual.close();
+            } catch (IOException e) {
+                // Ignorado: o segmento será substituído.
+            }
+            segmentoAtual = null;
+        }
+    }
+
+    // --- Formato dos registros ---
+
+    private static ByteBuffer codificarRegistro(String documento, DeltaDocumento delta) throws IOException {
+        byte[] corpo = CodecBinario.INSTANCIA.codificar(new Mensagem(Mensagem.Tipo.ATUALIZACAO_DELTA, 0, 0, delta, documento));
+        CRC32 crc = new CRC32();
+        crc.update(corpo, 0, corpo.length);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + corpo.length);
+        buffer.putInt(corpo.length).putInt((int) crc.getValue()).put(corpo).flip();
+        return buffer;
+    }
+
+    private List<Mensagem> lerSegmento(Path segmento) throws IOException {
+        List<Mensagem> registros = new ArrayList<>();
+        try (InputStream arquivo = Files.newInputStream(segmento);
+             DataInputStream in = new DataInputStream(new java.io.BufferedInputStream(arquivo))) {
+            while (true) {
+                int comprimento;
+                int crcEsperado;
+                byte[] corpo;
+                try {
+                    comprimento = in.readInt();
+                    crcEsperado = in.readInt();
+                    if (comprimento < 0 || comprimento > 64 * 1024 * 1024) break;
+                    corpo = new byte[comprimento];
+                    in.readFully(corpo);
+                } catch (EOFException e) {
+                    break; // Fim do segmento ou registro parcialmente gravado.
+                }
+                CRC32 crc = new CRC32();
+                crc.update(corpo, 0, corpo.length);
+                if ((int) crc.getValue() != crcEsperado) {
+                    Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: registro corrompido em " + segmento.getFileName() + ". Ignorando o restante do segmento.");
+                    break;
+                }
+                registros.add(CodecBinario.INSTANCIA.decodificar(corpo, 0, corpo.length));
+            }
+        }
+        return registros;
+    }
+
+    private List<Path> listarSegmentos() throws IOException {
+        List<Path> segmentos = new ArrayList<>();
+        if (!Files.isDirectory(diretorio)) return segmentos;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(diretorio, prefixo + "*" + SUFIXO_SEGMENTO)) {
+            for (Path p : stream) segmentos.add(p);
+        }
+        // Os nomes têm campos de largura fixa, então a ordem alfabética é a ordem de criação.
+        Collections.sort(segmentos);
+        return segmentos;
+    }
+
+    private long numeroSegmento(Path segmento) {
+        String nome = segmento.getFileName().toString();
+        return Long.parseLong(nome.substring(prefixo.length(), prefixo.length() + LARGURA_NUMERO));
+    }
+}
@@ -0,0 +1,1155 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.DeltaDocumento;
+import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.EventoTravas;
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.Liberacao;
+import controlecolaborativo.comum.Logger;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.MensagemCodificada;
+import controlecolaborativo.comum.OperacaoEdicao;
+import controlecolaborativo.comum.PedidoAcesso;
+import controlecolaborativo.comum.Relogio;
+import controlecolaborativo.comum.SubmissaoEdicao;
+import controlecolaborativo.metricas.Histograma;
+import controlecolaborativo.metricas.RegistroMetricas;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Uma partição do estado do coordenador: o subconjunto dos documentos cujo ID cai nela
+ * (pelo hash), servido por uma única thread.
+ *
+ * Todas as operações sobre esses documentos (pedidos, liberações, edições otimistas, aberturas
+ * e a captura dos checkpoints) são tarefas executadas em ordem por essa thread. Assim, documentos de
+ * partições diferentes nunca disputam o mesmo monitor, e os de uma mesma partição dispensam
+ * sincronização. Cada partição tem o seu próprio log de edições.
+ *
+ * Um documento é carregado do seu checkpoint na primeira mensagem que o refere. O documento
+ * padrão continua em {@link Configuracao#arquivoCheckpoint()}; os restantes ficam em
+ * {@link Configuracao#diretorioCheckpoints()}, um arquivo por documento.
+ */
+final class ParticaoDocumentos {
+
+    // IDs aceites: também são nomes de arquivo, por isso não podem conter separadores.
+    private static final Pattern ID_VALIDO = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]{0,127}");
+    // Ordem de Lamport das edições de um lote (o relógio do pedido e, no empate, o ID do nó).
+    private static final Comparator<EstadoDocumento.EdicaoEmLote> ORDEM_LAMPORT =
+            Comparator.<EstadoDocumento.EdicaoEmLote>comparingInt(e -> e.submissao.getIdPedido()).thenComparingInt(e -> e.idNo);
+
+    private final ServicoCoordenador servico;
+    private final Relogio relogio; // O dos prazos das concessões (as métricas medem o tempo real).
+    private final int idCoordenador;
+    private final String nome;
+    private final ExecutorService executor;
+    private final LogEdicoes logEdicoes;
+    private final int loteMaximo = Configuracao.loteMaximoEdicoes();
+    private final long duracaoConcessaoNs = TimeUnit.MILLISECONDS.toNanos(Configuracao.duracaoConcessaoMs());
+
+    // Estado da thread da partição.
+    private final Map<String, EstadoDocumento> documentos = new HashMap<>();
+    private final Set<String> alterados = new HashSet<>(); // Documentos alterados desde o último checkpoint.
+    private final Set<EstadoDocumento> comPrazo = new LinkedHashSet<>(); // Documentos com concessões a expirar.
+    private final Set<Integer> nosRemovidos = new LinkedHashSet<>(); // Desconexões à espera de serem tratadas juntas.
+    private long edicoesRegistradas;  // Deltas enviados ao WAL...
+    private long edicoesConfirmadas;  // ... e os que já voltaram dele (gravados ou não), na mesma ordem.
+    // Captura de um checkpoint à espera de que os deltas anteriores à rotação do WAL voltem dele.
+    private volatile CompletableFuture<Captura> capturaPendente;
+    private List<Path> segmentosCaptura;
+    private long alvoCaptura;
+
+    // Medidores: escritos apenas pela thread da partição e somados pelo ServicoCoordenador.
+    private volatile int tamanhoFila;
+    private volatile int numeroDetentores;
+    private volatile int numeroDocumentos;
+
+    private final Histograma esperaTrava;        // Da chegada do pedido ao envio da permissão.
+    private final Histograma posseTrava;         // Da permissão à liberação (seção crítica vista pelo coordenador).
+    private final Histograma profundidadeFila;   // Tamanho da fila de espera do documento a cada novo pedido.
+    private final Histograma difusao;            // Tempo para enfileirar um delta para todos os assinantes.
+    private final Histograma duracaoCheckpoint;
+    private final LongAdder submissoesAceites;
+    private final LongAdder submissoesRejeitadas;
+    private final Histograma tamanhoLote;       // Edições otimistas combinadas em cada versão.
+    private final LongAdder concessoesExpiradas;
+    private final LongAdder liberacoesRejeitadas; // Liberações sem a ficha da concessão atual.
+    private final LongAdder pedidosRepetidos;     // Pedidos que já estavam na fila ou concedidos.
+    private final LongAdder mensagensInvalidas;   // Renovações e submissões com um conteúdo que não se pode usar.
+
+    /**
+     * Os snapshots e os segmentos do WAL capturados na thread da partição para um checkpoint.
+     */
+    private static final class Captura {
+        final Map<String, Documento> snapshots;
+        final List<Path> segmentos;
+        final int relogio;
+
+        Captura(Map<String, Documento> snapshots, List<Path> segmentos, int relogio) {
+            this.snapshots = snapshots;
+            this.segmentos = segmentos;
+            this.relogio = relogio;
+        }
+    }
+
+    /**
+     * @param logs Cria o log de edições da partição a partir do nome dela.
+     */
+    ParticaoDocumentos(ServicoCoordenador servico, int idCoordenador, int indice, Function<String, LogEdicoes> logs) {
+        this.servico = servico;
+        this.relogio = servico.getRelogioFisico();
+        this.idCoordenador = idCoordenador;
+        this.nome = String.format("s%02d", indice);
+        this.executor = Executors.newSingleThreadExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "particao-P" + idCoordenador + "-" + nome);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.logEdicoes = logs.apply(nome);
+        RegistroMetricas metricas = RegistroMetricas.global();
+        this.esperaTrava = metricas.histograma("coordenador.espera_trava_us");
+        this.posseTrava = metricas.histograma("coordenador.posse_trava_us");
+        this.profundidadeFila = metricas.histograma("coordenador.profundidade_fila");
+        this.difusao = metricas.histograma("coordenador.difusao_us");
+        this.duracaoCheckpoint = metricas.histograma("coordenador.checkpoint_us");
+        this.submissoesAceites = metricas.contador("coordenador.submissoes_aceites");
+        this.submissoesRejeitadas = metricas.contador("coordenador.submissoes_rejeitadas");
+        this.tamanhoLote = metricas.histograma("coordenador.lote_edicoes");
+        this.concessoesExpiradas = metricas.contador("coordenador.concessoes_expiradas");
+        this.liberacoesRejeitadas = metricas.contador("coordenador.liberacoes_rejeitadas");
+        this.pedidosRepetidos = metricas.contador("coordenador.pedidos_repetidos");
+        this.mensagensInvalidas = metricas.contador("coordenador.mensagens_invalidas");
+    }
+
+    /**
+     * @return {@code true} se o ID pode nomear um documento (e o seu arquivo de checkpoint).
+     */
+    static boolean idValido(String id) {
+        return ID_VALIDO.matcher(id).matches();
+    }
+
+    /**
+     * Reaplica as edições confirmadas depois do último checkpoint e abre o log para novas
+     * gravações. Chamado uma única vez, antes de a partição receber qualquer tarefa.
+     */
+    void recuperar() {
+        LogEdicoes.Recuperacao recuperacao = logEdicoes.recuperar(id -> documento(id).documentoMestre);
+        int reaplicadas = recuperacao.getReaplicados();
+        for (EstadoDocumento estado : documentos.values()) {
+            estado.documentoDuravel = estado.documentoMestre.clonar(); // Tudo o que foi lido do WAL já é durável.
+        }
+        // Os documentos referidos pelo WAL entram no próximo checkpoint, que o compacta. Um
+        // documento recuperado só em parte não: o checkpoint gravaria a versão incompleta.
+        if (recuperacao.isCompleta()) {
+            alterados.addAll(documentos.keySet());
+            alterados.removeAll(recuperacao.getIncompletos());
+        }
+        if (reaplicadas > 0) {
+            Logger.logCoordenador(idCoordenador, "Partição " + nome + ": " + reaplicadas + " edições reaplicadas a partir do WAL ("
+                    + documentos.size() + " documento(s)).");
+        }
+        try {
+            logEdicoes.iniciar();
+        } catch (IOException e) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.ERRO, "ERRO: Falha ao abrir o log de edições da partição " + nome + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Instala as travas herdadas de um documento. Chamado, como {@link #recuperar()}, antes de a
+     * partição receber qualquer tarefa. As permissões devidas ao próprio coordenador (que
+     * abandona os seus pedidos) só são enviadas quando os nós reconectam e retomam os pedidos.
+     * Cada trava herdada recebe um prazo completo, contado a partir da troca de coordenador.
+     */
+    void herdar(String id, GerenciadorTravas travas, long versao) {
+        EstadoDocumento estado = documento(id);
+        if (estado.documentoMestre.getVersao() < versao) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: '" + id + "' recuperado em v" + estado.documentoMestre.getVersao()
+                    + ", mas o coordenador anterior já estava em v" + versao + ".");
+        }
+        estado.travas = travas;
+        // As permissões do anterior podem ter-se perdido com ele; as concedidas ao cancelar os
+        // pedidos deste nó são registadas por enviarPermissao, já que ninguém está conectado.
+        for (PedidoAcesso detentor : travas.getDetentores()) {
+            estado.permissoesPorEntregar.put(detentor.getIdNo(), detentor);
+            definirPrazo(estado, detentor.getIdNo());
+        }
+        concederPedidos(estado, travas.cancelar(idCoordenador));
+        estado.permissoesPorEntregar.remove(idCoordenador);
+        atualizarMedidores(estado);
+    }
+
+    /**
+     * Envia a uma reserva o estado das travas de cada documento da partição que tem alguma
+     * trava ou pedido, e executa {@code aoConcluir} na thread da partição.
+     */
+    void sincronizarReserva(int idReserva, Runnable aoConcluir) {
+        executar(() -> {
+            for (EstadoDocumento estado : documentos.values()) {
+                if (estado.travas.getNumeroDetentores() + estado.travas.getTamanhoFila() > 0) {
+                    servico.replicar(idReserva, estado.id, EventoTravas.estado(estado.travas.getDetentores(),
+                            estado.travas.getFila(), estado.documentoDuravel.getVersao()));
+                }
+            }
+            aoConcluir.run();
+        });
+    }
+
+    void parar() {
+        executor.shutdownNow();
+        logEdicoes.parar();
+        CompletableFuture<Captura> captura = capturaPendente;
+        if (captura != null) captura.completeExceptionally(new IOException("Partição encerrada."));
+    }
+
+    /**
+     * Enfileira uma mensagem de um nó para a thread da partição.
+     */
+    void processar(int idNo, Mensagem msg) {
+        executar(() -> tratar(idNo, msg));
+    }
+
+    /**
+     * Descarta os vestígios de um nó desconectado em todos os documentos da partição.
+     *
+     * Como no lote de acréscimos, a primeira desconexão agenda o tratamento para depois das
+     * tarefas já enfileiradas: numa desconexão em massa, todos os nós que caíram entretanto são
+     * removidos de uma só vez, com uma única procura de pedidos compatíveis por documento.
+     */
+    void removerNo(int idNo) {
+        executar(() -> {
+            nosRemovidos.add(idNo);
+            if (nosRemovidos.size() == 1) executar(this::removerNos);
+        });
+    }
+
+    private void removerNos() {
+        if (nosRemovidos.isEmpty()) return; // Já tratados antes de uma mensagem de um deles.
+        Set<Integer> nos = new HashSet<>(nosRemovidos);
+        nosRemovidos.clear();
+        for (EstadoDocumento estado : documentos.values()) {
+            cancelarNos(estado, nos);
+        }
+    }
+
+    /**
+     * Retira as travas cujas concessões passaram do prazo: o detentor é avisado
+     * (TRAVA_EXPIRADA), as edições que ainda não enviou perdem-se, como num rollback, e os
+     * pedidos em espera são atendidos. Chamado periodicamente pelo agendador do serviço.
+     */
+    void expirarConcessoes() {
+        executar(() -> {
+            long agora = relogio.agoraNs();
+            // Cópia: a trava retirada pode ser concedida a outro pedido, com um prazo novo.
+            for (EstadoDocumento estado : new ArrayList<>(comPrazo)) {
+                List<Integer> expirados = new ArrayList<>();
+                for (Map.Entry<Integer, Long> e : estado.prazos.entrySet()) {
+                    if (e.getValue() - agora <= 0) expirados.add(e.getKey());
+                }
+                for (int idNo : expirados) {
+                    expirar(estado, idNo, "expirou");
+                }
+                if (estado.prazos.isEmpty()) comPrazo.remove(estado);
+            }
+        });
+    }
+
+    int getTamanhoFila() {
+        return tamanhoFila;
+    }
+
+    int getNumeroDetentores() {
+        return numeroDetentores;
+    }
+
+    int getNumeroDocumentos() {
+        return numeroDocumentos;
+    }
+
+    private void executar(Runnable tarefa) {
+        try {
+            executor.execute(() -> {
+                try {
+                    tarefa.run();
+                } catch (RuntimeException e) {
+                    Logger.logCoordenador(idCoordenador, Logger.Nivel.ERRO, "ERRO na partição " + nome + ": " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Partição encerrada com o serviço: a tarefa é descartada.
+        }
+    }
+
+    private void tratar(int idNo, Mensagem msg) {
+        // Um nó que reconectou antes de a sua desconexão ser tratada: os pedidos antigos saem primeiro.
+        if (nosRemovidos.contains(idNo)) removerNos();
+        EstadoDocumento estado = documento(msg.getDocumento());
+        switch (msg.getTipo()) {
+            case REQUISICAO_SC:
+            case REQUISICAO_LEITURA:
+                // Pedidos sem intervalo (formato antigo) travam o documento inteiro.
+                IntervaloLinhas intervalo = msg.getConteudo() instanceof IntervaloLinhas
+                        ? (IntervaloLinhas) msg.getConteudo() : IntervaloLinhas.DOCUMENTO_INTEIRO;
+                solicitarAcesso(estado, new PedidoAcesso(idNo, msg.getRelogioLamport(), intervalo,
+                        msg.getTipo() == Mensagem.Tipo.REQUISICAO_LEITURA));
+                break;
+            case LIBERACAO_SC:
+                if (msg.getConteudo() instanceof Liberacao) {
+                    Liberacao liberacao = (Liberacao) msg.getConteudo();
+                    liberarRecurso(estado, idNo, liberacao.getFicha(), liberacao.getOperacoes());
+                } else {
+                    // Sem ficha não há como verificar a concessão: a trava fica até expirar.
+                    liberacoesRejeitadas.increment();
+                    Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " liberou '" + estado.id + "' sem ficha. Liberação ignorada.");
+                }
+                break;
+            case RENOVAR_TRAVA:
+                if (msg.getConteudo() instanceof Number) {
+                    renovarConcessao(estado, idNo, ((Number) msg.getConteudo()).longValue());
+                } else {
+                    // Sem ficha a renovação não pode ser verificada: em vez de o nó contar com um
+                    // prazo que não foi prolongado, a trava é-lhe retirada já, com o aviso.
+                    mensagensInvalidas.increment();
+                    Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " renovou a trava de '" + estado.id
+                            + "' sem ficha (" + descrever(msg.getConteudo()) + "). Renovação recusada.");
+                    expirar(estado, idNo, "não pôde ser renovada");
+                }
+                break;
+            case SUBMISSAO_EDICAO:
+                servico.sincronizarRelogio(msg.getRelogioLamport());
+                if (msg.getConteudo() instanceof SubmissaoEdicao && ((SubmissaoEdicao) msg.getConteudo()).getIntervalo() != null) {
+                    submeterEdicao(estado, idNo, (SubmissaoEdicao) msg.getConteudo());
+                } else {
+                    rejeitarSubmissaoInvalida(estado, idNo, msg.getConteudo());
+                }
+                break;
+            case PEDIDO_SNAPSHOT:
+                Logger.logCoordenador(idCoordenador, "P" + idNo + " detectou lacuna de versão em '" + estado.id + "'. Enviando snapshot v" + estado.documentoDuravel.getVersao());
+                enviarSnapshot(estado, idNo);
+                break;
+            case ABRIR_DOCUMENTO:
+                // A abertura repete-se a cada reconexão: o snapshot repõe a réplica do nó.
+                estado.assinantes.add(idNo);
+                if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+                    Logger.logCoordenador(idCoordenador, "P" + idNo + " abriu o documento '" + estado.id + "' (" + estado.assinantes.size() + " assinantes).");
+                }
+                enviarSnapshot(estado, idNo);
+                break;
+            case RETOMAR_TRAVAS:
+                retomarTravas(estado, idNo, (EventoTravas) msg.getConteudo());
+                break;
+            case FECHAR_DOCUMENTO:
+                estado.assinantes.remove(idNo);
+                if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+                    Logger.logCoordenador(idCoordenador, "P" + idNo + " fechou o documento '" + estado.id + "'.");
+                }
+                break;
+            default:
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: Mensagem de tipo inesperado recebida: " + msg.getTipo());
+        }
+        atualizarMedidores(estado);
+    }
+
+    /**
+     * Devolve o estado do documento, carregando-o do checkpoint na primeira vez.
+     */
+    private EstadoDocumento documento(String id) {
+        EstadoDocumento estado = documentos.get(id);
+        if (estado == null) {
+            estado = new EstadoDocumento(id, carregarCheckpoint(id));
+            documentos.put(id, estado);
+            numeroDocumentos = documentos.size();
+        }
+        return estado;
+    }
+
+    /**
+     * Processa uma solicitação de acesso (de escrita ou de leitura) de um nó.
+     */
+    private void solicitarAcesso(EstadoDocumento estado, PedidoAcesso pedido) {
+        servico.sincronizarRelogio(pedido.getRelogioLamport());
+        if (estado.travas.contem(pedido)) {
+            // O mesmo pedido (nó e relógio) recebido de novo: entrar outra vez daria duas permissões.
+            pedidosRepetidos.increment();
+            if (ServicoCoordenador.logAtivo(Logger.Nivel.DEBUG)) {
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.DEBUG, "Pedido repetido " + pedido + " em '" + estado.id + "' ignorado.");
+            }
+            return;
+        }
+        if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+            Logger.logCoordenador(idCoordenador, "Nó " + pedido + " solicitou acesso à seção crítica de '" + estado.id + "'.");
+        }
+        estado.chegadaPedidos.put(pedido, System.nanoTime());
+        profundidadeFila.registrar(estado.travas.getTamanhoFila());
+
+        boolean concedido = estado.travas.solicitar(pedido);
+        replicar(estado, EventoTravas.Tipo.PEDIDO, pedido.getIdNo(), pedido);
+        if (concedido) {
+            // Nenhum conflito com as travas atuais: concede a permissão imediatamente.
+            enviarPermissao(estado, pedido);
+        } else if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+            // Só os tamanhos: listar a fila inteira custaria O(n) a cada pedido.
+            Logger.logCoordenador(idCoordenador, "Intervalo ocupado. Pedido " + pedido + " adicionado à fila de '" + estado.id + "' ("
+                    + estado.travas.getTamanhoFila() + " em espera, " + estado.travas.getNumeroDetentores() + " travas concedidas).");
+        }
+    }
+
+    /**
+     * Processa a liberação do recurso por um nó.
+     * As operações realizadas na seção crítica são aplicadas sobre o documento mestre
+     * e apenas esse delta, marcado com a nova versão, é propagado aos assinantes.
+     *
+     * O delta só é propagado, e a trava só é devolvida, depois de gravado no WAL: assim
+     * nenhuma réplica ou próximo detentor observa uma edição que se perderia numa falha. Se a
+     * gravação falhar, a liberação falha: as edições são desfeitas e a trava é devolvida sem elas.
+     *
+     * Uma liberação que não traz a ficha da concessão atual (uma que expirou e foi substituída,
+     * ou sem ficha nenhuma) é descartada. Só uma trava herdada cuja ficha o detentor ainda não
+     * reapresentou é liberada sem verificação, porque o coordenador não a conhece.
+     *
+     * Enquanto as edições aguardam o WAL, a trava fica em {@code liberacoesPendentes}: uma
+     * liberação repetida é ignorada e, se o nó cair entretanto, a trava continua com ele até a
+     * gravação terminar. A confirmação só devolve a trava se ela ainda for a mesma concessão.
+     */
+    private void liberarRecurso(EstadoDocumento estado, int idNo, long ficha, List<OperacaoEdicao> operacoes) {
+        servico.avancarRelogio();
+        if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+            Logger.logCoordenador(idCoordenador, "Nó P" + idNo + " liberou a seção crítica de '" + estado.id + "'.");
+        }
+
+        PedidoAcesso travaDetida = estado.travas.getTrava(idNo);
+        if (travaDetida == null) {
+            // Uma liberação de quem não detém o recurso (ex.: após um rollback) é descartada.
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " não detém a seção crítica de '" + estado.id + "'. Edições ignoradas.");
+            return;
+        }
+        if (estado.liberacoesPendentes.get(idNo) == travaDetida) {
+            liberacoesRejeitadas.increment();
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " liberou de novo '" + estado.id
+                    + "' antes de as edições anteriores serem gravadas. Liberação ignorada.");
+            return;
+        }
+        Long fichaAtual = estado.fichas.get(idNo);
+        if (fichaAtual != null && fichaAtual != ficha) {
+            liberacoesRejeitadas.increment();
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " liberou a concessão " + ficha + " de '" + estado.id
+                    + "', mas detém a " + fichaAtual + ". Liberação ignorada.");
+            return;
+        }
+        // Liberada: a concessão já não expira enquanto as edições são gravadas.
+        estado.prazos.remove(idNo);
+        Long concedidaEm = estado.inicioPosse.remove(idNo);
+        if (concedidaEm != null) {
+            posseTrava.registrar((System.nanoTime() - concedidaEm) / 1000);
+        }
+
+        if (operacoes != null && !operacoes.isEmpty()) {
+            if (travaDetida.isCompartilhado()) {
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " enviou edições com uma trava de leitura. Edições rejeitadas.");
+            } else if (!dentroDoIntervalo(operacoes, travaDetida.getIntervalo())) {
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " editou fora do intervalo " + travaDetida.getIntervalo() + ". Edições rejeitadas.");
+            } else {
+                estado.liberacoesPendentes.put(idNo, travaDetida);
+                Runnable devolver = () -> {
+                    estado.liberacoesPendentes.remove(idNo, travaDetida);
+                    // Só se ainda for a concessão liberada: a ficha pode ter sido apresentada entretanto
+                    // (trava herdada retomada), mas nunca trocada por outra.
+                    Long fichaDepois = estado.fichas.get(idNo);
+                    if (estado.travas.getTrava(idNo) == travaDetida && (fichaAtual == null || fichaAtual.equals(fichaDepois))) {
+                        devolverTrava(estado, idNo);
+                    }
+                    atualizarMedidores(estado);
+                };
+                aplicarEdicao(estado, travaDetida.getIntervalo(), operacoes, delta -> devolver.run(), () -> {
+                    Logger.logCoordenador(idCoordenador, Logger.Nivel.ERRO, "ERRO: as edições de P" + idNo + " em '" + estado.id + "' não foram gravadas. Liberação sem edições.");
+                    devolver.run();
+                });
+                return;
+            }
+        }
+        devolverTrava(estado, idNo);
+    }
+
+    /**
+     * Libera a trava do nó e atende os pedidos que deixaram de estar bloqueados.
+     */
+    private void devolverTrava(EstadoDocumento estado, int idNo) {
+        estado.fichas.remove(idNo);
+        estado.prazos.remove(idNo);
+        List<PedidoAcesso> concedidos = estado.travas.liberar(idNo);
+        estado.permissoesPorEntregar.remove(idNo);
+        replicar(estado, EventoTravas.Tipo.LIBERACAO, idNo, null);
+        concederPedidos(estado, concedidos);
+    }
+
+    /**
+     * Prolonga por mais um prazo completo a concessão do nó, se a ficha for a da trava que ele
+     * detém. Uma renovação de uma concessão já liberada ou expirada é ignorada.
+     */
+    private void renovarConcessao(EstadoDocumento estado, int idNo, long ficha) {
+        Long fichaAtual = estado.fichas.get(idNo);
+        if (fichaAtual == null || fichaAtual != ficha || !estado.prazos.containsKey(idNo)) {
+            if (ServicoCoordenador.logAtivo(Logger.Nivel.DEBUG)) {
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.DEBUG, "Renovação da concessão " + ficha + " de P" + idNo + " em '" + estado.id + "' ignorada.");
+            }
+            return;
+        }
+        definirPrazo(estado, idNo);
+    }
+
+    /**
+     * Retira ao nó uma trava cujo prazo terminou (ver {@link #expirarConcessoes()}) ou que não
+     * pôde ser renovada, e avisa-o com TRAVA_EXPIRADA.
+     * @param motivo O que aconteceu à concessão, para o log ("expirou").
+     */
+    private void expirar(EstadoDocumento estado, int idNo, String motivo) {
+        PedidoAcesso trava = estado.travas.getTrava(idNo);
+        Long ficha = estado.fichas.get(idNo);
+        estado.prazos.remove(idNo);
+        // Já liberada, à espera do WAL: a gravação devolve-a (ver liberarRecurso).
+        if (trava == null || estado.liberacoesPendentes.get(idNo) == trava) return;
+        concessoesExpiradas.increment();
+        Logger.logCoordenador(idCoordenador, "[EXPIRAÇÃO] A concessão de " + trava + " em '" + estado.id + "' " + motivo + ". Trava retirada.");
+        // Uma permissão que nunca chegou ao nó dispensa o aviso.
+        if (servico.isConectado(idNo) && !estado.permissoesPorEntregar.containsKey(idNo)) {
+            Mensagem msg = new Mensagem(Mensagem.Tipo.TRAVA_EXPIRADA, 0, servico.avancarRelogio(), trava.comFicha(ficha != null ? ficha : 0), estado.id);
+            servico.enviar(idNo, new MensagemCodificada(msg));
+        }
+        estado.inicioPosse.remove(idNo);
+        devolverTrava(estado, idNo);
+        atualizarMedidores(estado);
+    }
+
+    private void definirPrazo(EstadoDocumento estado, int idNo) {
+        if (duracaoConcessaoNs <= 0) return;
+        estado.prazos.put(idNo, relogio.agoraNs() + duracaoConcessaoNs);
+        comPrazo.add(estado);
+    }
+
+    /**
+     * Concilia as travas herdadas do coordenador anterior com o que o nó reapresenta depois de
+     * uma troca a quente: uma trava que o nó já devolveu (a liberação perdeu-se na falha) é
+     * liberada, pedidos que ele já não aguarda são descartados, uma permissão perdida é enviada
+     * de novo e os pedidos que a réplica não chegou a receber entram na fila pelo seu relógio.
+     * A réplica não tem as fichas: uma trava herdada fica com a que o nó reapresenta.
+     */
+    private void retomarTravas(EstadoDocumento estado, int idNo, EventoTravas visao) {
+        PedidoAcesso detida = estado.travas.getTrava(idNo);
+        // Uma trava liberada que aguarda o WAL é devolvida pela gravação, não pela retomada.
+        if (detida != null && estado.liberacoesPendentes.get(idNo) != detida
+                && !contemPedido(visao.getDetentores(), detida) && !contemPedido(visao.getFila(), detida)) {
+            estado.inicioPosse.remove(idNo);
+            devolverTrava(estado, idNo);
+        }
+        for (PedidoAcesso pedido : estado.travas.getPedidosEmEspera(idNo)) {
+            if (!contemPedido(visao.getFila(), pedido)) {
+                estado.chegadaPedidos.remove(pedido);
+                List<PedidoAcesso> concedidos = estado.travas.cancelarPedido(pedido);
+                replicar(estado, EventoTravas.Tipo.CANCELAMENTO, idNo, pedido);
+                concederPedidos(estado, concedidos);
+            }
+        }
+        for (PedidoAcesso pedido : visao.getDetentores()) {
+            if (pedido.getIdNo() != idNo) continue;
+            PedidoAcesso atual = estado.travas.getTrava(idNo);
+            if (atual == null || atual.compareTo(pedido) != 0) {
+                // Concedida pelo anterior sem chegar à réplica: a liberação do nó será rejeitada.
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " detém " + pedido + " em '" + estado.id + "', desconhecida da réplica.");
+            } else if (pedido.getFicha() != 0) {
+                estado.fichas.putIfAbsent(idNo, pedido.getFicha());
+            }
+        }
+        for (PedidoAcesso pedido : visao.getFila()) {
+            if (pedido.getIdNo() != idNo) continue;
+            PedidoAcesso atual = estado.travas.getTrava(idNo);
+            if (atual != null && atual.compareTo(pedido) == 0) {
+                // Já concedida: só se reenvia a permissão que nunca saiu por esta conexão.
+                if (estado.permissoesPorEntregar.containsKey(idNo)) enviarPermissao(estado, atual);
+            } else if (!estado.travas.estaNaFila(pedido)) {
+                solicitarAcesso(estado, pedido);
+            }
+        }
+        if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+            Logger.logCoordenador(idCoordenador, "P" + idNo + " retomou " + visao.getDetentores().size() + " trava(s) e "
+                    + visao.getFila().size() + " pedido(s) em '" + estado.id + "'.");
+        }
+    }
+
+    private static boolean contemPedido(List<PedidoAcesso> pedidos, PedidoAcesso pedido) {
+        for (PedidoAcesso outro : pedidos) {
+            if (outro.compareTo(pedido) == 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Envia uma alteração das travas do documento às reservas do coordenador, se houver.
+     */
+    private void replicar(EstadoDocumento estado, EventoTravas.Tipo tipo, int idNo, PedidoAcesso pedido) {
+        if (!servico.temReservas()) return;
+        long versao = estado.documentoDuravel.getVersao();
+        servico.replicar(estado.id, tipo == EventoTravas.Tipo.PEDIDO ? EventoTravas.pedido(pedido, versao)
+                : tipo == EventoTravas.Tipo.LIBERACAO ? EventoTravas.liberacao(idNo, versao)
+                : EventoTravas.cancelamento(idNo, pedido, versao));
+    }
+
+    /**
+     * Processa uma edição otimista: é aplicada de imediato se as suas linhas não foram
+     * alteradas desde a versão base nem estão travadas; caso contrário é rejeitada com a
+     * versão atual, que o nó espera alcançar antes de recalcular a edição.
+     *
+     * Uma edição só de acréscimos comuta com qualquer outra e dispensa a versão base: entra
+     * no lote do documento, aplicado de uma só vez (ver {@link #fecharLote}).
+     */
+    private void submeterEdicao(EstadoDocumento estado, int idNo, SubmissaoEdicao submissao) {
+        long versaoAtual = estado.documentoMestre.getVersao();
+        IntervaloLinhas intervalo = submissao.getIntervalo();
+        String conflito = null;
+        if (!dentroDoIntervalo(submissao.getOperacoes(), intervalo)) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " submeteu edições fora do intervalo " + intervalo + ". Edições rejeitadas.");
+            conflito = "operações fora do intervalo";
+        } else if (submissao.getOperacoes().isEmpty()) {
+            responderSubmissao(estado, idNo, Mensagem.Tipo.EDICAO_ACEITE, SubmissaoEdicao.resposta(submissao, versaoAtual));
+            return;
+        } else if (somenteAcrescimos(submissao.getOperacoes())) {
+            adicionarAoLote(estado, new EstadoDocumento.EdicaoEmLote(idNo, submissao));
+            return;
+        } else if (estado.travas.conflitaComTravas(new PedidoAcesso(idNo, submissao.getIdPedido(), intervalo))) {
+            conflito = "linhas travadas";
+        } else if (!estado.historico.inalteradoDesde(submissao.getVersao(), versaoAtual, intervalo)) {
+            conflito = "linhas alteradas desde v" + submissao.getVersao();
+        }
+        if (conflito != null) {
+            rejeitarSubmissao(estado, idNo, submissao, conflito);
+            return;
+        }
+        submissoesAceites.increment();
+        tamanhoLote.registrar(1);
+        aplicarEdicao(estado, intervalo, submissao.getOperacoes(), delta ->
+                // Depois do delta, na mesma fila de saída: o nó confirma com a réplica já atualizada.
+                responderSubmissao(estado, idNo, Mensagem.Tipo.EDICAO_ACEITE, SubmissaoEdicao.resposta(submissao, delta.getVersaoNova())),
+                () -> rejeitarSubmissao(estado, idNo, submissao, "falha ao gravar no WAL"));
+    }
+
+    private void rejeitarSubmissao(EstadoDocumento estado, int idNo, SubmissaoEdicao submissao, String conflito) {
+        submissoesRejeitadas.increment();
+        if (ServicoCoordenador.logAtivo(Logger.Nivel.DEBUG)) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.DEBUG, "Submissão de P" + idNo + " em '" + estado.id + "' rejeitada (" + conflito + "): " + submissao);
+        }
+        responderSubmissao(estado, idNo, Mensagem.Tipo.EDICAO_REJEITADA, SubmissaoEdicao.resposta(submissao, estado.documentoMestre.getVersao()));
+    }
+
+    /**
+     * Junta um acréscimo ao lote do documento. Enquanto o lote anterior aguarda o WAL, os
+     * acréscimos acumulam-se e o lote fecha na confirmação dele (como no group commit). Sem
+     * lote em curso, o primeiro acréscimo agenda o fecho para depois das tarefas já
+     * enfileiradas na partição. Um lote cheio fecha de imediato.
+     */
+    private void adicionarAoLote(EstadoDocumento estado, EstadoDocumento.EdicaoEmLote edicao) {
+        estado.lote.add(edicao);
+        if (estado.lote.size() >= loteMaximo) {
+            fecharLote(estado);
+        } else if (estado.lote.size() == 1 && !estado.loteEmCurso) {
+            executar(() -> {
+                if (!estado.loteEmCurso) fecharLote(estado);
+            });
+        }
+    }
+
+    /**
+     * Aplica os acréscimos do lote, pela ordem de Lamport, como uma única versão: um registro
+     * no WAL, um delta difundido e, depois dele, a confirmação a cada autor. Se uma trava
+     * cobrir entretanto o fim do documento, todo o lote é rejeitado.
+     */
+    private void fecharLote(EstadoDocumento estado) {
+        if (estado.lote.isEmpty()) return; // Já fechado por ter enchido.
+        List<EstadoDocumento.EdicaoEmLote> lote = new ArrayList<>(estado.lote);
+        estado.lote.clear();
+        if (estado.travas.conflitaComTravas(new PedidoAcesso(0, 0, IntervaloLinhas.FIM_DOCUMENTO))) {
+            for (EstadoDocumento.EdicaoEmLote edicao : lote) {
+                rejeitarSubmissao(estado, edicao.idNo, edicao.submissao, "fim do documento travado");
+            }
+            return;
+        }
+        lote.sort(ORDEM_LAMPORT);
+        List<OperacaoEdicao> operacoes = new ArrayList<>();
+        for (EstadoDocumento.EdicaoEmLote edicao : lote) {
+            operacoes.addAll(edicao.submissao.getOperacoes());
+        }
+        submissoesAceites.add(lote.size());
+        tamanhoLote.registrar(lote.size());
+        estado.loteEmCurso = true;
+        aplicarEdicao(estado, IntervaloLinhas.FIM_DOCUMENTO, operacoes, delta -> {
+            for (EstadoDocumento.EdicaoEmLote edicao : lote) {
+                responderSubmissao(estado, edicao.idNo, Mensagem.Tipo.EDICAO_ACEITE, SubmissaoEdicao.resposta(edicao.submissao, delta.getVersaoNova()));
+            }
+            estado.loteEmCurso = false;
+            fecharLote(estado); // Os acréscimos que chegaram durante a gravação.
+        }, () -> {
+            for (EstadoDocumento.EdicaoEmLote edicao : lote) {
+                rejeitarSubmissao(estado, edicao.idNo, edicao.submissao, "falha ao gravar no WAL");
+            }
+            estado.loteEmCurso = false;
+            fecharLote(estado);
+        });
+    }
+
+    private static boolean somenteAcrescimos(List<OperacaoEdicao> operacoes) {
+        for (OperacaoEdicao op : operacoes) {
+            if (op.getTipo() != OperacaoEdicao.Tipo.ADICIONAR) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Aplica as operações ao documento mestre como uma nova versão e grava o delta no WAL.
+     * As promessas do WAL completam na ordem de registro e a confirmação volta à fila da
+     * partição, preservando a ordem das versões.
+     * @param aoConfirmar Executado na partição depois de o delta ser gravado e difundido:
+     *                    libera a trava ou responde às edições otimistas que o originaram.
+     * @param aoFalhar    Executado na partição, em vez de {@code aoConfirmar}, se o delta não
+     *                    chegar a ser durável; a edição já foi então desfeita.
+     */
+    private void aplicarEdicao(EstadoDocumento estado, IntervaloLinhas intervalo, List<OperacaoEdicao> operacoes,
+                               Consumer<DeltaDocumento> aoConfirmar, Runnable aoFalhar) {
+        Documento mestre = estado.documentoMestre;
+        long versaoBase = mestre.getVersao();
+        mestre.aplicar(operacoes, versaoBase + 1);
+        Documento copia = mestre.clonar(); // A versão que passa a ser durável quando o delta for gravado.
+        estado.historico.registrar(versaoBase + 1, intervalo);
+        DeltaDocumento delta = new DeltaDocumento(versaoBase, versaoBase + 1, operacoes);
+        if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+            Logger.logCoordenador(idCoordenador, "Documento mestre '" + estado.id + "' atualizado: " + delta);
+        }
+        edicoesRegistradas++;
+        logEdicoes.registrar(estado.id, delta).whenComplete((ok, erro) -> executar(() -> confirmarEdicao(estado, delta, copia, erro, aoConfirmar, aoFalhar)));
+    }
+
+    /**
+     * Conclui uma edição após a gravação do delta no WAL: a cópia gravada passa a ser a versão
+     * durável, o delta é propagado aos assinantes e só então a trava é liberada ou as edições
+     * otimistas são confirmadas.
+     *
+     * Se a gravação falhou, nada é difundido: o mestre volta ao conteúdo da última versão
+     * durável, descartando também as edições seguintes (que assentavam nesta e falham ao
+     * voltar do WAL). O conteúdo reposto recebe a versão mais alta já atribuída, para que
+     * nenhum número de versão seja reutilizado, e os assinantes recebem o snapshot dele. Até
+     * ao checkpoint seguinte, uma edição que chegou ao disco apesar do erro ainda pode
+     * reaparecer numa recuperação.
+     */
+    private void confirmarEdicao(EstadoDocumento estado, DeltaDocumento delta, Documento copia, Throwable erro,
+                                 Consumer<DeltaDocumento> aoConfirmar, Runnable aoFalhar) {
+        edicoesConfirmadas++;
+        // Serviço encerrado: a edição não chega a ser confirmada.
+        if (servico.isRodando()) {
+            long versaoDuravel = estado.documentoDuravel.getVersao();
+            if (erro == null && delta.getVersaoBase() == versaoDuravel) {
+                estado.documentoDuravel = copia;
+                alterados.add(estado.id);
+                difundirDelta(estado, delta);
+                aoConfirmar.accept(delta);
+            } else {
+                if (delta.getVersaoBase() == versaoDuravel) {
+                    Logger.logCoordenador(idCoordenador, Logger.Nivel.ERRO, "ERRO: " + delta + " de '" + estado.id + "' não foi gravado no WAL: "
+                            + erro.getMessage() + ". Documento reposto na v" + versaoDuravel + ".");
+                    desfazerEdicoes(estado);
+                }
+                aoFalhar.run();
+            }
+        }
+        if (capturaPendente != null && edicoesConfirmadas >= alvoCaptura) concluirCaptura();
+    }
+
+    /**
+     * Repõe o mestre no conteúdo da última versão durável (ver {@link #confirmarEdicao}).
+     */
+    private void desfazerEdicoes(EstadoDocumento estado) {
+        long versao = estado.documentoMestre.getVersao();
+        estado.documentoMestre = Documento.deLinhas(estado.documentoDuravel.obterLinhas(), versao);
+        estado.documentoDuravel = estado.documentoMestre.clonar();
+        alterados.add(estado.id);
+        for (Integer idDestino : estado.assinantes) {
+            enviarSnapshot(estado, idDestino);
+        }
+    }
+
+    /**
+     * Lógica de Rollback: se um nó caiu na seção crítica, a sua trava é descartada junto com
+     * quaisquer pedidos pendentes, e os próximos compatíveis são atendidos.
+     *
+     * Com vários nós, a fila é percorrida uma só vez, o que pode conceder em outra ordem do que
+     * cancelamentos sucessivos: as reservas recebem então o estado resultante (ESTADO) em vez de
+     * um CANCELAMENTO por nó.
+     */
+    private void cancelarNos(EstadoDocumento estado, Set<Integer> nos) {
+        List<Integer> afetados = new ArrayList<>(); // Nós com travas ou pedidos neste documento.
+        for (int idNo : nos) {
+            estado.assinantes.remove(idNo);
+            estado.inicioPosse.remove(idNo);
+            estado.permissoesPorEntregar.remove(idNo);
+            // Só os pedidos do nó, pelo índice da fila, em vez de percorrer todas as chegadas.
+            List<PedidoAcesso> emEspera = estado.travas.getPedidosEmEspera(idNo);
+            for (PedidoAcesso pedido : emEspera) {
+                estado.chegadaPedidos.remove(pedido);
+            }
+            if (estado.liberacoesPendentes.containsKey(idNo)) {
+                // O nó já liberou a trava: as edições dele são gravadas e a confirmação do WAL
+                // devolve-a. Só os pedidos em espera são cancelados.
+                for (PedidoAcesso pedido : emEspera) {
+                    List<PedidoAcesso> concedidos = estado.travas.cancelarPedido(pedido);
+                    replicar(estado, EventoTravas.Tipo.CANCELAMENTO, idNo, pedido);
+                    concederPedidos(estado, concedidos);
+                }
+                continue;
+            }
+            estado.fichas.remove(idNo);
+            estado.prazos.remove(idNo);
+            boolean estavaNaSecaoCritica = estado.travas.getTrava(idNo) != null;
+            if (estavaNaSecaoCritica || !emEspera.isEmpty()) afetados.add(idNo);
+            if (estavaNaSecaoCritica) {
+                Logger.logCoordenador(idCoordenador, "[ROLLBACK] Nó P" + idNo + " caiu na seção crítica de '" + estado.id + "'. Alteração descartada.");
+            }
+        }
+        if (afetados.isEmpty()) return;
+        List<PedidoAcesso> concedidos = estado.travas.cancelar(afetados);
+        if (afetados.size() == 1) {
+            replicar(estado, EventoTravas.Tipo.CANCELAMENTO, afetados.get(0), null);
+        } else if (servico.temReservas()) {
+            servico.replicar(estado.id, EventoTravas.estado(estado.travas.getDetentores(), estado.travas.getFila(), estado.documentoMestre.getVersao()));
+        }
+        concederPedidos(estado, concedidos);
+        atualizarMedidores(estado);
+    }
+
+    /**
+     * Envia a permissão a cada pedido concedido pelo gerenciador de travas.
+     */
+    private void concederPedidos(EstadoDocumento estado, List<PedidoAcesso> concedidos) {
+        for (PedidoAcesso pedido : concedidos) {
+            if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+                Logger.logCoordenador(idCoordenador, "Concedendo permissão ao próximo da fila de '" + estado.id + "': " + pedido);
+            }
+            enviarPermissao(estado, pedido);
+        }
+    }
+
+    /**
+     * Soma aos medidores da partição a variação da fila e das travas do documento.
+     */
+    private void atualizarMedidores(EstadoDocumento estado) {
+        int fila = estado.travas.getTamanhoFila();
+        int detentores = estado.travas.getNumeroDetentores();
+        tamanhoFila += fila - estado.filaMedida;
+        numeroDetentores += detentores - estado.detentoresMedidos;
+        estado.filaMedida = fila;
+        estado.detentoresMedidos = detentores;
+    }
+
+    /**
+     * Verifica se todas as operações se limitam às linhas travadas pelo nó.
+     */
+    private static boolean dentroDoIntervalo(List<OperacaoEdicao> operacoes, IntervaloLinhas intervalo) {
+        for (OperacaoEdicao op : operacoes) {
+            if (!intervalo.contem(op.intervaloAfetado())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Envia a mensagem de PERMISSAO_SC para o nó do pedido. O conteúdo é o próprio pedido,
+     * para que o nó saiba qual dos seus pedidos foi atendido e em que intervalo, com a ficha
+     * da concessão. Reenviar uma permissão mantém a ficha e recomeça o prazo.
+     */
+    private void enviarPermissao(EstadoDocumento estado, PedidoAcesso pedido) {
+        int idDestino = pedido.getIdNo();
+        long agora = System.nanoTime();
+        Long chegada = estado.chegadaPedidos.remove(pedido);
+        if (chegada != null) {
+            esperaTrava.registrar((agora - chegada) / 1000);
+        }
+        estado.inicioPosse.put(idDestino, agora);
+        Long ficha = estado.fichas.get(idDestino);
+        if (ficha == null) {
+            ficha = servico.novaFicha();
+            estado.fichas.put(idDestino, ficha);
+        }
+        definirPrazo(estado, idDestino);
+        pedido = pedido.comFicha(ficha);
+        if (!servico.isConectado(idDestino)) {
+            estado.permissoesPorEntregar.put(idDestino, pedido);
+        } else {
+            estado.permissoesPorEntregar.remove(idDestino);
+            Mensagem msg = new Mensagem(Mensagem.Tipo.PERMISSAO_SC, 0, servico.avancarRelogio(), pedido, estado.id);
+            if (servico.enviar(idDestino, new MensagemCodificada(msg)) && ServicoCoordenador.logAtivo(Logger.Nivel.DEBUG)) {
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.DEBUG, "Permissão enviada para P" + idDestino + " no intervalo " + pedido.getIntervalo() + " de '" + estado.id + "'");
+            }
+        }
+    }
+
+    /**
+     * Recusa uma submissão que não se pode aplicar. Uma submissão sem intervalo recebe a
+     * rejeição habitual, para que o futuro do nó termine; um conteúdo de outro tipo não
+     * identifica nenhum pedido a que responder e só fica no log.
+     */
+    private void rejeitarSubmissaoInvalida(EstadoDocumento estado, int idNo, Object conteudo) {
+        mensagensInvalidas.increment();
+        Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " enviou uma submissão inválida para '" + estado.id
+                + "' (" + descrever(conteudo) + "). Submissão rejeitada.");
+        if (conteudo instanceof SubmissaoEdicao) {
+            submissoesRejeitadas.increment();
+            responderSubmissao(estado, idNo, Mensagem.Tipo.EDICAO_REJEITADA,
+                    SubmissaoEdicao.resposta((SubmissaoEdicao) conteudo, estado.documentoMestre.getVersao()));
+        }
+    }
+
+    private static String descrever(Object conteudo) {
+        return conteudo == null ? "sem conteúdo" : conteudo.getClass().getSimpleName();
+    }
+
+    /**
+     * Responde a uma edição otimista (EDICAO_ACEITE ou EDICAO_REJEITADA).
+     */
+    private void responderSubmissao(EstadoDocumento estado, int idDestino, Mensagem.Tipo tipo, SubmissaoEdicao resposta) {
+        if (servico.isConectado(idDestino)) {
+            Mensagem msg = new Mensagem(tipo, 0, servico.avancarRelogio(), resposta, estado.id);
+            servico.enviar(idDestino, new MensagemCodificada(msg));
+        }
+    }
+
+    /**
+     * Envia o snapshot completo do documento (ATUALIZACAO_DOCUMENTO) para um nó: usado na
+     * abertura do documento e quando a réplica reporta uma lacuna de versão. O snapshot é o da
+     * última versão durável; as edições que aguardam o WAL chegam depois, como deltas.
+     */
+    private void enviarSnapshot(EstadoDocumento estado, int idDestino) {
+        if (servico.isConectado(idDestino)) {
+            Mensagem msg = new Mensagem(Mensagem.Tipo.ATUALIZACAO_DOCUMENTO, 0, servico.avancarRelogio(), estado.documentoDuravel.clonar(), estado.id);
+            servico.enviar(idDestino, new MensagemCodificada(msg));
+        }
+    }
+
+    /**
+     * Difunde a mensagem de ATUALIZACAO_DELTA para os nós que têm o documento aberto.
+     * A mensagem é codificada uma única vez (por codec) e partilhada pelas filas de saída.
+     */
+    private void difundirDelta(EstadoDocumento estado, DeltaDocumento delta) {
+        long inicio = System.nanoTime();
+        MensagemCodificada msg = new MensagemCodificada(new Mensagem(Mensagem.Tipo.ATUALIZACAO_DELTA, 0, servico.avancarRelogio(), delta, estado.id));
+        // Um envio que falha remove o nó por uma tarefa posterior, sem alterar os assinantes durante o laço.
+        for (Integer idDestino : estado.assinantes) {
+            servico.enviar(idDestino, msg);
+        }
+        difusao.registrar((System.nanoTime() - inicio) / 1000);
+    }
+
+    // --- Checkpoints ---
+
+    /**
+     * Salva o estado dos documentos alterados desde o checkpoint anterior, um arquivo por
+     * documento, e compacta o WAL da partição. Chamado pela thread do agendador.
+     *
+     * Na thread da partição apenas se captura um snapshot copy-on-write de cada documento, em
+     * O(1); a serialização e a escrita em disco não atrasam pedidos e liberações. Os snapshots
+     * são os das versões duráveis, capturados depois de voltarem do WAL todos os deltas
+     * anteriores à rotação do segmento, que podem estar nos segmentos a apagar. Cada arquivo
+     * é escrito num temporário e renomeado, para que uma falha durante a escrita nunca deixe
+     * um checkpoint parcial no lugar do anterior. Se algum documento falhar, o WAL fica
+     * intacto e os documentos voltam a entrar no próximo checkpoint.
+     */
+    void salvarCheckpoint() {
+        long inicio = System.nanoTime();
+        Captura captura;
+        try {
+            captura = CompletableFuture.supplyAsync(this::capturar, executor).thenCompose(c -> c).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException | RejectedExecutionException e) {
+            return; // Partição encerrada.
+        }
+        if (captura.snapshots.isEmpty()) return;
+        long duracaoCaptura = System.nanoTime() - inicio;
+
+        long bytesGravados = 0;
+        try {
+            for (Map.Entry<String, Documento> e : captura.snapshots.entrySet()) {
+                bytesGravados += gravarCheckpoint(e.getKey(), e.getValue());
+            }
+        } catch (IOException e) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.ERRO, "ERRO: Falha ao salvar checkpoint da partição " + nome + ": " + e.getMessage());
+            Set<String> ids = captura.snapshots.keySet();
+            executar(() -> alterados.addAll(ids));
+            return;
+        }
+        // Os segmentos do WAL cobertos por estes checkpoints já não são necessários.
+        logEdicoes.concluirCompactacao(captura.segmentos);
+        duracaoCheckpoint.registrar((System.nanoTime() - inicio) / 1000);
+        Logger.logCoordenador(idCoordenador, String.format(
+                "CHECKPOINT %s salvo com sucesso: %d bytes, captura %.3f ms, total %d ms. (Relógio: %d)",
+                resumir(captura.snapshots), bytesGravados, duracaoCaptura / 1e6,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio), captura.relogio));
+    }
+
+    /**
+     * Executada na thread da partição: pede um novo segmento ao WAL e agenda a cópia dos
+     * documentos alterados para quando voltarem dele os deltas já registrados.
+     */
+    private CompletableFuture<Captura> capturar() {
+        CompletableFuture<Captura> captura = new CompletableFuture<>();
+        if (alterados.isEmpty()) {
+            captura.complete(new Captura(Collections.<String, Documento>emptyMap(), Collections.<Path>emptyList(), servico.getRelogio()));
+            return captura;
+        }
+        segmentosCaptura = logEdicoes.iniciarCompactacao();
+        alvoCaptura = edicoesRegistradas;
+        capturaPendente = captura;
+        if (edicoesConfirmadas >= alvoCaptura) concluirCaptura();
+        return captura;
+    }
+
+    /**
+     * Copia as versões duráveis dos documentos alterados, que passam a cobrir os segmentos
+     * do WAL anteriores à rotação.
+     */
+    private void concluirCaptura() {
+        Map<String, Documento> snapshots = new LinkedHashMap<>();
+        for (String id : alterados) {
+            snapshots.put(id, documentos.get(id).documentoDuravel.clonar());
+        }
+        alterados.clear();
+        CompletableFuture<Captura> captura = capturaPendente;
+        capturaPendente = null;
+        captura.complete(new Captura(snapshots, segmentosCaptura, servico.getRelogio()));
+    }
+
+    private static String resumir(Map<String, Documento> snapshots) {
+        if (snapshots.size() == 1) {
+            Map.Entry<String, Documento> e = snapshots.entrySet().iterator().next();
+            return String.format("'%s' v%d (%d linhas)", e.getKey(), e.getValue().getVersao(), e.getValue().tamanho());
+        }
+        List<String> ids = new ArrayList<>(snapshots.keySet());
+        return snapshots.size() + " documentos (" + (ids.size() > 5 ? String.join(", ", ids.subList(0, 5)) + ", ..." : String.join(", ", ids)) + ")";
+    }
+
+    /**
+     * @return O arquivo de checkpoint do documento.
+     */
+    static Path arquivoCheckpoint(String id) {
+        if (Mensagem.DOCUMENTO_PADRAO.equals(id)) {
+            return Paths.get(Configuracao.arquivoCheckpoint());
+        }
+        return Paths.get(Configuracao.diretorioCheckpoints(), id + ".dat");
+    }
+
+    /**
+     * Grava o snapshot do documento no seu arquivo de checkpoint.
+     * @return O número de bytes gravados.
+     */
+    private long gravarCheckpoint(String id, Documento snapshot) throws IOException {
+        Path arquivo = arquivoCheckpoint(id);
+        Path temporario = Paths.get(arquivo + ".tmp");
+        if (arquivo.getParent() != null) {
+            Files.createDirectories(arquivo.getParent());
+        }
+        long bytesGravados;
+        try (FileOutputStream fos = new FileOutputStream(temporario.toFile());
+             SaidaComProgresso progresso = new SaidaComProgresso(new BufferedOutputStream(fos), id, snapshot.getVersao());
+             ObjectOutputStream oos = new ObjectOutputStream(progresso)) {
+            oos.writeObject(snapshot);
+            oos.flush();
+            fos.getFD().sync();
+            bytesGravados = progresso.getBytesGravados();
+        }
+        // O temporário é fechado antes de ser renomeado (exigido em alguns sistemas).
+        Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bytesGravados;
+    }
+
+    /**
+     * Conta os bytes gravados no checkpoint e reporta o progresso de escritas longas.
+     */
+    private final class SaidaComProgresso extends FilterOutputStream {
+        private static final long INTERVALO_PROGRESSO = 16L * 1024 * 1024;
+
+        private final String id;
+        private final long versao;
+        private long bytesGravados;
+        private long proximoRelatorio = INTERVALO_PROGRESSO;
+
+        SaidaComProgresso(OutputStream destino, String id, long versao) {
+            super(destino);
+            this.id = id;
+            this.versao = versao;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            contar(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            contar(len);
+        }
+
+        private void contar(int n) {
+            bytesGravados += n;
+            if (bytesGravados >= proximoRelatorio) {
+                Logger.logCoordenador(idCoordenador, "CHECKPOINT '" + id + "' v" + versao + " em andamento: " + (bytesGravados >> 20) + " MB gravados...");
+                proximoRelatorio += INTERVALO_PROGRESSO;
+            }
+        }
+
+        long getBytesGravados() {
+            return bytesGravados;
+        }
+    }
+
+    /**
+     * Carrega o documento a partir do seu arquivo de checkpoint, se existir.
+     */
+    private Documento carregarCheckpoint(String id) {
+        File f = arquivoCheckpoint(id).toFile();
+        if (f.exists()) {
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                Documento documento = (Documento) ois.readObject();
+                Logger.logCoordenador(idCoordenador, "Documento '" + id + "' restaurado do último checkpoint (v" + documento.getVersao() + ").");
+                return documento;
+            } catch (IOException | ClassNotFoundException e) {
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.ERRO, "ERRO: Falha ao carregar o checkpoint de '" + id + "': " + e.getMessage());
+                return new Documento();
+            }
+        }
+        if (ServicoCoordenador.logAtivo(Logger.Nivel.INFO)) {
+            Logger.logCoordenador(idCoordenador, "Nenhum checkpoint de '" + id + "' encontrado. Iniciando com um documento novo.");
+        }
+        return new Documento();
+    }
+}
@@ -0,0 +1,133 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.EventoTravas;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cópia das travas do coordenador mantida por um nó de reserva (hot standby).
+ *
+ * O coordenador envia a cada reserva, pela mesma conexão usada pelos pedidos, os eventos que
+ * alteram as travas de cada documento (REPLICACAO_TRAVAS). Como o {@link GerenciadorTravas} é
+ * determinístico, aplicar os mesmos eventos pela mesma ordem reproduz exatamente a fila e os
+ * detentores. Se a reserva vencer a eleição, o novo {@link ServicoCoordenador} parte deste estado
+ * em vez de filas vazias, e os nós em espera mantêm a sua posição.
+ *
+ * A replicação é assíncrona: os eventos dos últimos instantes antes da falha podem não ter
+ * chegado. O novo coordenador corrige essa diferença com o RETOMAR_TRAVAS de cada nó.
+ * As fichas e os prazos das concessões também não são replicados: o novo coordenador dá a
+ * cada trava herdada um prazo novo e adota a ficha que o detentor reapresenta.
+ *
+ * Thread-safe: escrita pela thread ouvinte do nó e lida por quem declara a vitória.
+ */
+public final class ReplicaTravas {
+
+    private final Map<String, GerenciadorTravas> travas = new HashMap<>();
+    private final Map<String, Long> versoes = new HashMap<>();
+    private int relogio;
+    private int coordenador; // Coordenador que envia os eventos.
+    private int origem;      // Coordenador cujo estado completo esta cópia tem (0 = incompleta).
+
+    /**
+     * O estado entregue ao novo coordenador.
+     */
+    public static final class Heranca {
+        final Map<String, GerenciadorTravas> travas;
+        final Map<String, Long> versoes;
+        final int relogio;
+        private final int origem;
+
+        private Heranca(Map<String, GerenciadorTravas> travas, Map<String, Long> versoes, int relogio, int origem) {
+            this.travas = travas;
+            this.versoes = versoes;
+            this.relogio = relogio;
+            this.origem = origem;
+        }
+
+        /**
+         * @return O coordenador cujas travas foram herdadas.
+         */
+        public int getOrigem() {
+            return origem;
+        }
+    }
+
+    /**
+     * Descarta a cópia ao (re)conectar a um coordenador: ela só volta a estar completa depois
+     * de uma sincronização desse coordenador.
+     */
+    public synchronized void iniciar(int idCoordenador) {
+        limpar();
+        coordenador = idCoordenador;
+    }
+
+    /**
+     * Aplica um evento recebido do coordenador.
+     * @param relogio O relógio de Lamport da mensagem.
+     */
+    public synchronized void aplicar(String documento, int relogio, EventoTravas evento) {
+        this.relogio = Math.max(this.relogio, relogio);
+        switch (evento.getTipo()) {
+            case LIMPAR:
+                limpar();
+                return;
+            case SINCRONIZADO:
+                origem = coordenador;
+                return;
+            default:
+                break;
+        }
+        GerenciadorTravas gerenciador = travas.get(documento);
+        if (gerenciador == null) {
+            gerenciador = new GerenciadorTravas(Configuracao.preferenciaEscritores());
+            travas.put(documento, gerenciador);
+        }
+        versoes.put(documento, evento.getVersao());
+        switch (evento.getTipo()) {
+            case PEDIDO:
+                gerenciador.solicitar(evento.getPedido());
+                break;
+            case LIBERACAO:
+                gerenciador.liberar(evento.getIdNo());
+                break;
+            case CANCELAMENTO:
+                if (evento.getPedido() != null) {
+                    gerenciador.cancelarPedido(evento.getPedido());
+                } else {
+                    gerenciador.cancelar(evento.getIdNo());
+                }
+                break;
+            case ESTADO:
+                gerenciador.restaurar(evento.getDetentores(), evento.getFila());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return O coordenador cujo estado completo esta cópia tem, ou 0 se ela está incompleta.
+     */
+    public synchronized int getOrigem() {
+        return origem;
+    }
+
+    /**
+     * Entrega a cópia ao novo coordenador e esvazia-a.
+     * @return O estado herdado, ou {@code null} se a cópia estava incompleta.
+     */
+    public synchronized Heranca assumir() {
+        Heranca heranca = origem == 0 ? null : new Heranca(new HashMap<>(travas), new HashMap<>(versoes), relogio, origem);
+        limpar();
+        coordenador = 0;
+        return heranca;
+    }
+
+    private void limpar() {
+        travas.clear();
+        versoes.clear();
+        origem = 0;
+    }
+}
@@ -1,65 +1,163 @@
 package controlecolaborativo.coordenador;
 
-import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.Agendador;
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.EventoTravas;
+import controlecolaborativo.comum.Execucao;
 import controlecolaborativo.comum.Logger;
 import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.MensagemCodificada;
 import controlecolaborativo.comum.PedidoAcesso;
+import controlecolaborativo.comum.Relogio;
+import controlecolaborativo.metricas.ContadorTrafego;
+import controlecolaborativo.metricas.RegistroMetricas;
+import controlecolaborativo.rede.Transporte;
+import controlecolaborativo.rede.TransporteTcp;
 
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
  * Encapsula toda a lógica do Coordenador como um serviço executável (Runnable).
  * Isso permite que qualquer nó que vença uma eleição possa iniciar este serviço
  * e assumir o papel de coordenador.
+ *
+ * O coordenador hospeda vários documentos, cada um com a sua versão mestre, fila de pedidos,
+ * travas e checkpoint. O estado dos documentos é repartido, pelo hash do ID, por um número
+ * fixo de {@link ParticaoDocumentos partições} de uma só thread; esta classe mantém apenas o
+ * que é comum a todos (as conexões, o relógio de Lamport e as tarefas periódicas) e encaminha
+ * cada mensagem à partição do seu documento.
+ *
+ * Os nós de maior ID ligados ao coordenador são as suas reservas: recebem cada alteração das
+ * travas (ver {@link ReplicaTravas}) e, se um deles vencer a eleição, o seu serviço herda as
+ * filas e os detentores em vez de começar vazio.
+ *
+ * Cada concessão de trava tem um prazo ({@link Configuracao#duracaoConcessaoMs()}) e uma ficha
+ * (fencing token). As fichas começam no termo da eleição deslocado 32 bits, por isso as de um
+ * coordenador são sempre maiores do que as de todos os anteriores.
  */
 public class ServicoCoordenador implements Runnable {
 
-    private static final String ARQUIVO_CHECKPOINT = "checkpoint.dat";
+    // Tamanho da fila de conexões por aceitar: após uma eleição, todos os nós reconectam ao mesmo tempo.
+    static final int BACKLOG_CONEXOES = 1024;
+
     private final int porta;
     private final int idCoordenador;
+    private final Transporte transporte;
+
+    private final Map<Integer, ConexaoNo> nosConectados = new ConcurrentHashMap<>(); // Mapa thread-safe de nós ativos.
+    private final Map<Integer, Long> ultimoContato = new ConcurrentHashMap<>(); // Última resposta a um heartbeat (ns), por nó.
+    private final AtomicInteger relogioLamport = new AtomicInteger(0); // Relógio lógico do coordenador, partilhado pelas partições.
+    private final ParticaoDocumentos[] particoes;
+    private final int numeroReservas = Configuracao.numeroReservas();
+    private volatile int[] reservas = new int[0]; // Nós que recebem a réplica das travas.
+    // Sincronização em curso de cada reserva: só a mais recente pode concluir (protegido pelo monitor).
+    private final Map<Integer, Integer> sincronizacoes = new HashMap<>();
+    private int proximaSincronizacao;
+    // Nós com travas ou pedidos herdados do coordenador anterior, à espera de reconexão.
+    private final Set<Integer> nosHerdados = ConcurrentHashMap.newKeySet();
+    private final int origemEstado; // Coordenador cujas travas foram herdadas (0 = nenhum).
+    private final AtomicLong fichas; // Última ficha emitida, partilhada pelas partições.
 
-    // Estruturas de dados para gerenciar o estado do sistema.
-    private Documento documentoMestre;
-    private final Queue<PedidoAcesso> filaRequisicoes = new PriorityQueue<>(); // Fila ordenada de pedidos.
-    private boolean recursoOcupado = false;
-    private int idNoEmSecaoCritica = -1; // Rastreia qual nó está editando.
-    private final Map<Integer, ObjectOutputStream> nosConectados = new ConcurrentHashMap<>(); // Mapa thread-safe de nós ativos.
-    private final AtomicInteger relogioLamport = new AtomicInteger(0); // Relógio lógico do coordenador.
+    // Relógio do transporte, dos prazos e das tarefas periódicas. Dois agendadores, para que
+    // a escrita de um checkpoint grande nunca atrase os heartbeats nem a expiração das concessões.
+    private final Relogio relogio;
+    private final Agendador temporizador;
+    private final Agendador checkpoints;
 
-    // Agendador para tarefas periódicas, como salvar checkpoints.
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final ContadorTrafego trafego;
 
     private volatile boolean rodando = true; // Flag para controlar o loop principal do servidor.
-    private ServerSocket serverSocket;
+    // Aberto quando a porta passa a aceitar conexões (ou o arranque termina sem ela).
+    private final CountDownLatch iniciado = new CountDownLatch(1);
+    private volatile Transporte.Servidor servidor;
+    private TransporteNio transporteNio; // Usado apenas quando o modo "nio" é selecionado (sobre TCP).
 
     public ServicoCoordenador(int idCoordenador, int porta) {
+        this(idCoordenador, porta, 0, null, TransporteTcp.INSTANCIA);
+    }
+
+    /**
+     * @param termo   O termo da eleição vencida por este nó, que ordena as suas fichas.
+     * @param heranca As travas replicadas do coordenador anterior, se este nó era uma reserva
+     *                sincronizada; {@code null} para começar com as filas vazias.
+     * @param transporte  O transporte em que o serviço aceita as conexões dos nós.
+     */
+    public ServicoCoordenador(int idCoordenador, int porta, long termo, ReplicaTravas.Heranca heranca, Transporte transporte) {
+        this(idCoordenador, porta, termo, heranca, transporte, particao -> new LogEdicoes(idCoordenador, Configuracao.diretorioWal(),
+                particao, Configuracao.walAtivo(), Configuracao.walSincronizar(), Configuracao.walLoteMaximo(), Configuracao.walEsperaLoteMs()));
+    }
+
+    /**
+     * @param logs Cria o log de edições de cada partição a partir do nome dela (nos testes, um
+     *             log cujas gravações terminam quando o teste decide).
+     */
+    ServicoCoordenador(int idCoordenador, int porta, long termo, ReplicaTravas.Heranca heranca, Transporte transporte,
+                       Function<String, LogEdicoes> logs) {
         this.idCoordenador = idCoordenador;
         this.porta = porta;
-        carregarCheckpoint(); // Restaura o estado anterior ao iniciar.
+        this.transporte = transporte;
+        this.relogio = transporte.relogio();
+        this.temporizador = relogio.agendador("coordenador-P" + idCoordenador);
+        this.checkpoints = relogio.agendador("checkpoint-P" + idCoordenador);
+        this.fichas = new AtomicLong(termo << 32);
+        this.trafego = RegistroMetricas.global().trafego("trafego.coordenador");
+        this.particoes = new ParticaoDocumentos[Math.max(1, Configuracao.numeroParticoes())];
+        for (int i = 0; i < particoes.length; i++) {
+            particoes[i] = new ParticaoDocumentos(this, idCoordenador, i, logs);
+            // Reaplica as edições confirmadas depois do último checkpoint de cada documento.
+            particoes[i].recuperar();
+        }
+        this.origemEstado = heranca != null ? heranca.getOrigem() : 0;
+        if (heranca != null) {
+            herdar(heranca);
+        }
+        // Um novo coordenador eleito no mesmo processo substitui os medidores do anterior.
+        RegistroMetricas metricas = RegistroMetricas.global();
+        metricas.medidor("coordenador.fila_requisicoes", () -> somar(ParticaoDocumentos::getTamanhoFila));
+        metricas.medidor("coordenador.detentores", () -> somar(ParticaoDocumentos::getNumeroDetentores));
+        metricas.medidor("coordenador.documentos", () -> somar(ParticaoDocumentos::getNumeroDocumentos));
+        metricas.medidor("coordenador.nos_conectados", nosConectados::size);
     }
 
     /**
-     * Encerra o serviço do coordenador de forma limpa.
+     * Encerra o serviço do coordenador de forma limpa, fechando também as conexões dos nós.
      */
     public void parar() {
         this.rodando = false;
-        scheduler.shutdownNow(); // Força o encerramento de tarefas agendadas.
+        temporizador.parar(); // Força o encerramento de tarefas agendadas.
+        checkpoints.parar();
+        for (ParticaoDocumentos particao : particoes) {
+            particao.parar();
+        }
+        for (ConexaoNo conexao : nosConectados.values()) {
+            conexao.fechar();
+        }
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close(); // Fecha o socket do servidor para liberar a porta.
+            if (servidor != null) {
+                servidor.close(); // Fecha o servidor para liberar a porta.
+            }
+            if (transporteNio != null) {
+                transporteNio.parar();
             }
         } catch (IOException e) {
-            Logger.logCoordenador(idCoordenador, "Erro ao fechar o socket do servidor: " + e.getMessage());
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "Erro ao fechar o socket do servidor: " + e.getMessage());
         }
         Logger.logCoordenador(idCoordenador, "Serviço encerrado.");
     }
@@ -70,175 +168,433 @@ public class ServicoCoordenador implements Runnable {
      */
     @Override
     public void run() {
+        if (!rodando) {
+            iniciado.countDown();
+            return; // Parado antes de começar (ex.: outra eleição já o substituiu).
+        }
         Logger.logCoordenador(idCoordenador, "Iniciando o serviço na porta " + porta + "...");
-        scheduler.scheduleAtFixedRate(this::salvarCheckpoint, 30, 30, TimeUnit.SECONDS);
+        int intervaloCheckpoint = Configuracao.intervaloCheckpointSegundos();
+        int intervaloHeartbeat = Configuracao.intervaloHeartbeatMs();
+        try {
+            checkpoints.agendarPeriodica(this::salvarCheckpoint, TimeUnit.SECONDS.toMillis(intervaloCheckpoint));
+            temporizador.agendarPeriodica(this::difundirHeartbeat, intervaloHeartbeat);
+            if (!nosHerdados.isEmpty()) {
+                temporizador.agendar(this::expirarNosHerdados, Configuracao.esperaRetomadaMs());
+            }
+            int duracaoConcessao = Configuracao.duracaoConcessaoMs();
+            if (duracaoConcessao > 0) {
+                // Uma concessão expira no máximo um quarto do prazo depois do fim dele.
+                long intervalo = Math.max(10, duracaoConcessao / 4);
+                temporizador.agendarPeriodica(this::expirarConcessoes, intervalo);
+            }
+        } catch (RejectedExecutionException e) {
+            iniciado.countDown();
+            return; // Parado durante o arranque.
+        }
 
         try {
-            serverSocket = new ServerSocket(porta);
+            if ("nio".equalsIgnoreCase(Configuracao.transporteCoordenador())) {
+                if (transporte instanceof TransporteTcp) {
+                    // Modo NIO: poucos laços de eventos atendem todas as conexões.
+                    transporteNio = new TransporteNio(this, porta, idCoordenador, Configuracao.lacosEventosNio());
+                    transporteNio.executar();
+                    return;
+                }
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: o transporte NIO exige a rede TCP. Usando uma thread por conexão.");
+            }
+            servidor = transporte.escutar(porta, BACKLOG_CONEXOES);
+            if (!rodando) {
+                servidor.close(); // Parado enquanto abria a porta.
+                return;
+            }
+            portaAberta();
             while (rodando) {
-                Socket socketNo = serverSocket.accept(); // Bloqueia até uma nova conexão ser estabelecida.
-                Logger.logCoordenador(idCoordenador, "Nova conexão anônima recebida: " + socketNo.getInetAddress().getHostAddress());
+                Transporte.ConexaoAceite conexao = servidor.aceitar(); // Bloqueia até uma nova conexão ser estabelecida.
+                Logger.logCoordenador(idCoordenador, "Nova conexão anônima recebida: " + conexao.getEnderecoRemoto());
                 // Delega o tratamento da conexão a uma nova thread para não bloquear o loop principal.
-                TratadorNo tratador = new TratadorNo(socketNo, this, idCoordenador);
-                new Thread(tratador).start();
+                TratadorNo tratador = new TratadorNo(conexao, this, idCoordenador);
+                Execucao.iniciar("tratador-no", tratador);
             }
         } catch (IOException e) {
             if (rodando) {
-                Logger.logCoordenador(idCoordenador, "ERRO FATAL: " + e.getMessage());
+                Logger.logCoordenador(idCoordenador, Logger.Nivel.ERRO, "ERRO FATAL: " + e.getMessage());
             }
         } finally {
-            if (!scheduler.isShutdown()) {
-                scheduler.shutdown();
-            }
+            iniciado.countDown();
+            temporizador.parar();
+            checkpoints.parar();
+        }
+    }
+
+    /**
+     * Espera que o serviço comece a aceitar conexões: o nó só anuncia a vitória depois disso,
+     * para que os outros nós não encontrem a porta ainda fechada e adiem a reconexão.
+     * @return {@code false} se o limite expirou antes.
+     */
+    public boolean aguardarInicio(long limiteMs) throws InterruptedException {
+        return iniciado.await(limiteMs, TimeUnit.MILLISECONDS);
+    }
+
+    void portaAberta() {
+        iniciado.countDown();
+    }
+
+    /**
+     * Encaminha a mensagem recebida de um nó à partição do documento a que ela se refere.
+     * Ponto de entrada comum aos transportes por thread e NIO; nunca bloqueia.
+     * @param idNo O ID do nó remetente.
+     * @param msg  A mensagem recebida.
+     */
+    public void processarMensagem(int idNo, Mensagem msg) {
+        if (msg.getTipo() == Mensagem.Tipo.HEARTBEAT) {
+            ultimoContato.put(idNo, relogio.agoraNs()); // Resposta do nó ao heartbeat (ver getNosEmContato).
+            return;
+        }
+        if (logAtivo(Logger.Nivel.DEBUG)) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.DEBUG, "Mensagem recebida de P" + idNo + ": " + msg.getTipo() + " ('" + msg.getDocumento() + "')");
         }
+        String documento = msg.getDocumento();
+        if (!ParticaoDocumentos.idValido(documento)) {
+            Logger.logCoordenador(idCoordenador, Logger.Nivel.AVISO, "AVISO: P" + idNo + " referiu um documento com ID inválido. Mensagem ignorada.");
+            return;
+        }
+        particao(documento).processar(idNo, msg);
     }
 
     /**
-     * Registra um novo nó no sistema e envia a ele a versão mais recente do documento.
+     * Registra um novo nó no sistema. O nó recebe os documentos à medida que os abre.
+     * Se o nó reconectou antes de a conexão anterior ser detetada como perdida, esta é
+     * fechada; as suas travas e pedidos passam para a nova conexão, como num nó herdado.
      */
-    public synchronized void registrarNo(int idNo, ObjectOutputStream out) {
-        nosConectados.put(idNo, out);
+    public void registrarNo(int idNo, ConexaoNo conexao) {
+        ConexaoNo anterior = nosConectados.put(idNo, conexao);
+        ultimoContato.put(idNo, relogio.agoraNs());
+        if (anterior != null && anterior != conexao) {
+            Logger.logCoordenador(idCoordenador, "P" + idNo + " reconectou. Fechando a conexão anterior.");
+            anterior.fechar();
+        }
+        nosHerdados.remove(idNo);
         Logger.logCoordenador(idCoordenador, "Nó P" + idNo + " registrado no sistema.");
-        enviarAtualizacaoDocumento(idNo);
+        // Um nó que reconecta descartou a sua réplica: se for uma reserva, é sincronizado de novo.
+        atualizarReservas(idNo);
     }
 
     /**
      * Remove um nó do sistema, geralmente devido a uma falha de conexão.
-     * Também implementa a lógica de rollback.
+     * Cada partição descarta as suas travas, pedidos e assinaturas (rollback).
+     * Não faz nada se a conexão já não for a registrada para o nó: ela foi substituída
+     * por uma reconexão, ou já foi removida por outra via (ex.: fila de saída cheia).
+     * @param conexao A conexão perdida.
      */
-    public synchronized void removerNo(int idNo) {
-        nosConectados.remove(idNo);
-        // Remove quaisquer pedidos pendentes deste nó na fila.
-        filaRequisicoes.removeIf(pedido -> pedido.getIdNo() == idNo);
+    public void removerNo(int idNo, ConexaoNo conexao) {
+        if (!nosConectados.remove(idNo, conexao)) return;
+        ultimoContato.remove(idNo);
         Logger.logCoordenador(idCoordenador, "Nó P" + idNo + " desconectado.");
+        for (ParticaoDocumentos particao : particoes) {
+            particao.removerNo(idNo);
+        }
+        atualizarReservas(-1);
+    }
 
-        // Lógica de Rollback: verifica se o nó que caiu estava na seção crítica.
-        if (idNo == idNoEmSecaoCritica) {
-            Logger.logCoordenador(idCoordenador, "[ROLLBACK] Nó P" + idNo + " caiu na seção crítica. Alteração descartada.");
-            idNoEmSecaoCritica = -1;
-            recursoOcupado = false;
-            concederProximoAcesso(); // Passa a vez para o próximo da fila.
+    /**
+     * @return Quantos nós conectados responderam a um heartbeat (ou conectaram) nos últimos
+     *         {@code janelaMs} milissegundos. Usado pelo líder para saber se ainda alcança a maioria.
+     */
+    public int getNosEmContato(long janelaMs) {
+        long limite = relogio.agoraNs() - TimeUnit.MILLISECONDS.toNanos(janelaMs);
+        int emContato = 0;
+        for (Map.Entry<Integer, Long> e : ultimoContato.entrySet()) {
+            if (e.getValue() - limite > 0 && nosConectados.containsKey(e.getKey())) emContato++;
         }
+        return emContato;
     }
 
     /**
-     * Processa uma solicitação de acesso de um nó.
+     * @return O coordenador cujas travas este serviço herdou, ou 0 se começou com as filas vazias.
      */
-    public synchronized void solicitarAcesso(int idNo, int relogioRemetente) {
-        relogioLamport.set(Math.max(relogioLamport.get(), relogioRemetente) + 1);
-        PedidoAcesso pedido = new PedidoAcesso(idNo, relogioRemetente);
-        Logger.logCoordenador(idCoordenador, "Nó " + pedido + " solicitou acesso à seção crítica.");
+    public int getOrigemEstado() {
+        return origemEstado;
+    }
 
-        if (!recursoOcupado) {
-            // Se o recurso estiver livre, concede a permissão imediatamente.
-            recursoOcupado = true;
-            idNoEmSecaoCritica = idNo;
-            enviarPermissao(idNo);
-        } else {
-            // Caso contrário, adiciona o pedido à fila de prioridade.
-            filaRequisicoes.add(pedido);
-            Logger.logCoordenador(idCoordenador, "Recurso ocupado. Pedido " + pedido + " adicionado à fila. Fila: " + filaRequisicoes);
+    /**
+     * Instala as travas herdadas nas partições e regista os nós que as detêm ou aguardam:
+     * eles reconectam e reapresentam os seus pedidos (RETOMAR_TRAVAS), ou são descartados
+     * depois de {@link Configuracao#esperaRetomadaMs()}.
+     */
+    private void herdar(ReplicaTravas.Heranca heranca) {
+        int detentores = 0;
+        int emEspera = 0;
+        for (Map.Entry<String, GerenciadorTravas> e : heranca.travas.entrySet()) {
+            if (!ParticaoDocumentos.idValido(e.getKey())) continue;
+            GerenciadorTravas travas = e.getValue();
+            for (PedidoAcesso pedido : travas.getDetentores()) {
+                nosHerdados.add(pedido.getIdNo());
+                detentores++;
+            }
+            for (PedidoAcesso pedido : travas.getFila()) {
+                nosHerdados.add(pedido.getIdNo());
+                emEspera++;
+            }
+            Long versao = heranca.versoes.get(e.getKey());
+            particao(e.getKey()).herdar(e.getKey(), travas, versao != null ? versao : 0);
         }
+        nosHerdados.remove(idCoordenador); // Ao assumir, este nó abandona os seus próprios pedidos.
+        relogioLamport.set(heranca.relogio);
+        Logger.logCoordenador(idCoordenador, "Travas herdadas do coordenador P" + heranca.getOrigem() + ": " + heranca.travas.size()
+                + " documento(s), " + detentores + " travas concedidas e " + emEspera + " pedidos em espera.");
     }
 
     /**
-     * Processa a liberação do recurso por um nó.
+     * Descarta as travas e os pedidos dos nós herdados que não reconectaram a tempo.
      */
-    public synchronized void liberarRecurso(int idNo, Documento documentoAtualizado) {
-        relogioLamport.incrementAndGet();
-        Logger.logCoordenador(idCoordenador, "Nó P" + idNo + " liberou a seção crítica.");
+    private void expirarNosHerdados() {
+        for (Integer idNo : new ArrayList<>(nosHerdados)) {
+            if (nosHerdados.remove(idNo) && !nosConectados.containsKey(idNo)) {
+                Logger.logCoordenador(idCoordenador, "Nó P" + idNo + " não reconectou após a troca de coordenador. Travas e pedidos descartados.");
+                for (ParticaoDocumentos particao : particoes) {
+                    particao.removerNo(idNo);
+                }
+            }
+        }
+    }
 
-        // Atualiza a versão mestre do documento com as alterações recebidas.
-        this.documentoMestre = documentoAtualizado;
-        // Propaga a nova versão para todas as réplicas.
-        nosConectados.keySet().forEach(this::enviarAtualizacaoDocumento);
+    /**
+     * Retira as travas cujas concessões passaram do prazo, em cada partição.
+     */
+    private void expirarConcessoes() {
+        for (ParticaoDocumentos particao : particoes) {
+            particao.expirarConcessoes();
+        }
+    }
 
-        idNoEmSecaoCritica = -1;
-        recursoOcupado = false;
-        // Tenta conceder acesso ao próximo nó da fila.
-        concederProximoAcesso();
+    /**
+     * Escolhe como reservas os nós conectados de maior ID e sincroniza as que entraram agora.
+     * Uma reserva sincronizada candidata-se antes dos outros nós na eleição por termos (ver
+     * {@code EleicaoLider}), por isso é quase sempre ela a suceder a este coordenador.
+     *
+     * A escolha e os envios acontecem sob o monitor do serviço; as reservas cuja conexão falhou
+     * só são removidas depois de o liberar, porque {@link #removerNo} volta a escolhê-las.
+     * @param reconectado Um nó que acabou de (re)conectar e, se for escolhido, precisa de ser
+     *                    sincronizado mesmo que já fosse uma reserva; -1 se nenhum.
+     */
+    private void atualizarReservas(int reconectado) {
+        if (numeroReservas == 0 || !rodando) return;
+        Map<Integer, ConexaoNo> falhas = new LinkedHashMap<>();
+        synchronized (this) {
+            List<Integer> ids = new ArrayList<>(nosConectados.keySet());
+            Collections.sort(ids, Collections.reverseOrder());
+            int[] novas = new int[Math.min(numeroReservas, ids.size())];
+            Set<Integer> anteriores = new HashSet<>();
+            for (int id : reservas) anteriores.add(id);
+            for (int i = 0; i < novas.length; i++) {
+                novas[i] = ids.get(i);
+            }
+            if (!Arrays.equals(novas, reservas)) {
+                Logger.logCoordenador(idCoordenador, "Nós de reserva: " + Arrays.toString(novas) + ".");
+            }
+            // As novas reservas passam a receber os eventos antes da cópia do estado: nenhum se perde.
+            reservas = novas;
+            for (int id : novas) {
+                if (!anteriores.remove(id) || id == reconectado) {
+                    sincronizarReserva(id, falhas);
+                }
+            }
+            // Uma reserva substituída deixa de receber eventos: a sua cópia ficaria desatualizada.
+            for (int id : anteriores) {
+                sincronizacoes.remove(id);
+                enviarAReserva(id, new MensagemCodificada(mensagemReplicacao(null, EventoTravas.marcador(EventoTravas.Tipo.LIMPAR))), falhas);
+            }
+        }
+        removerFalhas(falhas);
     }
 
     /**
-     * Verifica a fila e, se não estiver vazia, concede permissão ao próximo pedido.
+     * Envia a uma reserva o estado completo das travas: um LIMPAR, o ESTADO de cada documento
+     * (capturado na thread da sua partição, pela ordem dos eventos dela) e, depois da última
+     * partição, o SINCRONIZADO que torna a cópia utilizável. Uma reserva substituída ou
+     * sincronizada de novo entretanto já recebeu outro LIMPAR, e esta cópia não a conclui.
+     * Chamado sob o monitor do serviço.
      */
-    private synchronized void concederProximoAcesso() {
-        if (!filaRequisicoes.isEmpty()) {
-            PedidoAcesso proximoPedido = filaRequisicoes.poll();
-            int proximoNo = proximoPedido.getIdNo();
-            recursoOcupado = true;
-            idNoEmSecaoCritica = proximoNo;
-            Logger.logCoordenador(idCoordenador, "Concedendo permissão ao próximo da fila: " + proximoPedido);
-            enviarPermissao(proximoNo);
+    private void sincronizarReserva(int idReserva, Map<Integer, ConexaoNo> falhas) {
+        int sincronizacao = ++proximaSincronizacao;
+        sincronizacoes.put(idReserva, sincronizacao);
+        enviarAReserva(idReserva, new MensagemCodificada(mensagemReplicacao(null, EventoTravas.marcador(EventoTravas.Tipo.LIMPAR))), falhas);
+        AtomicInteger restantes = new AtomicInteger(particoes.length);
+        for (ParticaoDocumentos particao : particoes) {
+            particao.sincronizarReserva(idReserva, () -> {
+                if (restantes.decrementAndGet() == 0) {
+                    concluirSincronizacao(idReserva, sincronizacao);
+                }
+            });
         }
     }
 
     /**
-     * Envia a mensagem de PERMISSAO_SC para um nó específico.
+     * Sob o mesmo monitor que {@link #atualizarReservas}: o SINCRONIZADO nunca chega a uma
+     * reserva depois do LIMPAR que a substituiu.
      */
-    private void enviarPermissao(int idDestino) {
-        try {
-            ObjectOutputStream out = nosConectados.get(idDestino);
-            if (out != null) {
-                relogioLamport.incrementAndGet();
-                Mensagem msg = new Mensagem(Mensagem.Tipo.PERMISSAO_SC, 0, relogioLamport.get(), null);
-                out.writeObject(msg);
-                out.flush();
-                Logger.logCoordenador(idCoordenador, "Permissão enviada para P" + idDestino);
+    private void concluirSincronizacao(int idReserva, int sincronizacao) {
+        Map<Integer, ConexaoNo> falhas = new LinkedHashMap<>();
+        synchronized (this) {
+            Integer atual = sincronizacoes.get(idReserva);
+            if (atual != null && atual == sincronizacao) {
+                sincronizacoes.remove(idReserva);
+                enviarAReserva(idReserva, new MensagemCodificada(mensagemReplicacao(null, EventoTravas.marcador(EventoTravas.Tipo.SINCRONIZADO))), falhas);
             }
-        } catch (IOException e) {
-            Logger.logCoordenador(idCoordenador, "Falha ao enviar permissão para P" + idDestino + ". Removendo...");
-            removerNo(idDestino);
         }
+        removerFalhas(falhas);
     }
 
     /**
-     * Envia a mensagem de ATUALIZACAO_DOCUMENTO para um nó específico.
+     * Como {@link #enviar}, mas para uso sob o monitor do serviço: uma conexão que falha é
+     * fechada e guardada em {@code falhas}, para ser removida fora dele (ver removerFalhas).
      */
-    private void enviarAtualizacaoDocumento(int idDestino) {
-        try {
-            ObjectOutputStream out = nosConectados.get(idDestino);
-            if (out != null) {
-                relogioLamport.incrementAndGet();
-                // Envia um clone do documento para evitar problemas de concorrência.
-                Mensagem msg = new Mensagem(Mensagem.Tipo.ATUALIZACAO_DOCUMENTO, 0, relogioLamport.get(), documentoMestre.clonar());
-                out.writeObject(msg);
-                out.flush();
-            }
-        } catch (IOException e) {
-            Logger.logCoordenador(idCoordenador, "Falha ao enviar atualização para P" + idDestino + ". Removendo...");
-            removerNo(idDestino);
+    private void enviarAReserva(int idReserva, MensagemCodificada msg, Map<Integer, ConexaoNo> falhas) {
+        ConexaoNo conexao = nosConectados.get(idReserva);
+        if (conexao == null || conexao.enviar(msg)) return;
+        Logger.logCoordenador(idCoordenador, "Fila de saída de P" + idReserva + " cheia ou conexão encerrada (" + msg + "). Removendo...");
+        conexao.fechar();
+        falhas.put(idReserva, conexao);
+    }
+
+    /**
+     * Remove os nós cujas conexões falharam sob o monitor. Chamado depois de o liberar.
+     */
+    private void removerFalhas(Map<Integer, ConexaoNo> falhas) {
+        for (Map.Entry<Integer, ConexaoNo> falha : falhas.entrySet()) {
+            removerNo(falha.getKey(), falha.getValue());
         }
     }
 
+    boolean temReservas() {
+        return reservas.length > 0;
+    }
+
     /**
-     * Salva o estado atual do documento mestre em um arquivo (checkpoint).
+     * Envia um evento de travas a todas as reservas. Chamado pela thread da partição do
+     * documento, imediatamente após a alteração, o que preserva a ordem dos eventos.
      */
-    private synchronized void salvarCheckpoint() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(ARQUIVO_CHECKPOINT))) {
-            oos.writeObject(documentoMestre);
-            Logger.logCoordenador(idCoordenador, "CHECKPOINT salvo com sucesso. (Relógio: " + relogioLamport.get() + ")");
-        } catch (IOException e) {
-            Logger.logCoordenador(idCoordenador, "ERRO: Falha ao salvar checkpoint: " + e.getMessage());
+    void replicar(String documento, EventoTravas evento) {
+        int[] destinos = reservas;
+        if (destinos.length == 0) return;
+        MensagemCodificada msg = new MensagemCodificada(mensagemReplicacao(documento, evento));
+        for (int idDestino : destinos) {
+            enviar(idDestino, msg);
         }
     }
 
     /**
-     * Carrega o estado do documento mestre a partir de um arquivo de checkpoint, se existir.
+     * Envia um evento de travas a uma única reserva (a cópia de estado de uma sincronização).
      */
-    private synchronized void carregarCheckpoint() {
-        File f = new File(ARQUIVO_CHECKPOINT);
-        if (f.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
-                documentoMestre = (Documento) ois.readObject();
-                Logger.logSimulador("Estado do documento restaurado do último checkpoint.");
-            } catch (IOException | ClassNotFoundException e) {
-                Logger.logSimulador("ERRO: Falha ao carregar checkpoint: " + e.getMessage());
-                documentoMestre = new Documento();
-            }
-        } else {
-            Logger.logSimulador("Nenhum arquivo de checkpoint encontrado. Iniciando com um documento novo.");
-            documentoMestre = new Documento();
+    void replicar(int idReserva, String documento, EventoTravas evento) {
+        enviar(idReserva, new MensagemCodificada(mensagemReplicacao(documento, evento)));
+    }
+
+    private Mensagem mensagemReplicacao(String documento, EventoTravas evento) {
+        return new Mensagem(Mensagem.Tipo.REPLICACAO_TRAVAS, 0, relogioLamport.get(), evento, documento);
+    }
+
+    private ParticaoDocumentos particao(String documento) {
+        return particoes[Math.floorMod(documento.hashCode(), particoes.length)];
+    }
+
+    boolean isRodando() {
+        return rodando;
+    }
+
+    boolean isConectado(int idNo) {
+        return nosConectados.containsKey(idNo);
+    }
+
+    /**
+     * @return O relógio dos prazos e dos temporizadores (o do transporte), distinto do relógio
+     *         lógico de {@link #getRelogio()}.
+     */
+    Relogio getRelogioFisico() {
+        return relogio;
+    }
+
+    int getRelogio() {
+        return relogioLamport.get();
+    }
+
+    /**
+     * @return Uma ficha maior do que todas as emitidas por este e pelos coordenadores anteriores.
+     */
+    long novaFicha() {
+        return fichas.incrementAndGet();
+    }
+
+    /**
+     * Avança o relógio de Lamport para um evento local (ex.: o envio de uma mensagem).
+     * @return O novo valor do relógio.
+     */
+    int avancarRelogio() {
+        return relogioLamport.incrementAndGet();
+    }
+
+    /**
+     * Atualiza o relógio de Lamport com o relógio de uma mensagem recebida.
+     */
+    void sincronizarRelogio(int relogioRemetente) {
+        relogioLamport.updateAndGet(r -> Math.max(r, relogioRemetente) + 1);
+    }
+
+    private long somar(ToIntFunction<ParticaoDocumentos> leitura) {
+        long total = 0;
+        for (ParticaoDocumentos particao : particoes) {
+            total += leitura.applyAsInt(particao);
+        }
+        return total;
+    }
+
+    /**
+     * Evita montar, no caminho crítico, mensagens que o logger descartaria (nível ou modo silencioso).
+     */
+    static boolean logAtivo(Logger.Nivel nivel) {
+        return Logger.ativo(Logger.Categoria.COORDENADOR, nivel);
+    }
+
+    /**
+     * Envia um HEARTBEAT a todos os nós, para que detetem um coordenador parado mesmo
+     * que as conexões TCP continuem abertas. Não avança o relógio de Lamport.
+     */
+    private void difundirHeartbeat() {
+        MensagemCodificada msg = new MensagemCodificada(new Mensagem(Mensagem.Tipo.HEARTBEAT, idCoordenador, relogioLamport.get(), null));
+        for (Integer idDestino : nosConectados.keySet()) {
+            enviar(idDestino, msg);
+        }
+    }
+
+    /**
+     * Coloca a mensagem na fila de saída do nó, sem nunca esperar pelo socket.
+     * Um nó cuja fila transbordou é considerado lento e desconectado: ao reconectar,
+     * ele recebe um snapshot completo em vez das mensagens que perdeu.
+     * @return {@code true} se a mensagem foi aceite na fila.
+     */
+    boolean enviar(int idDestino, MensagemCodificada msg) {
+        ConexaoNo conexao = nosConectados.get(idDestino);
+        if (conexao == null) return false;
+        if (conexao.enviar(msg)) return true;
+        Logger.logCoordenador(idCoordenador, "Fila de saída de P" + idDestino + " cheia ou conexão encerrada (" + msg + "). Removendo...");
+        conexao.fechar();
+        removerNo(idDestino, conexao);
+        return false;
+    }
+
+    /**
+     * Contador do tráfego de todas as conexões com os nós, partilhado pelos dois transportes.
+     */
+    ContadorTrafego getTrafego() {
+        return trafego;
+    }
+
+    /**
+     * Salva o checkpoint dos documentos alterados de cada partição e compacta os seus WALs.
+     */
+    private void salvarCheckpoint() {
+        for (ParticaoDocumentos particao : particoes) {
+            particao.salvarCheckpoint();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,340 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.CanalMensagens;
+import controlecolaborativo.comum.CodecMensagem;
+import controlecolaborativo.comum.CodecSerializacaoJava;
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Logger;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.MensagemCodificada;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Transporte alternativo do coordenador baseado em {@link Selector}.
+ *
+ * Em vez de uma thread bloqueada em leitura por nó conectado, um pequeno número fixo
+ * de laços de eventos atende todas as conexões com leituras e escritas não bloqueantes.
+ * O protocolo é o mesmo do {@link CanalMensagens} (handshake + quadros com prefixo de
+ * comprimento), portanto os nós não percebem diferença entre os dois modos.
+ */
+public class TransporteNio {
+
+    private final ServicoCoordenador coordenador;
+    private final int porta;
+    private final int idCoordenador;
+    private final LacoEventos[] lacos;
+
+    private volatile boolean rodando = true;
+    private Selector seletorAceite;
+    private ServerSocketChannel servidor;
+
+    public TransporteNio(ServicoCoordenador coordenador, int porta, int idCoordenador, int numeroLacos) {
+        this.coordenador = coordenador;
+        this.porta = porta;
+        this.idCoordenador = idCoordenador;
+        this.lacos = new LacoEventos[Math.max(1, numeroLacos)];
+    }
+
+    /**
+     * Aceita conexões na thread atual e as distribui entre os laços de eventos
+     * (round-robin). Bloqueia até que o transporte seja parado.
+     */
+    public void executar() throws IOException {
+        for (int i = 0; i < lacos.length; i++) {
+            lacos[i] = new LacoEventos();
+            Thread thread = new Thread(lacos[i], "coordenador-nio-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        seletorAceite = Selector.open();
+        servidor = ServerSocketChannel.open();
+        servidor.bind(new InetSocketAddress(porta), ServicoCoordenador.BACKLOG_CONEXOES);
+        servidor.configureBlocking(false);
+        servidor.register(seletorAceite, SelectionKey.OP_ACCEPT);
+        coordenador.portaAberta();
+        Logger.logCoordenador(idCoordenador, "Transporte NIO ativo com " + lacos.length + " laço(s) de eventos.");
+
+        int proximo = 0;
+        try {
+            while (rodando) {
+                seletorAceite.select();
+                seletorAceite.selectedKeys().clear();
+                SocketChannel canal;
+                while ((canal = servidor.accept()) != null) {
+                    Logger.logCoordenador(idCoordenador, "Nova conexão anônima recebida: " + canal.socket().getInetAddress().getHostAddress());
+                    lacos[proximo].registrar(canal);
+                    proximo = (proximo + 1) % lacos.length;
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Encerramento solicitado por parar().
+        }
+    }
+
+    public void parar() {
+        rodando = false;
+        fecharSilenciosamente(servidor);
+        fecharSilenciosamente(seletorAceite);
+        for (LacoEventos laco : lacos) {
+            if (laco != null) laco.parar();
+        }
+    }
+
+    private static void fecharSilenciosamente(Closeable recurso) {
+        try {
+            if (recurso != null) recurso.close();
+        } catch (IOException e) {
+            // Ignorado durante o encerramento.
+        }
+    }
+
+    /**
+     * Laço de eventos: uma thread com o seu próprio seletor, responsável por um
+     * subconjunto das conexões. Alterações de interesse pedidas por outras threads
+     * são enfileiradas e executadas no próprio laço.
+     */
+    private class LacoEventos implements Runnable {
+        private final Selector seletor;
+        private final Queue<Runnable> tarefas = new ConcurrentLinkedQueue<>();
+
+        LacoEventos() throws IOException {
+            this.seletor = Selector.open();
+        }
+
+        void registrar(SocketChannel canal) {
+            executarNoLaco(() -> {
+                try {
+                    canal.configureBlocking(false);
+                    canal.socket().setTcpNoDelay(true);
+                    ConexaoNio conexao = new ConexaoNio(canal, this);
+                    conexao.chave = canal.register(seletor, SelectionKey.OP_READ, conexao);
+                } catch (IOException e) {
+                    fecharSilenciosamente(canal);
+                }
+            });
+        }
+
+        void executarNoLaco(Runnable tarefa) {
+            tarefas.add(tarefa);
+            seletor.wakeup();
+        }
+
+        void parar() {
+            fecharSilenciosamente(seletor);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (rodando) {
+                    seletor.select();
+                    Runnable tarefa;
+                    while ((tarefa = tarefas.poll()) != null) {
+                        tarefa.run();
+                    }
+                    Iterator<SelectionKey> it = seletor.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey chave = it.next();
+                        it.remove();
+                        ConexaoNio conexao = (ConexaoNio) chave.attachment();
+                        try {
+                            if (chave.isValid() && chave.isReadable()) conexao.lerDisponivel();
+                            if (chave.isValid() && chave.isWritable()) conexao.escreverPendentes();
+                        } catch (IOException | RuntimeException e) {
+                            conexao.encerrar();
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // Seletor fechado: o transporte foi parado.
+            }
+        }
+    }
+
+    /**
+     * Estado de uma conexão NIO: buffer de leitura para remontar quadros,
+     * fila de escrita própria (limitada) e o codec acordado no handshake.
+     * As mensagens só são codificadas na thread do laço, quando chegam à frente da fila.
+     */
+    private class ConexaoNio implements ConexaoNo {
+        private static final int TAMANHO_HANDSHAKE = 6; // MAGIA (int) + versão (byte) + codec (byte)
+
+        private final SocketChannel canal;
+        private final LacoEventos laco;
+        private SelectionKey chave;
+        private ByteBuffer leitura = ByteBuffer.allocate(8 * 1024);
+        // Elementos: ByteBuffer (já pronto) ou MensagemCodificada (codificada ao ser escrita). Protegida por 'this'.
+        private final Deque<Object> filaEscrita = new ArrayDeque<>();
+        private final int capacidadeFila = Configuracao.capacidadeFilaSaida();
+        private volatile CodecMensagem codec; // Nulo até a conclusão do handshake.
+        private volatile boolean fechada = false;
+        private int idNo = -1;
+
+        ConexaoNio(SocketChannel canal, LacoEventos laco) {
+            this.canal = canal;
+            this.laco = laco;
+        }
+
+        /**
+         * Lê tudo o que estiver disponível e processa os quadros completos.
+         */
+        void lerDisponivel() throws IOException {
+            int lidos = canal.read(leitura);
+            if (lidos < 0) {
+                encerrar();
+                return;
+            }
+            leitura.flip();
+            while (!fechada) {
+                if (codec == null) {
+                    if (leitura.remaining() < TAMANHO_HANDSHAKE) break;
+                    concluirHandshake();
+                    continue;
+                }
+                if (leitura.remaining() < 4) break;
+                int comprimento = leitura.getInt(leitura.position());
+                if (comprimento < 0 || comprimento > CanalMensagens.TAMANHO_MAXIMO_QUADRO) {
+                    throw new IOException("Comprimento de quadro inválido: " + comprimento);
+                }
+                if (leitura.remaining() < 4 + comprimento) {
+                    garantirCapacidade(4 + comprimento);
+                    break;
+                }
+                leitura.getInt();
+                Mensagem msg = codec.decodificar(leitura.array(), leitura.arrayOffset() + leitura.position(), comprimento);
+                leitura.position(leitura.position() + comprimento);
+                coordenador.getTrafego().registrarRecepcao(msg.getTipo(), 4 + comprimento);
+                entregar(msg);
+            }
+            leitura.compact();
+        }
+
+        private void concluirHandshake() throws IOException {
+            if (leitura.getInt() != CanalMensagens.MAGIA) {
+                throw new IOException("Handshake inválido.");
+            }
+            byte versao = leitura.get();
+            if (versao != CanalMensagens.VERSAO_PROTOCOLO) {
+                throw new IOException("Versão de protocolo incompatível: " + versao);
+            }
+            CodecMensagem escolhido = CodecMensagem.porId(leitura.get());
+            if (escolhido == null) {
+                escolhido = CodecSerializacaoJava.INSTANCIA;
+            }
+            ByteBuffer resposta = ByteBuffer.allocate(5);
+            resposta.putInt(CanalMensagens.MAGIA).put(escolhido.getId()).flip();
+            enfileirar(resposta);
+            codec = escolhido;
+        }
+
+        /**
+         * Garante que o buffer de leitura comporte um quadro inteiro do tamanho informado.
+         * Chamado com o buffer em modo de leitura (após flip).
+         */
+        private void garantirCapacidade(int necessario) {
+            if (leitura.capacity() < necessario) {
+                ByteBuffer maior = ByteBuffer.allocate(Math.max(necessario, leitura.capacity() * 2));
+                maior.put(leitura);
+                maior.flip();
+                leitura = maior;
+            }
+        }
+
+        private void entregar(Mensagem msg) {
+            if (idNo == -1) {
+                // A primeira mensagem identifica o nó, como no transporte por threads.
+                idNo = msg.getIdRemetente();
+                Logger.logCoordenador(idCoordenador, "P" + idNo + " conectado (NIO) usando o codec " + codec.getNome() + ".");
+                coordenador.registrarNo(idNo, this);
+            }
+            coordenador.processarMensagem(idNo, msg);
+        }
+
+        @Override
+        public boolean enviar(MensagemCodificada msg) {
+            return !fechada && enfileirar(msg);
+        }
+
+        /**
+         * Coloca um item na fila de escrita e pede ao laço para escrevê-lo.
+         * Nunca bloqueia: a escrita efetiva ocorre na thread do laço de eventos.
+         * @return {@code false} se a fila estiver cheia.
+         */
+        private boolean enfileirar(Object item) {
+            boolean estavaVazia;
+            synchronized (this) {
+                if (filaEscrita.size() >= capacidadeFila) {
+                    return false;
+                }
+                estavaVazia = filaEscrita.isEmpty();
+                filaEscrita.add(item);
+            }
+            if (estavaVazia) {
+                laco.executarNoLaco(() -> {
+                    if (chave != null && chave.isValid()) {
+                        chave.interestOps(chave.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                });
+            }
+            return true;
+        }
+
+        void escreverPendentes() throws IOException {
+            synchronized (this) {
+                while (!filaEscrita.isEmpty()) {
+                    Object item = filaEscrita.peek();
+                    ByteBuffer buffer;
+                    if (item instanceof MensagemCodificada) {
+                        // O array é partilhado com outras conexões; o wrap dá a esta uma posição própria.
+                        MensagemCodificada msg = (MensagemCodificada) item;
+                        buffer = ByteBuffer.wrap(msg.quadro(codec));
+                        coordenador.getTrafego().registrarEnvio(msg.getMensagem().getTipo(), buffer.remaining());
+                        filaEscrita.poll();
+                        filaEscrita.addFirst(buffer);
+                    } else {
+                        buffer = (ByteBuffer) item;
+                    }
+                    canal.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return; // Buffer do socket cheio: aguarda o próximo OP_WRITE.
+                    }
+                    filaEscrita.poll();
+                }
+                chave.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Fecha a conexão e, se o nó já estava identificado, remove-o do coordenador.
+         */
+        void encerrar() {
+            if (fechada) return;
+            fechada = true;
+            if (chave != null) chave.cancel();
+            fecharSilenciosamente(canal);
+            if (idNo != -1) {
+                coordenador.removerNo(idNo, this);
+            }
+        }
+
+        @Override
+        public void fechar() {
+            laco.executarNoLaco(this::encerrar);
+        }
+    }
+}
@@ -1,27 +1,39 @@
 package controlecolaborativo.coordenador;
 
-import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Execucao;
 import controlecolaborativo.comum.Logger;
 import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.MensagemCodificada;
+import controlecolaborativo.rede.Canal;
+import controlecolaborativo.rede.Transporte;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Representa uma thread dedicada a gerenciar a comunicação com um único nó cliente.
  * Cada instância desta classe é responsável por ouvir as mensagens de um nó específico
  * e delegar o processamento para a instância principal do ServicoCoordenador.
+ *
+ * As mensagens para o nó passam por uma fila de saída limitada, esvaziada por uma
+ * thread de escrita própria; assim o coordenador nunca espera por um socket lento.
  */
-public class TratadorNo implements Runnable {
-    private final Socket socketNo;
+public class TratadorNo implements Runnable, ConexaoNo {
+    private final Transporte.ConexaoAceite conexao;
     private int idNo; // O ID do nó cliente conectado a esta thread.
     private final ServicoCoordenador coordenador;
     private final int idCoordenador;
-    private ObjectOutputStream out;
+    private volatile Canal canal;
+    private final BlockingQueue<MensagemCodificada> filaSaida = new ArrayBlockingQueue<>(Configuracao.capacidadeFilaSaida());
+    private volatile boolean fechado = false;
 
-    public TratadorNo(Socket socketNo, ServicoCoordenador coordenador, int idCoordenador) {
-        this.socketNo = socketNo;
+    // Marca o fim da fila de saída para a thread de escrita.
+    private static final MensagemCodificada FIM = new MensagemCodificada(null);
+
+    public TratadorNo(Transporte.ConexaoAceite conexao, ServicoCoordenador coordenador, int idCoordenador) {
+        this.conexao = conexao;
         this.coordenador = coordenador;
         this.idCoordenador = idCoordenador;
         this.idNo = -1; // Inicia como "não identificado".
@@ -34,49 +46,65 @@ public class TratadorNo implements Runnable {
     @Override
     public void run() {
         try {
-            this.out = new ObjectOutputStream(socketNo.getOutputStream());
-            ObjectInputStream in = new ObjectInputStream(socketNo.getInputStream());
+            // O handshake do canal acorda o codec usado no restante da conexão.
+            this.canal = conexao.abrir(coordenador.getTrafego());
+            Execucao.iniciar("escritor-no", this::escreverPendentes);
 
-            // A primeira mensagem é usada para o "handshake", identificando o nó.
-            Mensagem primeiraMensagem = (Mensagem) in.readObject();
+            // A primeira mensagem é usada para identificar o nó.
+            Mensagem primeiraMensagem = canal.receber();
             this.idNo = primeiraMensagem.getIdRemetente();
 
             // Uma vez identificado, o nó é registrado oficialmente no coordenador.
-            coordenador.registrarNo(this.idNo, out);
-            processarMensagem(primeiraMensagem);
+            Logger.logCoordenador(idCoordenador, "P" + idNo + " conectado usando o codec " + canal.getCodec().getNome() + ".");
+            coordenador.registrarNo(this.idNo, this);
+            coordenador.processarMensagem(this.idNo, primeiraMensagem);
 
             // Loop infinito para receber e processar as mensagens subsequentes.
             while (true) {
-                Mensagem msg = (Mensagem) in.readObject();
-                processarMensagem(msg);
+                Mensagem msg = canal.receber();
+                coordenador.processarMensagem(this.idNo, msg);
             }
 
         } catch (Exception e) {
             // Se ocorrer qualquer exceção (ex: desconexão do cliente),
             // remove o nó do sistema para manter a consistência.
+            fechar();
             if (idNo != -1) {
-                coordenador.removerNo(idNo);
+                coordenador.removerNo(idNo, this);
             }
         }
     }
 
     /**
-     * Delega a ação apropriada para o coordenador com base no tipo da mensagem recebida.
-     * @param msg A mensagem recebida do nó cliente.
+     * Laço da thread de escrita: envia os quadros da fila, descarregando o buffer do
+     * socket apenas quando a fila fica vazia, para agrupar rajadas num único flush.
      */
-    private void processarMensagem(Mensagem msg) {
-        Logger.logCoordenador(idCoordenador, "Mensagem recebida de P" + this.idNo + ": " + msg.getTipo());
-
-        switch (msg.getTipo()) {
-            case REQUISICAO_SC:
-                coordenador.solicitarAcesso(this.idNo, msg.getRelogioLamport());
-                break;
-            case LIBERACAO_SC:
-                Documento docAtualizado = (Documento) msg.getConteudo();
-                coordenador.liberarRecurso(this.idNo, docAtualizado);
-                break;
-            default:
-                Logger.logCoordenador(idCoordenador, "AVISO: Mensagem de tipo inesperado recebida: " + msg.getTipo());
+    private void escreverPendentes() {
+        try {
+            while (true) {
+                MensagemCodificada msg = filaSaida.take();
+                if (msg == FIM) return;
+                canal.enviar(msg, filaSaida.isEmpty());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Falha de escrita: fechar o socket faz a leitura falhar e o nó ser removido.
+            fechar();
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean enviar(MensagemCodificada msg) {
+        return !fechado && filaSaida.offer(msg);
+    }
+
+    @Override
+    public void fechar() {
+        if (fechado) return;
+        fechado = true;
+        filaSaida.clear();
+        filaSaida.offer(FIM);
+        conexao.fechar();
+    }
+}
@@ -0,0 +1,98 @@
+package controlecolaborativo.metricas;
+
+import controlecolaborativo.comum.Mensagem;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bytes e quadros trocados por um conjunto de conexões (ex.: todas as de um nó), no total
+ * e por tipo de mensagem. Os tamanhos incluem o prefixo de comprimento de cada quadro; o
+ * handshake não é contado.
+ *
+ * Um contador pode ter um agregado, que recebe também tudo o que nele é registado: cada nó
+ * mantém os seus contadores e o {@link RegistroMetricas} exporta a soma de todos os nós.
+ */
+public class ContadorTrafego {
+
+    private static final Mensagem.Tipo[] TIPOS = Mensagem.Tipo.values();
+
+    private final ContadorTrafego agregado; // Opcional.
+    private final LongAdder bytesEnviados = new LongAdder();
+    private final LongAdder bytesRecebidos = new LongAdder();
+    private final LongAdder quadrosEnviados = new LongAdder();
+    private final LongAdder quadrosRecebidos = new LongAdder();
+    // Indexados pelo ordinal do tipo da mensagem.
+    private final LongAdder[] bytesEnviadosPorTipo = novosContadores();
+    private final LongAdder[] bytesRecebidosPorTipo = novosContadores();
+
+    public ContadorTrafego() {
+        this(null);
+    }
+
+    public ContadorTrafego(ContadorTrafego agregado) {
+        this.agregado = agregado;
+    }
+
+    public void registrarEnvio(Mensagem.Tipo tipo, int bytes) {
+        bytesEnviados.add(bytes);
+        quadrosEnviados.increment();
+        if (tipo != null) bytesEnviadosPorTipo[tipo.ordinal()].add(bytes);
+        if (agregado != null) agregado.registrarEnvio(tipo, bytes);
+    }
+
+    public void registrarRecepcao(Mensagem.Tipo tipo, int bytes) {
+        bytesRecebidos.add(bytes);
+        quadrosRecebidos.increment();
+        if (tipo != null) bytesRecebidosPorTipo[tipo.ordinal()].add(bytes);
+        if (agregado != null) agregado.registrarRecepcao(tipo, bytes);
+    }
+
+    public long getBytesEnviados() {
+        return bytesEnviados.sum();
+    }
+
+    public long getBytesRecebidos() {
+        return bytesRecebidos.sum();
+    }
+
+    public long getQuadrosEnviados() {
+        return quadrosEnviados.sum();
+    }
+
+    public long getQuadrosRecebidos() {
+        return quadrosRecebidos.sum();
+    }
+
+    public long getBytesEnviados(Mensagem.Tipo tipo) {
+        return bytesEnviadosPorTipo[tipo.ordinal()].sum();
+    }
+
+    public long getBytesRecebidos(Mensagem.Tipo tipo) {
+        return bytesRecebidosPorTipo[tipo.ordinal()].sum();
+    }
+
+    /**
+     * Acrescenta os totais e os bytes de cada tipo com tráfego ao mapa, com o prefixo informado.
+     */
+    void exportar(String prefixo, Map<String, Number> valores) {
+        valores.put(prefixo + ".bytes_enviados", getBytesEnviados());
+        valores.put(prefixo + ".bytes_recebidos", getBytesRecebidos());
+        valores.put(prefixo + ".quadros_enviados", getQuadrosEnviados());
+        valores.put(prefixo + ".quadros_recebidos", getQuadrosRecebidos());
+        for (Mensagem.Tipo tipo : TIPOS) {
+            long enviados = getBytesEnviados(tipo);
+            long recebidos = getBytesRecebidos(tipo);
+            if (enviados > 0) valores.put(prefixo + ".bytes_enviados." + tipo, enviados);
+            if (recebidos > 0) valores.put(prefixo + ".bytes_recebidos." + tipo, recebidos);
+        }
+    }
+
+    private static LongAdder[] novosContadores() {
+        LongAdder[] contadores = new LongAdder[TIPOS.length];
+        for (int i = 0; i < contadores.length; i++) {
+            contadores[i] = new LongAdder();
+        }
+        return contadores;
+    }
+}
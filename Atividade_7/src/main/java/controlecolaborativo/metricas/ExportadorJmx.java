@@ -0,0 +1,91 @@
+package controlecolaborativo.metricas;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expõe o {@link RegistroMetricas} como um MBean dinâmico ({@value #NOME}), com um atributo
+ * só de leitura por entrada de {@link RegistroMetricas#valores()}. Como as métricas são
+ * criadas à medida que os componentes as usam, a lista de atributos é recalculada a cada
+ * pedido de {@link #getMBeanInfo()} (ex.: ao atualizar o JConsole).
+ */
+public class ExportadorJmx implements DynamicMBean {
+
+    public static final String NOME = "controlecolaborativo:type=Metricas";
+
+    private final RegistroMetricas registro;
+
+    public ExportadorJmx(RegistroMetricas registro) {
+        this.registro = registro;
+    }
+
+    /**
+     * Regista o MBean no servidor de MBeans da plataforma, se ainda não estiver registado.
+     */
+    public static void registrar(RegistroMetricas registro) throws JMException {
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        ObjectName nome = new ObjectName(NOME);
+        if (!servidor.isRegistered(nome)) {
+            servidor.registerMBean(new ExportadorJmx(registro), nome);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String atributo) throws AttributeNotFoundException {
+        Number valor = registro.valores().get(atributo);
+        if (valor == null) {
+            throw new AttributeNotFoundException(atributo);
+        }
+        return valor;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] atributos) {
+        Map<String, Number> valores = registro.valores();
+        AttributeList lista = new AttributeList();
+        for (String atributo : atributos) {
+            Number valor = valores.get(atributo);
+            if (valor != null) {
+                lista.add(new Attribute(atributo, valor));
+            }
+        }
+        return lista;
+    }
+
+    @Override
+    public void setAttribute(Attribute atributo) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("As métricas são só de leitura: " + atributo.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList atributos) {
+        return new AttributeList(); // Nenhum atributo pode ser alterado.
+    }
+
+    @Override
+    public Object invoke(String operacao, Object[] parametros, String[] assinatura) {
+        throw new UnsupportedOperationException("Operação desconhecida: " + operacao);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> atributos = new ArrayList<>();
+        for (Map.Entry<String, Number> e : registro.valores().entrySet()) {
+            atributos.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(),
+                    e.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Métricas do controle colaborativo",
+                atributos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
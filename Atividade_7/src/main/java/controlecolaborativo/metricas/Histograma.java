@@ -0,0 +1,110 @@
+package controlecolaborativo.metricas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de valores inteiros não negativos (tipicamente latências em microssegundos),
+ * com baldes log-lineares no estilo do HdrHistogram.
+ *
+ * Cada potência de 2 é dividida em {@value #SUB_BALDES} baldes iguais, o que limita o erro
+ * relativo de qualquer percentil a cerca de 3%, com memória fixa (≈15 KB) para toda a gama
+ * de {@code long}. O registo é livre de travas: um incremento atómico no balde e nos
+ * agregados, seguro para qualquer número de threads.
+ */
+public class Histograma {
+
+    private static final int BITS_SUB_BALDE = 5;
+    private static final int SUB_BALDES = 1 << BITS_SUB_BALDE;          // 32 baldes por oitava.
+    private static final int LIMITE_LINEAR = SUB_BALDES << 1;           // Valores < 64 têm balde próprio.
+    private static final int NUMERO_BALDES = LIMITE_LINEAR + (63 - (BITS_SUB_BALDE + 1)) * SUB_BALDES;
+
+    private final AtomicLongArray baldes = new AtomicLongArray(NUMERO_BALDES);
+    private final AtomicLong contagem = new AtomicLong();
+    private final AtomicLong soma = new AtomicLong();
+    private final AtomicLong minimo = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maximo = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Regista um valor. Valores negativos (ex.: relógios que recuaram) contam como zero.
+     */
+    public void registrar(long valor) {
+        if (valor < 0) valor = 0;
+        baldes.incrementAndGet(indice(valor));
+        contagem.incrementAndGet();
+        soma.addAndGet(valor);
+        long atual;
+        while (valor < (atual = minimo.get()) && !minimo.compareAndSet(atual, valor)) {
+            // Repete até vencer a corrida ou outro valor menor ser registado.
+        }
+        while (valor > (atual = maximo.get()) && !maximo.compareAndSet(atual, valor)) {
+            // Idem para o máximo.
+        }
+    }
+
+    public long getContagem() {
+        return contagem.get();
+    }
+
+    public long getMinimo() {
+        return contagem.get() == 0 ? 0 : minimo.get();
+    }
+
+    public long getMaximo() {
+        return contagem.get() == 0 ? 0 : maximo.get();
+    }
+
+    public double getMedia() {
+        long n = contagem.get();
+        return n == 0 ? 0 : (double) soma.get() / n;
+    }
+
+    /**
+     * @param percentil Entre 0 e 100 (ex.: 99.9).
+     * @return O limite superior do balde que contém o percentil pedido, limitado ao máximo
+     *         observado; 0 se o histograma estiver vazio.
+     */
+    public long percentil(double percentil) {
+        long total = contagem.get();
+        if (total == 0) return 0;
+        long alvo = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentil)) / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < NUMERO_BALDES; i++) {
+            acumulado += baldes.get(i);
+            if (acumulado >= alvo) {
+                return Math.min(limiteSuperior(i), getMaximo());
+            }
+        }
+        return getMaximo();
+    }
+
+    /**
+     * Resumo numa linha, com os valores divididos pelo fator informado
+     * (ex.: 1000 para apresentar em milissegundos valores registados em microssegundos).
+     */
+    public String resumo(double fator, String unidade) {
+        return String.format("n=%d min=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f média=%.2f %s",
+                getContagem(), getMinimo() / fator, percentil(50) / fator, percentil(90) / fator,
+                percentil(99) / fator, percentil(99.9) / fator, getMaximo() / fator, getMedia() / fator, unidade);
+    }
+
+    static int indice(long valor) {
+        if (valor < LIMITE_LINEAR) {
+            return (int) valor;
+        }
+        int expoente = 63 - Long.numberOfLeadingZeros(valor);              // >= BITS_SUB_BALDE + 1
+        int deslocamento = expoente - BITS_SUB_BALDE;
+        int topo = (int) (valor >>> deslocamento);                           // Em [SUB_BALDES, 2 * SUB_BALDES).
+        return LIMITE_LINEAR + (expoente - (BITS_SUB_BALDE + 1)) * SUB_BALDES + (topo - SUB_BALDES);
+    }
+
+    static long limiteSuperior(int indice) {
+        if (indice < LIMITE_LINEAR) {
+            return indice;
+        }
+        int relativo = indice - LIMITE_LINEAR;
+        int deslocamento = relativo / SUB_BALDES + 1;
+        long topo = SUB_BALDES + relativo % SUB_BALDES;
+        return ((topo + 1) << deslocamento) - 1;
+    }
+}
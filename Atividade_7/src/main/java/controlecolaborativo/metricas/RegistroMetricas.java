@@ -0,0 +1,145 @@
+package controlecolaborativo.metricas;
+
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Logger;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registo das métricas do processo: histogramas, contadores, medidores e tráfego por
+ * conjunto de conexões, todos identificados por um nome único.
+ *
+ * Os componentes obtêm as suas métricas pelo nome (criando-as na primeira vez) e registam
+ * valores sem travas. Os exportadores ({@link ExportadorJmx}, {@link ServidorMetricas})
+ * leem tudo de uma vez com {@link #valores()}. Como um nó que vence uma eleição cria um
+ * novo coordenador no mesmo processo, as métricas sobrevivem às instâncias que as usam.
+ */
+public final class RegistroMetricas {
+
+    private static final RegistroMetricas GLOBAL = new RegistroMetricas();
+
+    static {
+        GLOBAL.medidor("log.descartados", Logger::getDescartados);
+    }
+
+    // Quantis exportados de cada histograma.
+    private static final double[] PERCENTIS = {50, 90, 99, 99.9};
+    private static final String[] SUFIXOS_PERCENTIS = {"p50", "p90", "p99", "p999"};
+
+    private final ConcurrentMap<String, Histograma> histogramas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> contadores = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> medidores = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ContadorTrafego> trafegos = new ConcurrentHashMap<>();
+
+    /**
+     * @return O registo partilhado por todos os componentes deste processo.
+     */
+    public static RegistroMetricas global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Inicia os exportadores configurados para o registo global: o MBean JMX
+     * ({@link Configuracao#metricasJmx()}) e o servidor HTTP ({@link Configuracao#portaMetricas()}).
+     * Falhas são apenas registadas: as métricas nunca impedem a execução.
+     */
+    public static void iniciarExportadores() {
+        if (Configuracao.metricasJmx()) {
+            try {
+                ExportadorJmx.registrar(GLOBAL);
+            } catch (JMException e) {
+                Logger.logSimulador(Logger.Nivel.AVISO, "AVISO: não foi possível registar as métricas no JMX: " + e.getMessage());
+            }
+        }
+        int porta = Configuracao.portaMetricas();
+        if (porta > 0) {
+            try {
+                ServidorMetricas servidor = new ServidorMetricas(GLOBAL, porta);
+                servidor.iniciar();
+                Logger.logSimulador("Métricas disponíveis em http://localhost:" + servidor.getPorta() + ServidorMetricas.CAMINHO);
+            } catch (IOException e) {
+                Logger.logSimulador(Logger.Nivel.AVISO, "AVISO: não foi possível iniciar o servidor de métricas na porta " + porta + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public Histograma histograma(String nome) {
+        return histogramas.computeIfAbsent(nome, n -> new Histograma());
+    }
+
+    public LongAdder contador(String nome) {
+        return contadores.computeIfAbsent(nome, n -> new LongAdder());
+    }
+
+    /**
+     * Regista um medidor, lido apenas quando as métricas são exportadas. Um medidor com o
+     * mesmo nome é substituído (ex.: pelo novo coordenador eleito).
+     */
+    public void medidor(String nome, LongSupplier leitura) {
+        medidores.put(nome, leitura);
+    }
+
+    /**
+     * @return O contador de tráfego agregado com o nome informado; os contadores de cada
+     *         conexão ou nó devem ser criados com ele como agregado.
+     */
+    public ContadorTrafego trafego(String nome) {
+        return trafegos.computeIfAbsent(nome, n -> new ContadorTrafego());
+    }
+
+    /**
+     * Fotografia de todas as métricas, ordenada pelo nome. Cada histograma gera as entradas
+     * {@code nome.contagem}, {@code nome.media}, {@code nome.p50} ... {@code nome.max}; cada
+     * tráfego, os totais e os bytes por tipo de mensagem.
+     */
+    public Map<String, Number> valores() {
+        Map<String, Number> valores = new TreeMap<>();
+        for (Map.Entry<String, Histograma> e : histogramas.entrySet()) {
+            Histograma h = e.getValue();
+            String nome = e.getKey();
+            valores.put(nome + ".contagem", h.getContagem());
+            valores.put(nome + ".media", h.getMedia());
+            valores.put(nome + ".min", h.getMinimo());
+            for (int i = 0; i < PERCENTIS.length; i++) {
+                valores.put(nome + "." + SUFIXOS_PERCENTIS[i], h.percentil(PERCENTIS[i]));
+            }
+            valores.put(nome + ".max", h.getMaximo());
+        }
+        for (Map.Entry<String, LongAdder> e : contadores.entrySet()) {
+            valores.put(e.getKey(), e.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> e : medidores.entrySet()) {
+            valores.put(e.getKey(), e.getValue().getAsLong());
+        }
+        for (Map.Entry<String, ContadorTrafego> e : trafegos.entrySet()) {
+            e.getValue().exportar(e.getKey(), valores);
+        }
+        return valores;
+    }
+
+    /**
+     * @return As métricas em texto simples, uma por linha: {@code nome valor}.
+     */
+    public String texto() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Number> e : valores().entrySet()) {
+            Number valor = e.getValue();
+            sb.append(e.getKey()).append(' ');
+            if (valor instanceof Double) {
+                sb.append(String.format(Locale.ROOT, "%.3f", valor.doubleValue()));
+            } else {
+                sb.append(valor);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package controlecolaborativo.metricas;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Servidor HTTP mínimo que responde em {@code GET /metricas} com o
+ * {@link RegistroMetricas#texto() texto} das métricas, uma por linha. Escuta apenas na
+ * interface local e atende os pedidos numa única thread daemon.
+ */
+public class ServidorMetricas {
+
+    public static final String CAMINHO = "/metricas";
+
+    private final HttpServer servidor;
+
+    public ServidorMetricas(RegistroMetricas registro, int porta) throws IOException {
+        servidor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), 0);
+        servidor.createContext(CAMINHO, troca -> responder(troca, registro));
+        servidor.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "servidor-metricas");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public void iniciar() {
+        servidor.start();
+    }
+
+    public void parar() {
+        servidor.stop(0);
+    }
+
+    /**
+     * @return A porta efetivamente usada (útil quando o servidor foi criado com a porta 0).
+     */
+    public int getPorta() {
+        return servidor.getAddress().getPort();
+    }
+
+    private static void responder(HttpExchange troca, RegistroMetricas registro) throws IOException {
+        try {
+            if (!"GET".equals(troca.getRequestMethod())) {
+                troca.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] corpo = registro.texto().getBytes(StandardCharsets.UTF_8);
+            troca.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            troca.sendResponseHeaders(200, corpo.length);
+            try (OutputStream out = troca.getResponseBody()) {
+                out.write(corpo);
+            }
+        } finally {
+            troca.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package controlecolaborativo.no;
+
+import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.OperacaoEdicao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uma trava concedida pelo coordenador a este nó, obtida com {@link No#adquirir(String, IntervaloLinhas)}.
+ *
+ * A concessão traz uma cópia de trabalho da réplica local do documento no momento da permissão. As
+ * edições feitas com {@link #aplicar(OperacaoEdicao)} alteram apenas essa cópia e são
+ * registadas; {@link No#liberar(Concessao)} envia-as ao coordenador e devolve a trava.
+ * Uma concessão deixa de ser válida se o coordenador que a emitiu falhar, ou se expirar: o
+ * coordenador retira a trava a quem não a libera nem renova ({@link No#renovar(Concessao)})
+ * dentro do prazo. Nos dois casos, a liberação falha e as edições são descartadas.
+ *
+ * Uma concessão de leitura ({@link No#adquirirLeitura}) é partilhada com outros leitores e
+ * garante apenas que nenhuma escrita altera as linhas enquanto ela é detida; não aceita edições.
+ */
+public class Concessao {
+
+    private final int idPedido;
+    private final String documento;
+    private final IntervaloLinhas intervalo;
+    private final boolean compartilhada;
+    private final long geracao;
+    private final long ficha;
+    private final Documento copiaTrabalho;
+    private final long instanteConcessaoNs = System.nanoTime();
+    private final List<OperacaoEdicao> edicoes = new ArrayList<>();
+    private boolean liberada = false;
+    private volatile boolean expirada = false;
+
+    Concessao(int idPedido, String documento, IntervaloLinhas intervalo, boolean compartilhada, long geracao, long ficha, Documento copiaTrabalho) {
+        this.idPedido = idPedido;
+        this.documento = documento;
+        this.intervalo = intervalo;
+        this.compartilhada = compartilhada;
+        this.geracao = geracao;
+        this.ficha = ficha;
+        this.copiaTrabalho = copiaTrabalho;
+    }
+
+    /**
+     * Aplica uma operação à cópia de trabalho e regista-a para envio na liberação.
+     * @throws IllegalArgumentException se a operação sair do intervalo concedido.
+     * @throws IllegalStateException se a concessão já foi liberada ou é de leitura.
+     */
+    public synchronized void aplicar(OperacaoEdicao op) {
+        if (liberada) {
+            throw new IllegalStateException("Concessão já liberada.");
+        }
+        if (compartilhada) {
+            throw new IllegalStateException("Concessão de leitura não aceita edições.");
+        }
+        if (!intervalo.contem(op.intervaloAfetado())) {
+            throw new IllegalArgumentException("Operação " + op + " fora do intervalo concedido " + intervalo + ".");
+        }
+        op.aplicar(copiaTrabalho);
+        edicoes.add(op);
+    }
+
+    /**
+     * @return O identificador do pedido (o seu relógio de Lamport), único neste nó.
+     */
+    public int getIdPedido() {
+        return idPedido;
+    }
+
+    /**
+     * @return O ID do documento travado.
+     */
+    public String getDocumento() {
+        return documento;
+    }
+
+    public IntervaloLinhas getIntervalo() {
+        return intervalo;
+    }
+
+    /**
+     * @return {@code true} se é uma concessão de leitura, partilhada com outros leitores.
+     */
+    public boolean isCompartilhada() {
+        return compartilhada;
+    }
+
+    /**
+     * @return A cópia de trabalho, com as edições já aplicadas por esta concessão.
+     */
+    public Documento getCopiaTrabalho() {
+        return copiaTrabalho;
+    }
+
+    /**
+     * @return A ficha (fencing token) atribuída pelo coordenador, enviada na liberação e nas
+     *         renovações para provar que a concessão ainda é a atual.
+     */
+    public long getFicha() {
+        return ficha;
+    }
+
+    /**
+     * @return {@code true} se o coordenador retirou a trava por ter passado do prazo.
+     */
+    public boolean isExpirada() {
+        return expirada;
+    }
+
+    public synchronized List<OperacaoEdicao> getEdicoes() {
+        return Collections.unmodifiableList(new ArrayList<>(edicoes));
+    }
+
+    long getGeracao() {
+        return geracao;
+    }
+
+    long getInstanteConcessaoNs() {
+        return instanteConcessaoNs;
+    }
+
+    /**
+     * Marca a concessão como liberada.
+     * @return {@code false} se ela já tinha sido liberada.
+     */
+    synchronized boolean marcarLiberada() {
+        if (liberada) return false;
+        liberada = true;
+        return true;
+    }
+
+    void marcarExpirada() {
+        expirada = true;
+    }
+
+    @Override
+    public String toString() {
+        return "Concessao#" + idPedido + " '" + documento + "' " + intervalo + (compartilhada ? " leitura" : "");
+    }
+}
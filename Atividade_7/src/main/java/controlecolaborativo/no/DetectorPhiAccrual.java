@@ -0,0 +1,93 @@
+package controlecolaborativo.no;
+
+import controlecolaborativo.comum.Relogio;
+
+/**
+ * Detector de falhas phi-accrual (Hayashibara et al.), usado pelo nó para vigiar o coordenador.
+ *
+ * Em vez de um timeout fixo, o detector mantém uma janela dos intervalos observados entre
+ * heartbeats e calcula phi = -log10(P(o próximo heartbeat ainda chegar)), assumindo uma
+ * distribuição normal com a média e o desvio padrão da janela. O nível de suspeita cresce
+ * continuamente com o silêncio, e o limiar de phi adapta-se sozinho à rede observada.
+ *
+ * Thread-safe: os heartbeats são registados pela thread de leitura e phi é consultado pelo monitor.
+ */
+public class DetectorPhiAccrual {
+
+    private static final int TAMANHO_JANELA = 100;
+
+    private final Relogio relogio;
+    private final long desvioMinimoMs;
+    private final long pausaAceitavelMs;
+
+    // Janela circular dos últimos intervalos entre heartbeats, com somas para média/variância em O(1).
+    private final long[] intervalos = new long[TAMANHO_JANELA];
+    private int quantidade = 0;
+    private int proximo = 0;
+    private double soma = 0;
+    private double somaQuadrados = 0;
+
+    private long ultimoHeartbeatMs;
+
+    /**
+     * @param relogio             Relógio em que se medem os intervalos e o silêncio.
+     * @param intervaloEsperadoMs Intervalo nominal entre heartbeats, usado antes de haver amostras.
+     */
+    public DetectorPhiAccrual(Relogio relogio, long intervaloEsperadoMs, long desvioMinimoMs, long pausaAceitavelMs) {
+        this.relogio = relogio;
+        this.desvioMinimoMs = Math.max(1, desvioMinimoMs);
+        this.pausaAceitavelMs = Math.max(0, pausaAceitavelMs);
+        this.ultimoHeartbeatMs = agoraMs();
+        // Amostras iniciais em torno do intervalo esperado evitam suspeitas logo após a conexão.
+        adicionarIntervalo(intervaloEsperadoMs - intervaloEsperadoMs / 4);
+        adicionarIntervalo(intervaloEsperadoMs + intervaloEsperadoMs / 4);
+    }
+
+    public synchronized void registrarHeartbeat() {
+        long agora = agoraMs();
+        adicionarIntervalo(agora - ultimoHeartbeatMs);
+        ultimoHeartbeatMs = agora;
+    }
+
+    /**
+     * @return O nível de suspeita atual; cresce sem limite enquanto não chegarem heartbeats.
+     */
+    public synchronized double phi() {
+        long decorrido = agoraMs() - ultimoHeartbeatMs;
+        double media = soma / quantidade + pausaAceitavelMs;
+        double variancia = somaQuadrados / quantidade - (soma / quantidade) * (soma / quantidade);
+        double desvio = Math.max(Math.sqrt(Math.max(0, variancia)), desvioMinimoMs);
+        // Aproximação logística da função de distribuição acumulada da normal.
+        double y = (decorrido - media) / desvio;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (decorrido > media) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    /**
+     * @return Milissegundos desde o último heartbeat recebido.
+     */
+    public synchronized long getSilencioMs() {
+        return agoraMs() - ultimoHeartbeatMs;
+    }
+
+    private void adicionarIntervalo(long intervaloMs) {
+        if (quantidade == TAMANHO_JANELA) {
+            long removido = intervalos[proximo];
+            soma -= removido;
+            somaQuadrados -= (double) removido * removido;
+        } else {
+            quantidade++;
+        }
+        intervalos[proximo] = intervaloMs;
+        soma += intervaloMs;
+        somaQuadrados += (double) intervaloMs * intervaloMs;
+        proximo = (proximo + 1) % TAMANHO_JANELA;
+    }
+
+    private long agoraMs() {
+        return relogio.agoraMs();
+    }
+}
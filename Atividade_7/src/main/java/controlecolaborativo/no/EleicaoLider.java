@@ -0,0 +1,404 @@
+package controlecolaborativo.no;
+
+import controlecolaborativo.comum.Agendador;
+import controlecolaborativo.comum.Logger;
+import controlecolaborativo.comum.Mandato;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.Relogio;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Eleição de líder por termos com tempos de espera aleatórios, no estilo do Raft, em
+ * substituição do Algoritmo Bully.
+ *
+ * Ao suspeitar do líder, um nó espera um tempo aleatório e candidata-se: abre um termo maior
+ * do que todos os que conhece, vota em si e pede o voto de cada par (PEDIDO_VOTO). Cada nó vota
+ * no máximo uma vez por termo, e só se já não confiar no líder atual; o candidato que reúne a
+ * maioria dos nós vence e anuncia o seu {@link Mandato} (VICTORY). Só se vence um termo com a
+ * maioria dos votos, e cada nó vota uma única vez por termo, por isso dois líderes nunca
+ * coexistem no mesmo termo.
+ *
+ * Antes de abrir o termo, o candidato faz uma pré-votação (PEDIDO_PRE_VOTO): só avança se a
+ * maioria dos pares também já não confiar no líder. Um nó isolado não faz assim subir o termo,
+ * e volta a seguir o líder quando este lhe responde com o VICTORY do termo atual. Um líder
+ * nunca muda de termo sem votos: a um pedido de voto responde com o seu VICTORY ou recusa-o. Se
+ * deixar de receber as respostas aos heartbeats da maioria dos nós durante a janela de contacto,
+ * renuncia, para que um líder isolado não continue a servir enquanto a maioria elege outro.
+ *
+ * Cada ronda custa O(n) mensagens (um pedido e um voto por par, e um anúncio), contra as O(n²)
+ * do Bully, e a aleatoriedade dos tempos faz com que quase sempre baste uma ronda. Uma reserva
+ * sincronizada (ver {@code ReplicaTravas}) candidata-se antes dos restantes nós, para que o novo
+ * líder herde as travas do anterior.
+ *
+ * Requer que a maioria dos nós esteja ativa. Thread-safe: chamada pelas threads de leitura dos
+ * pares, pelo detector de falhas do nó e pelo seu próprio temporizador. Os tempos e os sorteios
+ * vêm do relógio e do gerador recebidos, para que uma simulação num relógio virtual os repita.
+ */
+final class EleicaoLider {
+
+    /**
+     * O que a eleição precisa do nó.
+     */
+    interface Participante {
+        /** @return {@code true} se o nó está conectado ao líder e não suspeita dele. */
+        boolean confiaNoLider();
+
+        /** @return {@code true} se o nó executa o serviço de coordenador. */
+        boolean isLider();
+
+        /** @return Quantos pares responderam aos heartbeats do serviço de coordenador na janela indicada. */
+        int paresEmContato(long janelaMs);
+
+        /** O líder perdeu o contacto com a maioria: encerra o serviço de coordenador. */
+        void renunciar();
+
+        /** @return {@code true} se o nó tem uma cópia completa das travas do líder atual. */
+        boolean isReservaSincronizada();
+
+        /** O nó venceu o termo: inicia o serviço de coordenador. */
+        void assumir(long termo);
+
+        /** Outro nó venceu: o nó passa a segui-lo. */
+        void seguir(int idLider, Mandato mandato);
+
+        /** O VICTORY com o mandato do termo atual. */
+        Mensagem anuncioVitoria();
+
+        void enviar(int idPar, Mensagem msg);
+    }
+
+    private final int id;
+    private final List<Integer> pares;
+    private final int maioria;
+    private final int tempoBaseMs;
+    private final long janelaContatoMs;
+    private final long carenciaLiderMs;
+    private final Participante participante;
+    private final Relogio relogio;
+    private final Random aleatorio;
+    private final Agendador temporizador;
+
+    // Estado protegido pelo monitor desta instância.
+    private long termo;
+    private int votoEm = -1;   // Candidato que recebeu o voto deste nó no termo atual (-1 = nenhum).
+    private int lider = -1;    // Líder conhecido do termo atual (-1 = nenhum).
+    private boolean candidato;
+    private final Set<Integer> votos = new HashSet<>();
+    private boolean preCandidato; // Em pré-votação para o termo seguinte ao atual.
+    private final Set<Integer> preVotos = new HashSet<>();
+    private long liderDesdeNs;    // Início da liderança deste nó, que dá ao serviço o período de carência.
+    private Agendador.Tarefa candidatura; // Próxima candidatura agendada, se houver.
+
+    /**
+     * @param todos       Os IDs de todos os nós, incluindo este.
+     * @param tempoBaseMs     Tempo de uma ronda: um candidato sem maioria tenta de novo num termo
+     *                        seguinte após um tempo aleatório entre uma e duas vezes este valor.
+     * @param janelaContatoMs Tempo sem resposta da maioria dos nós aos heartbeats após o qual o
+     *                        líder renuncia.
+     * @param carenciaLiderMs Tempo dado a um novo líder para que os nós se conectem ao seu serviço
+     *                        antes de ele poder renunciar (pelo menos a janela de contacto).
+     * @param relogio         Relógio dos tempos de espera e da verificação de contacto.
+     * @param aleatorio       Gerador dos tempos de espera aleatórios.
+     */
+    EleicaoLider(int id, Set<Integer> todos, int tempoBaseMs, long janelaContatoMs, long carenciaLiderMs, Participante participante,
+                 Relogio relogio, Random aleatorio) {
+        this.id = id;
+        this.pares = new ArrayList<>(todos);
+        this.pares.remove(Integer.valueOf(id));
+        this.maioria = todos.size() / 2 + 1;
+        this.tempoBaseMs = Math.max(10, tempoBaseMs);
+        this.janelaContatoMs = Math.max(10, janelaContatoMs);
+        this.carenciaLiderMs = Math.max(this.janelaContatoMs, carenciaLiderMs);
+        this.participante = participante;
+        this.relogio = relogio;
+        this.aleatorio = aleatorio;
+        this.temporizador = relogio.agendador("eleicao-P" + id);
+        temporizador.agendarPeriodica(this::verificarContato, Math.max(10, this.janelaContatoMs / 4));
+    }
+
+    /**
+     * Líder inicial, conhecido por todos os nós sem votação (o de maior ID, no termo 1).
+     */
+    synchronized void definirLiderInicial(int idLider) {
+        termo = 1;
+        lider = idLider;
+        votoEm = idLider;
+        liderDesdeNs = relogio.agoraNs();
+    }
+
+    synchronized long getTermo() {
+        return termo;
+    }
+
+    /**
+     * @return {@code true} se este nó é candidato ou tem uma candidatura agendada.
+     */
+    synchronized boolean isEmCurso() {
+        return candidato || preCandidato || (candidatura != null && candidatura.isPendente());
+    }
+
+    void parar() {
+        temporizador.parar();
+    }
+
+    /**
+     * Anuncia a todos os pares que este nó é o líder do termo atual.
+     */
+    void anunciarVitoria() {
+        Mensagem vitoria = participante.anuncioVitoria();
+        for (int par : pares) {
+            participante.enviar(par, vitoria);
+        }
+    }
+
+    /**
+     * O nó deixou de confiar no líder: candidata-se depois de um tempo aleatório, a menos que
+     * entretanto outro nó vença. Uma reserva sincronizada espera menos do que os restantes nós.
+     */
+    synchronized void suspeitarLider() {
+        if (isEmCurso()) return;
+        long atraso = participante.isReservaSincronizada()
+                ? aleatorio.nextInt(tempoBaseMs / 4 + 1)
+                : tempoBaseMs / 2 + aleatorio.nextInt(tempoBaseMs / 2 + 1);
+        agendarCandidatura(atraso);
+    }
+
+    /**
+     * Trata uma mensagem de eleição recebida de um par.
+     * @return {@code false} se a mensagem não é da eleição.
+     */
+    boolean tratar(Mensagem msg) {
+        int remetente = msg.getIdRemetente();
+        switch (msg.getTipo()) {
+            case PEDIDO_PRE_VOTO:
+                receberPedidoPreVoto(remetente, (Long) msg.getConteudo());
+                return true;
+            case PRE_VOTO_CONCEDIDO:
+                receberPreVoto(remetente, (Long) msg.getConteudo());
+                return true;
+            case PEDIDO_VOTO:
+                receberPedidoVoto(remetente, (Long) msg.getConteudo());
+                return true;
+            case VOTO_CONCEDIDO:
+                receberVoto(remetente, (Long) msg.getConteudo());
+                return true;
+            case VOTO_RECUSADO:
+                receberRecusa((Long) msg.getConteudo());
+                return true;
+            case VICTORY:
+                receberVitoria(remetente, (Mandato) msg.getConteudo());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Pré-votação: pergunta aos pares se votariam neste nó no termo seguinte, sem o abrir.
+     */
+    private void candidatar() {
+        long termoProposto;
+        synchronized (this) {
+            candidatura = null;
+            if (lider != -1 && participante.confiaNoLider()) return; // Outro nó venceu entretanto.
+            preCandidato = true;
+            preVotos.clear();
+            preVotos.add(id);
+            termoProposto = termo + 1;
+            // Sem maioria (o líder ainda é seguido ou pares inacessíveis), tenta de novo mais tarde.
+            agendarCandidatura(tempoBaseMs + aleatorio.nextInt(tempoBaseMs + 1));
+        }
+        if (maioria == 1) {
+            synchronized (this) {
+                preCandidato = false;
+            }
+            abrirTermo(termoProposto);
+            return;
+        }
+        Mensagem pedido = new Mensagem(Mensagem.Tipo.PEDIDO_PRE_VOTO, id, 0, termoProposto);
+        for (int par : pares) {
+            participante.enviar(par, pedido);
+        }
+    }
+
+    /**
+     * Responde a uma pré-votação sem alterar o estado: concede se o termo proposto é maior do
+     * que o atual e este nó também já não confia no líder. O líder responde com o seu VICTORY.
+     */
+    private void receberPedidoPreVoto(int candidatoId, long termoProposto) {
+        if (participante.isLider()) {
+            participante.enviar(candidatoId, participante.anuncioVitoria());
+            return;
+        }
+        boolean concedido;
+        long termoAtual;
+        synchronized (this) {
+            concedido = termoProposto > termo && !participante.confiaNoLider();
+            termoAtual = termo;
+        }
+        participante.enviar(candidatoId, concedido
+                ? new Mensagem(Mensagem.Tipo.PRE_VOTO_CONCEDIDO, id, 0, termoProposto)
+                : new Mensagem(Mensagem.Tipo.VOTO_RECUSADO, id, 0, termoAtual));
+    }
+
+    private void receberPreVoto(int eleitor, long termoProposto) {
+        synchronized (this) {
+            if (!preCandidato || termoProposto != termo + 1 || !preVotos.add(eleitor) || preVotos.size() < maioria) return;
+            preCandidato = false;
+        }
+        abrirTermo(termoProposto);
+    }
+
+    /**
+     * A pré-votação teve maioria: abre o termo, vota em si e pede o voto de cada par.
+     */
+    private void abrirTermo(long termoProposto) {
+        long termoCandidato;
+        synchronized (this) {
+            if (termo + 1 != termoProposto || (lider != -1 && participante.confiaNoLider())) return;
+            termo++;
+            candidato = true;
+            votoEm = id;
+            lider = -1;
+            votos.clear();
+            votos.add(id);
+            termoCandidato = termo;
+            // Sem maioria (votos divididos ou pares inacessíveis), tenta de novo num novo termo.
+            agendarCandidatura(tempoBaseMs + aleatorio.nextInt(tempoBaseMs + 1));
+        }
+        Logger.logEleicao(id, "Candidato no termo " + termoCandidato + ".");
+        if (maioria == 1) {
+            vencer(termoCandidato);
+            return;
+        }
+        Mensagem pedido = new Mensagem(Mensagem.Tipo.PEDIDO_VOTO, id, 0, termoCandidato);
+        for (int par : pares) {
+            participante.enviar(par, pedido);
+        }
+    }
+
+    private void receberPedidoVoto(int candidatoId, long termoPedido) {
+        if (participante.isLider()) {
+            // Um líder ativo não vota nem muda de termo. A um candidato atrasado reenvia o VICTORY
+            // do seu termo; um termo maior foi aberto pela maioria, cujo vencedor o fará abdicar.
+            long termoAtual = getTermo();
+            participante.enviar(candidatoId, termoPedido <= termoAtual ? participante.anuncioVitoria()
+                    : new Mensagem(Mensagem.Tipo.VOTO_RECUSADO, id, 0, termoAtual));
+            return;
+        }
+        boolean concedido = false;
+        long termoAtual;
+        synchronized (this) {
+            if (termoPedido > termo && !participante.confiaNoLider()) {
+                adotarTermo(termoPedido);
+            }
+            if (termoPedido == termo && !candidato && (votoEm == -1 || votoEm == candidatoId) && !participante.confiaNoLider()) {
+                votoEm = candidatoId;
+                concedido = true;
+                // Quem vota dá tempo ao candidato antes de se candidatar.
+                cancelarCandidatura();
+                agendarCandidatura(tempoBaseMs + aleatorio.nextInt(tempoBaseMs + 1));
+            }
+            termoAtual = termo;
+        }
+        if (Logger.ativo(Logger.Categoria.ELEICAO, Logger.Nivel.DEBUG)) {
+            Logger.logEleicao(id, Logger.Nivel.DEBUG, (concedido ? "Votou em P" : "Recusou o voto a P") + candidatoId + " no termo " + termoPedido + ".");
+        }
+        participante.enviar(candidatoId, new Mensagem(concedido ? Mensagem.Tipo.VOTO_CONCEDIDO : Mensagem.Tipo.VOTO_RECUSADO, id, 0, termoAtual));
+    }
+
+    private void receberVoto(int eleitor, long termoVoto) {
+        synchronized (this) {
+            if (!candidato || termoVoto != termo || !votos.add(eleitor) || votos.size() < maioria) return;
+            candidato = false;
+        }
+        vencer(termoVoto);
+    }
+
+    private synchronized void receberRecusa(long termoEleitor) {
+        if (termoEleitor > termo) {
+            adotarTermo(termoEleitor);
+            agendarCandidatura(tempoBaseMs + aleatorio.nextInt(tempoBaseMs + 1));
+        }
+    }
+
+    private void receberVitoria(int idLider, Mandato mandato) {
+        synchronized (this) {
+            if (mandato.getTermo() < termo || (mandato.getTermo() == termo && lider != -1 && lider != idLider)) {
+                return; // Anúncio de um termo já ultrapassado.
+            }
+            termo = mandato.getTermo();
+            lider = idLider;
+            votoEm = votoEm == -1 ? idLider : votoEm;
+            candidato = false;
+            preCandidato = false;
+            cancelarCandidatura();
+        }
+        participante.seguir(idLider, mandato);
+    }
+
+    private void vencer(long termoVencido) {
+        synchronized (this) {
+            if (termo != termoVencido) return;
+            lider = id;
+            liderDesdeNs = relogio.agoraNs();
+            cancelarCandidatura();
+        }
+        Logger.logEleicao(id, "Venceu o termo " + termoVencido + ".");
+        participante.assumir(termoVencido);
+        anunciarVitoria();
+    }
+
+    /**
+     * Verificação periódica do líder: renuncia se, passado o período de carência desde que
+     * assumiu, menos de uma maioria (contando com ele) respondeu aos heartbeats na última janela.
+     * Mantém o termo e o voto: volta a liderar apenas vencendo um termo seguinte.
+     */
+    private void verificarContato() {
+        synchronized (this) {
+            if (lider != id || maioria == 1 || relogio.agoraNs() - liderDesdeNs < TimeUnit.MILLISECONDS.toNanos(carenciaLiderMs)) return;
+        }
+        if (!participante.isLider()) return;
+        int emContato = participante.paresEmContato(janelaContatoMs);
+        if (emContato + 1 >= maioria) return;
+        long termoRenunciado;
+        synchronized (this) {
+            if (lider != id) return;
+            lider = -1;
+            termoRenunciado = termo;
+        }
+        Logger.logEleicao(id, Logger.Nivel.AVISO, "Apenas " + emContato + " par(es) responderam aos heartbeats em " + janelaContatoMs
+                + " ms (maioria: " + maioria + "). Renunciando à liderança do termo " + termoRenunciado + ".");
+        participante.renunciar();
+    }
+
+    /**
+     * Passa a um termo maior, ainda sem voto nem líder; uma candidatura em curso é abandonada.
+     */
+    private void adotarTermo(long novoTermo) {
+        termo = novoTermo;
+        votoEm = -1;
+        lider = -1;
+        candidato = false;
+        preCandidato = false;
+        cancelarCandidatura();
+    }
+
+    private void agendarCandidatura(long atrasoMs) {
+        cancelarCandidatura();
+        candidatura = temporizador.agendar(this::candidatar, atrasoMs);
+    }
+
+    private void cancelarCandidatura() {
+        if (candidatura != null) {
+            candidatura.cancelar();
+            candidatura = null;
+        }
+    }
+}
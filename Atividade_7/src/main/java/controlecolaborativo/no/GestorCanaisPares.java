@@ -0,0 +1,170 @@
+package controlecolaborativo.no;
+
+import controlecolaborativo.comum.Execucao;
+import controlecolaborativo.comum.Logger;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.metricas.ContadorTrafego;
+import controlecolaborativo.rede.Canal;
+import controlecolaborativo.rede.Transporte;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Mantém uma conexão de longa duração com cada par, usada para todo o tráfego de
+ * controle entre nós (eleição e, futuramente, heartbeats e outras mensagens).
+ *
+ * As conexões são abertas sob demanda no primeiro envio e reabertas automaticamente
+ * quando falham. São bidirecionais: uma conexão aceite de um par também é usada para
+ * lhe enviar mensagens, e toda conexão tem uma thread de leitura que entrega as
+ * mensagens recebidas ao tratador informado, qualquer que seja o seu tipo.
+ */
+public class GestorCanaisPares {
+
+    private final int id;
+    private final Map<Integer, Integer> portasPares;
+    private final Consumer<Mensagem> tratador;
+    private final ContadorTrafego trafego;
+    private final Transporte transporte;
+
+    private final Map<Integer, Canal> canais = new ConcurrentHashMap<>();
+    // Evita que duas threads abram ao mesmo tempo conexões para o mesmo par.
+    private final Map<Integer, ReentrantLock> travasConexao = new ConcurrentHashMap<>();
+
+    private volatile boolean rodando = true;
+    private Transporte.Servidor servidor;
+
+    public GestorCanaisPares(int id, Map<Integer, Integer> portasPares, Consumer<Mensagem> tratador, ContadorTrafego trafego, Transporte transporte) {
+        this.id = id;
+        this.transporte = transporte;
+        this.portasPares = portasPares;
+        this.tratador = tratador;
+        this.trafego = trafego;
+    }
+
+    /**
+     * Abre a porta de escuta deste nó e começa a aceitar conexões dos pares.
+     */
+    public void iniciar() throws IOException {
+        servidor = transporte.escutar(portasPares.get(id), Math.max(50, portasPares.size()));
+        Execucao.iniciar("pares-P" + id, this::aceitarConexoes);
+    }
+
+    /**
+     * Encerra a escuta e todas as conexões com os pares.
+     */
+    public void parar() {
+        rodando = false;
+        try {
+            if (servidor != null) servidor.close();
+        } catch (IOException e) {
+            // Ignorado durante o encerramento.
+        }
+        for (Canal canal : canais.values()) {
+            fecharSilenciosamente(canal);
+        }
+        canais.clear();
+    }
+
+    /**
+     * Envia uma mensagem a um par pela conexão persistente, abrindo-a se necessário.
+     * Se a conexão existente estiver quebrada, tenta uma única vez com uma conexão nova.
+     * @return {@code false} se o par estiver inacessível.
+     */
+    public boolean enviar(int idPar, Mensagem msg) {
+        for (int tentativa = 0; tentativa < 2 && rodando; tentativa++) {
+            Canal canal = null;
+            try {
+                canal = obterCanal(idPar);
+                canal.enviar(msg);
+                return true;
+            } catch (IOException e) {
+                if (canal != null) descartar(idPar, canal);
+            }
+        }
+        return false;
+    }
+
+    private Canal obterCanal(int idPar) throws IOException {
+        Canal canal = canais.get(idPar);
+        if (canal != null) return canal;
+
+        ReentrantLock trava = travasConexao.computeIfAbsent(idPar, k -> new ReentrantLock());
+        trava.lock();
+        try {
+            canal = canais.get(idPar);
+            if (canal == null) {
+                Integer porta = portasPares.get(idPar);
+                if (porta == null) throw new IOException("Par desconhecido: P" + idPar);
+                canal = transporte.conectar(idPar, porta, trafego);
+                canais.put(idPar, canal);
+                iniciarLeitura(canal, idPar);
+            }
+            return canal;
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    private void aceitarConexoes() {
+        while (rodando) {
+            try {
+                Transporte.ConexaoAceite conexao = servidor.aceitar();
+                Execucao.iniciar("par-P" + id, () -> {
+                    try {
+                        lerMensagens(conexao.abrir(trafego), -1);
+                    } catch (IOException e) {
+                        conexao.fechar();
+                    }
+                });
+            } catch (IOException e) {
+                if (rodando) {
+                    Logger.logEleicao(id, Logger.Nivel.ERRO, "ERRO: falha ao aceitar conexão de um par: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void iniciarLeitura(Canal canal, int idPar) {
+        Execucao.iniciar("par-P" + id + "-P" + idPar, () -> lerMensagens(canal, idPar));
+    }
+
+    /**
+     * Laço de leitura de uma conexão. Numa conexão aceite, o par só é conhecido pela
+     * primeira mensagem; a partir daí a conexão também passa a servir para enviar a ele,
+     * caso ainda não exista outra.
+     */
+    private void lerMensagens(Canal canal, int idPar) {
+        try {
+            while (rodando) {
+                Mensagem msg = canal.receber();
+                if (idPar == -1) {
+                    idPar = msg.getIdRemetente();
+                    canais.putIfAbsent(idPar, canal);
+                }
+                tratador.accept(msg);
+            }
+        } catch (IOException e) {
+            // Conexão encerrada: será reaberta no próximo envio.
+        } finally {
+            if (idPar != -1) descartar(idPar, canal);
+            else fecharSilenciosamente(canal);
+        }
+    }
+
+    private void descartar(int idPar, Canal canal) {
+        canais.remove(idPar, canal);
+        fecharSilenciosamente(canal);
+    }
+
+    private static void fecharSilenciosamente(java.io.Closeable recurso) {
+        try {
+            recurso.close();
+        } catch (IOException e) {
+            // A conexão já estava encerrada.
+        }
+    }
+}
@@ -1,82 +1,315 @@
 package controlecolaborativo.no;
 
+import controlecolaborativo.comum.Agendador;
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.DeltaDocumento;
 import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.EventoTravas;
+import controlecolaborativo.comum.Execucao;
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.Liberacao;
 import controlecolaborativo.comum.Logger;
+import controlecolaborativo.comum.Mandato;
 import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.OperacaoEdicao;
+import controlecolaborativo.comum.PedidoAcesso;
+import controlecolaborativo.comum.Relogio;
+import controlecolaborativo.comum.SubmissaoEdicao;
+import controlecolaborativo.coordenador.ReplicaTravas;
 import controlecolaborativo.coordenador.ServicoCoordenador;
+import controlecolaborativo.metricas.ContadorTrafego;
+import controlecolaborativo.metricas.Histograma;
+import controlecolaborativo.metricas.RegistroMetricas;
+import controlecolaborativo.rede.Canal;
+import controlecolaborativo.rede.Transporte;
+import controlecolaborativo.rede.TransporteTcp;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class No {
+    // Métricas agregadas de todos os nós deste processo (ver RegistroMetricas).
+    private static final Histograma LATENCIA_CONCESSAO = RegistroMetricas.global().histograma("no.latencia_concessao_us");
+    private static final Histograma SECAO_CRITICA = RegistroMetricas.global().histograma("no.secao_critica_us");
+    private static final Histograma DURACAO_ELEICAO = RegistroMetricas.global().histograma("no.eleicao_us");
+    private static final LongAdder LEITURAS_LOCAIS = RegistroMetricas.global().contador("no.leituras_locais");
+    private static final LongAdder LEITURAS_COORDENADOR = RegistroMetricas.global().contador("no.leituras_coordenador");
+    private static final Histograma LATENCIA_EDICAO_OTIMISTA = RegistroMetricas.global().histograma("no.edicao_otimista_us");
+    private static final LongAdder REJEICOES_OTIMISTAS = RegistroMetricas.global().contador("no.edicoes_otimistas_rejeitadas");
+    private static final LongAdder OTIMISTAS_COM_TRAVA = RegistroMetricas.global().contador("no.edicoes_otimistas_com_trava");
+    private static final LongAdder PEDIDOS_RETOMADOS = RegistroMetricas.global().contador("no.pedidos_retomados");
+    private static final LongAdder CONCESSOES_EXPIRADAS = RegistroMetricas.global().contador("no.concessoes_expiradas");
+
     private final int id;
     private final int portaEleicao;
     private final Map<Integer, Integer> peers;
+    private final Transporte transporte; // A visão deste nó do transporte partilhado pelo cluster.
+    private final Relogio relogio;       // O relógio do transporte, dos temporizadores do nó.
+    private final Agendador detecao;     // Verificação periódica do detector de falhas.
 
-    private Documento documentoLocal = new Documento();
+    // Réplicas locais dos documentos abertos: refletem apenas versões confirmadas pelo coordenador.
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
     private final AtomicInteger relogioLamport = new AtomicInteger(0);
-    private final AtomicBoolean temPermissao = new AtomicBoolean(false);
+
+    // Pedidos de acesso enviados e ainda não concedidos, indexados pelo relógio de Lamport do pedido.
+    private final Map<Integer, PedidoPendente> pedidosPendentes = new ConcurrentHashMap<>();
+    // Edições otimistas à espera da resposta do coordenador, indexadas pelo ID da submissão,
+    // e as rejeitadas que aguardam que a réplica alcance a versão indicada na rejeição.
+    private final Map<Integer, SubmissaoPendente> submissoesPendentes = new ConcurrentHashMap<>();
+    private final Map<SubmissaoPendente, Long> submissoesAguardando = new ConcurrentHashMap<>();
+    // Concessões recebidas e ainda não liberadas, reapresentadas ao novo coordenador numa troca a quente.
+    private final Set<Concessao> concessoesAtivas = ConcurrentHashMap.newKeySet();
+    // Avança a cada falha ou troca de coordenador a frio, invalidando as concessões emitidas pelo anterior.
+    private final AtomicLong geracaoCoordenador = new AtomicLong();
+    // Cópia das travas do coordenador, mantida enquanto este nó for uma das suas reservas.
+    private final ReplicaTravas replicaTravas = new ReplicaTravas();
+    private volatile int origemEstado = 0;           // Coordenador cujas travas este nó herdou ao vencer (0 = nenhum).
+    private volatile boolean retomarTravas = false; // O novo coordenador herdou as travas: reapresentá-las ao conectar.
 
     private volatile int coordinatorId;
-    private volatile boolean electionInProgress = false;
-    private ServicoCoordenador servicoCoordenador;
+    // Eleição por termos: escolhe o novo coordenador quando este nó deixa de confiar no atual.
+    private final EleicaoLider eleicao;
+    private volatile ServicoCoordenador servicoCoordenador;
     private Thread coordinatorThread;
+    private boolean iniciandoCoordenador; // Um serviço está a ser criado fora do monitor (ver declareVictory).
+
+    private volatile Canal canalCoordenador;
+    // Impede que duas threads tentem conectar ao coordenador ao mesmo tempo.
+    private final AtomicBoolean conectando = new AtomicBoolean(false);
+    // Conexões persistentes com os outros nós, usadas pelo protocolo de eleição.
+    private final GestorCanaisPares canaisPares;
+
+    // Detecção de falhas do coordenador por heartbeats (recriado a cada nova conexão).
+    private volatile DetectorPhiAccrual detector;
+    private volatile long instanteDeteccaoNs = 0; // Momento em que a falha atual foi detetada (0 = nenhuma).
+    private volatile long tempoDeteccaoMs = -1;   // Silêncio do coordenador até à última deteção.
+    private volatile long tempoNovoLiderMs = -1;  // Da última deteção até à eleição do novo líder.
+
+    // Bytes trocados com o coordenador e com os pares (contados apenas do lado deste nó).
+    private final ContadorTrafego trafegoCoordenador = new ContadorTrafego(RegistroMetricas.global().trafego("trafego.nos.coordenador"));
+    private final ContadorTrafego trafegoPares = new ContadorTrafego(RegistroMetricas.global().trafego("trafego.nos.pares"));
+    private volatile long inicioEleicaoNs = 0; // Início da primeira eleição desde o último líder conhecido (0 = nenhuma).
 
-    private Socket socketCoordenador;
-    private ObjectOutputStream outCoordenador;
-    private ObjectInputStream inCoordenador;
+    // Passa a false quando o nó falha (ver falhar()); todos os laços do nó terminam.
+    private volatile boolean ativo = true;
+
+    /**
+     * A réplica local de um documento aberto.
+     */
+    private static final class Replica {
+        volatile Documento documento = new Documento();
+        volatile boolean aguardandoSnapshot = false;
+        // Recebeu o snapshot do coordenador atual; até lá, o seu atraso é desconhecido.
+        volatile boolean sincronizada = false;
+        // Versão mais recente anunciada pelo coordenador (por um delta ou snapshot), aplicada ou não.
+        volatile long versaoConhecida = 0;
+    }
 
     public No(int id, Map<Integer, Integer> peers) {
+        this(id, peers, TransporteTcp.INSTANCIA);
+    }
+
+    /**
+     * @param peers      As portas de eleição de todos os nós do cluster, incluindo este.
+     * @param transporte O transporte partilhado pelo cluster: TCP, memória ou rede simulada.
+     */
+    public No(int id, Map<Integer, Integer> peers, Transporte transporte) {
         this.id = id;
         this.peers = peers;
         this.portaEleicao = peers.get(id);
+        this.transporte = transporte.paraNo(id);
+        this.relogio = this.transporte.relogio();
+        this.detecao = relogio.agendador("detector-P" + id);
+        this.replicas.put(Mensagem.DOCUMENTO_PADRAO, new Replica()); // O documento padrão está sempre aberto.
+        this.canaisPares = new GestorCanaisPares(id, peers, this::tratarMensagemPar, trafegoPares, this.transporte);
+        this.eleicao = new EleicaoLider(id, peers.keySet(), Configuracao.timeoutEleicaoMs(), Configuracao.janelaContatoLiderMs(),
+                // Os nós que tentaram conectar antes de o serviço escutar repetem após uma espera.
+                Configuracao.janelaContatoLiderMs() + Configuracao.esperaConexaoMs(), new ParticipanteEleicao(),
+                relogio, new Random(Configuracao.sementeRede() * 31L + id));
     }
 
     public void iniciar() {
-        new Thread(new ElectionListener()).start();
+        iniciar(true);
+    }
+
+    /**
+     * Inicia o nó.
+     * @param simularAtividade Se {@code false}, o nó não faz edições por conta própria e
+     *                         só edita quando chamado pela API ({@link #adquirir}, {@link #comTrava}).
+     */
+    public void iniciar(boolean simularAtividade) {
+        try {
+            canaisPares.iniciar();
+        } catch (IOException e) {
+            Logger.logEleicao(id, Logger.Nivel.ERRO, "ERRO CRÍTICO: Não foi possível iniciar o servidor de eleição na porta " + portaEleicao + ".");
+        }
         this.coordinatorId = peers.keySet().stream().max(Integer::compareTo).orElse(this.id);
         Logger.logNo(id, "Coordenador inicial definido como P" + coordinatorId);
+        eleicao.definirLiderInicial(coordinatorId);
 
         if (this.id == this.coordinatorId) {
             declareVictory();
+            eleicao.anunciarVitoria();
         } else {
             connectToCoordinator();
         }
-        new Thread(this::simularAtividade).start();
+        detecao.agendarPeriodica(this::verificarCoordenador, Math.max(10, Configuracao.intervaloHeartbeatMs() / 2));
+        if (simularAtividade) {
+            Execucao.iniciar("atividade-P" + id, this::simularAtividade);
+        }
+    }
+
+    /**
+     * Simula a queda deste nó: encerra o serviço de coordenador (se estiver a executá-lo),
+     * as conexões com o coordenador e com os pares, e todos os laços do nó. As conexões são
+     * fechadas, como aconteceria com o fim do processo, e o nó não volta a participar.
+     */
+    public void falhar() {
+        if (!ativo) return;
+        ativo = false;
+        Logger.logNo(id, "*** FALHA SIMULADA: o nó deixou de responder. ***");
+        cancelarPedidosPendentes("O nó P" + id + " falhou.");
+        eleicao.parar();
+        detecao.parar();
+        if (servicoCoordenador != null) {
+            servicoCoordenador.parar();
+        }
+        Canal canal = canalCoordenador;
+        canalCoordenador = null;
+        if (canal != null) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // A conexão já estava encerrada.
+            }
+        }
+        canaisPares.parar();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isAtivo() {
+        return ativo;
+    }
+
+    /**
+     * @return {@code true} se este nó está ativo e executa o serviço de coordenador (venceu a
+     *         última eleição e não renunciou).
+     */
+    public boolean isCoordenador() {
+        return ativo && id == coordinatorId && servicoCoordenador != null;
+    }
+
+    /**
+     * @return O coordenador que este nó segue (ou ele próprio, se venceu a última eleição).
+     */
+    public int getCoordenadorConhecido() {
+        return coordinatorId;
+    }
+
+    /**
+     * @return O termo da eleição mais recente conhecida por este nó (1 = o coordenador inicial).
+     */
+    public long getTermo() {
+        return eleicao.getTermo();
+    }
+
+    /**
+     * @return {@code true} se o nó tem uma conexão aberta com o coordenador.
+     */
+    public boolean isConectado() {
+        return canalCoordenador != null;
+    }
+
+    /**
+     * Bytes trocados com o coordenador, nos dois sentidos, pelas conexões deste nó.
+     */
+    public ContadorTrafego getTrafegoCoordenador() {
+        return trafegoCoordenador;
+    }
+
+    /**
+     * Bytes trocados com os outros nós (eleição), contados nas conexões deste nó.
+     */
+    public ContadorTrafego getTrafegoPares() {
+        return trafegoPares;
+    }
+
+    /**
+     * Tempo, em milissegundos, entre o último sinal do coordenador e a deteção da sua falha
+     * mais recente; -1 se nenhuma falha foi detetada.
+     */
+    public long getTempoDeteccaoMs() {
+        return tempoDeteccaoMs;
+    }
+
+    /**
+     * Tempo, em milissegundos, entre a deteção da falha mais recente do coordenador e a
+     * eleição do novo líder; -1 se nenhuma eleição após falha foi concluída.
+     */
+    public long getTempoNovoLiderMs() {
+        return tempoNovoLiderMs;
     }
 
     private void connectToCoordinator() {
-        if (id == coordinatorId) return;
+        if (id == coordinatorId || !ativo || !conectando.compareAndSet(false, true)) return;
+        try {
+            tentarConectar();
+        } finally {
+            conectando.set(false);
+        }
+    }
 
+    private void tentarConectar() {
         int tentativas = 0;
-        final int MAX_TENTATIVAS = 3;
+        final int MAX_TENTATIVAS = Configuracao.tentativasConexao();
 
-        while (tentativas < MAX_TENTATIVAS) {
+        while (tentativas < MAX_TENTATIVAS && ativo) {
             try {
                 Logger.logNo(id, String.format("Tentando conectar ao coordenador P%d (Tentativa %d/%d)...", coordinatorId, tentativas + 1, MAX_TENTATIVAS));
-                socketCoordenador = new Socket("localhost", 12345);
-                outCoordenador = new ObjectOutputStream(socketCoordenador.getOutputStream());
-                inCoordenador = new ObjectInputStream(socketCoordenador.getInputStream());
-                new Thread(new OuvinteCoordenador()).start();
+                canalCoordenador = transporte.conectar(coordinatorId, Configuracao.portaCoordenador(), trafegoCoordenador);
+                detector = new DetectorPhiAccrual(relogio, Configuracao.intervaloHeartbeatMs(),
+                        Configuracao.desvioMinimoHeartbeatMs(), Configuracao.pausaAceitavelHeartbeatMs());
+                replicaTravas.iniciar(coordinatorId);
+                Execucao.iniciar("ouvinte-P" + id, new OuvinteCoordenador(canalCoordenador));
 
-                relogioLamport.incrementAndGet();
-                enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.REQUISICAO_SC, this.id, relogioLamport.get(), null));
+                boolean retomar = retomarTravas;
+                // Renova as assinaturas: o coordenador responde a cada abertura com um snapshot. A primeira
+                // abertura (o documento padrão está sempre aberto) também identifica o nó, sem nenhum pedido de trava.
+                for (String documento : replicas.keySet()) {
+                    enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.ABRIR_DOCUMENTO, this.id, relogioLamport.incrementAndGet(), null, documento));
+                }
+                if (retomar) {
+                    retomarTravas = false;
+                    enviarRetomada();
+                }
                 Logger.logNo(id, "Conectado com sucesso ao coordenador P" + coordinatorId);
                 return;
             } catch (IOException e) {
                 tentativas++;
                 try {
-                    Thread.sleep(2000); // Aumenta o tempo de espera
+                    Thread.sleep(Configuracao.esperaConexaoMs());
                 } catch (InterruptedException ie) {
                     Thread.currentThread().interrupt();
                 }
             }
         }
+        if (!ativo) return;
         Logger.logEleicao(id, String.format("Não foi possível conectar ao coordenador P%d. Iniciando nova eleição.", coordinatorId));
         startElection();
     }
@@ -87,29 +320,36 @@ public class No {
             Thread.sleep(5000 + random.nextInt(3000)); // Espera inicial maior
         } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
 
-        while (!Thread.currentThread().isInterrupted()) {
+        while (ativo && !Thread.currentThread().isInterrupted()) {
             try {
                 // Aumenta o tempo de espera entre as ações para tornar a simulação mais lenta
                 Thread.sleep(8000 + random.nextInt(10000));
+                if (id == coordinatorId) continue; // O coordenador não edita o documento.
 
-                Logger.logNo(id, "Deseja editar o documento. Solicitando acesso...");
-                solicitarSecaoCritica();
-
-                while (!temPermissao.get()) {
-                    Thread.sleep(100);
-                }
-
-                Logger.logNo(id, "Permissão recebida! Entrando na seção crítica.");
-                Logger.logNo(id, "Conteúdo ANTES da edição:\n" + documentoLocal.obterConteudo());
+                IntervaloLinhas intervalo = escolherIntervalo(random);
+                Logger.logNo(id, "Deseja editar as linhas " + intervalo + ". Solicitando acesso...");
+                comTrava(intervalo, concessao -> {
+                    IntervaloLinhas concedido = concessao.getIntervalo();
+                    Logger.logNo(id, "Permissão recebida para as linhas " + concedido + "! Entrando na seção crítica.");
+                    // As edições são feitas sobre a cópia de trabalho da concessão; a réplica local só
+                    // avança quando o coordenador confirmar e propagar o delta correspondente.
+                    // Só o resumo da cópia de trabalho: o conteúdo completo pode ter milhões de linhas.
+                    Documento copia = concessao.getCopiaTrabalho();
+                    Logger.logNo(id, "Editando a cópia de trabalho (v" + copia.getVersao() + ", " + copia.tamanho() + " linhas).");
 
-                documentoLocal.adicionarLinha("Nova linha adicionada por P" + id);
-                Thread.sleep(3000 + random.nextInt(2000)); // Simula tempo de "digitação"
+                    // A edição respeita o intervalo efetivamente concedido pelo coordenador.
+                    OperacaoEdicao op = concedido.isLinhaUnica()
+                            ? OperacaoEdicao.substituir(concedido.getInicio(), "Linha " + concedido.getInicio() + " reescrita por P" + id)
+                            : OperacaoEdicao.adicionar("Nova linha adicionada por P" + id);
+                    concessao.aplicar(op);
+                    Thread.sleep(3000 + random.nextInt(2000)); // Simula tempo de "digitação"
 
-                Logger.logNo(id, "Conteúdo DEPOIS da edição:\n" + documentoLocal.obterConteudo());
-                Logger.logNo(id, "Saindo da seção crítica e liberando o recurso.");
-
-                liberarSecaoCritica();
+                    Logger.logNo(id, "Edição feita: " + op + ". A cópia de trabalho tem agora " + copia.tamanho() + " linhas.");
+                    Logger.logNo(id, "Saindo da seção crítica e liberando o recurso.");
+                });
 
+            } catch (IOException e) {
+                Logger.logNo(id, "Edição abandonada: " + e.getMessage());
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
@@ -117,157 +357,860 @@ public class No {
         }
     }
 
-    private void solicitarSecaoCritica() {
+    /**
+     * Sorteia a edição simulada: acrescentar uma linha ao final ou reescrever uma linha existente.
+     * Edições em linhas diferentes podem ser concedidas em paralelo pelo coordenador.
+     */
+    private IntervaloLinhas escolherIntervalo(Random random) {
+        int tamanho = replicas.get(Mensagem.DOCUMENTO_PADRAO).documento.tamanho();
+        if (tamanho == 0 || random.nextBoolean()) {
+            return IntervaloLinhas.FIM_DOCUMENTO;
+        }
+        return IntervaloLinhas.linha(random.nextInt(tamanho));
+    }
+
+    /**
+     * Uma edição a executar enquanto a trava está detida (ver {@link #comTrava}).
+     */
+    public interface EdicaoComTrava {
+        void editar(Concessao concessao) throws InterruptedException;
+    }
+
+    private static final class PedidoPendente {
+        final String documento;
+        final IntervaloLinhas intervalo;
+        final boolean compartilhado;
+        final long geracao;
+        final long inicioNs = System.nanoTime();
+        final CompletableFuture<Concessao> futuro = new CompletableFuture<>();
+
+        PedidoPendente(String documento, IntervaloLinhas intervalo, boolean compartilhado, long geracao) {
+            this.documento = documento;
+            this.intervalo = intervalo;
+            this.compartilhado = compartilhado;
+            this.geracao = geracao;
+        }
+    }
+
+    /**
+     * Calcula as operações de uma edição a partir de uma versão do documento (ver {@link #editar}).
+     */
+    public interface EdicaoOtimista {
+        /**
+         * @param documento Uma cópia do documento, que não deve ser alterada.
+         * @return As operações a aplicar, todas dentro do intervalo da edição.
+         */
+        List<OperacaoEdicao> calcular(Documento documento);
+    }
+
+    private static final class SubmissaoPendente {
+        final String documento;
+        final IntervaloLinhas intervalo;
+        final EdicaoOtimista edicao;
+        final long inicioNs = System.nanoTime();
+        final CompletableFuture<Void> futuro = new CompletableFuture<>();
+        int rejeicoes; // Só alterado pela thread ouvinte.
+
+        SubmissaoPendente(String documento, IntervaloLinhas intervalo, EdicaoOtimista edicao) {
+            this.documento = documento;
+            this.intervalo = intervalo;
+            this.edicao = edicao;
+        }
+    }
+
+    /**
+     * Passa a receber as atualizações do documento, mantendo uma réplica local dele. O
+     * coordenador responde com um snapshot. Não faz nada se o documento já estiver aberto.
+     */
+    public void abrirDocumento(String documento) {
+        if (replicas.putIfAbsent(documento, new Replica()) != null) return;
         try {
-            relogioLamport.incrementAndGet();
-            Mensagem msg = new Mensagem(Mensagem.Tipo.REQUISICAO_SC, this.id, relogioLamport.get(), null);
-            enviarMensagemCoordenador(msg);
+            enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.ABRIR_DOCUMENTO, this.id, relogioLamport.incrementAndGet(), null, documento));
         } catch (IOException e) {
-            Logger.logEleicao(id, "Erro ao solicitar seção crítica. Coordenador pode ter caído.");
-            startElection();
+            // Sem conexão: a abertura é repetida quando o nó (re)conectar.
         }
     }
 
-    private void liberarSecaoCritica() {
+    /**
+     * Deixa de receber as atualizações do documento e descarta a réplica local.
+     * O documento padrão não pode ser fechado.
+     */
+    public void fecharDocumento(String documento) {
+        if (Mensagem.DOCUMENTO_PADRAO.equals(documento) || replicas.remove(documento) == null) return;
         try {
-            temPermissao.set(false);
-            relogioLamport.incrementAndGet();
-            Mensagem msg = new Mensagem(Mensagem.Tipo.LIBERACAO_SC, this.id, relogioLamport.get(), documentoLocal.clonar());
-            enviarMensagemCoordenador(msg);
+            enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.FECHAR_DOCUMENTO, this.id, relogioLamport.incrementAndGet(), null, documento));
         } catch (IOException e) {
-            Logger.logEleicao(id, "Erro ao liberar recurso. Coordenador pode ter caído.");
-            startElection();
+            // Sem conexão: o documento já não será reaberto na reconexão.
         }
     }
 
-    private void enviarMensagemCoordenador(Mensagem msg) throws IOException {
-        if (outCoordenador != null) {
-            synchronized (outCoordenador) {
-                outCoordenador.writeObject(msg);
-                outCoordenador.flush();
+    /**
+     * Pede uma trava sobre o intervalo de linhas do documento padrão.
+     * @see #adquirir(String, IntervaloLinhas)
+     */
+    public CompletableFuture<Concessao> adquirir(IntervaloLinhas intervalo) {
+        return adquirir(Mensagem.DOCUMENTO_PADRAO, intervalo);
+    }
+
+    /**
+     * Pede ao coordenador uma trava sobre o intervalo de linhas do documento, sem bloquear.
+     * O documento é aberto, se ainda não estiver, para que a concessão traga a sua réplica.
+     *
+     * Vários pedidos podem ser feitos em sequência (pipelining): o coordenador concede-os
+     * um de cada vez, pela ordem de Lamport, à medida que as concessões anteriores deste nó
+     * são liberadas. Por isso, não se deve esperar por um pedido enquanto se detém outra trava.
+     * Cancelar o futuro retira o pedido; se a permissão chegar depois, a trava é devolvida.
+     *
+     * @return Um futuro completado com a {@link Concessao} quando a permissão chegar, ou com
+     *         uma {@link IOException} se o pedido não puder ser enviado ou o coordenador falhar.
+     */
+    public CompletableFuture<Concessao> adquirir(String documento, IntervaloLinhas intervalo) {
+        return pedir(documento, intervalo, false);
+    }
+
+    /**
+     * Pede uma trava de leitura sobre o intervalo de linhas do documento, partilhada com os
+     * outros leitores e exclusiva apenas em relação às escritas. Enquanto ela é detida, nenhuma
+     * edição confirmada altera essas linhas; a cópia da concessão reflete todas as edições
+     * confirmadas até à permissão. Devolve-se com {@link #liberar(Concessao)}, como as de escrita.
+     */
+    public CompletableFuture<Concessao> adquirirLeitura(String documento, IntervaloLinhas intervalo) {
+        return pedir(documento, intervalo, true);
+    }
+
+    /**
+     * Leitura com atraso limitado. Se a réplica local estiver no máximo {@code atrasoMaximo}
+     * versões atrás da mais recente anunciada pelo coordenador, a leitura é servida por ela,
+     * sem nenhuma mensagem. Caso contrário (réplica à espera de um snapshot, sem conexão ou
+     * {@code atrasoMaximo} negativo), obtém uma trava de leitura do documento inteiro e devolve
+     * a cópia da concessão, que reflete todas as edições confirmadas até então.
+     * @return Um futuro com uma cópia (copy-on-write) do documento.
+     */
+    public CompletableFuture<Documento> ler(String documento, long atrasoMaximo) {
+        abrirDocumento(documento);
+        Replica replica = replicas.get(documento);
+        if (atrasoMaximo >= 0 && replica != null && replica.sincronizada && canalCoordenador != null) {
+            Documento local = replica.documento;
+            if (replica.versaoConhecida - local.getVersao() <= atrasoMaximo) {
+                LEITURAS_LOCAIS.increment();
+                return CompletableFuture.completedFuture(local.clonar());
             }
-        } else if (this.id != this.coordinatorId) {
-            throw new IOException("A conexão com o coordenador não está estabelecida.");
         }
+        LEITURAS_COORDENADOR.increment();
+        return adquirirLeitura(documento, IntervaloLinhas.DOCUMENTO_INTEIRO).thenApply(concessao -> {
+            try {
+                liberar(concessao);
+            } catch (IOException e) {
+                // A cópia foi obtida sob a trava; perder a liberação não a invalida.
+            }
+            return concessao.getCopiaTrabalho();
+        });
     }
 
-    private void startElection() {
-        if (electionInProgress) return;
-        electionInProgress = true;
-        Logger.logEleicao(id, "INICIOU UMA ELEIÇÃO.");
+    /**
+     * Edita o intervalo de linhas do documento. A edição é calculada sobre uma cópia do
+     * documento e pode ser chamada mais de uma vez; deve ser rápida e sem efeitos colaterais.
+     *
+     * Com {@code cc.edicao.otimista=true}, as operações são enviadas com a versão da réplica em
+     * que foram calculadas, numa única mensagem e sem trava: o coordenador aplica-as se essas
+     * linhas não mudaram entretanto. Numa rejeição, a edição é recalculada quando a réplica
+     * alcançar a versão atual do coordenador e submetida de novo; após
+     * {@code cc.edicao.otimista.tentativas} rejeições, é refeita com uma trava de escrita.
+     * Sem o modo otimista, obtém a trava, aplica a edição sobre a cópia da concessão e libera-a.
+     *
+     * @return Um futuro completado quando o coordenador confirmar a edição, ou com uma
+     *         {@link IOException} se ele falhar antes disso (a edição pode ou não ter sido aplicada).
+     */
+    public CompletableFuture<Void> editar(String documento, IntervaloLinhas intervalo, EdicaoOtimista edicao) {
+        abrirDocumento(documento);
+        SubmissaoPendente pendente = new SubmissaoPendente(documento, intervalo, edicao);
+        if (Configuracao.edicaoOtimista()) {
+            submeter(pendente);
+        } else {
+            editarComTrava(pendente);
+        }
+        return pendente.futuro;
+    }
 
+    /**
+     * Calcula a edição sobre a réplica local e envia-a com a versão desta. Uma réplica ainda
+     * sem o snapshot do coordenador atual espera por ele.
+     */
+    private void submeter(SubmissaoPendente pendente) {
+        Replica replica = replicas.get(pendente.documento);
+        if (replica == null) {
+            pendente.futuro.completeExceptionally(new IOException("O documento '" + pendente.documento + "' foi fechado."));
+            return;
+        }
+        if (!replica.sincronizada || replica.aguardandoSnapshot) {
+            submissoesAguardando.put(pendente, replica.versaoConhecida);
+            retomarSubmissoes(pendente.documento); // O snapshot pode ter chegado entretanto.
+            return;
+        }
+        Documento base = replica.documento.clonar();
+        List<OperacaoEdicao> operacoes;
+        try {
+            operacoes = calcular(pendente, base);
+        } catch (RuntimeException e) {
+            pendente.futuro.completeExceptionally(e);
+            return;
+        }
+        if (operacoes.isEmpty()) {
+            pendente.futuro.complete(null);
+            return;
+        }
+        int idPedido = relogioLamport.incrementAndGet();
+        submissoesPendentes.put(idPedido, pendente);
+        boolean conectado = canalCoordenador != null;
         try {
-            boolean temNosMaiores = false;
-            for (int peerId : peers.keySet()) {
-                if (peerId > this.id) {
-                    temNosMaiores = true;
-                    sendMessageToPeer(peerId, new Mensagem(Mensagem.Tipo.ELECTION, this.id, 0, null));
+            if (id == coordinatorId) {
+                throw new IOException("Este nó é o coordenador e não edita o documento.");
+            }
+            SubmissaoEdicao submissao = new SubmissaoEdicao(idPedido, base.getVersao(), pendente.intervalo, operacoes);
+            enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.SUBMISSAO_EDICAO, this.id, idPedido, submissao, pendente.documento));
+        } catch (IOException e) {
+            submissoesPendentes.remove(idPedido, pendente);
+            pendente.futuro.completeExceptionally(e);
+            if (id != coordinatorId && conectado) {
+                Logger.logEleicao(id, Logger.Nivel.AVISO, "Erro ao submeter edição. Coordenador pode ter caído.");
+                startElection();
+            }
+        }
+    }
+
+    /**
+     * Executa a edição e verifica que as operações não saem do intervalo declarado.
+     */
+    private static List<OperacaoEdicao> calcular(SubmissaoPendente pendente, Documento base) {
+        List<OperacaoEdicao> operacoes = pendente.edicao.calcular(base);
+        for (OperacaoEdicao op : operacoes) {
+            if (!pendente.intervalo.contem(op.intervaloAfetado())) {
+                throw new IllegalArgumentException("Operação " + op + " fora do intervalo da edição " + pendente.intervalo + ".");
+            }
+        }
+        return operacoes;
+    }
+
+    /**
+     * Refaz a edição com uma trava de escrita: usado sem o modo otimista e quando as
+     * submissões otimistas são rejeitadas vezes demais.
+     */
+    private void editarComTrava(SubmissaoPendente pendente) {
+        pedir(pendente.documento, pendente.intervalo, false).whenComplete((concessao, erro) -> {
+            if (erro != null) {
+                pendente.futuro.completeExceptionally(erro);
+                return;
+            }
+            boolean concluida = false;
+            try {
+                for (OperacaoEdicao op : calcular(pendente, concessao.getCopiaTrabalho().clonar())) {
+                    concessao.aplicar(op);
                 }
+                concluida = true;
+            } catch (RuntimeException e) {
+                pendente.futuro.completeExceptionally(e);
+            }
+            try {
+                liberar(concessao, concluida);
+                if (concluida) pendente.futuro.complete(null);
+            } catch (IOException e) {
+                pendente.futuro.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Trata a resposta do coordenador a uma edição otimista.
+     */
+    private void receberRespostaSubmissao(Mensagem.Tipo tipo, SubmissaoEdicao resposta) {
+        SubmissaoPendente pendente = submissoesPendentes.remove(resposta.getIdPedido());
+        if (pendente == null) return; // Cancelada com a falha de um coordenador anterior.
+        if (tipo == Mensagem.Tipo.EDICAO_ACEITE) {
+            LATENCIA_EDICAO_OTIMISTA.registrar((System.nanoTime() - pendente.inicioNs) / 1000);
+            pendente.futuro.complete(null);
+            return;
+        }
+        REJEICOES_OTIMISTAS.increment();
+        if (++pendente.rejeicoes >= Configuracao.tentativasOtimistas()) {
+            OTIMISTAS_COM_TRAVA.increment();
+            editarComTrava(pendente);
+            return;
+        }
+        submissoesAguardando.put(pendente, resposta.getVersao());
+        retomarSubmissoes(pendente.documento);
+    }
+
+    /**
+     * Volta a submeter as edições rejeitadas cuja réplica já alcançou a versão indicada pelo
+     * coordenador. Chamado a cada atualização da réplica do documento.
+     */
+    private void retomarSubmissoes(String documento) {
+        if (submissoesAguardando.isEmpty()) return;
+        Replica replica = replicas.get(documento);
+        if (replica == null || !replica.sincronizada || replica.aguardandoSnapshot) return;
+        long versaoLocal = replica.documento.getVersao();
+        for (Map.Entry<SubmissaoPendente, Long> e : submissoesAguardando.entrySet()) {
+            SubmissaoPendente pendente = e.getKey();
+            if (pendente.documento.equals(documento) && versaoLocal >= e.getValue() && submissoesAguardando.remove(pendente, e.getValue())) {
+                submeter(pendente);
+            }
+        }
+    }
+
+    private CompletableFuture<Concessao> pedir(String documento, IntervaloLinhas intervalo, boolean compartilhado) {
+        abrirDocumento(documento);
+        int idPedido = relogioLamport.incrementAndGet();
+        PedidoPendente pendente = new PedidoPendente(documento, intervalo, compartilhado, geracaoCoordenador.get());
+        // O registo precede o envio, para que uma permissão rápida já encontre o pedido.
+        pedidosPendentes.put(idPedido, pendente);
+        pendente.futuro.whenComplete((concessao, erro) -> {
+            if (pendente.futuro.isCancelled()) pedidosPendentes.remove(idPedido, pendente);
+        });
+        // Sem conexão, uma reconexão ou eleição já está em curso: o pedido falha sem iniciar outra.
+        boolean conectado = canalCoordenador != null;
+        try {
+            if (id == coordinatorId) {
+                throw new IOException("Este nó é o coordenador e não edita o documento.");
+            }
+            Mensagem.Tipo tipo = compartilhado ? Mensagem.Tipo.REQUISICAO_LEITURA : Mensagem.Tipo.REQUISICAO_SC;
+            enviarMensagemCoordenador(new Mensagem(tipo, this.id, idPedido, intervalo, documento));
+        } catch (IOException e) {
+            pedidosPendentes.remove(idPedido, pendente);
+            pendente.futuro.completeExceptionally(e);
+            if (id != coordinatorId && conectado) {
+                Logger.logEleicao(id, Logger.Nivel.AVISO, "Erro ao solicitar seção crítica. Coordenador pode ter caído.");
+                startElection();
             }
+        }
+        return pendente.futuro;
+    }
+
+    /**
+     * Envia ao coordenador as edições registadas na concessão e devolve a trava.
+     * @throws IOException se a concessão foi perdida com a falha do coordenador (as edições
+     *         são descartadas) ou se a liberação não puder ser enviada.
+     */
+    public void liberar(Concessao concessao) throws IOException {
+        liberar(concessao, true);
+    }
+
+    /**
+     * Prolonga a concessão por mais um prazo ({@link Configuracao#duracaoConcessaoMs()}): uma
+     * seção crítica mais longa do que o prazo tem de ser renovada antes de ele terminar, ou o
+     * coordenador retira a trava e as edições perdem-se.
+     * @throws IOException se a concessão já expirou, foi perdida com a falha do coordenador ou
+     *         se a renovação não puder ser enviada.
+     */
+    public void renovar(Concessao concessao) throws IOException {
+        if (concessao.isExpirada()) {
+            throw new IOException("A concessão expirou antes de ser renovada.");
+        }
+        if (concessao.getGeracao() != geracaoCoordenador.get()) {
+            throw new IOException("A concessão foi perdida com a falha do coordenador.");
+        }
+        enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.RENOVAR_TRAVA, this.id, relogioLamport.incrementAndGet(), concessao.getFicha(), concessao.getDocumento()));
+    }
 
-            if (!temNosMaiores) {
-                declareVictory();
+    /**
+     * Adquire a trava, executa a edição e libera-a, bloqueando a thread chamadora.
+     * Se a edição lançar uma exceção, a trava é devolvida sem nenhuma alteração.
+     */
+    public void comTrava(IntervaloLinhas intervalo, EdicaoComTrava edicao) throws IOException, InterruptedException {
+        Concessao concessao;
+        try {
+            concessao = adquirir(intervalo).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        boolean concluida = false;
+        try {
+            edicao.editar(concessao);
+            concluida = true;
+        } finally {
+            liberar(concessao, concluida);
+        }
+    }
+
+    private void liberar(Concessao concessao, boolean comEdicoes) throws IOException {
+        if (!concessao.marcarLiberada()) return;
+        concessoesAtivas.remove(concessao);
+        SECAO_CRITICA.registrar((System.nanoTime() - concessao.getInstanteConcessaoNs()) / 1000);
+        if (concessao.getGeracao() != geracaoCoordenador.get()) {
+            throw new IOException("A concessão foi perdida com a falha do coordenador; as edições foram descartadas.");
+        }
+        if (concessao.isExpirada()) {
+            throw new IOException("A concessão expirou antes de ser liberada; as edições foram descartadas.");
+        }
+        try {
+            // Envia apenas o log de operações realizadas, e não o documento inteiro, com a ficha
+            // que deixa o coordenador rejeitar a liberação se a concessão tiver expirado entretanto.
+            List<OperacaoEdicao> edicoes = comEdicoes ? concessao.getEdicoes() : Collections.<OperacaoEdicao>emptyList();
+            Liberacao liberacao = new Liberacao(concessao.getFicha(), edicoes);
+            enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.LIBERACAO_SC, this.id, relogioLamport.incrementAndGet(), liberacao, concessao.getDocumento()));
+        } catch (IOException e) {
+            Logger.logEleicao(id, Logger.Nivel.AVISO, "Erro ao liberar recurso. Coordenador pode ter caído.");
+            startElection();
+            throw e;
+        }
+    }
+
+    /**
+     * Completa o futuro do pedido atendido. Uma permissão sem pedido à espera (um pedido
+     * cancelado) é devolvida de imediato ao coordenador.
+     */
+    private void receberPermissao(String documento, PedidoAcesso pedido) {
+        PedidoPendente pendente = pedidosPendentes.remove(pedido.getRelogioLamport());
+        if (pendente != null) {
+            Replica replica = replicas.get(documento);
+            Documento copia = replica != null ? replica.documento.clonar() : new Documento();
+            Concessao concessao = new Concessao(pedido.getRelogioLamport(), documento, pedido.getIntervalo(), pedido.isCompartilhado(), pendente.geracao,
+                    pedido.getFicha(), copia);
+            concessoesAtivas.add(concessao); // Antes de completar: o chamador pode liberá-la de imediato.
+            if (pendente.geracao == geracaoCoordenador.get() && pendente.futuro.complete(concessao)) {
+                LATENCIA_CONCESSAO.registrar((System.nanoTime() - pendente.inicioNs) / 1000);
                 return;
             }
+            concessoesAtivas.remove(concessao);
+        }
+        try {
+            Liberacao liberacao = new Liberacao(pedido.getFicha(), Collections.<OperacaoEdicao>emptyList());
+            enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.LIBERACAO_SC, this.id, relogioLamport.incrementAndGet(), liberacao, documento));
+        } catch (IOException e) {
+            // O coordenador caiu: a trava será descartada no rollback.
+        }
+    }
+
+    /**
+     * O coordenador retirou uma trava cujo prazo terminou: a liberação da concessão falha e
+     * as suas edições perdem-se.
+     */
+    private void receberExpiracao(String documento, PedidoAcesso pedido) {
+        for (Concessao concessao : concessoesAtivas) {
+            if (concessao.getIdPedido() == pedido.getRelogioLamport() && concessao.getDocumento().equals(documento)
+                    && (pedido.getFicha() == 0 || pedido.getFicha() == concessao.getFicha())) {
+                concessao.marcarExpirada();
+                concessoesAtivas.remove(concessao);
+                CONCESSOES_EXPIRADAS.increment();
+                Logger.logNo(id, Logger.Nivel.AVISO, "AVISO: " + concessao + " expirou sem ser liberada. As edições serão descartadas.");
+            }
+        }
+    }
+
+    /**
+     * Falha todos os pedidos em curso e invalida as concessões atuais. Chamado quando o
+     * coordenador falha ou é substituído, já que o novo coordenador não conhece esses pedidos.
+     * As réplicas deixam de servir leituras locais até receberem o snapshot do novo coordenador.
+     */
+    private void cancelarPedidosPendentes(String motivo) {
+        geracaoCoordenador.incrementAndGet();
+        concessoesAtivas.clear();
+        IOException erro = new IOException(motivo);
+        Iterator<PedidoPendente> it = pedidosPendentes.values().iterator();
+        while (it.hasNext()) {
+            PedidoPendente pendente = it.next();
+            it.remove();
+            pendente.futuro.completeExceptionally(erro);
+        }
+        suspenderPedidos(motivo);
+    }
 
-            Thread.sleep(3000); // Aumenta o timeout da eleição
+    /**
+     * Prepara uma possível troca a quente: os pedidos de trava e as concessões continuam válidos
+     * até se saber se o novo coordenador herdou as travas; só as edições otimistas falham e as
+     * réplicas deixam de servir leituras locais.
+     */
+    private void suspenderPedidos(String motivo) {
+        for (Replica replica : replicas.values()) {
+            replica.sincronizada = false;
+        }
+        IOException erro = new IOException(motivo);
+        // Uma edição otimista sem resposta pode ter sido aplicada: o resultado é desconhecido.
+        Iterator<SubmissaoPendente> submissoes = submissoesPendentes.values().iterator();
+        while (submissoes.hasNext()) {
+            SubmissaoPendente pendente = submissoes.next();
+            submissoes.remove();
+            pendente.futuro.completeExceptionally(erro);
+        }
+        for (SubmissaoPendente pendente : submissoesAguardando.keySet()) {
+            if (submissoesAguardando.remove(pendente) != null) pendente.futuro.completeExceptionally(erro);
+        }
+    }
 
-            if (electionInProgress) {
-                declareVictory();
+    /**
+     * Reapresenta ao novo coordenador, documento a documento, as travas que este nó detém e os
+     * pedidos que aguardam, para que ele concilie as travas herdadas (ver RETOMAR_TRAVAS).
+     */
+    private void enviarRetomada() throws IOException {
+        int retomados = 0;
+        for (Map.Entry<String, Replica> e : replicas.entrySet()) {
+            String documento = e.getKey();
+            List<PedidoAcesso> detidas = new ArrayList<>();
+            for (Concessao concessao : concessoesAtivas) {
+                if (concessao.getDocumento().equals(documento)) {
+                    detidas.add(new PedidoAcesso(id, concessao.getIdPedido(), concessao.getIntervalo(), concessao.isCompartilhada(), concessao.getFicha()));
+                }
+            }
+            List<PedidoAcesso> emEspera = new ArrayList<>();
+            for (Map.Entry<Integer, PedidoPendente> p : pedidosPendentes.entrySet()) {
+                PedidoPendente pendente = p.getValue();
+                if (pendente.documento.equals(documento)) {
+                    emEspera.add(new PedidoAcesso(id, p.getKey(), pendente.intervalo, pendente.compartilhado));
+                }
             }
+            retomados += detidas.size() + emEspera.size();
+            EventoTravas visao = EventoTravas.estado(detidas, emEspera, e.getValue().documento.getVersao());
+            enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.RETOMAR_TRAVAS, this.id, relogioLamport.incrementAndGet(), visao, documento));
+        }
+        PEDIDOS_RETOMADOS.add(retomados);
+        Logger.logNo(id, "Travas e pedidos reapresentados ao coordenador P" + coordinatorId + ": " + retomados + ".");
+    }
 
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    private void enviarMensagemCoordenador(Mensagem msg) throws IOException {
+        Canal canal = canalCoordenador;
+        if (canal != null) {
+            canal.enviar(msg);
+        } else if (this.id != this.coordinatorId) {
+            throw new IOException("A conexão com o coordenador não está estabelecida.");
+        }
+    }
+
+    /**
+     * O nó deixou de confiar no coordenador: a eleição candidata-o depois de um tempo aleatório,
+     * a menos que outro nó vença antes. Não bloqueia.
+     */
+    private void startElection() {
+        if (!ativo) return;
+        if (inicioEleicaoNs == 0) {
+            inicioEleicaoNs = System.nanoTime();
         }
+        eleicao.suspeitarLider();
     }
 
+    /**
+     * Assume a coordenação depois de vencer a eleição (ou no arranque, sendo o nó de maior ID).
+     * O anúncio aos pares é feito pela {@link EleicaoLider}, quando o serviço já aceita conexões.
+     *
+     * O monitor do nó só é tomado para publicar o novo líder e, depois, o serviço criado: a
+     * recuperação do WAL e a espera pelo arranque correm fora dele, sem atrasar {@link #abdicar}
+     * nem a chegada de outro líder. Se um deles vier entretanto, o serviço criado é descartado.
+     */
     private void declareVictory() {
-        Logger.logEleicao(id, "*** EU SOU O NOVO COORDENADOR! ***");
-        this.coordinatorId = this.id;
-        this.electionInProgress = false;
+        long termo;
+        ReplicaTravas.Heranca heranca;
+        synchronized (this) {
+            if (!ativo) return;
+            Logger.logEleicao(id, "*** EU SOU O NOVO COORDENADOR! ***");
+            this.coordinatorId = this.id;
+            registrarNovoLider();
+            // O coordenador não edita: os seus pedidos (já retirados das travas herdadas) são cancelados.
+            cancelarPedidosPendentes("Este nó passou a ser o coordenador.");
 
-        if (coordinatorThread != null && coordinatorThread.isAlive()) {
-            servicoCoordenador.parar();
+            // Uma vitória repetida mantém o serviço em execução: reiniciá-lo descartaria as travas concedidas.
+            if (iniciandoCoordenador || (coordinatorThread != null && coordinatorThread.isAlive())) return;
+            iniciandoCoordenador = true;
+            termo = eleicao.getTermo();
+            // Uma reserva sincronizada parte das travas replicadas do coordenador anterior.
+            heranca = replicaTravas.assumir();
         }
 
-        servicoCoordenador = new ServicoCoordenador(this.id, 12345);
-        coordinatorThread = new Thread(servicoCoordenador);
-        coordinatorThread.start();
-
-        for (int peerId : peers.keySet()) {
-            if (peerId != this.id) {
-                sendMessageToPeer(peerId, new Mensagem(Mensagem.Tipo.VICTORY, this.id, 0, null));
+        ServicoCoordenador servico = new ServicoCoordenador(this.id, Configuracao.portaCoordenador(), termo, heranca, transporte);
+        Thread thread = new Thread(servico);
+        synchronized (this) {
+            iniciandoCoordenador = false;
+            if (!ativo || coordinatorId != this.id) {
+                servico.parar(); // Outro nó venceu, ou este foi parado, enquanto o serviço era criado.
+                return;
             }
+            servicoCoordenador = servico;
+            origemEstado = servico.getOrigemEstado();
+            coordinatorThread = thread;
+        }
+        if (!ativo) {
+            servico.parar(); // falhar() correu antes de o serviço ser publicado e não o viu.
+            return;
+        }
+        thread.start();
+        try {
+            servico.aguardarInicio(Configuracao.esperaConexaoMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Outro nó venceu um termo mais recente, ou este renunciou: se ainda executava o serviço de
+     * coordenador (um líder antigo que ficou isolado), encerra-o.
+     */
+    private synchronized void abdicar(String motivo) {
+        if (servicoCoordenador == null) return;
+        Logger.logEleicao(id, Logger.Nivel.AVISO, motivo + ": encerrando o serviço de coordenador.");
+        servicoCoordenador.parar();
+        servicoCoordenador = null;
+        coordinatorThread = null;
+    }
+
+    /**
+     * O líder deixou de alcançar a maioria dos nós: encerra o serviço de coordenador, como um
+     * líder que falhou, e candidata-se de novo. Os nós que ainda o alcançavam perdem a conexão e
+     * seguem o vencedor do próximo termo.
+     */
+    private void renunciar() {
+        abdicar("Sem contacto com a maioria dos nós");
+        startElection();
+    }
+
+    /**
+     * O VICTORY leva o mandato do vencedor: o termo e o coordenador cujas travas herdou (0 se
+     * nenhum), para que os nós que o perderam mantenham os seus pedidos em vez de os cancelar.
+     */
+    private Mensagem mensagemVitoria() {
+        return new Mensagem(Mensagem.Tipo.VICTORY, this.id, 0, new Mandato(eleicao.getTermo(), origemEstado));
+    }
+
     private void sendMessageToPeer(int peerId, Mensagem msg) {
-        try (Socket socket = new Socket("localhost", peers.get(peerId));
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream())) {
-            out.writeObject(msg);
-        } catch (IOException e) {
-            // Silencia esta mensagem para não poluir o log
+        // Falhas são silenciadas para não poluir o log: um par inacessível simplesmente não responde.
+        canaisPares.enviar(peerId, msg);
+    }
+
+    /**
+     * Aplica um delta recebido do coordenador sobre a réplica local do documento.
+     * Se a réplica não estiver na versão base do delta, houve uma lacuna
+     * e um snapshot completo é solicitado ao coordenador.
+     */
+    private void aplicarDelta(String documento, DeltaDocumento delta) throws IOException {
+        Replica replica = replicas.get(documento);
+        if (replica == null) return; // Documento fechado entretanto.
+        if (delta.getVersaoNova() > replica.versaoConhecida) {
+            replica.versaoConhecida = delta.getVersaoNova(); // Só a thread ouvinte escreve.
+        }
+        Documento local = replica.documento;
+        long versaoLocal = local.getVersao();
+        if (delta.getVersaoNova() <= versaoLocal || replica.aguardandoSnapshot) {
+            return; // Delta já incorporado ou coberto pelo snapshot que está a caminho.
         }
+        if (delta.getVersaoBase() != versaoLocal) {
+            Logger.logNo(id, String.format("Lacuna de versão detectada em '%s' (local v%d, delta %s). Solicitando snapshot.", documento, versaoLocal, delta));
+            replica.aguardandoSnapshot = true;
+            enviarMensagemCoordenador(new Mensagem(Mensagem.Tipo.PEDIDO_SNAPSHOT, this.id, relogioLamport.get(), versaoLocal, documento));
+            return;
+        }
+        local.aplicar(delta.getOperacoes(), delta.getVersaoNova());
+        if (Logger.ativo(Logger.Categoria.NO, Logger.Nivel.INFO)) Logger.logNo(id, "Réplica de '" + documento + "' atualizada para v" + delta.getVersaoNova() + ". Relógio: " + relogioLamport.get());
+        retomarSubmissoes(documento);
     }
 
-    private class ElectionListener implements Runnable {
-        @Override
-        public void run() {
-            try (ServerSocket serverSocket = new ServerSocket(portaEleicao)) {
-                while (!Thread.currentThread().isInterrupted()) {
-                    try (Socket clientSocket = serverSocket.accept();
-                         ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream())) {
-                        Mensagem msg = (Mensagem) in.readObject();
-                        switch (msg.getTipo()) {
-                            case ELECTION:
-                                Logger.logEleicao(id, "Recebeu ELECTION de P" + msg.getIdRemetente());
-                                if (msg.getIdRemetente() < id) {
-                                    sendMessageToPeer(msg.getIdRemetente(), new Mensagem(Mensagem.Tipo.OK, id, 0, null));
-                                }
-                                if(!electionInProgress) startElection();
-                                break;
-                            case OK:
-                                Logger.logEleicao(id, "Recebeu OK de P" + msg.getIdRemetente() + ". Perdendo a eleição.");
-                                electionInProgress = false;
-                                break;
-                            case VICTORY:
-                                Logger.logEleicao(id, "P" + msg.getIdRemetente() + " é o novo coordenador.");
-                                coordinatorId = msg.getIdRemetente();
-                                electionInProgress = false;
-                                if (socketCoordenador != null) socketCoordenador.close();
-                                connectToCoordinator();
-                                break;
-                        }
-                    } catch (Exception e) {}
-                }
+    /**
+     * Tarefa periódica do detector de falhas: consulta o nível de suspeita (phi) sobre o
+     * coordenador e, ao ultrapassar o limiar, abandona a conexão e inicia uma eleição. Isso
+     * cobre coordenadores que param de responder sem fechar os sockets.
+     */
+    private void verificarCoordenador() {
+        DetectorPhiAccrual atual = detector;
+        Canal canal = canalCoordenador;
+        if (!ativo || atual == null || canal == null || id == coordinatorId) return;
+        double phi = atual.phi();
+        if (phi > Configuracao.limiarPhi()) {
+            registrarFalhaCoordenador(String.format("phi=%.1f após %d ms sem heartbeat", phi, atual.getSilencioMs()), atual);
+            canalCoordenador = null;
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // A conexão já estava encerrada.
+            }
+            startElection();
+        }
+    }
+
+    private void registrarFalhaCoordenador(String motivo, DetectorPhiAccrual atual) {
+        if (instanteDeteccaoNs == 0) {
+            instanteDeteccaoNs = System.nanoTime();
+        }
+        tempoDeteccaoMs = atual != null ? atual.getSilencioMs() : 0;
+        if (Configuracao.numeroReservas() > 0) {
+            // Os pedidos aguardam o VICTORY: se o vencedor herdou as travas, mantêm a sua posição.
+            suspenderPedidos("Coordenador P" + coordinatorId + " falhou; edição otimista cancelada.");
+        } else {
+            cancelarPedidosPendentes("Coordenador P" + coordinatorId + " falhou; pedido cancelado.");
+        }
+        Logger.logEleicao(id, "Coordenador P" + coordinatorId + " considerado em falha (" + motivo + "). Tempo até à deteção: " + tempoDeteccaoMs + " ms.");
+    }
+
+    private void registrarNovoLider() {
+        long inicioEleicao = inicioEleicaoNs;
+        if (inicioEleicao != 0) {
+            inicioEleicaoNs = 0;
+            DURACAO_ELEICAO.registrar((System.nanoTime() - inicioEleicao) / 1000);
+        }
+        long inicio = instanteDeteccaoNs;
+        if (inicio != 0) {
+            instanteDeteccaoNs = 0;
+            tempoNovoLiderMs = (System.nanoTime() - inicio) / 1_000_000;
+            Logger.logEleicao(id, "Novo líder P" + coordinatorId + " conhecido " + tempoNovoLiderMs + " ms após a deteção da falha.");
+        }
+    }
+
+    /**
+     * Trata as mensagens de controle recebidas pelas conexões com os pares.
+     * Chamado pelas threads de leitura do {@link GestorCanaisPares}; a reconexão ao novo
+     * coordenador corre numa thread própria para não atrasar as mensagens seguintes do mesmo par.
+     */
+    private void tratarMensagemPar(Mensagem msg) {
+        if (!ativo) return;
+        if (!eleicao.tratar(msg)) {
+            Logger.logEleicao(id, Logger.Nivel.AVISO, "AVISO: mensagem inesperada de P" + msg.getIdRemetente() + ": " + msg.getTipo());
+        }
+    }
+
+    /**
+     * Segue o vencedor de um termo, anunciado pela {@link EleicaoLider}.
+     */
+    private void seguirLider(int idLider, Mandato mandato) {
+        if (!ativo) return;
+        if (idLider == coordinatorId && (canalCoordenador != null || conectando.get())) {
+            // Vitória repetida de um coordenador ao qual já estou ligado: nada muda.
+            registrarNovoLider();
+            return;
+        }
+        if (coordinatorId == id) {
+            abdicar("Um líder de termo mais recente foi eleito");
+        }
+        int coordenadorAnterior = coordinatorId;
+        boolean aQuente = idLider != coordenadorAnterior && mandato.getOrigemEstado() == coordenadorAnterior;
+        Logger.logEleicao(id, "P" + idLider + " é o novo coordenador (termo " + mandato.getTermo() + ")"
+                + (aQuente ? " e herdou as travas de P" + coordenadorAnterior + "." : "."));
+        coordinatorId = idLider;
+        registrarNovoLider();
+        if (aQuente) {
+            retomarTravas = true;
+            suspenderPedidos("Coordenador substituído por P" + coordinatorId + "; edição otimista cancelada.");
+        } else {
+            retomarTravas = false;
+            cancelarPedidosPendentes("Coordenador substituído por P" + coordinatorId + "; pedido cancelado.");
+        }
+        // Limpar a referência antes de fechar evita que o ouvinte trate o fecho como uma falha.
+        Canal anterior = canalCoordenador;
+        canalCoordenador = null;
+        if (anterior != null) {
+            try {
+                anterior.close();
             } catch (IOException e) {
-                Logger.logEleicao(id, "ERRO CRÍTICO: Não foi possível iniciar o servidor de eleição.");
+                // A conexão antiga já estava encerrada.
             }
         }
+        Execucao.iniciar("conexao-P" + id, this::connectToCoordinator);
+    }
+
+    /**
+     * A ligação entre o nó e a sua {@link EleicaoLider}.
+     */
+    private class ParticipanteEleicao implements EleicaoLider.Participante {
+        @Override
+        public boolean confiaNoLider() {
+            DetectorPhiAccrual atual = detector;
+            return ativo && coordinatorId != id && canalCoordenador != null
+                    && atual != null && atual.phi() <= Configuracao.limiarPhi();
+        }
+
+        @Override
+        public boolean isLider() {
+            return isCoordenador();
+        }
+
+        @Override
+        public boolean isReservaSincronizada() {
+            return replicaTravas.getOrigem() == coordinatorId;
+        }
+
+        @Override
+        public int paresEmContato(long janelaMs) {
+            ServicoCoordenador servico = servicoCoordenador;
+            return servico != null ? servico.getNosEmContato(janelaMs) : 0;
+        }
+
+        @Override
+        public void renunciar() {
+            No.this.renunciar();
+        }
+
+        @Override
+        public void assumir(long termo) {
+            declareVictory();
+        }
+
+        @Override
+        public void seguir(int idLider, Mandato mandato) {
+            seguirLider(idLider, mandato);
+        }
+
+        @Override
+        public Mensagem anuncioVitoria() {
+            return mensagemVitoria();
+        }
+
+        @Override
+        public void enviar(int idPar, Mensagem msg) {
+            sendMessageToPeer(idPar, msg);
+        }
     }
 
     private class OuvinteCoordenador implements Runnable {
+        private final Canal canal;
+
+        OuvinteCoordenador(Canal canal) {
+            this.canal = canal;
+        }
+
         @Override
         public void run() {
             try {
                 while (!Thread.currentThread().isInterrupted()) {
-                    Mensagem msg = (Mensagem) inCoordenador.readObject();
+                    Mensagem msg = canal.receber();
+                    DetectorPhiAccrual atual = detector;
+                    if (atual != null) atual.registrarHeartbeat(); // Qualquer mensagem prova que o coordenador está vivo.
+                    if (msg.getTipo() == Mensagem.Tipo.HEARTBEAT) {
+                        // A resposta mostra ao coordenador que ainda alcança este nó (ver EleicaoLider).
+                        canal.enviar(new Mensagem(Mensagem.Tipo.HEARTBEAT, id, relogioLamport.get(), null));
+                        continue;
+                    }
                     int relogioCoordenador = msg.getRelogioLamport();
-                    relogioLamport.set(Math.max(relogioLamport.get(), relogioCoordenador) + 1);
+                    relogioLamport.updateAndGet(r -> Math.max(r, relogioCoordenador) + 1);
 
                     switch (msg.getTipo()) {
                         case PERMISSAO_SC:
-                            temPermissao.set(true);
+                            receberPermissao(msg.getDocumento(), (PedidoAcesso) msg.getConteudo());
+                            break;
+                        case TRAVA_EXPIRADA:
+                            receberExpiracao(msg.getDocumento(), (PedidoAcesso) msg.getConteudo());
                             break;
                         case ATUALIZACAO_DOCUMENTO:
-                            documentoLocal = (Documento) msg.getConteudo();
-                            Logger.logNo(id, "Réplica do documento atualizada. Relógio: " + relogioLamport.get());
+                            Replica replica = replicas.get(msg.getDocumento());
+                            if (replica == null) break; // Documento fechado entretanto.
+                            Documento snapshot = (Documento) msg.getConteudo();
+                            replica.documento = snapshot;
+                            replica.aguardandoSnapshot = false;
+                            // Os deltas recebidos antes do snapshot já estão nele.
+                            replica.versaoConhecida = snapshot.getVersao();
+                            replica.sincronizada = true;
+                            Logger.logNo(id, "Réplica de '" + msg.getDocumento() + "' atualizada (snapshot v" + snapshot.getVersao() + "). Relógio: " + relogioLamport.get());
+                            retomarSubmissoes(msg.getDocumento());
+                            break;
+                        case EDICAO_ACEITE:
+                        case EDICAO_REJEITADA:
+                            receberRespostaSubmissao(msg.getTipo(), (SubmissaoEdicao) msg.getConteudo());
+                            break;
+                        case ATUALIZACAO_DELTA:
+                            aplicarDelta(msg.getDocumento(), (DeltaDocumento) msg.getConteudo());
+                            break;
+                        case REPLICACAO_TRAVAS:
+                            replicaTravas.aplicar(msg.getDocumento(), relogioCoordenador, (EventoTravas) msg.getConteudo());
                             break;
                     }
                 }
             } catch (Exception e) {
-                if(!Thread.currentThread().isInterrupted()) {
-                    Logger.logEleicao(id, "Conexão com o coordenador P" + coordinatorId + " perdida.");
+                // Só é uma falha se esta ainda for a conexão em uso (e não uma fechada de propósito).
+                if (ativo && !Thread.currentThread().isInterrupted() && canal == canalCoordenador) {
+                    canalCoordenador = null;
+                    registrarFalhaCoordenador("conexão perdida", detector);
                     startElection();
                 }
             }
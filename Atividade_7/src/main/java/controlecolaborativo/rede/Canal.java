@@ -0,0 +1,38 @@
+package controlecolaborativo.rede;
+
+import controlecolaborativo.comum.CodecMensagem;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.MensagemCodificada;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Uma conexão ponto a ponto, fiável e ordenada, que troca objetos {@link Mensagem}.
+ *
+ * É o que nós e coordenador veem de um {@link Transporte}: sobre TCP, um
+ * {@link controlecolaborativo.comum.CanalMensagens}; na memória, um par de filas.
+ */
+public interface Canal extends Closeable {
+
+    /**
+     * Envia uma mensagem. Seguro para uso concorrente por várias threads.
+     */
+    void enviar(Mensagem msg) throws IOException;
+
+    /**
+     * Envia uma mensagem difundida, reaproveitando o quadro já codificado para o codec deste canal.
+     * @param descarregar Se {@code false}, o quadro pode ficar retido até à próxima escrita com descarga.
+     */
+    void enviar(MensagemCodificada msg, boolean descarregar) throws IOException;
+
+    /**
+     * Bloqueia até que a próxima mensagem seja recebida.
+     * @throws IOException se a conexão foi encerrada, por qualquer dos lados.
+     */
+    Mensagem receber() throws IOException;
+
+    CodecMensagem getCodec();
+
+    String getEnderecoRemoto();
+}
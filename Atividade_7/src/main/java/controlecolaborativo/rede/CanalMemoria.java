@@ -0,0 +1,171 @@
+package controlecolaborativo.rede;
+
+import controlecolaborativo.comum.CodecMensagem;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.MensagemCodificada;
+import controlecolaborativo.metricas.ContadorTrafego;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Um extremo de uma conexão de um {@link TransporteMemoria}.
+ *
+ * Cada mensagem é codificada uma única vez e o array resultante é entregue tal como está
+ * ao outro extremo, que o decodifica: não há sockets, buffers do núcleo nem cópias. Um
+ * quadro difundido ({@link MensagemCodificada}) é o mesmo array para todos os destinatários.
+ * As mensagens não são partilhadas como objetos porque o recetor fica com elas (um snapshot
+ * passa a ser a sua réplica, por exemplo) e as alteraria para os outros.
+ */
+final class CanalMemoria implements Canal {
+
+    // Marca o fim da conexão na fila de entrada.
+    private static final Object FIM = new Object();
+
+    private final TransporteMemoria rede;
+    final int local;  // Nó deste extremo (0 = desconhecido).
+    final int remoto; // Nó do outro extremo (0 = desconhecido).
+    private final CodecMensagem codec;
+    private CanalMemoria par;
+    private final LinkedBlockingDeque<Object> entrada = new LinkedBlockingDeque<>();
+    private volatile ContadorTrafego trafego;
+    private volatile boolean fechado = false;
+    // O fim da conexão enviado pelo outro extremo já chegou: as escritas falham, como com um RST.
+    private volatile boolean encerradoPeloPar = false;
+
+    // Estado do sentido de envio na RedeSimulada, protegido pelo monitor dela.
+    Random sorteio;
+    long ultimaEntrega;
+    ArrayDeque<Quadro> retidos; // Não nulo enquanto há quadros retidos por uma partição.
+
+    CanalMemoria(TransporteMemoria rede, int local, int remoto, CodecMensagem codec) {
+        this.rede = rede;
+        this.local = local;
+        this.remoto = remoto;
+        this.codec = codec;
+    }
+
+    static void ligar(CanalMemoria a, CanalMemoria b) {
+        a.par = b;
+        b.par = a;
+    }
+
+    CanalMemoria getPar() {
+        return par;
+    }
+
+    void definirTrafego(ContadorTrafego trafego) {
+        this.trafego = trafego;
+    }
+
+    boolean isFechado() {
+        return fechado;
+    }
+
+    @Override
+    public void enviar(Mensagem msg) throws IOException {
+        byte[] corpo = codec.codificar(msg);
+        transmitir(new Quadro(corpo, 0));
+        ContadorTrafego contador = trafego;
+        if (contador != null) contador.registrarEnvio(msg.getTipo(), 4 + corpo.length);
+    }
+
+    @Override
+    public void enviar(MensagemCodificada msg, boolean descarregar) throws IOException {
+        // O quadro já traz o prefixo de comprimento, que a memória dispensa.
+        byte[] quadro = msg.quadro(codec);
+        transmitir(new Quadro(quadro, 4));
+        ContadorTrafego contador = trafego;
+        if (contador != null) contador.registrarEnvio(msg.getMensagem().getTipo(), quadro.length);
+    }
+
+    private void transmitir(Quadro quadro) throws IOException {
+        if (fechado) {
+            throw new SocketException("Canal fechado.");
+        }
+        if (encerradoPeloPar) {
+            throw new SocketException("Conexão encerrada pelo par.");
+        }
+        rede.transmitir(this, quadro);
+    }
+
+    @Override
+    public Mensagem receber() throws IOException {
+        Object item;
+        try {
+            item = entrada.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Leitura interrompida.");
+        }
+        return ler(item);
+    }
+
+    /**
+     * Como {@link #receber()}, mas sem bloquear.
+     * @return {@code null} se nenhuma mensagem chegou ainda.
+     */
+    Mensagem receberDisponivel() throws IOException {
+        Object item = entrada.poll();
+        return item != null ? ler(item) : null;
+    }
+
+    private Mensagem ler(Object item) throws IOException {
+        if (item == FIM) {
+            entrada.offerFirst(FIM); // Outras leituras também terminam.
+            throw new EOFException(fechado ? "Canal fechado." : "Conexão encerrada pelo par.");
+        }
+        Quadro quadro = (Quadro) item;
+        int comprimento = quadro.dados.length - quadro.inicio;
+        Mensagem msg = codec.decodificar(quadro.dados, quadro.inicio, comprimento);
+        ContadorTrafego contador = trafego;
+        if (contador != null) contador.registrarRecepcao(msg.getTipo(), 4 + comprimento);
+        return msg;
+    }
+
+    /**
+     * Entrega um quadro vindo do outro extremo; {@code null} marca o fim da conexão.
+     */
+    void receberQuadro(Quadro quadro) {
+        if (quadro == null) encerradoPeloPar = true;
+        if (fechado) return;
+        entrada.offer(quadro != null ? quadro : FIM);
+    }
+
+    @Override
+    public CodecMensagem getCodec() {
+        return codec;
+    }
+
+    @Override
+    public String getEnderecoRemoto() {
+        return remoto > 0 ? "memória:P" + remoto : "memória";
+    }
+
+    @Override
+    public void close() {
+        if (fechado) return;
+        fechado = true;
+        entrada.clear();
+        entrada.offer(FIM); // Acorda a leitura deste extremo.
+        rede.transmitir(this, null);
+    }
+
+    /**
+     * O corpo codificado de uma mensagem, a partir de {@code inicio} até ao fim do array.
+     */
+    static final class Quadro {
+        final byte[] dados;
+        final int inicio;
+
+        Quadro(byte[] dados, int inicio) {
+            this.dados = dados;
+            this.inicio = inicio;
+        }
+    }
+}
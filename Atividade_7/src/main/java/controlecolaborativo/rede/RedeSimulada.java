@@ -0,0 +1,293 @@
+package controlecolaborativo.rede;
+
+import controlecolaborativo.comum.Agendador;
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Logger;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.Relogio;
+import controlecolaborativo.metricas.RegistroMetricas;
+
+import java.io.IOException;
+import java.net.NoRouteToHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Um {@link TransporteMemoria} com as imperfeições de uma rede: latência, variação, perdas e
+ * partições, com os quadros entregues no instante sorteado por um agendador do relógio da rede.
+ *
+ * Cada sentido de cada conexão sorteia a latência e as perdas dos seus quadros com um gerador
+ * próprio, semeado pela semente da rede, pelos dois nós e pelo número da conexão entre eles.
+ * O relógio da rede é também o dos temporizadores de quem a usa ({@link #relogio()}). Com um
+ * {@link RelogioVirtual}, as entregas e esses temporizadores correm na thread que avança o
+ * relógio, e quem conduz a simulação sem threads próprias (os consumidores leem os canais com
+ * {@link #receberEntregue}) obtém sempre a mesma execução para a mesma semente. Os nós e o
+ * coordenador completos ({@code No}, {@code ServicoCoordenador}) não são desses: leem as
+ * conexões, gravam o WAL e tratam os documentos em threads próprias, por isso, mesmo com o
+ * relógio virtual, os envios que cada conexão vê dependem do escalonamento delas.
+ *
+ * A rede simula o que o TCP oferece por cima de uma rede imperfeita:
+ * <ul>
+ *   <li>um quadro perdido é retransmitido, chegando {@link Configuracao#retransmissaoRedeMs()} mais tarde;</li>
+ *   <li>os quadros de uma conexão chegam pela ordem de envio, e um atrasado atrasa os seguintes;</li>
+ *   <li>numa partição, os quadros entre grupos ficam retidos até {@link #reunir()}, e as novas
+ *       conexões entre grupos falham. Os nós só notam a partição pelo silêncio (heartbeats).</li>
+ * </ul>
+ * O estabelecimento das conexões não tem latência.
+ */
+public class RedeSimulada extends TransporteMemoria {
+
+    private static final LongAdder QUADROS_RETRANSMITIDOS = RegistroMetricas.global().contador("rede.quadros_retransmitidos");
+    private static final LongAdder QUADROS_RETIDOS = RegistroMetricas.global().contador("rede.quadros_retidos");
+    // Ocupa o lugar do fim da conexão entre os quadros retidos (a fila não aceita nulos).
+    private static final CanalMemoria.Quadro FIM_RETIDO = new CanalMemoria.Quadro(new byte[0], 0);
+
+    private final long semente;
+    private final Relogio relogio;
+    private final Agendador agendador;
+    private final long origemNs;
+
+    // Protegidos pelo monitor da rede.
+    private int latenciaMs = Configuracao.latenciaRedeMs();
+    private int variacaoMs = Configuracao.variacaoLatenciaRedeMs();
+    private double perda = Configuracao.perdaRede();
+    private final int retransmissaoMs = Configuracao.retransmissaoRedeMs();
+    private final PriorityQueue<Entrega> agenda = new PriorityQueue<>();
+    private long sequencia = 0;
+    private final Map<Long, Integer> conexoesPorPar = new HashMap<>();
+    private final Map<Integer, Integer> grupos = new HashMap<>(); // Nó -> grupo; os ausentes estão no grupo 0.
+    private int proximoGrupo = 1;
+    private final List<CanalMemoria> comRetidos = new ArrayList<>();
+    private Agendador.Tarefa disparo;         // Entrega dos quadros que vencem em instanteDisparo.
+    private long instanteDisparo = Long.MAX_VALUE;
+
+    public RedeSimulada(long semente) {
+        this(semente, Relogio.SISTEMA);
+    }
+
+    /**
+     * @param relogio O relógio em que os quadros são entregues, partilhado com quem usa a rede.
+     */
+    public RedeSimulada(long semente, Relogio relogio) {
+        this.semente = semente;
+        this.relogio = relogio;
+        this.agendador = relogio.agendador("rede-simulada");
+        this.origemNs = relogio.agoraNs();
+    }
+
+    @Override
+    public Relogio relogio() {
+        return relogio;
+    }
+
+    /**
+     * Lê, sem bloquear, a próxima mensagem já entregue a um canal aberto nesta rede. Serve a
+     * quem conduz um {@link RelogioVirtual} na própria thread, sem threads de leitura.
+     * @return {@code null} se nenhuma mensagem chegou ainda.
+     * @throws IOException se a conexão foi encerrada.
+     */
+    public Mensagem receberEntregue(Canal canal) throws IOException {
+        return ((CanalMemoria) canal).receberDisponivel();
+    }
+
+    /**
+     * Altera a latência dos quadros enviados a partir de agora.
+     * @param variacaoMs Atraso adicional máximo, sorteado uniformemente para cada quadro.
+     */
+    public synchronized void definirLatencia(int latenciaMs, int variacaoMs) {
+        this.latenciaMs = Math.max(0, latenciaMs);
+        this.variacaoMs = Math.max(0, variacaoMs);
+    }
+
+    /**
+     * Altera a probabilidade de cada quadro enviado a partir de agora se perder (e ser retransmitido).
+     */
+    public synchronized void definirPerda(double perda) {
+        this.perda = Math.max(0, Math.min(1, perda));
+    }
+
+    /**
+     * Separa os nós indicados do resto da rede: passam a formar um grupo que só comunica
+     * consigo próprio. Chamadas sucessivas criam mais grupos.
+     */
+    public synchronized void isolar(Collection<Integer> nos) {
+        int grupo = proximoGrupo++;
+        for (int idNo : nos) {
+            grupos.put(idNo, grupo);
+        }
+        Logger.logSimulador(">>> PARTIÇÃO SIMULADA: " + nos + " isolados do resto da rede. <<<");
+        libertarRetidos();
+    }
+
+    /**
+     * Desfaz todas as partições; os quadros retidos seguem pela ordem em que foram enviados.
+     */
+    public synchronized void reunir() {
+        grupos.clear();
+        Logger.logSimulador(">>> PARTIÇÃO DESFEITA: a rede voltou a estar ligada. <<<");
+        libertarRetidos();
+    }
+
+    @Override
+    synchronized void verificarRota(int origem, int destino) throws IOException {
+        if (separados(origem, destino)) {
+            throw new NoRouteToHostException("Sem rota de P" + origem + " para P" + destino + " (partição simulada).");
+        }
+    }
+
+    @Override
+    synchronized void ligados(CanalMemoria cliente, CanalMemoria servidor) {
+        long par = ((long) Math.min(cliente.local, cliente.remoto) << 32) | (Math.max(cliente.local, cliente.remoto) & 0xFFFFFFFFL);
+        int numero = conexoesPorPar.merge(par, 1, Integer::sum);
+        cliente.sorteio = new Random(misturar(semente, cliente.local, cliente.remoto, numero));
+        servidor.sorteio = new Random(misturar(semente, servidor.local, servidor.remoto, numero));
+    }
+
+    @Override
+    synchronized void transmitir(CanalMemoria origem, CanalMemoria.Quadro quadro) {
+        if (origem.retidos != null || separados(origem.local, origem.remoto)) {
+            if (origem.retidos == null) {
+                origem.retidos = new ArrayDeque<>();
+                comRetidos.add(origem);
+            }
+            origem.retidos.add(quadro != null ? quadro : FIM_RETIDO);
+            QUADROS_RETIDOS.increment();
+            return;
+        }
+        agendar(origem, quadro);
+    }
+
+    private void agendar(CanalMemoria origem, CanalMemoria.Quadro quadro) {
+        long instante = agoraMs() + latenciaMs;
+        if (variacaoMs > 0) {
+            instante += origem.sorteio.nextInt(variacaoMs + 1);
+        }
+        if (perda > 0 && origem.sorteio.nextDouble() < perda) {
+            instante += retransmissaoMs;
+            QUADROS_RETRANSMITIDOS.increment();
+        }
+        // Os quadros de uma conexão chegam pela ordem de envio.
+        instante = Math.max(instante, origem.ultimaEntrega);
+        origem.ultimaEntrega = instante;
+        Entrega entrega = new Entrega(instante, sequencia++, origem.getPar(), quadro);
+        agenda.add(entrega);
+        if (instante < instanteDisparo) {
+            programarDisparo(instante);
+        }
+    }
+
+    private void programarDisparo(long instante) {
+        if (disparo != null) disparo.cancelar();
+        instanteDisparo = instante;
+        disparo = agendador.agendar(this::entregarVencidas, Math.max(0, instante - agoraMs()));
+    }
+
+    /**
+     * Tarefa do agendador da rede: entrega, pela ordem da agenda, os quadros cujo instante já
+     * chegou e programa a próxima entrega. Cada quadro é entregue fora do monitor da rede, para
+     * que os envios dos nós não esperem por ela; como as tarefas do agendador nunca correm em
+     * simultâneo, os quadros continuam a chegar pela ordem da agenda.
+     */
+    private void entregarVencidas() {
+        Entrega entrega;
+        while ((entrega = retirarVencida()) != null) {
+            entrega.entregar();
+        }
+    }
+
+    /**
+     * @return O próximo quadro, se o seu instante já chegou; senão {@code null}, depois de
+     *         programar a entrega dele.
+     */
+    private synchronized Entrega retirarVencida() {
+        Entrega proxima = agenda.peek();
+        if (proxima != null && proxima.instante <= agoraMs()) {
+            return agenda.poll();
+        }
+        disparo = null;
+        instanteDisparo = Long.MAX_VALUE;
+        if (proxima != null) {
+            programarDisparo(proxima.instante);
+        }
+        return null;
+    }
+
+    private long agoraMs() {
+        return (relogio.agoraNs() - origemNs) / 1_000_000;
+    }
+
+    /**
+     * Agenda os quadros retidos das conexões cujos extremos voltaram a estar no mesmo grupo.
+     */
+    private void libertarRetidos() {
+        Iterator<CanalMemoria> it = comRetidos.iterator();
+        while (it.hasNext()) {
+            CanalMemoria canal = it.next();
+            if (separados(canal.local, canal.remoto)) continue;
+            it.remove();
+            ArrayDeque<CanalMemoria.Quadro> retidos = canal.retidos;
+            canal.retidos = null;
+            for (CanalMemoria.Quadro quadro : retidos) {
+                agendar(canal, quadro != FIM_RETIDO ? quadro : null);
+            }
+        }
+    }
+
+    private boolean separados(int a, int b) {
+        return grupo(a) != grupo(b);
+    }
+
+    private int grupo(int idNo) {
+        Integer grupo = grupos.get(idNo);
+        return grupo != null ? grupo : 0;
+    }
+
+    /**
+     * A semente do gerador de um sentido de uma conexão (mistura SplitMix64).
+     */
+    private static long misturar(long semente, int origem, int destino, int numero) {
+        long h = semente;
+        for (long parte : new long[]{origem, destino, numero}) {
+            h += 0x9E3779B97F4A7C15L + parte;
+            h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+            h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+            h ^= h >>> 31;
+        }
+        return h;
+    }
+
+    /**
+     * Um quadro (ou o fim da conexão, se nulo) a entregar a um canal num instante da rede.
+     */
+    private static final class Entrega implements Comparable<Entrega> {
+        final long instante;
+        final long sequencia;
+        final CanalMemoria destino;
+        final CanalMemoria.Quadro quadro;
+
+        Entrega(long instante, long sequencia, CanalMemoria destino, CanalMemoria.Quadro quadro) {
+            this.instante = instante;
+            this.sequencia = sequencia;
+            this.destino = destino;
+            this.quadro = quadro;
+        }
+
+        void entregar() {
+            destino.receberQuadro(quadro);
+        }
+
+        @Override
+        public int compareTo(Entrega outra) {
+            int c = Long.compare(instante, outra.instante);
+            return c != 0 ? c : Long.compare(sequencia, outra.sequencia);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package controlecolaborativo.rede;
+
+import controlecolaborativo.comum.Agendador;
+import controlecolaborativo.comum.Relogio;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Um relógio simulado: o tempo começa em zero e só avança com {@link #avancar}, que executa na
+ * thread chamadora as tarefas de todos os agendadores que vencem até lá, pela ordem dos seus
+ * instantes (e, no mesmo instante, pela ordem em que foram agendadas). As tarefas que elas
+ * agendam para dentro do mesmo avanço também correm nele.
+ *
+ * Uma {@link RedeSimulada} criada com este relógio entrega os quadros como tarefas dele, e quem
+ * obtém o relógio pelo transporte ({@link Transporte#relogio()}) agenda nele os seus
+ * temporizadores. Se nada mais corre noutras threads, a mesma semente e a mesma sequência de
+ * avanços produzem sempre a mesma execução.
+ */
+public final class RelogioVirtual implements Relogio {
+
+    // Protegidos pelo monitor do relógio.
+    private final PriorityQueue<Agendada> agenda = new PriorityQueue<>();
+    private long agoraNs = 0;
+    private long sequencia = 0;
+
+    @Override
+    public synchronized long agoraNs() {
+        return agoraNs;
+    }
+
+    @Override
+    public Agendador agendador(String nome) {
+        return new AgendadorVirtual();
+    }
+
+    /**
+     * Avança o tempo e executa, por ordem, as tarefas que vencem até ao novo instante.
+     * Uma exceção lançada por uma tarefa interrompe o avanço e é propagada.
+     */
+    public void avancar(long ms) {
+        long alvo;
+        synchronized (this) {
+            alvo = agoraNs + ms * 1_000_000;
+        }
+        Agendada proxima;
+        while ((proxima = retirarAte(alvo)) != null) {
+            proxima.executar();
+        }
+        synchronized (this) {
+            agoraNs = Math.max(agoraNs, alvo);
+        }
+    }
+
+    private synchronized Agendada retirarAte(long alvo) {
+        Agendada proxima = agenda.peek();
+        if (proxima == null || proxima.instanteNs > alvo) return null;
+        agenda.poll();
+        agoraNs = Math.max(agoraNs, proxima.instanteNs);
+        return proxima;
+    }
+
+    private synchronized void inserir(Agendada agendada, long atrasoNs) {
+        agendada.instanteNs = agoraNs + Math.max(0, atrasoNs);
+        agendada.sequencia = sequencia++;
+        agenda.add(agendada);
+    }
+
+    private final class AgendadorVirtual implements Agendador {
+        private volatile boolean parado = false;
+
+        @Override
+        public Tarefa agendar(Runnable tarefa, long atrasoMs) {
+            return novaTarefa(tarefa, atrasoMs, 0);
+        }
+
+        @Override
+        public Tarefa agendarPeriodica(Runnable tarefa, long periodoMs) {
+            return novaTarefa(tarefa, periodoMs, Math.max(1, periodoMs) * 1_000_000);
+        }
+
+        private Tarefa novaTarefa(Runnable tarefa, long atrasoMs, long periodoNs) {
+            if (parado) throw new RejectedExecutionException("Agendador parado.");
+            Agendada agendada = new Agendada(this, tarefa, periodoNs);
+            inserir(agendada, atrasoMs * 1_000_000);
+            return agendada;
+        }
+
+        @Override
+        public void parar() {
+            parado = true; // As tarefas já na agenda são descartadas quando vencem.
+        }
+    }
+
+    /**
+     * Uma tarefa na agenda; uma periódica volta a ela depois de cada execução.
+     */
+    private final class Agendada implements Agendador.Tarefa, Comparable<Agendada> {
+        private final AgendadorVirtual dono;
+        private final Runnable tarefa;
+        private final long periodoNs; // 0 numa tarefa de uma só execução.
+        private long instanteNs;
+        private long sequencia;
+        private volatile boolean terminada = false;
+
+        Agendada(AgendadorVirtual dono, Runnable tarefa, long periodoNs) {
+            this.dono = dono;
+            this.tarefa = tarefa;
+            this.periodoNs = periodoNs;
+        }
+
+        void executar() {
+            if (!isPendente()) return;
+            if (periodoNs == 0) terminada = true;
+            try {
+                tarefa.run();
+            } catch (RuntimeException | Error e) {
+                terminada = true;
+                throw e;
+            }
+            if (isPendente()) inserir(this, periodoNs);
+        }
+
+        @Override
+        public void cancelar() {
+            terminada = true;
+        }
+
+        @Override
+        public boolean isPendente() {
+            return !terminada && !dono.parado;
+        }
+
+        @Override
+        public int compareTo(Agendada outra) {
+            int c = Long.compare(instanteNs, outra.instanteNs);
+            return c != 0 ? c : Long.compare(sequencia, outra.sequencia);
+        }
+    }
+}
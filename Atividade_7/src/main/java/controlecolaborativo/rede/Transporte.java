@@ -0,0 +1,98 @@
+package controlecolaborativo.rede;
+
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Relogio;
+import controlecolaborativo.metricas.ContadorTrafego;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * O meio pelo qual nós e coordenador abrem conexões uns com os outros.
+ *
+ * Um endpoint é identificado pelo nó que o abriu e por uma porta. No TCP todos os nós correm
+ * em localhost e partilham as portas; na memória, cada nó é uma máquina à parte (com as suas
+ * portas) e cada transporte é uma rede independente, o que permite vários clusters, e vários
+ * coordenadores na porta 12345, na mesma JVM.
+ *
+ * Implementações: {@link TransporteTcp} (sockets reais em localhost, o padrão),
+ * {@link TransporteMemoria} (filas na memória, sem sockets nem cópias) e {@link RedeSimulada}
+ * (a memória com latência, perdas e partições, no relógio do sistema ou num {@link RelogioVirtual}).
+ */
+public interface Transporte {
+
+    /**
+     * Abre uma conexão com o endpoint que o nó indicado abriu na porta informada.
+     * @param trafego Contador dos quadros trocados; pode ser {@code null}.
+     * @throws IOException se ninguém escuta na porta ou o destino está inacessível.
+     */
+    Canal conectar(int idNo, int porta, ContadorTrafego trafego) throws IOException;
+
+    /**
+     * Passa a aceitar conexões na porta informada.
+     * @param backlog Conexões que podem aguardar aceitação.
+     */
+    Servidor escutar(int porta, int backlog) throws IOException;
+
+    /**
+     * @return A visão deste transporte usada pelo nó indicado: as conexões que ele abre e aceita
+     *         ficam associadas a ele, o que permite à {@link RedeSimulada} isolá-lo numa partição.
+     */
+    default Transporte paraNo(int idNo) {
+        return this;
+    }
+
+    /**
+     * @return O relógio dos temporizadores de quem usa esta rede (nós, eleição e coordenador).
+     *         O do sistema, exceto numa {@link RedeSimulada} criada com um {@link RelogioVirtual}.
+     */
+    default Relogio relogio() {
+        return Relogio.SISTEMA;
+    }
+
+    /**
+     * @return Um transporte novo do tipo configurado em {@link Configuracao#rede()}.
+     */
+    static Transporte configurado() {
+        String tipo = Configuracao.rede();
+        if ("memoria".equalsIgnoreCase(tipo)) {
+            return new TransporteMemoria();
+        }
+        if ("simulada".equalsIgnoreCase(tipo)) {
+            return new RedeSimulada(Configuracao.sementeRede());
+        }
+        return TransporteTcp.INSTANCIA;
+    }
+
+    /**
+     * Um endpoint à escuta.
+     */
+    interface Servidor extends Closeable {
+
+        /**
+         * Bloqueia até chegar uma nova conexão.
+         * @throws IOException se o servidor foi fechado.
+         */
+        ConexaoAceite aceitar() throws IOException;
+    }
+
+    /**
+     * Uma conexão recém-aceite, cujo handshake ainda não foi feito: ele é concluído por
+     * {@link #abrir}, na thread que vai tratar a conexão, para não atrasar as aceitações seguintes.
+     */
+    interface ConexaoAceite {
+
+        String getEnderecoRemoto();
+
+        /**
+         * Conclui o handshake.
+         * @param trafego Contador dos quadros trocados; pode ser {@code null}.
+         */
+        Canal abrir(ContadorTrafego trafego) throws IOException;
+
+        /**
+         * Encerra a conexão, com ou sem o handshake concluído.
+         */
+        void fechar();
+    }
+}
@@ -0,0 +1,198 @@
+package controlecolaborativo.rede;
+
+import controlecolaborativo.comum.CodecMensagem;
+import controlecolaborativo.comum.Configuracao;
+import controlecolaborativo.comum.Relogio;
+import controlecolaborativo.metricas.ContadorTrafego;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transporte inteiramente na memória da JVM: uma conexão é um par de {@link CanalMemoria}
+ * ligados por filas, e as mensagens chegam ao outro extremo assim que são enviadas.
+ *
+ * Cada instância é uma rede à parte, e cada nó dela tem as suas próprias portas. Como nada passa
+ * pelo núcleo, milhares de nós cabem numa só JVM (com {@code cc.threads.virtuais=true}) e
+ * a vazão medida é a do protocolo, sem o custo dos sockets. O codec é o configurado em
+ * {@link Configuracao#codec()}, partilhado pelos dois extremos, sem handshake.
+ */
+public class TransporteMemoria implements Transporte {
+
+    private final Map<Long, ServidorMemoria> servidores = new ConcurrentHashMap<>(); // Chave: nó e porta.
+    private final CodecMensagem codec = CodecMensagem.porNome(Configuracao.codec());
+
+    @Override
+    public Canal conectar(int idNo, int porta, ContadorTrafego trafego) throws IOException {
+        return conectar(0, idNo, porta, trafego);
+    }
+
+    @Override
+    public Servidor escutar(int porta, int backlog) throws IOException {
+        return escutar(0, porta, backlog);
+    }
+
+    @Override
+    public Transporte paraNo(int idNo) {
+        return new Vista(idNo);
+    }
+
+    private Canal conectar(int origem, int destino, int porta, ContadorTrafego trafego) throws IOException {
+        ServidorMemoria servidor = servidores.get(endpoint(destino, porta));
+        if (servidor == null) {
+            throw new ConnectException("Conexão recusada: ninguém escuta em P" + destino + ":" + porta + ".");
+        }
+        verificarRota(origem, servidor.dono);
+        CanalMemoria local = new CanalMemoria(this, origem, servidor.dono, codec);
+        CanalMemoria remoto = new CanalMemoria(this, servidor.dono, origem, codec);
+        CanalMemoria.ligar(local, remoto);
+        local.definirTrafego(trafego);
+        ligados(local, remoto);
+        if (!servidor.pendentes.offer(remoto) || servidor.fechado) {
+            remoto.close();
+            throw new ConnectException("Conexão recusada: P" + destino + ":" + porta + " sem espaço para novas conexões.");
+        }
+        return local;
+    }
+
+    private Servidor escutar(int dono, int porta, int backlog) throws IOException {
+        ServidorMemoria servidor = new ServidorMemoria(dono, porta, backlog);
+        if (servidores.putIfAbsent(endpoint(dono, porta), servidor) != null) {
+            throw new BindException("Porta " + porta + " já em uso em P" + dono + ".");
+        }
+        return servidor;
+    }
+
+    private static long endpoint(int idNo, int porta) {
+        return ((long) idNo << 32) | (porta & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Verifica se a origem alcança o destino antes de abrir uma conexão. Na memória, alcança sempre.
+     * @throws IOException se o destino está inacessível.
+     */
+    void verificarRota(int origem, int destino) throws IOException {
+    }
+
+    /**
+     * Chamado com os dois extremos de cada conexão nova, antes de ela ser usada.
+     */
+    void ligados(CanalMemoria cliente, CanalMemoria servidor) {
+    }
+
+    /**
+     * Leva um quadro ao outro extremo do canal; {@code null} leva o fim da conexão.
+     * Na memória, a entrega é imediata.
+     */
+    void transmitir(CanalMemoria origem, CanalMemoria.Quadro quadro) {
+        origem.getPar().receberQuadro(quadro);
+    }
+
+    /**
+     * A visão do transporte usada por um nó: as conexões que ele abre ou aceita ficam com o seu ID.
+     */
+    private final class Vista implements Transporte {
+        private final int idNo;
+
+        Vista(int idNo) {
+            this.idNo = idNo;
+        }
+
+        @Override
+        public Canal conectar(int destino, int porta, ContadorTrafego trafego) throws IOException {
+            return TransporteMemoria.this.conectar(idNo, destino, porta, trafego);
+        }
+
+        @Override
+        public Servidor escutar(int porta, int backlog) throws IOException {
+            return TransporteMemoria.this.escutar(idNo, porta, backlog);
+        }
+
+        @Override
+        public Transporte paraNo(int outro) {
+            return TransporteMemoria.this.paraNo(outro);
+        }
+
+        @Override
+        public Relogio relogio() {
+            return TransporteMemoria.this.relogio();
+        }
+    }
+
+    private final class ServidorMemoria implements Servidor {
+        // Marca o fecho do servidor na fila de conexões pendentes.
+        private final CanalMemoria fechoServidor = new CanalMemoria(TransporteMemoria.this, 0, 0, codec);
+
+        private final int dono;
+        private final int porta;
+        private final BlockingQueue<CanalMemoria> pendentes;
+        private volatile boolean fechado = false;
+
+        ServidorMemoria(int dono, int porta, int backlog) {
+            this.dono = dono;
+            this.porta = porta;
+            this.pendentes = new ArrayBlockingQueue<>(Math.max(1, backlog));
+        }
+
+        @Override
+        public ConexaoAceite aceitar() throws IOException {
+            CanalMemoria canal;
+            try {
+                canal = pendentes.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketException("Aceitação interrompida.");
+            }
+            if (canal == fechoServidor) {
+                pendentes.offer(fechoServidor); // Outras aceitações também terminam.
+                throw new SocketException("Servidor fechado.");
+            }
+            return new ConexaoMemoria(canal);
+        }
+
+        @Override
+        public void close() {
+            if (fechado) return;
+            fechado = true;
+            servidores.remove(endpoint(dono, porta), this);
+            CanalMemoria pendente;
+            while ((pendente = pendentes.poll()) != null) {
+                pendente.close();
+            }
+            pendentes.offer(fechoServidor);
+        }
+    }
+
+    private static final class ConexaoMemoria implements ConexaoAceite {
+        private final CanalMemoria canal;
+
+        ConexaoMemoria(CanalMemoria canal) {
+            this.canal = canal;
+        }
+
+        @Override
+        public String getEnderecoRemoto() {
+            return canal.getEnderecoRemoto();
+        }
+
+        @Override
+        public Canal abrir(ContadorTrafego trafego) throws IOException {
+            canal.definirTrafego(trafego);
+            if (canal.isFechado()) {
+                throw new SocketException("Canal fechado.");
+            }
+            return canal;
+        }
+
+        @Override
+        public void fechar() {
+            canal.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package controlecolaborativo.rede;
+
+import controlecolaborativo.comum.CanalMensagens;
+import controlecolaborativo.metricas.ContadorTrafego;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Transporte por sockets TCP em localhost, com o handshake e os quadros do {@link CanalMensagens}.
+ * Todos os nós partilham as portas de localhost, por isso o nó de destino é ignorado.
+ */
+public final class TransporteTcp implements Transporte {
+
+    public static final TransporteTcp INSTANCIA = new TransporteTcp();
+
+    private TransporteTcp() {
+    }
+
+    @Override
+    public Canal conectar(int idNo, int porta, ContadorTrafego trafego) throws IOException {
+        return CanalMensagens.conectar("localhost", porta, trafego);
+    }
+
+    @Override
+    public Servidor escutar(int porta, int backlog) throws IOException {
+        ServerSocket servidor = new ServerSocket();
+        servidor.setReuseAddress(true);
+        try {
+            servidor.bind(new InetSocketAddress(porta), backlog);
+        } catch (IOException e) {
+            servidor.close();
+            throw e;
+        }
+        return new Servidor() {
+            @Override
+            public ConexaoAceite aceitar() throws IOException {
+                return new ConexaoTcp(servidor.accept());
+            }
+
+            @Override
+            public void close() throws IOException {
+                servidor.close();
+            }
+        };
+    }
+
+    private static final class ConexaoTcp implements ConexaoAceite {
+        private final Socket socket;
+
+        ConexaoTcp(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public String getEnderecoRemoto() {
+            return socket.getInetAddress().getHostAddress();
+        }
+
+        @Override
+        public Canal abrir(ContadorTrafego trafego) throws IOException {
+            return CanalMensagens.aceitar(socket, trafego);
+        }
+
+        @Override
+        public void fechar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // A conexão já estava encerrada.
+            }
+        }
+    }
+}
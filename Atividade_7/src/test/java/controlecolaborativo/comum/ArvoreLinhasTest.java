@@ -0,0 +1,125 @@
+package controlecolaborativo.comum;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArvoreLinhasTest {
+
+    private static List<String> linhas(ArvoreLinhas arvore) {
+        List<String> resultado = new ArrayList<>();
+        for (String linha : arvore) {
+            resultado.add(linha);
+        }
+        return resultado;
+    }
+
+    /** Limite de altura de uma AVL com {@code n} nós. */
+    private static void assertBalanceada(ArvoreLinhas arvore) {
+        double limite = 1.45 * Math.log(arvore.tamanho() + 2) / Math.log(2);
+        assertTrue(arvore.altura() <= limite, "altura " + arvore.altura() + " com " + arvore.tamanho() + " linhas");
+    }
+
+    @Test
+    void inserirSubstituirERemoverNasPosicoesIndicadas() {
+        ArvoreLinhas arvore = ArvoreLinhas.VAZIA.acrescentar("b").inserir(0, "a").acrescentar("d").inserir(2, "c");
+        assertEquals(Arrays.asList("a", "b", "c", "d"), linhas(arvore));
+
+        arvore = arvore.substituir(1, "B").remover(0).remover(2);
+        assertEquals(Arrays.asList("B", "c"), linhas(arvore));
+        assertEquals("c", arvore.obter(1));
+        assertEquals(Arrays.asList("B", "c"), arvore.comoLista());
+    }
+
+    @Test
+    void cadaModificacaoPreservaAVersaoAnterior() {
+        ArvoreLinhas original = ArvoreLinhas.de(Arrays.asList("1", "2", "3"));
+        ArvoreLinhas inserida = original.inserir(1, "x");
+        ArvoreLinhas removida = original.remover(2);
+        ArvoreLinhas substituida = original.substituir(0, "y");
+
+        assertEquals(Arrays.asList("1", "2", "3"), linhas(original));
+        assertEquals(Arrays.asList("1", "x", "2", "3"), linhas(inserida));
+        assertEquals(Arrays.asList("1", "2"), linhas(removida));
+        assertEquals(Arrays.asList("y", "2", "3"), linhas(substituida));
+    }
+
+    @Test
+    void insercoesSequenciaisMantemAArvoreBalanceada() {
+        // Inserções sempre no fim, ou sempre no início, degenerariam uma árvore sem rotações.
+        ArvoreLinhas noFim = ArvoreLinhas.VAZIA;
+        ArvoreLinhas noInicio = ArvoreLinhas.VAZIA;
+        for (int i = 0; i < 4096; i++) {
+            noFim = noFim.acrescentar(Integer.toString(i));
+            noInicio = noInicio.inserir(0, Integer.toString(i));
+        }
+        assertBalanceada(noFim);
+        assertBalanceada(noInicio);
+        assertEquals("0", noFim.obter(0));
+        assertEquals("4095", noInicio.obter(0));
+    }
+
+    @Test
+    void remocoesMantemAArvoreBalanceada() {
+        List<String> iniciais = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            iniciais.add(Integer.toString(i));
+        }
+        ArvoreLinhas arvore = ArvoreLinhas.de(iniciais);
+        assertBalanceada(arvore);
+        // Remove toda a metade esquerda, o que obriga a rotações ao longo da espinha direita.
+        for (int i = 0; i < 2048; i++) {
+            arvore = arvore.remover(0);
+            assertBalanceada(arvore);
+        }
+        assertEquals(iniciais.subList(2048, 4096), linhas(arvore));
+    }
+
+    @Test
+    void operacoesAleatoriasEquivalemAUmaLista() {
+        Random aleatorio = new Random(7);
+        List<String> referencia = new ArrayList<>();
+        ArvoreLinhas arvore = ArvoreLinhas.VAZIA;
+        for (int i = 0; i < 20_000; i++) {
+            int operacao = aleatorio.nextInt(10);
+            if (referencia.isEmpty() || operacao < 5) {
+                int indice = aleatorio.nextInt(referencia.size() + 1);
+                referencia.add(indice, "l" + i);
+                arvore = arvore.inserir(indice, "l" + i);
+            } else if (operacao < 8) {
+                int indice = aleatorio.nextInt(referencia.size());
+                referencia.remove(indice);
+                arvore = arvore.remover(indice);
+            } else {
+                int indice = aleatorio.nextInt(referencia.size());
+                referencia.set(indice, "s" + i);
+                arvore = arvore.substituir(indice, "s" + i);
+            }
+        }
+        assertEquals(referencia, linhas(arvore));
+        assertEquals(referencia.size(), arvore.tamanho());
+        assertBalanceada(arvore);
+        for (int i = 0; i < referencia.size(); i += 97) {
+            assertEquals(referencia.get(i), arvore.obter(i));
+        }
+    }
+
+    @Test
+    void vaziaEIndicesInvalidos() {
+        assertSame(ArvoreLinhas.VAZIA, ArvoreLinhas.de(Collections.<String>emptyList()));
+        assertEquals(0, ArvoreLinhas.VAZIA.altura());
+        assertThrows(IndexOutOfBoundsException.class, () -> ArvoreLinhas.VAZIA.obter(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> ArvoreLinhas.VAZIA.remover(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> ArvoreLinhas.VAZIA.inserir(1, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> ArvoreLinhas.de(Arrays.asList("a")).substituir(-1, "x"));
+    }
+}
@@ -0,0 +1,165 @@
+package controlecolaborativo.comum;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CodecBinarioTest {
+
+    private final CodecBinario codec = CodecBinario.INSTANCIA;
+
+    private Mensagem idaEVolta(Object conteudo) throws IOException {
+        return idaEVolta(new Mensagem(Mensagem.Tipo.LIBERACAO_SC, 7, 42, conteudo, "doc-1"));
+    }
+
+    private Mensagem idaEVolta(Mensagem msg) throws IOException {
+        byte[] corpo = codec.codificar(msg);
+        // Decodifica a partir de um deslocamento, como nos quadros com prefixo de comprimento.
+        byte[] quadro = new byte[corpo.length + 4];
+        System.arraycopy(corpo, 0, quadro, 4, corpo.length);
+        return codec.decodificar(quadro, 4, corpo.length);
+    }
+
+    private static List<OperacaoEdicao> operacoes() {
+        return Arrays.asList(
+                OperacaoEdicao.adicionar("nova"),
+                OperacaoEdicao.remover(3),
+                OperacaoEdicao.substituir(0, "çãé"),
+                OperacaoEdicao.adicionar(null));
+    }
+
+    private static void assertPedido(PedidoAcesso esperado, Object obtido) {
+        PedidoAcesso pedido = assertInstanceOf(PedidoAcesso.class, obtido);
+        assertEquals(esperado.getIdNo(), pedido.getIdNo());
+        assertEquals(esperado.getRelogioLamport(), pedido.getRelogioLamport());
+        assertEquals(esperado.getIntervalo(), pedido.getIntervalo());
+        assertEquals(esperado.isCompartilhado(), pedido.isCompartilhado());
+        assertEquals(esperado.getFicha(), pedido.getFicha());
+    }
+
+    @Test
+    void preservaOCabecalho() throws IOException {
+        Mensagem msg = idaEVolta(new Mensagem(Mensagem.Tipo.REQUISICAO_SC, 300, Integer.MAX_VALUE, null));
+        assertEquals(Mensagem.Tipo.REQUISICAO_SC, msg.getTipo());
+        assertEquals(300, msg.getIdRemetente());
+        assertEquals(Integer.MAX_VALUE, msg.getRelogioLamport());
+        assertEquals(Mensagem.DOCUMENTO_PADRAO, msg.getDocumento());
+        assertNull(msg.getConteudo());
+
+        assertEquals("doc-1", idaEVolta((Object) null).getDocumento());
+    }
+
+    @Test
+    void inteiroELongoMantemOTipo() throws IOException {
+        for (int valor : new int[]{0, 1, -1, 300, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            Object conteudo = idaEVolta(valor).getConteudo();
+            assertEquals(Integer.valueOf(valor), assertInstanceOf(Integer.class, conteudo));
+        }
+        for (long valor : new long[]{0L, 5L, -1L, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            Object conteudo = idaEVolta(valor).getConteudo();
+            assertEquals(Long.valueOf(valor), assertInstanceOf(Long.class, conteudo));
+        }
+    }
+
+    @Test
+    void documento() throws IOException {
+        Documento original = Documento.deLinhas(Arrays.asList("a", "", "linha três"), 17);
+        Documento copia = assertInstanceOf(Documento.class, idaEVolta(original).getConteudo());
+        assertEquals(17, copia.getVersao());
+        assertEquals(original.obterLinhas(), copia.obterLinhas());
+    }
+
+    @Test
+    void operacoesEDelta() throws IOException {
+        List<?> lista = assertInstanceOf(List.class, idaEVolta(operacoes()).getConteudo());
+        assertEquals(operacoes().toString(), lista.toString());
+
+        DeltaDocumento delta = assertInstanceOf(DeltaDocumento.class,
+                idaEVolta(new DeltaDocumento(9, 10, operacoes())).getConteudo());
+        assertEquals(9, delta.getVersaoBase());
+        assertEquals(10, delta.getVersaoNova());
+        assertEquals(operacoes().toString(), delta.getOperacoes().toString());
+    }
+
+    @Test
+    void intervaloEPedido() throws IOException {
+        assertEquals(IntervaloLinhas.FIM_DOCUMENTO, idaEVolta(IntervaloLinhas.FIM_DOCUMENTO).getConteudo());
+        assertEquals(new IntervaloLinhas(2, 5), idaEVolta(new IntervaloLinhas(2, 5)).getConteudo());
+
+        PedidoAcesso pedido = new PedidoAcesso(4, 11, new IntervaloLinhas(1, 3), true, 1L << 40);
+        assertPedido(pedido, idaEVolta(pedido).getConteudo());
+    }
+
+    @Test
+    void submissaoELiberacao() throws IOException {
+        SubmissaoEdicao submissao = assertInstanceOf(SubmissaoEdicao.class,
+                idaEVolta(new SubmissaoEdicao(12, 30, IntervaloLinhas.linha(4), operacoes())).getConteudo());
+        assertEquals(12, submissao.getIdPedido());
+        assertEquals(30, submissao.getVersao());
+        assertEquals(IntervaloLinhas.linha(4), submissao.getIntervalo());
+        assertEquals(operacoes().toString(), submissao.getOperacoes().toString());
+
+        Liberacao liberacao = assertInstanceOf(Liberacao.class,
+                idaEVolta(new Liberacao(99, operacoes())).getConteudo());
+        assertEquals(99, liberacao.getFicha());
+        assertEquals(operacoes().toString(), liberacao.getOperacoes().toString());
+    }
+
+    @Test
+    void eventoDeTravasEMandato() throws IOException {
+        PedidoAcesso detentor = new PedidoAcesso(1, 2, IntervaloLinhas.DOCUMENTO_INTEIRO, false, 8);
+        PedidoAcesso emEspera = new PedidoAcesso(3, 4, IntervaloLinhas.linha(0), true, 0);
+        EventoTravas evento = assertInstanceOf(EventoTravas.class, idaEVolta(
+                EventoTravas.estado(Collections.singletonList(detentor), Collections.singletonList(emEspera), 6)).getConteudo());
+        assertEquals(EventoTravas.Tipo.ESTADO, evento.getTipo());
+        assertEquals(6, evento.getVersao());
+        assertNull(evento.getPedido());
+        assertPedido(detentor, evento.getDetentores().get(0));
+        assertPedido(emEspera, evento.getFila().get(0));
+
+        Mandato mandato = assertInstanceOf(Mandato.class, idaEVolta(new Mandato(5, 9)).getConteudo());
+        assertEquals(5, mandato.getTermo());
+        assertEquals(9, mandato.getOrigemEstado());
+    }
+
+    @Test
+    void outrosConteudosUsamASerializacaoJava() throws IOException {
+        assertEquals("texto", idaEVolta("texto").getConteudo());
+    }
+
+    @Test
+    void recusaContagensInvalidas() throws IOException {
+        byte[] corpo = codec.codificar(new Mensagem(Mensagem.Tipo.LIBERACAO_SC, 1, 1, operacoes()));
+        // A contagem das operações (um byte, 4) vem logo a seguir ao cabeçalho e à tag do conteúdo.
+        int posicaoContagem = codec.codificar(new Mensagem(Mensagem.Tipo.LIBERACAO_SC, 1, 1, null)).length;
+        assertEquals(4, corpo[posicaoContagem]);
+
+        byte[] enorme = comContagem(corpo, posicaoContagem, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F});
+        assertThrows(IOException.class, () -> codec.decodificar(enorme, 0, enorme.length));
+
+        byte[] negativa = comContagem(corpo, posicaoContagem, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        assertThrows(IOException.class, () -> codec.decodificar(negativa, 0, negativa.length));
+    }
+
+    private static byte[] comContagem(byte[] corpo, int posicao, byte[] contagem) {
+        byte[] resultado = new byte[corpo.length - 1 + contagem.length];
+        System.arraycopy(corpo, 0, resultado, 0, posicao);
+        System.arraycopy(contagem, 0, resultado, posicao, contagem.length);
+        System.arraycopy(corpo, posicao + 1, resultado, posicao + contagem.length, corpo.length - posicao - 1);
+        return resultado;
+    }
+
+    @Test
+    void recusaQuadrosTruncados() throws IOException {
+        byte[] corpo = codec.codificar(new Mensagem(Mensagem.Tipo.LIBERACAO_SC, 1, 1, operacoes()));
+        assertThrows(IOException.class, () -> codec.decodificar(corpo, 0, corpo.length - 1));
+    }
+}
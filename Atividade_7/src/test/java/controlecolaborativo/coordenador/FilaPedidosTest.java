@@ -0,0 +1,132 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.PedidoAcesso;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilaPedidosTest {
+
+    private static List<PedidoAcesso> conteudo(FilaPedidos fila) {
+        List<PedidoAcesso> pedidos = new ArrayList<>();
+        for (PedidoAcesso pedido : fila) {
+            pedidos.add(pedido);
+        }
+        return pedidos;
+    }
+
+    @Test
+    void percorreAFilaPelaOrdemDeLamportEDescartaRepetidos() {
+        FilaPedidos fila = new FilaPedidos();
+        PedidoAcesso a = new PedidoAcesso(2, 5, IntervaloLinhas.linha(0));
+        PedidoAcesso b = new PedidoAcesso(1, 5, IntervaloLinhas.linha(1));
+        PedidoAcesso c = new PedidoAcesso(-3, 1, IntervaloLinhas.linha(2));
+        assertTrue(fila.adicionar(a));
+        assertTrue(fila.adicionar(b));
+        assertTrue(fila.adicionar(c));
+        // O mesmo nó e relógio é o mesmo pedido, ainda que reenviado com outras linhas.
+        assertFalse(fila.adicionar(new PedidoAcesso(2, 5, IntervaloLinhas.linha(9))));
+
+        assertEquals(Arrays.asList(c, b, a), conteudo(fila));
+        assertEquals(3, fila.tamanho());
+        assertSame(c, fila.primeiro());
+    }
+
+    @Test
+    void removerUmNoRetiraTodosOsSeusPedidos() {
+        FilaPedidos fila = new FilaPedidos();
+        PedidoAcesso primeiro = new PedidoAcesso(1, 8, IntervaloLinhas.linha(0));
+        PedidoAcesso segundo = new PedidoAcesso(1, 3, IntervaloLinhas.linha(4));
+        PedidoAcesso outro = new PedidoAcesso(2, 5, IntervaloLinhas.linha(0));
+        fila.adicionar(primeiro);
+        fila.adicionar(segundo);
+        fila.adicionar(outro);
+        assertEquals(Arrays.asList(segundo, primeiro), fila.doNo(1));
+
+        assertEquals(Arrays.asList(segundo, primeiro), fila.removerNo(1));
+        assertEquals(Collections.singletonList(outro), conteudo(fila));
+        assertTrue(fila.doNo(1).isEmpty());
+        assertTrue(fila.removerNo(1).isEmpty());
+
+        assertTrue(fila.remover(outro));
+        assertFalse(fila.remover(outro));
+        assertNull(fila.primeiro());
+        assertEquals(0, fila.tamanho());
+    }
+
+    @Test
+    void proximoEncontraOPrimeiroPedidoQueSobrepoeAsLinhas() {
+        FilaPedidos fila = new FilaPedidos();
+        PedidoAcesso leitura = new PedidoAcesso(1, 1, new IntervaloLinhas(0, 9), true);
+        PedidoAcesso escrita = new PedidoAcesso(2, 2, IntervaloLinhas.linha(5));
+        PedidoAcesso acrescimo = new PedidoAcesso(3, 3, IntervaloLinhas.FIM_DOCUMENTO);
+        fila.adicionar(leitura);
+        fila.adicionar(escrita);
+        fila.adicionar(acrescimo);
+
+        assertSame(leitura, fila.proximo(IntervaloLinhas.linha(5), null, Long.MIN_VALUE));
+        assertSame(escrita, fila.proximo(IntervaloLinhas.linha(5), Boolean.FALSE, Long.MIN_VALUE));
+        assertSame(escrita, fila.proximo(IntervaloLinhas.linha(5), null, FilaPedidos.chave(leitura)));
+        assertNull(fila.proximo(IntervaloLinhas.linha(5), Boolean.TRUE, FilaPedidos.chave(leitura)));
+        assertNull(fila.proximo(new IntervaloLinhas(10, 20), null, Long.MIN_VALUE));
+        assertSame(acrescimo, fila.proximo(IntervaloLinhas.ateOFim(10), null, Long.MIN_VALUE));
+    }
+
+    @Test
+    void operacoesAleatoriasEquivalemAUmConjuntoOrdenado() {
+        Random aleatorio = new Random(11);
+        TreeSet<PedidoAcesso> referencia = new TreeSet<>();
+        FilaPedidos fila = new FilaPedidos();
+        for (int i = 0; i < 20_000; i++) {
+            int operacao = aleatorio.nextInt(10);
+            if (referencia.isEmpty() || operacao < 6) {
+                int inicio = aleatorio.nextInt(200);
+                IntervaloLinhas intervalo = aleatorio.nextInt(10) == 0
+                        ? IntervaloLinhas.ateOFim(inicio) : new IntervaloLinhas(inicio, inicio + aleatorio.nextInt(5));
+                PedidoAcesso pedido = new PedidoAcesso(aleatorio.nextInt(500), aleatorio.nextInt(2000), intervalo, aleatorio.nextBoolean());
+                assertEquals(referencia.add(pedido), fila.adicionar(pedido));
+            } else if (operacao < 8) {
+                PedidoAcesso pedido = referencia.ceiling(new PedidoAcesso(0, aleatorio.nextInt(2000)));
+                if (pedido == null) pedido = referencia.first();
+                referencia.remove(pedido);
+                assertTrue(fila.remover(pedido));
+            } else if (operacao < 9) {
+                int idNo = aleatorio.nextInt(500);
+                List<PedidoAcesso> doNo = new ArrayList<>();
+                for (PedidoAcesso pedido : referencia) {
+                    if (pedido.getIdNo() == idNo) doNo.add(pedido);
+                }
+                referencia.removeAll(doNo);
+                assertEquals(doNo, fila.removerNo(idNo));
+            } else {
+                // O primeiro pedido que sobrepõe as linhas, percorrendo a fila inteira.
+                IntervaloLinhas linhas = IntervaloLinhas.linha(aleatorio.nextInt(210));
+                Boolean compartilhados = aleatorio.nextInt(3) == 0 ? null : aleatorio.nextBoolean();
+                long depoisDe = aleatorio.nextBoolean() ? Long.MIN_VALUE : FilaPedidos.chave(new PedidoAcesso(0, aleatorio.nextInt(2000)));
+                PedidoAcesso esperado = null;
+                for (PedidoAcesso pedido : referencia) {
+                    if (FilaPedidos.chave(pedido) > depoisDe && pedido.getIntervalo().sobrepoe(linhas)
+                            && (compartilhados == null || pedido.isCompartilhado() == compartilhados)) {
+                        esperado = pedido;
+                        break;
+                    }
+                }
+                assertSame(esperado, fila.proximo(linhas, compartilhados, depoisDe));
+            }
+        }
+        assertEquals(new ArrayList<>(referencia), conteudo(fila));
+        assertEquals(referencia.size(), fila.tamanho());
+    }
+}
@@ -0,0 +1,278 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.PedidoAcesso;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GerenciadorTravasTest {
+
+    private static PedidoAcesso escrita(int idNo, int relogio, IntervaloLinhas intervalo) {
+        return new PedidoAcesso(idNo, relogio, intervalo, false);
+    }
+
+    private static PedidoAcesso leitura(int idNo, int relogio, IntervaloLinhas intervalo) {
+        return new PedidoAcesso(idNo, relogio, intervalo, true);
+    }
+
+    private static List<Integer> nos(List<PedidoAcesso> pedidos) {
+        List<Integer> ids = new ArrayList<>();
+        for (PedidoAcesso pedido : pedidos) {
+            ids.add(pedido.getIdNo());
+        }
+        return ids;
+    }
+
+    @Test
+    void escritasDisjuntasSaoConcedidasEmParalelo() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(escrita(1, 1, new IntervaloLinhas(0, 4))));
+        assertTrue(travas.solicitar(escrita(2, 2, new IntervaloLinhas(5, 9))));
+        assertTrue(travas.solicitar(escrita(3, 3, IntervaloLinhas.FIM_DOCUMENTO)));
+        assertEquals(Arrays.asList(1, 2, 3), nos(travas.getDetentores()));
+    }
+
+    @Test
+    void escritasSobrepostasEsperamPelaOrdemDeLamport() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(escrita(1, 1, new IntervaloLinhas(0, 4))));
+        assertFalse(travas.solicitar(escrita(3, 7, IntervaloLinhas.linha(4))));
+        assertFalse(travas.solicitar(escrita(2, 5, new IntervaloLinhas(3, 6))));
+        assertEquals(Arrays.asList(2, 3), nos(travas.getFila()));
+
+        assertEquals(Collections.singletonList(2), nos(travas.liberar(1)));
+        assertEquals(Collections.singletonList(3), nos(travas.liberar(2)));
+        assertEquals(0, travas.getTamanhoFila());
+    }
+
+    @Test
+    void leiturasPartilhamEEscritaEsperaPorTodas() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(leitura(1, 1, IntervaloLinhas.DOCUMENTO_INTEIRO)));
+        assertTrue(travas.solicitar(leitura(2, 2, IntervaloLinhas.linha(3))));
+        assertFalse(travas.solicitar(escrita(3, 3, IntervaloLinhas.linha(3))));
+
+        assertTrue(travas.liberar(1).isEmpty());
+        assertEquals(Collections.singletonList(3), nos(travas.liberar(2)));
+    }
+
+    @Test
+    void umPedidoNaoUltrapassaUmAnteriorComQueConflita() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(leitura(1, 1, IntervaloLinhas.linha(2))));
+        assertFalse(travas.solicitar(escrita(2, 2, IntervaloLinhas.linha(2))));
+        // Compatível com a leitura concedida, mas não com a escrita que espera à sua frente.
+        assertFalse(travas.solicitar(leitura(3, 3, IntervaloLinhas.linha(2))));
+        // Disjunto de tudo: passa à frente.
+        assertTrue(travas.solicitar(escrita(4, 4, IntervaloLinhas.linha(9))));
+
+        assertEquals(Collections.singletonList(2), nos(travas.liberar(1)));
+        assertEquals(Collections.singletonList(3), nos(travas.liberar(2)));
+    }
+
+    @Test
+    void leiturasSeguidasSaoConcedidasJuntas() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(escrita(1, 1, IntervaloLinhas.DOCUMENTO_INTEIRO)));
+        assertFalse(travas.solicitar(leitura(2, 2, IntervaloLinhas.linha(0))));
+        assertFalse(travas.solicitar(leitura(3, 3, IntervaloLinhas.linha(0))));
+        assertFalse(travas.solicitar(escrita(4, 4, IntervaloLinhas.linha(0))));
+        assertFalse(travas.solicitar(leitura(5, 5, IntervaloLinhas.linha(0))));
+
+        assertEquals(Arrays.asList(2, 3), nos(travas.liberar(1)));
+        assertTrue(travas.liberar(2).isEmpty());
+        assertEquals(Collections.singletonList(4), nos(travas.liberar(3)));
+        assertEquals(Collections.singletonList(5), nos(travas.liberar(4)));
+    }
+
+    @Test
+    void comPreferenciaDeEscritoresAsLeiturasEsperamPorEscritasPosteriores() {
+        GerenciadorTravas travas = new GerenciadorTravas(true);
+        assertTrue(travas.solicitar(leitura(1, 1, IntervaloLinhas.linha(0))));
+        assertFalse(travas.solicitar(escrita(3, 3, IntervaloLinhas.linha(0))));
+        // Anterior à escrita, mas ainda assim fica atrás dela.
+        assertFalse(travas.solicitar(leitura(2, 2, IntervaloLinhas.linha(0))));
+        assertTrue(travas.solicitar(leitura(4, 4, IntervaloLinhas.linha(1))));
+
+        assertEquals(Collections.singletonList(3), nos(travas.liberar(1)));
+        assertEquals(Collections.singletonList(2), nos(travas.liberar(3)));
+    }
+
+    @Test
+    void umNoDetemUmaTravaDeCadaVez() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(escrita(1, 1, IntervaloLinhas.linha(0))));
+        assertFalse(travas.solicitar(escrita(1, 2, IntervaloLinhas.linha(5))));
+        assertEquals(1, travas.getPedidosEmEspera(1).size());
+
+        List<PedidoAcesso> concedidos = travas.liberar(1);
+        assertEquals(Collections.singletonList(1), nos(concedidos));
+        assertEquals(IntervaloLinhas.linha(5), travas.getTrava(1).getIntervalo());
+    }
+
+    @Test
+    void cancelarUmDetentorOuUmPedidoBloqueadorConcedeOsSeguintes() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(escrita(1, 1, IntervaloLinhas.linha(0))));
+        assertFalse(travas.solicitar(escrita(2, 2, new IntervaloLinhas(0, 1))));
+        assertFalse(travas.solicitar(escrita(3, 3, IntervaloLinhas.linha(1))));
+
+        // O pedido 2 deixa de bloquear o 3, que não conflita com o detentor.
+        assertEquals(Collections.singletonList(3), nos(travas.cancelar(2)));
+        assertTrue(travas.cancelar(1).isEmpty());
+        assertEquals(0, travas.getTamanhoFila());
+        assertEquals(Collections.singletonList(3), nos(travas.getDetentores()));
+    }
+
+    @Test
+    void escritaSobreODocumentoInteiroBloqueiaTudo() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(escrita(1, 1, IntervaloLinhas.linha(7))));
+        assertFalse(travas.solicitar(escrita(2, 2, IntervaloLinhas.DOCUMENTO_INTEIRO)));
+        assertFalse(travas.solicitar(leitura(3, 3, IntervaloLinhas.FIM_DOCUMENTO)));
+
+        assertEquals(Collections.singletonList(2), nos(travas.liberar(1)));
+        assertEquals(Collections.singletonList(3), nos(travas.liberar(2)));
+    }
+
+    @Test
+    void conflitaComTravasIgnoraAFila() {
+        GerenciadorTravas travas = new GerenciadorTravas();
+        assertTrue(travas.solicitar(leitura(1, 1, IntervaloLinhas.linha(0))));
+        assertFalse(travas.solicitar(escrita(2, 2, IntervaloLinhas.linha(0))));
+        assertTrue(travas.conflitaComTravas(escrita(9, 9, IntervaloLinhas.linha(0))));
+        // A escrita em espera não conta: só as travas concedidas.
+        assertFalse(travas.conflitaComTravas(leitura(9, 9, IntervaloLinhas.linha(0))));
+    }
+
+    @Test
+    void reavaliarSoOsPedidosAfetadosEquivaleAPercorrerAFilaInteira() {
+        for (boolean preferencia : new boolean[] {false, true}) {
+            Random aleatorio = new Random(preferencia ? 3 : 5);
+            GerenciadorTravas travas = new GerenciadorTravas(preferencia);
+            Referencia referencia = new Referencia(preferencia);
+            int relogio = 0;
+            for (int i = 0; i < 20_000; i++) {
+                int operacao = aleatorio.nextInt(10);
+                int idNo = aleatorio.nextInt(40);
+                if (operacao < 5) {
+                    int inicio = aleatorio.nextInt(30);
+                    int tipo = aleatorio.nextInt(20);
+                    IntervaloLinhas intervalo = tipo == 0 ? IntervaloLinhas.DOCUMENTO_INTEIRO
+                            : tipo == 1 ? IntervaloLinhas.FIM_DOCUMENTO
+                            : tipo == 2 ? IntervaloLinhas.ateOFim(inicio)
+                            : new IntervaloLinhas(inicio, inicio + aleatorio.nextInt(4));
+                    PedidoAcesso pedido = new PedidoAcesso(idNo, relogio++, intervalo, aleatorio.nextInt(3) == 0);
+                    assertEquals(referencia.solicitar(pedido), travas.solicitar(pedido));
+                } else if (operacao < 8) {
+                    assertEquals(referencia.liberar(idNo), travas.liberar(idNo));
+                } else if (operacao < 9) {
+                    List<Integer> nos = Arrays.asList(idNo, aleatorio.nextInt(40));
+                    assertEquals(referencia.cancelar(nos), travas.cancelar(nos));
+                } else {
+                    List<PedidoAcesso> emEspera = travas.getPedidosEmEspera(idNo);
+                    if (emEspera.isEmpty()) continue;
+                    PedidoAcesso pedido = emEspera.get(aleatorio.nextInt(emEspera.size()));
+                    assertEquals(referencia.cancelarPedido(pedido), travas.cancelarPedido(pedido));
+                }
+                assertEquals(new ArrayList<>(referencia.fila), travas.getFila());
+                assertEquals(new ArrayList<>(referencia.detentores.values()), travas.getDetentores());
+            }
+        }
+    }
+
+    /**
+     * Modelo de referência: depois de cada liberação ou cancelamento, percorre a fila inteira
+     * pela ordem de prioridade à procura de pedidos compatíveis.
+     */
+    private static final class Referencia {
+        final boolean preferencia;
+        final Map<Integer, PedidoAcesso> detentores = new LinkedHashMap<>();
+        final TreeSet<PedidoAcesso> fila = new TreeSet<>();
+
+        Referencia(boolean preferencia) {
+            this.preferencia = preferencia;
+        }
+
+        boolean solicitar(PedidoAcesso pedido) {
+            PedidoAcesso detido = detentores.get(pedido.getIdNo());
+            if ((detido != null && detido.compareTo(pedido) == 0) || fila.contains(pedido)) return false;
+            if (podeConceder(pedido) && !bloqueado(pedido)) {
+                detentores.put(pedido.getIdNo(), pedido);
+                return true;
+            }
+            fila.add(pedido);
+            return false;
+        }
+
+        List<PedidoAcesso> liberar(int idNo) {
+            return detentores.remove(idNo) == null ? Collections.<PedidoAcesso>emptyList() : conceder();
+        }
+
+        List<PedidoAcesso> cancelar(List<Integer> nos) {
+            boolean removido = false;
+            for (int idNo : nos) {
+                removido |= fila.removeIf(pedido -> pedido.getIdNo() == idNo);
+                removido |= detentores.remove(idNo) != null;
+            }
+            return removido ? conceder() : Collections.<PedidoAcesso>emptyList();
+        }
+
+        List<PedidoAcesso> cancelarPedido(PedidoAcesso pedido) {
+            return fila.remove(pedido) ? conceder() : Collections.<PedidoAcesso>emptyList();
+        }
+
+        private boolean podeConceder(PedidoAcesso pedido) {
+            if (detentores.containsKey(pedido.getIdNo())) return false;
+            for (PedidoAcesso detido : detentores.values()) {
+                if (detido.conflitaCom(pedido)) return false;
+            }
+            return true;
+        }
+
+        private boolean bloqueado(PedidoAcesso pedido) {
+            for (PedidoAcesso espera : fila) {
+                boolean prioritario = preferencia
+                        ? !espera.isCompartilhado() && (pedido.isCompartilhado() || espera.compareTo(pedido) < 0)
+                        : espera.compareTo(pedido) < 0;
+                if (prioritario && espera.conflitaCom(pedido)) return true;
+            }
+            return false;
+        }
+
+        private List<PedidoAcesso> conceder() {
+            List<PedidoAcesso> concedidos = new ArrayList<>();
+            List<PedidoAcesso> ordem = new ArrayList<>();
+            for (PedidoAcesso pedido : fila) {
+                if (!preferencia || !pedido.isCompartilhado()) ordem.add(pedido);
+            }
+            if (preferencia) {
+                for (PedidoAcesso pedido : fila) {
+                    if (pedido.isCompartilhado()) ordem.add(pedido);
+                }
+            }
+            for (PedidoAcesso pedido : ordem) {
+                fila.remove(pedido);
+                if (podeConceder(pedido) && !bloqueado(pedido)) {
+                    detentores.put(pedido.getIdNo(), pedido);
+                    concedidos.add(pedido);
+                } else {
+                    fila.add(pedido);
+                }
+            }
+            return concedidos;
+        }
+    }
+}
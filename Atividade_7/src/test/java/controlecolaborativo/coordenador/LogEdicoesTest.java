@@ -0,0 +1,149 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.DeltaDocumento;
+import controlecolaborativo.comum.Documento;
+import controlecolaborativo.comum.OperacaoEdicao;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogEdicoesTest {
+
+    @TempDir
+    Path diretorio;
+
+    private LogEdicoes log;
+
+    @AfterEach
+    void parar() {
+        if (log != null) log.parar();
+    }
+
+    private LogEdicoes novoLog(Path diretorio) {
+        return new LogEdicoes(1, diretorio.toString(), "s00", true, false, 16, 0);
+    }
+
+    private static DeltaDocumento acrescimo(long versaoBase, String linha) {
+        return new DeltaDocumento(versaoBase, versaoBase + 1, Collections.singletonList(OperacaoEdicao.adicionar(linha)));
+    }
+
+    private static Documento vazio() {
+        return Documento.deLinhas(Collections.<String>emptyList(), 0);
+    }
+
+    private static void gravar(LogEdicoes log, String documento, DeltaDocumento delta) throws Exception {
+        log.registrar(documento, delta).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void reaplicaADeltasPosterioresAoSnapshot() throws Exception {
+        log = novoLog(diretorio);
+        log.iniciar();
+        gravar(log, "a", acrescimo(0, "a1"));
+        gravar(log, "a", acrescimo(1, "a2"));
+        gravar(log, "b", acrescimo(0, "b1"));
+        log.parar();
+
+        // O snapshot de "a" já inclui a primeira edição.
+        Map<String, Documento> documentos = new HashMap<>();
+        documentos.put("a", Documento.deLinhas(Collections.singletonList("a1"), 1));
+        LogEdicoes.Recuperacao recuperacao = novoLog(diretorio).recuperar(id -> documentos.computeIfAbsent(id, x -> vazio()));
+
+        assertTrue(recuperacao.isCompleta());
+        assertTrue(recuperacao.getIncompletos().isEmpty());
+        assertEquals(2, recuperacao.getReaplicados());
+        assertEquals(Arrays.asList("a1", "a2"), documentos.get("a").obterLinhas());
+        assertEquals(2, documentos.get("a").getVersao());
+        assertEquals(Collections.singletonList("b1"), documentos.get("b").obterLinhas());
+    }
+
+    @Test
+    void umaLacunaInterrompeSoODocumentoAfetadoEPreservaOsSegmentos() throws Exception {
+        log = novoLog(diretorio);
+        log.iniciar();
+        gravar(log, "a", acrescimo(0, "a1"));
+        gravar(log, "a", acrescimo(2, "a3")); // Falta a versão 2.
+        gravar(log, "b", acrescimo(0, "b1"));
+        gravar(log, "a", acrescimo(3, "a4"));
+        log.parar();
+
+        Map<String, Documento> documentos = new HashMap<>();
+        LogEdicoes recuperado = novoLog(diretorio);
+        LogEdicoes.Recuperacao recuperacao = recuperado.recuperar(id -> documentos.computeIfAbsent(id, x -> vazio()));
+
+        assertTrue(recuperacao.isCompleta());
+        assertEquals(Collections.singleton("a"), recuperacao.getIncompletos());
+        assertEquals(2, recuperacao.getReaplicados());
+        assertEquals(Collections.singletonList("a1"), documentos.get("a").obterLinhas());
+        assertEquals(Collections.singletonList("b1"), documentos.get("b").obterLinhas());
+
+        // Os segmentos com os registros depois da lacuna não entram em nenhuma compactação.
+        List<Path> existentes = segmentos();
+        assertFalse(existentes.isEmpty());
+        log = recuperado;
+        log.iniciar();
+        gravar(log, "b", acrescimo(1, "b2"));
+        List<Path> cobertos = log.iniciarCompactacao();
+        for (Path segmento : existentes) {
+            assertFalse(cobertos.contains(segmento));
+        }
+        log.concluirCompactacao(cobertos);
+        assertTrue(segmentos().containsAll(existentes));
+    }
+
+    @Test
+    void semFalhasACompactacaoApagaOsSegmentosCobertos() throws Exception {
+        log = novoLog(diretorio);
+        log.iniciar();
+        gravar(log, "a", acrescimo(0, "a1"));
+        List<Path> cobertos = log.iniciarCompactacao();
+        assertEquals(segmentos(), cobertos);
+        // O registro seguinte vai para um segmento novo, que a compactação não apaga.
+        gravar(log, "a", acrescimo(1, "a2"));
+        log.concluirCompactacao(cobertos);
+
+        List<Path> restantes = segmentos();
+        assertEquals(1, restantes.size());
+        assertFalse(cobertos.contains(restantes.get(0)));
+    }
+
+    @Test
+    void falhaAoIniciarFazORegistroFalharDeImediato() throws Exception {
+        Path arquivo = Files.createFile(diretorio.resolve("nao-e-um-diretorio"));
+        log = novoLog(arquivo.resolve("wal"));
+        assertThrows(IOException.class, log::iniciar);
+
+        CompletableFuture<Void> registro = log.registrar("a", acrescimo(0, "a1"));
+        assertTrue(registro.isDone());
+        ExecutionException erro = assertThrows(ExecutionException.class, registro::get);
+        assertInstanceOf(IOException.class, erro.getCause());
+    }
+
+    private List<Path> segmentos() throws IOException {
+        List<Path> segmentos = new ArrayList<>();
+        try (Stream<Path> arquivos = Files.list(diretorio)) {
+            arquivos.filter(p -> p.getFileName().toString().endsWith(".wal")).sorted().forEach(segmentos::add);
+        }
+        return segmentos;
+    }
+}
@@ -0,0 +1,183 @@
+package controlecolaborativo.coordenador;
+
+import controlecolaborativo.comum.DeltaDocumento;
+import controlecolaborativo.comum.IntervaloLinhas;
+import controlecolaborativo.comum.Liberacao;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.comum.MensagemCodificada;
+import controlecolaborativo.comum.OperacaoEdicao;
+import controlecolaborativo.comum.PedidoAcesso;
+import controlecolaborativo.comum.SubmissaoEdicao;
+import controlecolaborativo.rede.TransporteMemoria;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ParticaoDocumentosTest {
+
+    private static final String DOCUMENTO = "notas";
+
+    @TempDir
+    Path diretorio;
+
+    private LogControlado log;
+    private ServicoCoordenador servico;
+
+    /**
+     * Log de edições cujas gravações só terminam quando o teste completa as promessas.
+     */
+    private static final class LogControlado extends LogEdicoes {
+        final BlockingQueue<CompletableFuture<Void>> gravacoes = new LinkedBlockingQueue<>();
+
+        LogControlado(String particao) {
+            super(1, "wal", particao, false, false, 1, 0);
+        }
+
+        @Override
+        public CompletableFuture<Void> registrar(String documento, DeltaDocumento delta) {
+            CompletableFuture<Void> gravacao = new CompletableFuture<>();
+            gravacoes.add(gravacao);
+            return gravacao;
+        }
+    }
+
+    private static final class ConexaoFalsa implements ConexaoNo {
+        final BlockingQueue<Mensagem> recebidas = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean enviar(MensagemCodificada msg) {
+            recebidas.add(msg.getMensagem());
+            return true;
+        }
+
+        @Override
+        public void fechar() {
+        }
+
+        /**
+         * @return A próxima mensagem do tipo recebida em até {@code esperaMs}, ou {@code null}.
+         */
+        Mensagem proxima(Mensagem.Tipo tipo, long esperaMs) throws InterruptedException {
+            long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+            for (long resta = esperaMs; resta > 0; resta = TimeUnit.NANOSECONDS.toMillis(limite - System.nanoTime())) {
+                Mensagem msg = recebidas.poll(resta, TimeUnit.MILLISECONDS);
+                if (msg != null && msg.getTipo() == tipo) return msg;
+            }
+            return null;
+        }
+
+        PedidoAcesso permissao(long esperaMs) throws InterruptedException {
+            Mensagem msg = proxima(Mensagem.Tipo.PERMISSAO_SC, esperaMs);
+            return msg != null ? (PedidoAcesso) msg.getConteudo() : null;
+        }
+    }
+
+    @BeforeEach
+    void iniciar() {
+        System.setProperty("cc.checkpoint.diretorio", diretorio.toString());
+        System.setProperty("cc.coordenador.particoes", "1");
+        servico = new ServicoCoordenador(1, 0, 1, null, new TransporteMemoria(), particao -> log = new LogControlado(particao));
+    }
+
+    @AfterEach
+    void parar() {
+        servico.parar();
+        System.clearProperty("cc.checkpoint.diretorio");
+        System.clearProperty("cc.coordenador.particoes");
+    }
+
+    private void pedir(int idNo, int relogio) {
+        servico.processarMensagem(idNo, new Mensagem(Mensagem.Tipo.REQUISICAO_SC, idNo, relogio, IntervaloLinhas.DOCUMENTO_INTEIRO, DOCUMENTO));
+    }
+
+    private void liberar(int idNo, long ficha, List<OperacaoEdicao> operacoes) {
+        servico.processarMensagem(idNo, new Mensagem(Mensagem.Tipo.LIBERACAO_SC, idNo, 0, new Liberacao(ficha, operacoes), DOCUMENTO));
+    }
+
+    @Test
+    void aGravacaoAtrasadaSoDevolveATravaLiberadaMesmoComONoReconectado() throws Exception {
+        ConexaoFalsa p2 = new ConexaoFalsa();
+        ConexaoFalsa p3 = new ConexaoFalsa();
+        servico.registrarNo(2, p2);
+        servico.registrarNo(3, p3);
+        pedir(2, 1);
+        long primeira = p2.permissao(5000).getFicha();
+        pedir(3, 2);
+
+        liberar(2, primeira, Collections.singletonList(OperacaoEdicao.adicionar("linha de P2")));
+        CompletableFuture<Void> gravacao = log.gravacoes.poll(5, TimeUnit.SECONDS);
+        assertNotNull(gravacao);
+
+        // P2 cai com a gravação por terminar, reconecta e volta a pedir as mesmas linhas.
+        servico.removerNo(2, p2);
+        ConexaoFalsa p2Reconectado = new ConexaoFalsa();
+        servico.registrarNo(2, p2Reconectado);
+        pedir(2, 3);
+        liberar(2, primeira, Collections.<OperacaoEdicao>emptyList()); // Repetida: ainda aguarda o WAL.
+        assertNull(p3.permissao(300), "a trava liberada só é devolvida depois de gravada");
+
+        gravacao.complete(null);
+        PedidoAcesso deP3 = p3.permissao(5000);
+        assertNotNull(deP3);
+        assertNull(p2Reconectado.permissao(300), "P3 pediu antes da reconexão de P2");
+
+        liberar(3, deP3.getFicha(), Collections.<OperacaoEdicao>emptyList());
+        PedidoAcesso nova = p2Reconectado.permissao(5000);
+        assertNotNull(nova);
+        assertNotEquals(primeira, nova.getFicha());
+
+        // A ficha da concessão antiga já não libera a nova.
+        pedir(3, 10);
+        liberar(2, primeira, Collections.<OperacaoEdicao>emptyList());
+        assertNull(p3.permissao(300));
+        liberar(2, nova.getFicha(), Collections.<OperacaoEdicao>emptyList());
+        assertNotNull(p3.permissao(5000));
+    }
+
+    @Test
+    void umaRenovacaoSemFichaRetiraATravaEPassaAoProximo() throws Exception {
+        ConexaoFalsa p2 = new ConexaoFalsa();
+        ConexaoFalsa p3 = new ConexaoFalsa();
+        servico.registrarNo(2, p2);
+        servico.registrarNo(3, p3);
+        pedir(2, 1);
+        PedidoAcesso concedida = p2.permissao(5000);
+        pedir(3, 2);
+
+        servico.processarMensagem(2, new Mensagem(Mensagem.Tipo.RENOVAR_TRAVA, 2, 3, "ficha", DOCUMENTO));
+        Mensagem aviso = p2.proxima(Mensagem.Tipo.TRAVA_EXPIRADA, 5000);
+        assertNotNull(aviso);
+        assertEquals(concedida.getFicha(), ((PedidoAcesso) aviso.getConteudo()).getFicha());
+        assertNotNull(p3.permissao(5000));
+    }
+
+    @Test
+    void umaSubmissaoSemIntervaloERejeitadaEmVezDeDescartada() throws Exception {
+        ConexaoFalsa p2 = new ConexaoFalsa();
+        servico.registrarNo(2, p2);
+        SubmissaoEdicao semIntervalo = new SubmissaoEdicao(7, 0, null, Collections.singletonList(OperacaoEdicao.adicionar("x")));
+        servico.processarMensagem(2, new Mensagem(Mensagem.Tipo.SUBMISSAO_EDICAO, 2, 1, semIntervalo, DOCUMENTO));
+        Mensagem resposta = p2.proxima(Mensagem.Tipo.EDICAO_REJEITADA, 5000);
+        assertNotNull(resposta);
+        assertEquals(7, ((SubmissaoEdicao) resposta.getConteudo()).getIdPedido());
+
+        // Um conteúdo de outro tipo não desfaz a partição: o pedido seguinte é atendido.
+        servico.processarMensagem(2, new Mensagem(Mensagem.Tipo.SUBMISSAO_EDICAO, 2, 2, "edição", DOCUMENTO));
+        pedir(2, 3);
+        assertNotNull(p2.permissao(5000));
+    }
+}
@@ -0,0 +1,290 @@
+package controlecolaborativo.no;
+
+import controlecolaborativo.comum.Agendador;
+import controlecolaborativo.comum.Mandato;
+import controlecolaborativo.comum.Mensagem;
+import controlecolaborativo.rede.Canal;
+import controlecolaborativo.rede.RedeSimulada;
+import controlecolaborativo.rede.RelogioVirtual;
+import controlecolaborativo.rede.Transporte;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Queda do líder numa {@link RedeSimulada} com um {@link RelogioVirtual}: a eleição, o detector
+ * phi-accrual, os heartbeats e a rede correm todos na thread do teste, por isso a mesma semente
+ * produz sempre os mesmos eventos.
+ */
+class EleicaoDeterministicaTest {
+
+    private static final int NOS = 5;
+    private static final int PORTA = 7000;
+    private static final int HEARTBEAT_MS = 100;
+    private static final double LIMIAR_PHI = 8;
+    private static final long PASSO_MS = 5;
+    private static final long QUEDA_MS = 2000;
+    private static final long DURACAO_MS = 8000;
+
+    /**
+     * Um nó reduzido à eleição: heartbeats do líder, respostas dos seguidores e o detector.
+     * Lê as suas conexões sem threads, depois de cada avanço do relógio.
+     */
+    private static final class NoSimulado implements EleicaoLider.Participante {
+        final int id;
+        final Simulacao simulacao;
+        final Map<Integer, Canal> canais = new TreeMap<>();
+        final Map<Integer, Long> ultimoContato = new HashMap<>();
+        final Agendador temporizador;
+        final EleicaoLider eleicao;
+        DetectorPhiAccrual detector;
+        int lider;
+        long termoLider = 1;
+        boolean liderando;
+        boolean suspeito;
+        boolean ativo = true;
+
+        NoSimulado(int id, Set<Integer> todos, Simulacao simulacao) {
+            this.id = id;
+            this.simulacao = simulacao;
+            this.temporizador = simulacao.relogio.agendador("no-P" + id);
+            this.eleicao = new EleicaoLider(id, todos, 300, 1000, 1000, this, simulacao.relogio,
+                    new Random(simulacao.semente * 31L + id));
+        }
+
+        void iniciar(int liderInicial) {
+            lider = liderInicial;
+            eleicao.definirLiderInicial(liderInicial);
+            if (liderInicial == id) {
+                assumir(1);
+            } else {
+                detector = novoDetector();
+            }
+            temporizador.agendarPeriodica(this::difundirHeartbeat, HEARTBEAT_MS);
+            temporizador.agendarPeriodica(this::verificarLider, HEARTBEAT_MS / 2);
+        }
+
+        void falhar() {
+            ativo = false;
+            liderando = false;
+            eleicao.parar();
+            temporizador.parar();
+            for (Canal canal : canais.values()) {
+                try {
+                    canal.close();
+                } catch (IOException e) {
+                    // Já encerrada.
+                }
+            }
+            simulacao.registrar("P" + id + " falhou");
+        }
+
+        private DetectorPhiAccrual novoDetector() {
+            return new DetectorPhiAccrual(simulacao.relogio, HEARTBEAT_MS, HEARTBEAT_MS / 5, 0);
+        }
+
+        private void difundirHeartbeat() {
+            if (!liderando) return;
+            Mensagem heartbeat = new Mensagem(Mensagem.Tipo.HEARTBEAT, id, 0, termoLider);
+            for (int par : canais.keySet()) {
+                enviar(par, heartbeat);
+            }
+        }
+
+        private void verificarLider() {
+            if (!liderando && !suspeito && detector != null && detector.phi() > LIMIAR_PHI) {
+                suspeito = true;
+                simulacao.registrar("P" + id + " suspeita de P" + lider);
+                eleicao.suspeitarLider();
+            }
+        }
+
+        /**
+         * Lê, pela ordem dos pares, as mensagens já entregues.
+         */
+        void lerEntregues() {
+            for (Map.Entry<Integer, Canal> e : canais.entrySet()) {
+                Mensagem msg;
+                try {
+                    while (ativo && (msg = simulacao.rede.receberEntregue(e.getValue())) != null) {
+                        simulacao.registrar("P" + id + " <- P" + e.getKey() + " " + msg.getTipo() + " " + msg.getConteudo());
+                        tratar(msg);
+                    }
+                } catch (IOException fim) {
+                    // Conexão encerrada pelo par: o detector dá pela falta dele.
+                }
+            }
+        }
+
+        private void tratar(Mensagem msg) {
+            if (eleicao.tratar(msg)) return;
+            int remetente = msg.getIdRemetente();
+            if (liderando) {
+                ultimoContato.put(remetente, simulacao.relogio.agoraNs());
+            } else if (remetente == lider) {
+                detector.registrarHeartbeat();
+                enviar(remetente, new Mensagem(Mensagem.Tipo.HEARTBEAT, id, 0, null));
+            }
+        }
+
+        @Override
+        public boolean confiaNoLider() {
+            return lider != 0 && !suspeito;
+        }
+
+        @Override
+        public boolean isLider() {
+            return liderando;
+        }
+
+        @Override
+        public int paresEmContato(long janelaMs) {
+            long limite = simulacao.relogio.agoraNs() - janelaMs * 1_000_000;
+            int emContato = 0;
+            for (long contato : ultimoContato.values()) {
+                if (contato - limite > 0) emContato++;
+            }
+            return emContato;
+        }
+
+        @Override
+        public void renunciar() {
+            liderando = false;
+            lider = 0;
+            simulacao.registrar("P" + id + " renunciou");
+        }
+
+        @Override
+        public boolean isReservaSincronizada() {
+            return false;
+        }
+
+        @Override
+        public void assumir(long termo) {
+            lider = id;
+            termoLider = termo;
+            liderando = true;
+            suspeito = false;
+            ultimoContato.clear();
+            simulacao.registrar("P" + id + " assumiu o termo " + termo);
+        }
+
+        @Override
+        public void seguir(int idLider, Mandato mandato) {
+            lider = idLider;
+            termoLider = mandato.getTermo();
+            liderando = false;
+            suspeito = false;
+            detector = novoDetector();
+            simulacao.registrar("P" + id + " segue P" + idLider + " no termo " + mandato.getTermo());
+        }
+
+        @Override
+        public Mensagem anuncioVitoria() {
+            return new Mensagem(Mensagem.Tipo.VICTORY, id, 0, new Mandato(termoLider, 0));
+        }
+
+        @Override
+        public void enviar(int idPar, Mensagem msg) {
+            if (!ativo) return;
+            try {
+                canais.get(idPar).enviar(msg);
+            } catch (IOException e) {
+                // O par caiu: a mensagem perde-se.
+            }
+        }
+    }
+
+    private static final class Simulacao {
+        final long semente;
+        final RelogioVirtual relogio = new RelogioVirtual();
+        final RedeSimulada rede;
+        final Map<Integer, NoSimulado> nos = new TreeMap<>();
+        final List<String> eventos = new ArrayList<>();
+
+        Simulacao(long semente) {
+            this.semente = semente;
+            this.rede = new RedeSimulada(semente, relogio);
+            rede.definirLatencia(5, 10);
+            rede.definirPerda(0.02);
+        }
+
+        void registrar(String evento) {
+            eventos.add(relogio.agoraMs() + " ms: " + evento);
+        }
+
+        /**
+         * Cria os nós, liga-os todos entre si e faz cair o líder inicial a meio da execução.
+         * @return O traço dos eventos.
+         */
+        List<String> executar() throws IOException {
+            Set<Integer> todos = new LinkedHashSet<>();
+            for (int id = 1; id <= NOS; id++) {
+                todos.add(id);
+            }
+            Map<Integer, Transporte.Servidor> servidores = new HashMap<>();
+            for (int id : todos) {
+                nos.put(id, new NoSimulado(id, todos, this));
+                servidores.put(id, rede.paraNo(id).escutar(PORTA, NOS));
+            }
+            for (int a : todos) {
+                for (int b : todos) {
+                    if (a >= b) continue;
+                    nos.get(a).canais.put(b, rede.paraNo(a).conectar(b, PORTA, null));
+                    nos.get(b).canais.put(a, servidores.get(b).aceitar().abrir(null));
+                }
+            }
+            for (NoSimulado no : nos.values()) {
+                no.iniciar(NOS);
+            }
+            for (long t = 0; t < DURACAO_MS; t += PASSO_MS) {
+                if (t == QUEDA_MS) nos.get(NOS).falhar();
+                relogio.avancar(PASSO_MS);
+                for (int id : todos) {
+                    nos.get(id).lerEntregues();
+                }
+            }
+            return eventos;
+        }
+    }
+
+    @Test
+    void aMesmaSementeRepeteAQuedaDoLiderEAEleicao() throws IOException {
+        Simulacao simulacao = new Simulacao(42);
+        List<String> primeira = simulacao.executar();
+        List<String> segunda = new Simulacao(42).executar();
+        assertEquals(primeira, segunda);
+        assertTrue(primeira.contains(QUEDA_MS + " ms: P" + NOS + " falhou"));
+
+        // Os sobreviventes elegeram outro líder e seguem-no todos.
+        NoSimulado novoLider = null;
+        for (NoSimulado no : simulacao.nos.values()) {
+            if (no.ativo && no.liderando) novoLider = no;
+        }
+        assertTrue(novoLider != null, "nenhum nó assumiu a liderança");
+        assertNotEquals(NOS, novoLider.id);
+        assertTrue(novoLider.termoLider > 1);
+        for (NoSimulado no : simulacao.nos.values()) {
+            if (!no.ativo) continue;
+            assertEquals(novoLider.id, no.lider, "P" + no.id);
+            assertEquals(novoLider.termoLider, no.termoLider, "P" + no.id);
+        }
+    }
+
+    @Test
+    void outraSementeMudaOTraco() throws IOException {
+        assertNotEquals(new Simulacao(42).executar(), new Simulacao(7).executar());
+    }
+}